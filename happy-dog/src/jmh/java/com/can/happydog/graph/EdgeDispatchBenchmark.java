@@ -0,0 +1,102 @@
+package com.can.happydog.graph;
+
+import com.can.happydog.service.RequestPreprocessor.ProcessingRoute;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 状态转换开销基准：8段路由分支串成一条链，每段按路由走到下一段或先经过一个旁路节点，
+ * 路由为STANDARD_CHAT时每段要逐条检查3条出边。节点本身不做任何事，测得的是引擎的转换开销。
+ * ROUTE_TABLE用addRouteEdge声明（编译为按枚举序号查表），
+ * TYPED_PREDICATE和STRING_PREDICATE用addConditionalEdge逐条求值条件，
+ * 后者按原先工作流的方式每次用字符串键重新读取路由。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EdgeDispatchBenchmark {
+
+    private static final StateKey<ProcessingRoute> ROUTE = StateKey.of("benchmarkRoute", ProcessingRoute.class);
+    private static final int STAGES = 8;
+
+    public enum EdgeKind { ROUTE_TABLE, TYPED_PREDICATE, STRING_PREDICATE }
+
+    @Param({"ROUTE_TABLE", "TYPED_PREDICATE", "STRING_PREDICATE"})
+    public EdgeKind edges;
+
+    private CompiledGraph<BenchmarkState> graph;
+
+    @Setup
+    public void setup() {
+        StateGraph<BenchmarkState> stateGraph = new StateGraph<>(Runnable::run);
+        for (int i = 0; i <= STAGES; i++) {
+            stateGraph.addNode("stage" + i, state -> state);
+            if (i < STAGES) {
+                stateGraph.addNode("detour" + i, state -> state);
+            }
+        }
+        for (int i = 0; i < STAGES; i++) {
+            String from = "stage" + i;
+            String detour = "detour" + i;
+            String next = "stage" + (i + 1);
+            switch (edges) {
+                case ROUTE_TABLE:
+                    stateGraph.addRouteEdge(from, detour, ROUTE, ProcessingRoute.DEEP_THINKING_WITH_TOOLS)
+                              .addRouteEdge(from, detour, ROUTE, ProcessingRoute.DEEP_THINKING_SIMPLE)
+                              .addRouteEdge(from, next, ROUTE, ProcessingRoute.SIMPLE_CHAT, ProcessingRoute.STANDARD_CHAT);
+                    break;
+                case TYPED_PREDICATE:
+                    stateGraph.addConditionalEdge(from, detour, state -> state.get(ROUTE) == ProcessingRoute.DEEP_THINKING_WITH_TOOLS)
+                              .addConditionalEdge(from, detour, state -> state.get(ROUTE) == ProcessingRoute.DEEP_THINKING_SIMPLE)
+                              .addConditionalEdge(from, next, state -> {
+                                  ProcessingRoute route = state.get(ROUTE);
+                                  return route == ProcessingRoute.SIMPLE_CHAT || route == ProcessingRoute.STANDARD_CHAT;
+                              });
+                    break;
+                default:
+                    stateGraph.addConditionalEdge(from, detour,
+                                  state -> state.get(ROUTE.getName(), ProcessingRoute.class) == ProcessingRoute.DEEP_THINKING_WITH_TOOLS)
+                              .addConditionalEdge(from, detour,
+                                  state -> state.get(ROUTE.getName(), ProcessingRoute.class) == ProcessingRoute.DEEP_THINKING_SIMPLE)
+                              .addConditionalEdge(from, next, state -> {
+                                  ProcessingRoute route = state.get(ROUTE.getName(), ProcessingRoute.class);
+                                  return route == ProcessingRoute.SIMPLE_CHAT || route == ProcessingRoute.STANDARD_CHAT;
+                              });
+                    break;
+            }
+            stateGraph.addEdge(detour, next);
+        }
+        stateGraph.setEntryPoint("stage0").setFinishPoint("stage" + STAGES);
+        graph = stateGraph.compile();
+    }
+
+    @Benchmark
+    public BenchmarkState transitions() {
+        BenchmarkState state = new BenchmarkState();
+        state.set(ROUTE, ProcessingRoute.STANDARD_CHAT);
+        return graph.invoke(state).join();
+    }
+
+    public static class BenchmarkState extends GraphState {
+        @Override
+        public GraphState copy() {
+            BenchmarkState copy = new BenchmarkState();
+            copyInto(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.can.happydog.graph;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 图状态读写基准：模拟一次工作流执行对状态的访问，
+ * 写入8个键、每个键读取5次、为并行分支复制2份并在副本上各写一次，最后合并回来。
+ * 对比类型化键的槽位访问、字符串键兼容层，以及原先基于HashMap<String, Object>的实现。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphStateBenchmark {
+
+    private static final String[] NAMES = {
+        "request", "sessionId", "processedRequest", "route",
+        "cacheHit", "thinkingResult", "memoryContext", "generatedResponse"
+    };
+    private static final int READS_PER_KEY = 5;
+
+    @SuppressWarnings("unchecked")
+    private static final StateKey<Object>[] KEYS = new StateKey[NAMES.length];
+
+    static {
+        for (int i = 0; i < NAMES.length; i++) {
+            // 字符串键的兼容层按名称查找，因此用Object类型声明同名的基准专用键
+            KEYS[i] = StateKey.of("bench." + NAMES[i], Object.class);
+        }
+    }
+
+    private final Object value = new Object();
+
+    @Benchmark
+    public void typedSlots(Blackhole blackhole) {
+        BenchmarkState state = new BenchmarkState();
+        state.reserveSlots(StateKey.slotCount());
+        for (StateKey<Object> key : KEYS) {
+            state.set(key, value);
+        }
+        for (int r = 0; r < READS_PER_KEY; r++) {
+            for (StateKey<Object> key : KEYS) {
+                blackhole.consume(state.get(key));
+            }
+        }
+        GraphState left = state.copy();
+        GraphState right = state.copy();
+        left.set(KEYS[6], value);
+        right.set(KEYS[5], value);
+        state.merge(left);
+        state.merge(right);
+        blackhole.consume(state);
+    }
+
+    @Benchmark
+    public void stringKeys(Blackhole blackhole) {
+        BenchmarkState state = new BenchmarkState();
+        state.reserveSlots(StateKey.slotCount());
+        for (StateKey<Object> key : KEYS) {
+            state.set(key.getName(), value);
+        }
+        for (int r = 0; r < READS_PER_KEY; r++) {
+            for (StateKey<Object> key : KEYS) {
+                blackhole.consume(state.get(key.getName(), Object.class));
+            }
+        }
+        GraphState left = state.copy();
+        GraphState right = state.copy();
+        left.set(KEYS[6].getName(), value);
+        right.set(KEYS[5].getName(), value);
+        state.merge(left);
+        state.merge(right);
+        blackhole.consume(state);
+    }
+
+    @Benchmark
+    public void hashMap(Blackhole blackhole) {
+        MapState state = new MapState();
+        for (StateKey<Object> key : KEYS) {
+            state.set(key.getName(), value);
+        }
+        for (int r = 0; r < READS_PER_KEY; r++) {
+            for (StateKey<Object> key : KEYS) {
+                blackhole.consume(state.get(key.getName(), Object.class));
+            }
+        }
+        MapState left = state.copy();
+        MapState right = state.copy();
+        left.set(KEYS[6].getName(), value);
+        right.set(KEYS[5].getName(), value);
+        state.merge(left);
+        state.merge(right);
+        blackhole.consume(state);
+    }
+
+    public static class BenchmarkState extends GraphState {
+        @Override
+        public GraphState copy() {
+            BenchmarkState copy = new BenchmarkState();
+            copyInto(copy);
+            return copy;
+        }
+    }
+
+    /**
+     * 改为槽位数组之前的GraphState：HashMap存值，读取时做类型检查和转换，复制时整表拷贝
+     */
+    private static final class MapState {
+        private final Map<String, Object> data = new HashMap<>();
+
+        <T> T get(String key, Class<T> type) {
+            Object value = data.get(key);
+            if (value == null) {
+                return null;
+            }
+            if (type.isInstance(value)) {
+                return type.cast(value);
+            }
+            throw new ClassCastException("Cannot cast " + value.getClass() + " to " + type);
+        }
+
+        void set(String key, Object value) {
+            data.put(key, value);
+        }
+
+        MapState copy() {
+            MapState copy = new MapState();
+            copy.data.putAll(data);
+            return copy;
+        }
+
+        void merge(MapState other) {
+            data.putAll(other.data);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.can.happydog.graph;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 状态图单次执行的引擎开销：与AgentChatWorkflow相同的9个节点串成一条链，节点本身只写一个状态值。
+ * INLINE为节点在调用线程上循环执行；ASYNC为每个节点都派发到执行器，
+ * 等同于原先每个节点supplyAsync + thenCompose的执行方式。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StateGraphExecutionBenchmark {
+
+    private static final StateKey<Integer> STEP = StateKey.of("benchmarkStep", Integer.class);
+    private static final int NODES = 9;
+
+    @Param({"INLINE", "ASYNC"})
+    public StateNode.ExecutionMode mode;
+
+    private ExecutorService executor;
+    private CompiledGraph<BenchmarkState> graph;
+
+    @Setup
+    public void setup() {
+        // 与原先图默认创建的执行器相同
+        executor = Executors.newCachedThreadPool();
+        StateGraph<BenchmarkState> stateGraph = new StateGraph<>(executor);
+        for (int i = 0; i < NODES; i++) {
+            int step = i;
+            stateGraph.addNode("node" + i, state -> {
+                state.set(STEP, step);
+                return state;
+            }, mode);
+            if (i > 0) {
+                stateGraph.addEdge("node" + (i - 1), "node" + i);
+            }
+        }
+        stateGraph.setEntryPoint("node0").setFinishPoint("node" + (NODES - 1));
+        graph = stateGraph.compile();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public BenchmarkState invoke() {
+        return graph.invoke(new BenchmarkState()).join();
+    }
+
+    public static class BenchmarkState extends GraphState {
+        @Override
+        public GraphState copy() {
+            BenchmarkState copy = new BenchmarkState();
+            copyInto(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.SemanticCacheProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 语义缓存查找延迟基准：缓存中预先放入entries个问题，分别测量
+ * 完全相同的问题、末尾加了语气词和标点的近似问题、以及未缓存问题的单次查找耗时。
+ * 问题由固定种子从常用汉字中随机生成，长度12~40字。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SemanticCacheBenchmark {
+
+    private static final String PARTITION = "qwen-max/DEEP_THINKING";
+    private static final int QUERIES = 1024;
+
+    @Param({"1000", "100000"})
+    public int entries;
+
+    private SemanticCache<String> cache;
+    private String[] exactQueries;
+    private String[] similarQueries;
+    private String[] missQueries;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        cache = new SemanticCache<>(new SemanticCacheProperties(), entries);
+        String[] stored = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            stored[i] = randomQuestion(random);
+            cache.put(PARTITION, stored[i], "回答" + i, Long.MAX_VALUE);
+        }
+        exactQueries = new String[QUERIES];
+        similarQueries = new String[QUERIES];
+        missQueries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String question = stored[random.nextInt(entries)];
+            exactQueries[i] = question;
+            similarQueries[i] = question + "呢？";
+            missQueries[i] = randomQuestion(random);
+        }
+    }
+
+    @Benchmark
+    public SemanticCache.Match<String> exactHit() {
+        return cache.lookup(PARTITION, exactQueries[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public SemanticCache.Match<String> similarHit() {
+        return cache.lookup(PARTITION, similarQueries[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public SemanticCache.Match<String> miss() {
+        return cache.lookup(PARTITION, missQueries[next++ & (QUERIES - 1)]);
+    }
+
+    private static String randomQuestion(Random random) {
+        int length = 12 + random.nextInt(29);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            // CJK统一汉字区开头的3000个字，覆盖大部分常用字
+            sb.append((char) (0x4E00 + random.nextInt(3000)));
+        }
+        return sb.toString();
+    }
+}
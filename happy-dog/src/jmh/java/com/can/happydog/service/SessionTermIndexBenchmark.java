@@ -0,0 +1,122 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.TokenizerProperties;
+import com.can.happydog.dto.ChatMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上下文相关性计算基准：会话保留history条消息，每次请求先追加一条新消息（最旧的一条被覆盖），
+ * 再计算新问题与全部历史的Jaccard相似度。
+ * termIndex使用SessionTermIndex增量维护倒排索引；
+ * bruteForce按原先的方式每次请求重新切分每条历史消息，逐条构建集合求交集和并集。
+ * 两者使用同一个TextTokenizer，结果相同，差别只在计算方式。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionTermIndexBenchmark {
+
+    private static final String[] WORDS = {
+        "线程池", "虚拟线程", "数据库", "索引", "缓存", "连接池", "超时", "重试", "消息队列", "事务",
+        "分布式锁", "微服务", "网关", "限流", "熔断", "日志", "监控", "部署", "容器", "内存泄漏",
+        "垃圾回收", "序列化", "接口", "配置", "性能", "延迟", "吞吐量", "并发", "死锁", "慢查询",
+        "怎么", "为什么", "如何", "优化", "排查", "设计", "实现", "原理", "区别", "问题"
+    };
+    private static final int QUERIES = 256;
+
+    @Param({"50", "500", "5000"})
+    public int history;
+
+    private TextTokenizer tokenizer;
+    private SessionTermIndex index;
+    private ArrayDeque<ChatMessage> ring;
+    private String[] texts;
+    private int next;
+
+    @Setup
+    public void setup() {
+        tokenizer = new TextTokenizer(new TokenizerProperties());
+        index = new SessionTermIndex(tokenizer::terms);
+        Random random = new Random(42);
+        texts = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            texts[i] = randomSentence(random);
+        }
+        ring = new ArrayDeque<>(history + 1);
+        for (int i = 0; i < history; i++) {
+            ring.addLast(message(randomSentence(random)));
+        }
+        // 索引随会话增长逐步建立，测量的是稳态下每次请求的开销
+        index.score(new ArrayList<>(ring), texts[0]);
+    }
+
+    @Benchmark
+    public double[] termIndex() {
+        String query = nextTurn();
+        return index.score(new ArrayList<>(ring), query);
+    }
+
+    @Benchmark
+    public double[] bruteForce() {
+        String query = nextTurn();
+        List<ChatMessage> messages = new ArrayList<>(ring);
+        double[] scores = new double[messages.size()];
+        Set<String> queryTerms = tokenizer.terms(query);
+        for (int i = 0; i < messages.size(); i++) {
+            Set<String> messageTerms = tokenizer.terms(messages.get(i).getContent());
+            Set<String> intersection = new HashSet<>(queryTerms);
+            intersection.retainAll(messageTerms);
+            Set<String> union = new HashSet<>(queryTerms);
+            union.addAll(messageTerms);
+            scores[i] = union.isEmpty() ? 0.0 : (double) intersection.size() / union.size();
+        }
+        return scores;
+    }
+
+    /**
+     * 追加上一轮的消息并覆盖最旧的一条，返回本轮的问题
+     */
+    private String nextTurn() {
+        String text = texts[next++ & (QUERIES - 1)];
+        ring.pollFirst();
+        ring.addLast(message(text));
+        return texts[next & (QUERIES - 1)];
+    }
+
+    private static ChatMessage message(String text) {
+        return ChatMessage.userMessage(text, "benchmark", "user");
+    }
+
+    private static String randomSentence(Random random) {
+        int words = 4 + random.nextInt(8);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            if (random.nextInt(4) == 0) {
+                sb.append('，');
+            }
+        }
+        return sb.append('？').toString();
+    }
+}
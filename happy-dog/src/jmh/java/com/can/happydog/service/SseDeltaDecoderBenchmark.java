@@ -0,0 +1,97 @@
+package com.can.happydog.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式补全解码基准：SseDeltaDecoder 对比原先逐行读取 + readValue(data, Map.class) 的解析方式
+ * 输入是一段完整的模拟响应（chunks个增量事件、一个usage事件和[DONE]），每次调用解码整段响应。
+ * 加 -prof gc 可同时看到每次解码的分配字节数。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SseDeltaDecoderBenchmark {
+
+    @Param({"50", "500"})
+    public int chunks;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] response;
+
+    @Setup
+    public void setup() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < chunks; i++) {
+            body.append("data: {\"id\":\"chatcmpl-3f1c\",\"object\":\"chat.completion.chunk\",\"created\":1717000000,")
+                .append("\"model\":\"qwen-max\",\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"")
+                .append("第").append(i).append("段回答内容")
+                .append("\"},\"finish_reason\":null,\"logprobs\":null}],\"system_fingerprint\":null}\n\n");
+        }
+        body.append("data: {\"id\":\"chatcmpl-3f1c\",\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}],")
+            .append("\"usage\":{\"prompt_tokens\":120,\"completion_tokens\":").append(chunks)
+            .append(",\"total_tokens\":").append(120 + chunks).append("}}\n\n");
+        body.append("data: [DONE]\n\n");
+        response = body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void deltaDecoder(Blackhole blackhole) throws Exception {
+        SseDeltaDecoder decoder = new SseDeltaDecoder(objectMapper.getFactory());
+        decoder.decode(new ByteArrayInputStream(response), delta -> {
+            blackhole.consume(delta.getContent());
+            blackhole.consume(delta.getFinishReason());
+            return true;
+        });
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void mapParse(Blackhole blackhole) throws Exception {
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(new ByteArrayInputStream(response), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("data: ")) {
+                    continue;
+                }
+                String data = line.substring(6).trim();
+                if (data.equals("[DONE]")) {
+                    break;
+                }
+                Map<String, Object> chunk = objectMapper.readValue(data, Map.class);
+                List<Map<String, Object>> choices = (List<Map<String, Object>>) chunk.get("choices");
+                if (choices != null && !choices.isEmpty()) {
+                    Map<String, Object> choice = choices.get(0);
+                    Map<String, Object> delta = (Map<String, Object>) choice.get("delta");
+                    if (delta != null) {
+                        blackhole.consume(delta.get("content"));
+                    }
+                    blackhole.consume(choice.get("finish_reason"));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.TokenizerProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分词吞吐量基准：中文、中英混合和英文三类文本，分别开启和关闭三字切分。
+ * tokenize为流式回调，不构建集合；terms为相关性计算实际使用的去重集合；
+ * whitespaceSplit是原先按空白切分再放入HashSet的做法，作为开销下限参考（中文整句只得到一个词）。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextTokenizerBenchmark {
+
+    public enum TextKind {
+        CHINESE("请问线程池的核心线程数应该怎么设置？如果任务执行时间很长，队列满了以后会发生什么，拒绝策略又该如何选择"),
+        MIXED("Spring Boot里用WebClient调用通义千问接口时，连接池的maxConnections和pendingAcquireTimeout分别应该配置多少"),
+        ENGLISH("How should I size the connection pool when the upstream model API has a rate limit of 60 requests per minute");
+
+        private final String sentence;
+
+        TextKind(String sentence) {
+            this.sentence = sentence;
+        }
+    }
+
+    @Param({"CHINESE", "MIXED", "ENGLISH"})
+    public TextKind kind;
+
+    @Param({"false", "true"})
+    public boolean trigrams;
+
+    private TextTokenizer tokenizer;
+    private String text;
+
+    @Setup
+    public void setup() {
+        TokenizerProperties properties = new TokenizerProperties();
+        properties.setTrigrams(trigrams);
+        tokenizer = new TextTokenizer(properties);
+        // 四句拼成一段，接近一条普通提问加上下文的长度
+        text = String.join(" ", kind.sentence, kind.sentence, kind.sentence, kind.sentence);
+    }
+
+    @Benchmark
+    public void tokenize(Blackhole bh) {
+        tokenizer.tokenize(text, bh::consume);
+    }
+
+    @Benchmark
+    public Set<String> terms() {
+        return tokenizer.terms(text);
+    }
+
+    @Benchmark
+    public Set<String> whitespaceSplit() {
+        return new HashSet<>(Arrays.asList(text.toLowerCase().split("\\s+")));
+    }
+}
@@ -1,11 +1,32 @@
 package com.can.happydog.config;
 
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactoryBuilder;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.apache.hc.core5.ssl.SSLContexts;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import javax.net.ssl.SSLContext;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 
 /**
  * AI配置类
@@ -14,24 +35,105 @@ import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 public class AiConfig {
 
     /**
-     * 创建RestTemplate实例用于API调用
+     * 创建上游连接池
+     * 使用LIFO复用策略，让最近使用过的（TLS会话仍然热的）连接优先被租借，冷连接自然过期
      */
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager httpConnectionManager(HttpClientProperties properties) {
+        SSLContext sslContext = createUpstreamSslContext(properties);
+
+        ConnectionConfig connectionConfig = ConnectionConfig.custom()
+            .setConnectTimeout(Timeout.ofMilliseconds(properties.getConnectTimeout()))
+            .setSocketTimeout(Timeout.ofMilliseconds(properties.getSocketTimeout()))
+            .setValidateAfterInactivity(TimeValue.ofMilliseconds(properties.getValidateAfterInactivity()))
+            .setTimeToLive(properties.getTimeToLive() > 0
+                ? TimeValue.ofMilliseconds(properties.getTimeToLive())
+                : TimeValue.NEG_ONE_MILLISECOND)
+            .build();
+
+        return PoolingHttpClientConnectionManagerBuilder.create()
+            .setSSLSocketFactory(SSLConnectionSocketFactoryBuilder.create()
+                .setSslContext(sslContext)
+                .build())
+            .setMaxConnTotal(properties.getMaxTotal())
+            .setMaxConnPerRoute(properties.getMaxPerRoute())
+            .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+            .setConnPoolPolicy(PoolReusePolicy.LIFO)
+            .setDefaultConnectionConfig(connectionConfig)
+            .build();
+    }
+
+    /**
+     * 为上游连接单独创建SSLContext
+     * 不能使用SSLContexts.createSystemDefault()：它返回JVM全局的SSLContext.getDefault()，
+     * 在上面调整会话缓存会影响进程内所有客户端
+     */
+    private SSLContext createUpstreamSslContext(HttpClientProperties properties) {
+        SSLContext sslContext;
+        try {
+            sslContext = SSLContexts.custom().build();
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            throw new IllegalStateException("无法创建上游SSLContext", e);
+        }
+        // 只调整这个上游专用上下文的TLS会话缓存（JDK默认已开启），按上游连接规模设置容量和有效期
+        sslContext.getClientSessionContext().setSessionCacheSize(properties.getTlsSessionCacheSize());
+        sslContext.getClientSessionContext().setSessionTimeout(properties.getTlsSessionTimeoutSeconds());
+        return sslContext;
+    }
+
     /**
      * 创建HTTP客户端
      */
     @Bean
-    public CloseableHttpClient httpClient() {
-        return HttpClients.createDefault();
+    public CloseableHttpClient httpClient(PoolingHttpClientConnectionManager connectionManager,
+                                          HttpClientProperties properties) {
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectionRequestTimeout(Timeout.ofMilliseconds(properties.getConnectionRequestTimeout()))
+            .setResponseTimeout(Timeout.ofMilliseconds(properties.getResponseTimeout()))
+            .setConnectionKeepAlive(TimeValue.ofMilliseconds(properties.getKeepAlive()))
+            .build();
+
+        return HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .evictExpiredConnections()
+            .evictIdleConnections(TimeValue.ofMilliseconds(properties.getIdleEvictTimeout()))
+            .build();
     }
 
     /**
      * 创建RestTemplate实例
      */
     @Bean
-    public RestTemplate restTemplate(CloseableHttpClient httpClient) {
+    public RestTemplate restTemplate(CloseableHttpClient httpClient, HttpClientProperties properties) {
         HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(httpClient);
-        factory.setConnectTimeout(30000);
-        factory.setConnectionRequestTimeout(30000);
+        factory.setConnectTimeout((int) properties.getConnectTimeout());
+        factory.setConnectionRequestTimeout((int) properties.getConnectionRequestTimeout());
         return new RestTemplate(factory);
     }
+
+    /**
+     * 创建非阻塞上游客户端（响应式流式接口使用）
+     * 基于Reactor Netty，读取由下游需求驱动，慢客户端不会占用线程
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider reactiveConnectionProvider(ReactiveStreamProperties properties) {
+        return ConnectionProvider.builder("ai-upstream")
+            .maxConnections(properties.getMaxConnections())
+            .pendingAcquireTimeout(Duration.ofMillis(properties.getPendingAcquireTimeout()))
+            .maxIdleTime(Duration.ofMillis(properties.getMaxIdleTime()))
+            .build();
+    }
+
+    @Bean
+    public WebClient aiWebClient(WebClient.Builder builder, ConnectionProvider reactiveConnectionProvider,
+                                 ReactiveStreamProperties properties, @Value("${ai.base-url}") String baseUrl) {
+        HttpClient httpClient = HttpClient.create(reactiveConnectionProvider)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) properties.getConnectTimeout())
+            .keepAlive(true);
+        return builder
+            .baseUrl(baseUrl)
+            .clientConnector(new ReactorClientHttpConnector(httpClient))
+            .build();
+    }
 }
@@ -0,0 +1,41 @@
+package com.can.happydog.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 会话摘要压缩配置
+ * 对应 ai.compaction.* 配置项，token数为本地估算值，时间单位为毫秒
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "ai.compaction")
+public class CompactionProperties {
+
+    // 是否在后台把长会话的较早对话压缩为滚动摘要
+    private boolean enabled = true;
+
+    // 生成摘要使用的模型，选便宜的小模型即可
+    private String model = "qwen-turbo";
+
+    // 未被摘要覆盖的消息估算token数超过该值时触发压缩
+    private int triggerTokens = 3000;
+
+    // 压缩时保留原文的最近消息数，不并入摘要
+    private int keepRecent = 6;
+
+    // 要求摘要不超过的字数
+    private int summaryMaxChars = 600;
+
+    // 同一会话两次压缩之间的最小间隔
+    private long minInterval = 60000;
+
+    // 全局每分钟最多发起的压缩次数，超出的等下次追加消息时再检查
+    private int maxPerMinute = 10;
+
+    // 等待执行的压缩任务上限，超出时直接放弃
+    private int queueCapacity = 100;
+}
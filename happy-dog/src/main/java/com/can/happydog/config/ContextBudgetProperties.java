@@ -0,0 +1,32 @@
+package com.can.happydog.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 提示词上下文预算配置
+ * 对应 ai.context.* 配置项，预算单位为估算的token数
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "ai.context")
+public class ContextBudgetProperties {
+
+    // 是否按预算裁剪上下文，关闭时所有内容原样发送
+    private boolean enabled = true;
+
+    // 未单独配置的路由使用的预算
+    private int defaultBudget = 6000;
+
+    // 按路由配置的预算，键为路由名（SIMPLE_CHAT、STANDARD_CHAT、DEEP_THINKING_SIMPLE、DEEP_THINKING_WITH_TOOLS、CHAT、CHAT_THINKING）
+    private Map<String, Integer> budgets = new HashMap<>();
+
+    // 视为"最近对话"优先保留的历史消息条数，更早的消息在最近对话之后才占用预算
+    private int recentMessages = 6;
+}
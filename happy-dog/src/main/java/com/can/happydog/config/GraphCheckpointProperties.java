@@ -0,0 +1,35 @@
+package com.can.happydog.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * StateGraph检查点配置
+ * 对应 ai.graph.checkpoint.* 配置项，时间单位为毫秒
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "ai.graph.checkpoint")
+public class GraphCheckpointProperties {
+
+    public enum Store {
+        NONE,     // 不保存检查点
+        MEMORY,   // 保存在进程内存中
+        FILE      // 保存为本地JSON文件，进程重启后仍可恢复
+    }
+
+    // 检查点存储方式
+    private Store store = Store.MEMORY;
+
+    // FILE存储的目录
+    private String directory = "graph-checkpoints";
+
+    // 检查点的存活时间，超过后不再用于恢复
+    private long ttl = 600000;
+
+    // MEMORY存储的检查点数量上限
+    private int maxEntries = 10000;
+}
@@ -0,0 +1,56 @@
+package com.can.happydog.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 上游HTTP连接池配置
+ * 对应 ai.http.* 配置项，所有时间单位均为毫秒
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "ai.http")
+public class HttpClientProperties {
+
+    // 连接池总连接数上限
+    private int maxTotal = 200;
+
+    // 每个路由（目标主机）的连接数上限，dashscope只有一个路由，因此与总数保持一致
+    private int maxPerRoute = 200;
+
+    // 建立TCP连接超时
+    private long connectTimeout = 10000;
+
+    // 从连接池租借连接的等待超时
+    private long connectionRequestTimeout = 5000;
+
+    // 等待响应超时（流式响应需要覆盖整个生成过程）
+    private long responseTimeout = 300000;
+
+    // Socket读超时（两次数据包之间的最长间隔）
+    private long socketTimeout = 300000;
+
+    // 服务端未声明Keep-Alive时，连接保持可复用的默认时长
+    private long keepAlive = 120000;
+
+    // 空闲连接驱逐阈值，超过此时长未使用的连接会被后台线程关闭
+    private long idleEvictTimeout = 60000;
+
+    // 连接最大存活时间，<=0表示不限制
+    private long timeToLive = 600000;
+
+    // 连接空闲超过此时长后再次租借前需要校验
+    private long validateAfterInactivity = 2000;
+
+    // 上游专用SSLContext的TLS会话缓存大小，用于复用握手结果（不影响JVM全局默认上下文）
+    private int tlsSessionCacheSize = 256;
+
+    // TLS会话缓存有效期（秒）
+    private int tlsSessionTimeoutSeconds = 3600;
+
+    // 启动时预热建立的连接数，0表示不预热
+    private int warmupConnections = 4;
+}
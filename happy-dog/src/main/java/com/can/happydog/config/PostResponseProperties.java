@@ -0,0 +1,29 @@
+package com.can.happydog.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 回答后任务执行器配置
+ * 对应 ai.post-response.* 配置项，时间单位为毫秒
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "ai.post-response")
+public class PostResponseProperties {
+
+    // 后台线程数
+    private int threads = 2;
+
+    // 排队任务上限，超过后历史保存改为在提交线程上执行，其余任务丢弃
+    private int queueCapacity = 1000;
+
+    // 加载会话历史前等待该会话未完成的保存任务的最长时间
+    private long awaitTimeout = 2000;
+
+    // 关闭时等待已提交任务完成的最长时间
+    private long shutdownTimeout = 10000;
+}
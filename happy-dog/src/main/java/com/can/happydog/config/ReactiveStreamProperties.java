@@ -0,0 +1,47 @@
+package com.can.happydog.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 响应式流式接口配置
+ * 对应 ai.rx.* 配置项，所有时间单位均为毫秒
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "ai.rx")
+public class ReactiveStreamProperties {
+
+    // 非阻塞客户端连接池最大连接数
+    private int maxConnections = 500;
+
+    // 从连接池获取连接的等待超时
+    private long pendingAcquireTimeout = 5000;
+
+    // 建立TCP连接超时
+    private long connectTimeout = 10000;
+
+    // 空闲连接最长保留时间
+    private long maxIdleTime = 60000;
+
+    // 发出请求到收到第一个增量的超时
+    private long firstTokenTimeout = 60000;
+
+    // 相邻两个增量之间的最长间隔
+    private long idleTimeout = 30000;
+
+    // 单次请求的总时长上限，应小于spring.mvc.async.request-timeout，保证错误帧能发出
+    private long totalTimeout = 290000;
+
+    // 向上游请求的增量预取数，下游消费慢时上游读取随之暂停
+    private int prefetch = 32;
+
+    // MVC异步写出线程数：Flux元素在这些线程上以Servlet阻塞写发送，写入被阻塞的慢客户端各占一个线程
+    private int asyncThreads = 64;
+
+    // 同时进行的/api/rx流上限，超出时直接返回429；同时是写出队列的容量（每个流同一时刻最多一个排队的写入任务）
+    private int maxStreams = 512;
+}
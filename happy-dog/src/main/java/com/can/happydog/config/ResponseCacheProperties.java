@@ -0,0 +1,42 @@
+package com.can.happydog.config;
+
+import com.can.happydog.service.RequestPreprocessor.ProcessingRoute;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * 回答缓存配置
+ * 对应 ai.cache.response.* 配置项，时间单位为毫秒
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "ai.cache.response")
+public class ResponseCacheProperties {
+
+    // 是否启用回答缓存
+    private boolean enabled = true;
+
+    // 缓存条目总数上限
+    private int maxEntries = 10000;
+
+    // 缓存内容总字节数上限（按UTF-16字符估算）
+    private long maxBytes = 64L * 1024 * 1024;
+
+    // 单条缓存的存活时间
+    private long ttl = 1800000;
+
+    // 分片数，每个分片独立加锁
+    private int shards = 16;
+
+    // 受保护区占分片容量的比例，其余为试用区
+    private double protectedRatio = 0.8;
+
+    // 允许缓存的路由；依赖会话历史或深度思考的路由默认不缓存
+    private Set<ProcessingRoute> routes = EnumSet.of(ProcessingRoute.SIMPLE_CHAT);
+}
@@ -0,0 +1,35 @@
+package com.can.happydog.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 近似问题缓存配置
+ * 对应 ai.cache.semantic.* 配置项，回答缓存和思考缓存共用
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "ai.cache.semantic")
+public class SemanticCacheProperties {
+
+    // 是否启用近似匹配；关闭后只命中标准化文本完全相同的问题
+    private boolean enabled = true;
+
+    // 字符n-gram的长度
+    private int shingleSize = 2;
+
+    // MinHash签名长度，必须能被bands整除
+    private int numHashes = 128;
+
+    // LSH分段数，分段越多召回越高、候选越多
+    private int bands = 32;
+
+    // 判定为同一问题的最低Jaccard相似度
+    private double threshold = 0.8;
+
+    // 标准化后短于该长度的问题只做精确匹配
+    private int minLength = 4;
+}
@@ -0,0 +1,38 @@
+package com.can.happydog.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 会话历史存储配置
+ * 内存热数据层和文件持久层共用，对应 ai.history.* 配置项，时间单位为毫秒
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "ai.history")
+public class SessionHistoryProperties {
+
+    // 内存中每个会话保留的最近消息数，更早的消息只在文件中
+    private int memorySize = 50;
+
+    // 历史文件目录，每个会话一个jsonl文件
+    private String directory = "chat-history";
+
+    // 后台写入线程两次批量落盘之间的最长等待时间
+    private long flushInterval = 200;
+
+    // 等待落盘的消息上限，超出后由追加消息的线程直接落盘
+    private int writeQueueCapacity = 10000;
+
+    // 内存中最多保留的会话数，超出时淘汰最久未访问的会话
+    private int maxSessions = 10000;
+
+    // 会话空闲超过该时长后从内存中移除
+    private long idleTtl = 3600000;
+
+    // 两次空闲会话清理之间的最小间隔
+    private long sweepInterval = 60000;
+}
@@ -0,0 +1,35 @@
+package com.can.happydog.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 推测生成配置
+ * 对应 ai.deep-thinking.speculative.* 配置项
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "ai.deep-thinking.speculative")
+public class SpeculativeGenerationProperties {
+
+    // 是否在深度思考的同时用初步提示词预先生成回答
+    private boolean enabled = false;
+
+    // 保留草稿所需的最低一致度：思考结论中的关键词在草稿中出现的比例
+    private double minAgreement = 0.45;
+
+    // 参与一致度比较的思考内容长度（取末尾，结论通常在最后）
+    private int conclusionChars = 600;
+
+    // 草稿尚未完成时，至少生成这么多字符才进行比较，否则直接重新生成
+    private int minDraftChars = 80;
+
+    // 同时进行的草稿上限（草稿专用线程数），用满时新请求跳过推测生成
+    private int maxConcurrent = 16;
+
+    // 沿用草稿后等待其生成结束的最长时间（毫秒），超时则取消草稿并返回错误
+    private long awaitTimeout = 120000;
+}
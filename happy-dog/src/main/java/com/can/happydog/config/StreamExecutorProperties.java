@@ -0,0 +1,36 @@
+package com.can.happydog.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 流式接口执行器配置
+ * 对应 ai.stream.executor.* 配置项
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "ai.stream.executor")
+public class StreamExecutorProperties {
+
+    // 执行模式：auto（优先虚拟线程）、virtual、platform
+    private String mode = "auto";
+
+    // 虚拟线程模式下允许同时处理的流式请求数
+    private int maxConcurrent = 2000;
+
+    // 平台线程池线程数（即最大并发流数），线程按需创建，空闲后回收
+    private int maxPoolSize = 256;
+
+    // 平台线程池准入队列容量，0表示不排队：线程用满时直接拒绝。
+    // 排队的请求要等某个流结束（可能数分钟）才会开始，只适合设置很小的值吸收瞬时突发
+    private int queueCapacity = 0;
+
+    // 空闲线程（包括核心线程）回收时间（毫秒）
+    private long keepAlive = 60000;
+
+    // 拒绝时返回给客户端的Retry-After（秒）
+    private int retryAfterSeconds = 5;
+}
@@ -0,0 +1,26 @@
+package com.can.happydog.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 分词器配置
+ * 对应 ai.tokenizer.* 配置项
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "ai.tokenizer")
+public class TokenizerProperties {
+
+    // 除内置词典（classpath:tokenizer/dictionary.txt）外追加的词典文件，每行一个词
+    private String dictionaryPath;
+
+    // 是否去除停用词（classpath:tokenizer/stopwords.txt）
+    private boolean stopWords = true;
+
+    // 中文连续片段除相邻两字外是否再切分相邻三字
+    private boolean trigrams = false;
+}
@@ -0,0 +1,51 @@
+package com.can.happydog.config;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * MVC异步处理配置
+ * 控制器返回Flux时，MVC在异步TaskExecutor上把元素写入响应（Servlet阻塞写），
+ * 默认是Boot的8线程applicationTaskExecutor，几个慢客户端就会卡住所有/api/rx流。
+ * 这里为其配置独立的线程池：每个流同一时刻最多占用一个线程，只在写入期间占用，写入被阻塞的慢客户端仍各自占用一个线程。
+ * 这只是把卡住的门槛从8个慢客户端提高到async-threads个：线程全部被阻塞写占用时，其余流的写入仍在队列中等待。
+ * 队列容量等于max-streams，控制器按同一上限准入，超出的流直接返回429，队列不会无限增长。
+ */
+@Configuration
+public class WebAsyncConfig implements WebMvcConfigurer {
+
+    // 不注册为Bean，避免顶替Boot自动配置的applicationTaskExecutor
+    private final ThreadPoolTaskExecutor asyncExecutor;
+
+    public WebAsyncConfig(ReactiveStreamProperties properties) {
+        this.asyncExecutor = createAsyncExecutor(properties);
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(asyncExecutor);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        asyncExecutor.shutdown();
+    }
+
+    private static ThreadPoolTaskExecutor createAsyncExecutor(ReactiveStreamProperties properties) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        // 核心数等于最大数，否则超出核心数的写入任务会先排队而不是新建线程
+        executor.setCorePoolSize(Math.max(1, properties.getAsyncThreads()));
+        executor.setMaxPoolSize(Math.max(1, properties.getAsyncThreads()));
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setKeepAliveSeconds(60);
+        // 每个流同一时刻最多一个排队的写入任务，控制器把并发流数限制在max-streams以内，队列不会溢出
+        executor.setQueueCapacity(Math.max(1, properties.getMaxStreams()));
+        executor.setThreadNamePrefix("mvc-async-");
+        executor.setDaemon(true);
+        executor.initialize();
+        return executor;
+    }
+}
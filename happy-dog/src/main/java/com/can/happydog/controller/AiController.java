@@ -4,6 +4,16 @@ import com.can.happydog.dto.ChatMessage;
 import com.can.happydog.dto.ChatRequest;
 import com.can.happydog.dto.ChatResponse;
 import com.can.happydog.service.AiService;
+import com.can.happydog.service.ContextAssembler;
+import com.can.happydog.service.ConversationCompactor;
+import com.can.happydog.service.ConversationStore;
+import com.can.happydog.service.PostProcessor;
+import com.can.happydog.service.PostResponseExecutor;
+import com.can.happydog.service.ResponseCache;
+import com.can.happydog.service.SingleFlightStreams;
+import com.can.happydog.service.SpeculativeGenerator;
+import com.can.happydog.service.ThinkingExecutor;
+import com.can.happydog.service.UpstreamConnectionPool;
 import com.can.happydog.service.UserActionTracker;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -11,6 +21,7 @@ import org.springframework.web.bind.annotation.*;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.slf4j.Logger;
@@ -26,13 +37,42 @@ public class AiController {
     
     private static final Logger log = LoggerFactory.getLogger(AiController.class);
     
+    // 历史分页的默认和最大每页条数
+    private static final int DEFAULT_HISTORY_PAGE_SIZE = 50;
+    private static final int MAX_HISTORY_PAGE_SIZE = 200;
+    
     private final AiService aiService;
     private final UserActionTracker userActionTracker;
+    private final UpstreamConnectionPool upstreamConnectionPool;
+    private final ResponseCache responseCache;
+    private final ThinkingExecutor thinkingExecutor;
+    private final SingleFlightStreams singleFlightStreams;
+    private final SpeculativeGenerator speculativeGenerator;
+    private final PostResponseExecutor postResponseExecutor;
+    private final PostProcessor postProcessor;
+    private final ConversationStore conversationStore;
+    private final ContextAssembler contextAssembler;
+    private final ConversationCompactor conversationCompactor;
     
     @Autowired
-    public AiController(AiService aiService, UserActionTracker userActionTracker) {
+    public AiController(AiService aiService, UserActionTracker userActionTracker,
+                        UpstreamConnectionPool upstreamConnectionPool, ResponseCache responseCache,
+                        ThinkingExecutor thinkingExecutor, SingleFlightStreams singleFlightStreams,
+                        SpeculativeGenerator speculativeGenerator, PostResponseExecutor postResponseExecutor,
+                        PostProcessor postProcessor, ConversationStore conversationStore,
+                        ContextAssembler contextAssembler, ConversationCompactor conversationCompactor) {
         this.aiService = aiService;
         this.userActionTracker = userActionTracker;
+        this.upstreamConnectionPool = upstreamConnectionPool;
+        this.responseCache = responseCache;
+        this.thinkingExecutor = thinkingExecutor;
+        this.singleFlightStreams = singleFlightStreams;
+        this.speculativeGenerator = speculativeGenerator;
+        this.postResponseExecutor = postResponseExecutor;
+        this.postProcessor = postProcessor;
+        this.conversationStore = conversationStore;
+        this.contextAssembler = contextAssembler;
+        this.conversationCompactor = conversationCompactor;
     }
     
     /**
@@ -66,16 +106,29 @@ public class AiController {
     
     /**
      * 获取会话历史
+     * 不带分页参数时返回内存中的最近消息；带offset或limit时从历史文件分页读取，
+     * offset为跳过的最新消息数，响应头X-Total-Count为会话的总消息数
      */
     @GetMapping("/history/{sessionId}")
-    public ResponseEntity<List<ChatMessage>> getHistory(@PathVariable String sessionId, HttpServletRequest request) {
+    public ResponseEntity<List<ChatMessage>> getHistory(@PathVariable String sessionId,
+                                                        @RequestParam(required = false) Integer offset,
+                                                        @RequestParam(required = false) Integer limit,
+                                                        HttpServletRequest request) {
         log.info("Getting history for session: " + sessionId);
         
         // 记录获取历史操作
         userActionTracker.trackOtherAction(request, "获取会话历史", Map.of("sessionId", sessionId));
         
-        List<ChatMessage> history = aiService.getHistory(sessionId);
-        return ResponseEntity.ok(history);
+        if (offset == null && limit == null) {
+            List<ChatMessage> history = conversationStore.history(sessionId);
+            return ResponseEntity.ok(history);
+        }
+        
+        ConversationStore.Page page = conversationStore.page(sessionId,
+            offset != null ? offset : 0, Math.min(limit != null ? limit : DEFAULT_HISTORY_PAGE_SIZE, MAX_HISTORY_PAGE_SIZE));
+        return ResponseEntity.ok()
+            .header("X-Total-Count", String.valueOf(page.getTotal()))
+            .body(page.getMessages());
     }
     
     /**
@@ -88,7 +141,7 @@ public class AiController {
         // 记录清除历史操作
         userActionTracker.trackOtherAction(request, "清除会话历史", Map.of("sessionId", sessionId));
         
-        aiService.clearHistory(sessionId);
+        conversationStore.clear(sessionId);
         
         Map<String, Object> result = Map.of(
             "success", true,
@@ -110,6 +163,73 @@ public class AiController {
         return ResponseEntity.ok(stats);
     }
     
+    /**
+     * 上游连接池指标接口
+     */
+    @GetMapping("/pool-stats")
+    public ResponseEntity<Map<String, Object>> getPoolStats() {
+        return ResponseEntity.ok(upstreamConnectionPool.getPoolStats());
+    }
+    
+    /**
+     * 回答缓存指标接口
+     */
+    @GetMapping("/cache-stats")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        Map<String, Object> stats = new HashMap<>(responseCache.getStats());
+        stats.put("thinking", thinkingExecutor.getCacheStats());
+        stats.put("singleFlight", singleFlightStreams.getStats());
+        return ResponseEntity.ok(stats);
+    }
+    
+    /**
+     * 推测生成指标接口：草稿的采用率决定是否值得开启
+     */
+    @GetMapping("/speculative-stats")
+    public ResponseEntity<Map<String, Object>> getSpeculativeStats() {
+        return ResponseEntity.ok(speculativeGenerator.getStats());
+    }
+    
+    /**
+     * 回答后台任务指标接口：排队数持续偏高或丢弃数增长时需要调大线程数
+     */
+    @GetMapping("/post-response-stats")
+    public ResponseEntity<Map<String, Object>> getPostResponseStats() {
+        return ResponseEntity.ok(postResponseExecutor.getStats());
+    }
+    
+    /**
+     * 会话历史存储指标接口：内存中的会话数、消息数、估算内存占用以及落盘队列和文件加载情况
+     */
+    @GetMapping("/history-stats")
+    public ResponseEntity<Map<String, Object>> getHistoryStats() {
+        return ResponseEntity.ok(conversationStore.getStats());
+    }
+    
+    /**
+     * 上下文预算指标接口：平均估算用量、触发裁剪的请求数以及丢弃的历史条数
+     */
+    @GetMapping("/context-stats")
+    public ResponseEntity<Map<String, Object>> getContextStats() {
+        return ResponseEntity.ok(contextAssembler.getStats());
+    }
+    
+    /**
+     * 会话摘要压缩指标接口：发起、完成、失败及被限流的次数，并入摘要的消息数和平均耗时
+     */
+    @GetMapping("/compaction-stats")
+    public ResponseEntity<Map<String, Object>> getCompactionStats() {
+        return ResponseEntity.ok(conversationCompactor.getStats());
+    }
+    
+    /**
+     * 追问建议接口：返回会话最近一次回答的追问建议，尚未生成时为空列表
+     */
+    @GetMapping("/follow-ups/{sessionId}")
+    public ResponseEntity<List<String>> getFollowUps(@PathVariable String sessionId) {
+        return ResponseEntity.ok(postProcessor.getFollowUpQuestions(sessionId));
+    }
+    
     /**
      * 健康检查接口
      */
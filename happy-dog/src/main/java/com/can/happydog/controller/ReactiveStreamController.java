@@ -0,0 +1,98 @@
+package com.can.happydog.controller;
+
+import com.can.happydog.config.ReactiveStreamProperties;
+import com.can.happydog.dto.ChatMessage;
+import com.can.happydog.dto.ChatRequest;
+import com.can.happydog.dto.StreamResponse;
+import com.can.happydog.service.ReactiveAgentPipeline;
+import com.can.happydog.service.UserActionTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 响应式流式输出控制器
+ * 以Flux输出智能体管道的结果，下游消费速度决定上游读取速度
+ * 元素由MVC在独立的异步线程池上写出（见WebAsyncConfig），写入仍是Servlet阻塞写
+ * 同时进行的流不超过ai.rx.max-streams，超出时直接返回429，不进入写出队列
+ */
+@RestController
+@RequestMapping("/api/rx/stream")
+@CrossOrigin(origins = "*")
+public class ReactiveStreamController {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveStreamController.class);
+
+    private final ReactiveAgentPipeline reactiveAgentPipeline;
+    private final UserActionTracker userActionTracker;
+    // 每个进行中的流占用一个许可，流结束（完成、出错或客户端断开）时归还
+    private final Semaphore streamPermits;
+
+    public ReactiveStreamController(ReactiveAgentPipeline reactiveAgentPipeline, UserActionTracker userActionTracker,
+                                    ReactiveStreamProperties properties) {
+        this.reactiveAgentPipeline = reactiveAgentPipeline;
+        this.userActionTracker = userActionTracker;
+        this.streamPermits = new Semaphore(Math.max(1, properties.getMaxStreams()));
+    }
+
+    /**
+     * 响应式流式聊天接口
+     */
+    @PostMapping(value = "/chat", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<StreamResponse>> streamChat(@Valid @RequestBody ChatRequest request,
+                                                           HttpServletRequest httpRequest) {
+        long startTime = System.currentTimeMillis();
+        String sessionId = request.getSessionId() != null ? request.getSessionId() : "unknown";
+        if (!streamPermits.tryAcquire()) {
+            // 拒绝时不返回Flux，不占用写出线程和队列
+            log.warn("🚦 响应式流数量已达上限，拒绝请求 - 会话: {}", sessionId);
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .build();
+        }
+        log.info("=== 响应式流式聊天请求开始 - 会话: {}, 深度思考: {} ===", sessionId, request.getEnableDeepThinking());
+        try {
+            return ResponseEntity.ok(stream(request, httpRequest, sessionId, startTime));
+        } catch (RuntimeException e) {
+            // 流未能创建，doFinally不会执行，在这里归还许可
+            streamPermits.release();
+            throw e;
+        }
+    }
+
+    private Flux<StreamResponse> stream(ChatRequest request, HttpServletRequest httpRequest, String sessionId,
+                                        long startTime) {
+        userActionTracker.trackChatMessage(httpRequest, request.getMessage(),
+                                         ChatMessage.MessageType.USER, null, null);
+
+        StringBuilder fullResponseContent = new StringBuilder();
+        return reactiveAgentPipeline.execute(request)
+            .doOnNext(response -> {
+                if (response.getContent() != null && response.getCurrentStep() == null) {
+                    fullResponseContent.append(response.getContent());
+                }
+                if (response.isDone() || response.getError() != null) {
+                    long responseTime = System.currentTimeMillis() - startTime;
+                    String finalContent = response.getError() != null
+                        ? "AI回复出错: " + response.getError()
+                        : fullResponseContent.toString();
+                    userActionTracker.trackChatMessage(httpRequest, finalContent, ChatMessage.MessageType.ASSISTANT,
+                                                     responseTime, response.getError() != null ? 500 : 200);
+                }
+            })
+            .doFinally(signal -> {
+                streamPermits.release();
+                log.info("=== 响应式流式聊天请求结束 - 会话: {}, 信号: {}, 总处理时长: {}ms ===",
+                    sessionId, signal, System.currentTimeMillis() - startTime);
+            });
+    }
+}
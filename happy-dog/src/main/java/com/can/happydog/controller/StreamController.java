@@ -5,19 +5,24 @@ import com.can.happydog.dto.ChatRequest;
 import com.can.happydog.dto.StreamResponse;
 import com.can.happydog.service.AiService;
 import com.can.happydog.service.AgentExecutor;
+import com.can.happydog.service.CancellationToken;
+import com.can.happydog.service.StreamTaskExecutor;
 import com.can.happydog.service.UserActionTracker;
 import com.can.happydog.graph.AgentChatWorkflow;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,29 +35,31 @@ import org.slf4j.LoggerFactory;
 public class StreamController {
     
     private static final Logger log = LoggerFactory.getLogger(StreamController.class);
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
     private final AiService aiService;
     private final AgentExecutor agentExecutor;
     private final AgentChatWorkflow agentChatWorkflow;
     private final UserActionTracker userActionTracker;
+    private final StreamTaskExecutor streamTaskExecutor;
     
     @Value("${ai.stream.timeout:300000}")
     private long streamTimeout;
     
     @Autowired
     public StreamController(AiService aiService, AgentExecutor agentExecutor, 
-                           AgentChatWorkflow agentChatWorkflow, UserActionTracker userActionTracker) {
+                           AgentChatWorkflow agentChatWorkflow, UserActionTracker userActionTracker,
+                           StreamTaskExecutor streamTaskExecutor) {
         this.aiService = aiService;
         this.agentExecutor = agentExecutor;
         this.agentChatWorkflow = agentChatWorkflow;
         this.userActionTracker = userActionTracker;
+        this.streamTaskExecutor = streamTaskExecutor;
     }
     
     /**
      * 流式聊天接口
      */
     @PostMapping(value = "/chat", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public SseEmitter streamChat(@Valid @RequestBody ChatRequest request, HttpServletRequest httpRequest) {
+    public ResponseEntity<SseEmitter> streamChat(@Valid @RequestBody ChatRequest request, HttpServletRequest httpRequest) {
         long startTime = System.currentTimeMillis();
         String sessionId = request.getSessionId() != null ? request.getSessionId() : "unknown";
         
@@ -74,12 +81,15 @@ public class StreamController {
         
         // 使用配置的超时时间
         SseEmitter emitter = new SseEmitter(streamTimeout);
+        CancellationToken cancellationToken = new CancellationToken();
+        AtomicBoolean responseFinished = new AtomicBoolean(false);
         
         // 设置超时处理
         emitter.onTimeout(() -> {
             long duration = System.currentTimeMillis() - startTime;
             log.warn("⚠️ 流式聊天请求超时 - 会话: {}, 消息: {}, 处理时长: {}ms", 
                 sessionId, request.getMessage(), duration);
+            cancellationToken.cancel("请求超时");
             emitter.completeWithError(new RuntimeException("请求超时，请稍后重试"));
         });
         
@@ -88,16 +98,21 @@ public class StreamController {
             long duration = System.currentTimeMillis() - startTime;
             log.error("❌ 流式聊天发生错误 - 会话: {}, 错误: {}, 处理时长: {}ms", 
                 sessionId, throwable.getMessage(), duration);
+            cancellationToken.cancel("连接错误: " + throwable.getMessage());
         });
         
         // 设置完成处理
         emitter.onCompletion(() -> {
             long duration = System.currentTimeMillis() - startTime;
             log.info("✅ 流式聊天完成 - 会话: {}, 总处理时长: {}ms", sessionId, duration);
+            // 未发送完成信号就结束的连接视为客户端断开
+            if (!responseFinished.get()) {
+                cancellationToken.cancel("客户端断开连接");
+            }
             log.info("=== 流式聊天请求结束 ===");
         });
         
-        executorService.execute(() -> {
+        boolean accepted = streamTaskExecutor.submit(() -> {
             StringBuilder fullResponseContent = new StringBuilder();
             
             try {
@@ -129,13 +144,15 @@ public class StreamController {
                                 log.error("❌ [DEBUG] AI回复记录失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
                             }
                             
+                            responseFinished.set(true);
                             emitter.complete();
                         }
                     } catch (IOException e) {
                         log.error("Error sending stream response: " + e.getMessage());
+                        cancellationToken.cancel("发送失败: " + e.getMessage());
                         emitter.completeWithError(e);
                     }
-                });
+                }, cancellationToken);
             } catch (Exception e) {
                 log.error("Stream chat error: " + e.getMessage());
                 try {
@@ -144,6 +161,7 @@ public class StreamController {
                     userActionTracker.trackChatMessage(httpRequest, "流式聊天错误: " + e.getMessage(), 
                                                      ChatMessage.MessageType.ASSISTANT, responseTime, 500);
                     
+                    responseFinished.set(true);
                     emitter.send(StreamResponse.error(e.getMessage()));
                     emitter.complete();
                 } catch (IOException ex) {
@@ -152,14 +170,17 @@ public class StreamController {
             }
         });
         
-        return emitter;
+        if (!accepted) {
+            return rejectSaturated(emitter, sessionId);
+        }
+        return ResponseEntity.ok(emitter);
     }
     
     /**
      * StateGraph模式的流式聊天接口
      */
     @PostMapping(value = "/chat-graph", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public SseEmitter streamChatWithGraph(@Valid @RequestBody ChatRequest request, HttpServletRequest httpRequest) {
+    public ResponseEntity<SseEmitter> streamChatWithGraph(@Valid @RequestBody ChatRequest request, HttpServletRequest httpRequest) {
         long startTime = System.currentTimeMillis();
         String sessionId = request.getSessionId() != null ? request.getSessionId() : "unknown";
         
@@ -174,11 +195,14 @@ public class StreamController {
                                          ChatMessage.MessageType.USER, null, null);
         
         SseEmitter emitter = new SseEmitter(streamTimeout);
+        CancellationToken cancellationToken = new CancellationToken();
+        AtomicBoolean responseFinished = new AtomicBoolean(false);
         
         // 设置超时处理
         emitter.onTimeout(() -> {
             long duration = System.currentTimeMillis() - startTime;
             log.warn("⏰ StateGraph流式聊天超时 - 会话: {}, 处理时长: {}ms", sessionId, duration);
+            cancellationToken.cancel("请求超时");
             emitter.completeWithError(new RuntimeException("请求超时，请稍后重试"));
         });
         
@@ -187,22 +211,32 @@ public class StreamController {
             long duration = System.currentTimeMillis() - startTime;
             log.error("❌ StateGraph流式聊天发生错误 - 会话: {}, 错误: {}, 处理时长: {}ms", 
                 sessionId, throwable.getMessage(), duration);
+            cancellationToken.cancel("连接错误: " + throwable.getMessage());
         });
         
         // 设置完成处理
         emitter.onCompletion(() -> {
             long duration = System.currentTimeMillis() - startTime;
             log.info("✅ StateGraph流式聊天完成 - 会话: {}, 总处理时长: {}ms", sessionId, duration);
+            if (!responseFinished.get()) {
+                cancellationToken.cancel("客户端断开连接");
+            }
             log.info("=== StateGraph流式聊天请求结束 ===");
         });
         
-        executorService.execute(() -> {
+        boolean accepted = streamTaskExecutor.submit(() -> {
             StringBuilder fullResponseContent = new StringBuilder();
             
             try {
                 // 使用新的StateGraph工作流
                 agentChatWorkflow.executeWorkflow(request, response -> {
                     try {
+                        // 节点进度以单独的progress事件发送，只携带进度信息
+                        if (response.getProgress() != null) {
+                            emitter.send(SseEmitter.event().name("progress").data(response.getProgress()));
+                            return;
+                        }
+                        
                         emitter.send(response);
                         
                         // 收集响应内容用于记录
@@ -221,13 +255,15 @@ public class StreamController {
                             userActionTracker.trackChatMessage(httpRequest, finalContent, 
                                                              ChatMessage.MessageType.ASSISTANT, responseTime, httpStatus);
                             
+                            responseFinished.set(true);
                             emitter.complete();
                         }
                     } catch (IOException e) {
                         log.error("Error sending StateGraph stream response: " + e.getMessage());
+                        cancellationToken.cancel("发送失败: " + e.getMessage());
                         emitter.completeWithError(e);
                     }
-                });
+                }, cancellationToken);
             } catch (Exception e) {
                 log.error("StateGraph stream chat error: " + e.getMessage());
                 try {
@@ -236,6 +272,7 @@ public class StreamController {
                     userActionTracker.trackChatMessage(httpRequest, "StateGraph流式聊天错误: " + e.getMessage(), 
                                                      ChatMessage.MessageType.ASSISTANT, responseTime, 500);
                     
+                    responseFinished.set(true);
                     emitter.send(StreamResponse.error(e.getMessage()));
                     emitter.complete();
                 } catch (IOException ex) {
@@ -244,7 +281,34 @@ public class StreamController {
             }
         });
         
-        return emitter;
+        if (!accepted) {
+            return rejectSaturated(emitter, sessionId);
+        }
+        return ResponseEntity.ok(emitter);
+    }
+    
+    /**
+     * 执行器饱和时拒绝请求，返回429并通过SSE告知客户端
+     */
+    private ResponseEntity<SseEmitter> rejectSaturated(SseEmitter emitter, String sessionId) {
+        log.warn("🚦 流式执行器已饱和，拒绝请求 - 会话: {}, 指标: {}", sessionId, streamTaskExecutor.getStats());
+        try {
+            emitter.send(StreamResponse.error("服务繁忙，请稍后重试"));
+            emitter.complete();
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(streamTaskExecutor.getRetryAfterSeconds()))
+            .body(emitter);
+    }
+    
+    /**
+     * 获取流式执行器指标
+     */
+    @GetMapping("/executor-stats")
+    public Map<String, Object> getExecutorStats() {
+        return streamTaskExecutor.getStats();
     }
     
     /**
@@ -1,6 +1,7 @@
 package com.can.happydog.dto;
 
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.Size;
 
 /**
@@ -17,6 +18,11 @@ public class ChatRequest {
     private Boolean saveHistory = true;
     private Boolean enableDeepThinking = false;
 
+    // 执行ID，由客户端生成；重试或重连时带上同一个ID，StateGraph工作流从上次成功的节点继续
+    @Size(max = 64, message = "执行ID长度不能超过64字符")
+    @Pattern(regexp = "[A-Za-z0-9_.-]*", message = "执行ID只能包含字母、数字、下划线、点和横线")
+    private String executionId;
+
     public ChatRequest() {}
 
     public ChatRequest(String message, String sessionId, String modelType, Boolean saveHistory) {
@@ -73,4 +79,12 @@ public class ChatRequest {
     public void setEnableDeepThinking(Boolean enableDeepThinking) {
         this.enableDeepThinking = enableDeepThinking;
     }
-}
\ No newline at end of file
+
+    public String getExecutionId() {
+        return executionId;
+    }
+
+    public void setExecutionId(String executionId) {
+        this.executionId = executionId;
+    }
+}
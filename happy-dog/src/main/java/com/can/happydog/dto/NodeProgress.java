@@ -0,0 +1,72 @@
+package com.can.happydog.dto;
+
+/**
+ * 工作流节点进度DTO
+ * 每个节点开始和结束时各发送一次，前端据此展示当前所处阶段
+ */
+public class NodeProgress {
+
+    public enum Phase {
+        ENTER,      // 节点开始执行
+        EXIT,       // 节点执行完成
+        FAILED      // 节点执行失败
+    }
+
+    private String node;
+    private Phase phase;
+    private Long duration; // 节点耗时（毫秒），仅EXIT/FAILED时有值
+    private long elapsed;  // 距工作流开始的时间（毫秒）
+
+    public NodeProgress() {}
+
+    public NodeProgress(String node, Phase phase, Long duration, long elapsed) {
+        this.node = node;
+        this.phase = phase;
+        this.duration = duration;
+        this.elapsed = elapsed;
+    }
+
+    public static NodeProgress enter(String node, long elapsed) {
+        return new NodeProgress(node, Phase.ENTER, null, elapsed);
+    }
+
+    public static NodeProgress exit(String node, long duration, long elapsed) {
+        return new NodeProgress(node, Phase.EXIT, duration, elapsed);
+    }
+
+    public static NodeProgress failed(String node, long duration, long elapsed) {
+        return new NodeProgress(node, Phase.FAILED, duration, elapsed);
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public void setNode(String node) {
+        this.node = node;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public void setPhase(Phase phase) {
+        this.phase = phase;
+    }
+
+    public Long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(Long duration) {
+        this.duration = duration;
+    }
+
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    public void setElapsed(long elapsed) {
+        this.elapsed = elapsed;
+    }
+}
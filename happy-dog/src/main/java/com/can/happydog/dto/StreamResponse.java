@@ -9,6 +9,7 @@ public class StreamResponse {
     private boolean done;
     private String error;
     private ThinkingStep currentStep;
+    private NodeProgress progress;
 
     public StreamResponse() {}
 
@@ -39,6 +40,13 @@ public class StreamResponse {
         return response;
     }
 
+    public static StreamResponse progress(NodeProgress progress) {
+        StreamResponse response = new StreamResponse();
+        response.progress = progress;
+        response.done = false;
+        return response;
+    }
+
     public String getContent() {
         return content;
     }
@@ -70,4 +78,12 @@ public class StreamResponse {
     public void setCurrentStep(ThinkingStep currentStep) {
         this.currentStep = currentStep;
     }
+
+    public NodeProgress getProgress() {
+        return progress;
+    }
+
+    public void setProgress(NodeProgress progress) {
+        this.progress = progress;
+    }
 }
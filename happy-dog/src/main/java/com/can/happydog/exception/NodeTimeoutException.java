@@ -0,0 +1,12 @@
+package com.can.happydog.exception;
+
+/**
+ * 工作流节点执行超时异常
+ * 节点超过策略规定的时限后由图引擎抛出，可按策略重试或降级
+ */
+public class NodeTimeoutException extends HappyDogException {
+
+    public NodeTimeoutException(String nodeId, long timeoutMs, Throwable cause) {
+        super("NODE_TIMEOUT", "节点执行超时: " + nodeId + " (" + timeoutMs + "ms)", cause);
+    }
+}
@@ -0,0 +1,12 @@
+package com.can.happydog.exception;
+
+/**
+ * 请求已取消异常
+ * 客户端断开或请求超时后，用于终止剩余的处理阶段
+ */
+public class RequestCancelledException extends HappyDogException {
+
+    public RequestCancelledException(String reason) {
+        super("REQUEST_CANCELLED", "请求已取消" + (reason != null ? ": " + reason : ""));
+    }
+}
@@ -1,6 +1,11 @@
 package com.can.happydog.graph;
 
 import com.can.happydog.dto.ChatRequest;
+import com.can.happydog.service.AgentExecutor;
+import com.can.happydog.service.CancellationToken;
+import com.can.happydog.service.RequestPreprocessor.ProcessedRequest;
+import com.can.happydog.service.RequestPreprocessor.ProcessingRoute;
+import com.can.happydog.service.StreamResponseCallback;
 import com.can.happydog.service.ThinkingExecutor.ThinkingResult;
 import com.can.happydog.service.MemoryManager.MemoryContext;
 import lombok.Getter;
@@ -13,18 +18,24 @@ import lombok.Setter;
 @Setter
 public class AgentChatState extends GraphState {
     
-    // 常用状态键定义
-    public static final String REQUEST = "request";
-    public static final String SESSION_ID = "sessionId";
-    public static final String ROUTE = "route";
-    public static final String THINKING_RESULT = "thinkingResult";
-    public static final String MEMORY_CONTEXT = "memoryContext";
-    public static final String FUNCTION_CALL_RESULT = "functionCallResult";
-    public static final String GENERATED_RESPONSE = "generatedResponse";
-    public static final String PROCESSING_ROUTE = "processingRoute";
-    public static final String CACHE_RESULT = "cacheResult";
-    public static final String ERROR = "error";
-    public static final String EXECUTION_METRICS = "executionMetrics";
+    // 常用状态键定义；回调、执行上下文、开始时间和取消令牌只属于本次连接，不写入检查点
+    public static final StateKey<ChatRequest> REQUEST = StateKey.of("request", ChatRequest.class);
+    public static final StateKey<String> SESSION_ID = StateKey.of("sessionId", String.class);
+    public static final StateKey<ProcessedRequest> PROCESSED_REQUEST = StateKey.of("processedRequest", ProcessedRequest.class);
+    public static final StateKey<ProcessingRoute> ROUTE = StateKey.of("route", ProcessingRoute.class);
+    public static final StateKey<StreamResponseCallback> CALLBACK = StateKey.ephemeral("callback", StreamResponseCallback.class);
+    public static final StateKey<AgentExecutor.ExecutionContext> EXECUTION_CONTEXT =
+        StateKey.ephemeral("executionContext", AgentExecutor.ExecutionContext.class);
+    public static final StateKey<Long> START_TIME = StateKey.ephemeral("startTime", Long.class);
+    public static final StateKey<Boolean> CACHE_HIT = StateKey.of("cacheHit", Boolean.class);
+    public static final StateKey<String> CACHED_RESULT = StateKey.of("cachedResult", String.class);
+    public static final StateKey<ThinkingResult> THINKING_RESULT = StateKey.of("thinkingResult", ThinkingResult.class);
+    public static final StateKey<MemoryContext> MEMORY_CONTEXT = StateKey.of("memoryContext", MemoryContext.class);
+    public static final StateKey<Object> FUNCTION_CALL_RESULT = StateKey.of("functionCallResult", Object.class);
+    public static final StateKey<String> GENERATED_RESPONSE = StateKey.of("generatedResponse", String.class);
+    public static final StateKey<String> ERROR = StateKey.of("error", String.class);
+    public static final StateKey<Object> EXECUTION_METRICS = StateKey.of("executionMetrics", Object.class);
+    public static final StateKey<CancellationToken> CANCELLATION_TOKEN = StateKey.ephemeral("cancellationToken", CancellationToken.class);
     
     public AgentChatState() {
         super();
@@ -32,7 +43,7 @@ public class AgentChatState extends GraphState {
     
     // 便捷方法
     public ChatRequest getRequest() {
-        return get(REQUEST, ChatRequest.class);
+        return get(REQUEST);
     }
     
     public void setRequest(ChatRequest request) {
@@ -40,7 +51,7 @@ public class AgentChatState extends GraphState {
     }
     
     public String getSessionId() {
-        return get(SESSION_ID, String.class);
+        return get(SESSION_ID);
     }
     
     public void setSessionId(String sessionId) {
@@ -48,7 +59,7 @@ public class AgentChatState extends GraphState {
     }
     
     public ThinkingResult getThinkingResult() {
-        return get(THINKING_RESULT, ThinkingResult.class);
+        return get(THINKING_RESULT);
     }
     
     public void setThinkingResult(ThinkingResult result) {
@@ -56,7 +67,7 @@ public class AgentChatState extends GraphState {
     }
     
     public MemoryContext getMemoryContext() {
-        return get(MEMORY_CONTEXT, MemoryContext.class);
+        return get(MEMORY_CONTEXT);
     }
     
     public void setMemoryContext(MemoryContext context) {
@@ -64,19 +75,27 @@ public class AgentChatState extends GraphState {
     }
     
     public String getGeneratedResponse() {
-        return get(GENERATED_RESPONSE, String.class);
+        return get(GENERATED_RESPONSE);
     }
     
     public void setGeneratedResponse(String response) {
         set(GENERATED_RESPONSE, response);
     }
     
+    public CancellationToken getCancellationToken() {
+        return get(CANCELLATION_TOKEN);
+    }
+    
+    public void setCancellationToken(CancellationToken token) {
+        set(CANCELLATION_TOKEN, token);
+    }
+    
     public boolean hasError() {
         return contains(ERROR);
     }
     
     public String getError() {
-        return get(ERROR, String.class);
+        return get(ERROR);
     }
     
     public void setError(String error) {
@@ -86,8 +105,7 @@ public class AgentChatState extends GraphState {
     @Override
     public GraphState copy() {
         AgentChatState copy = new AgentChatState();
-        copy.data.putAll(this.data);
-        copy.timestamp = this.timestamp;
+        copyInto(copy);
         return copy;
     }
 }
@@ -1,15 +1,33 @@
 package com.can.happydog.graph;
 
+import com.can.happydog.config.GraphCheckpointProperties;
 import com.can.happydog.dto.ChatRequest;
+import com.can.happydog.dto.NodeProgress;
 import com.can.happydog.dto.StreamResponse;
+import com.can.happydog.dto.ThinkingStep;
+import com.can.happydog.exception.NodeTimeoutException;
 import com.can.happydog.service.*;
 import com.can.happydog.service.RequestPreprocessor.ProcessedRequest;
 import com.can.happydog.service.RequestPreprocessor.ProcessingRoute;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Agent Chat的LangGraph风格工作流
  * 将现有的AgentExecutor重构为StateGraph模式
@@ -24,43 +42,101 @@ public class AgentChatWorkflow {
     private final MemoryManager memoryManager;
     private final ResponseGenerator responseGenerator;
     private final PostProcessor postProcessor;
+    private final ResponseCache responseCache;
+    private final PostResponseExecutor postResponseExecutor;
+    // 并行分支执行器：分叉时第一个分支在请求线程上执行，这里只运行其余分支
+    private final ThreadPoolExecutor branchExecutor;
     
     private CompiledGraph<AgentChatState> compiledGraph;
     
+    @Value("${ai.graph.progress-events:true}")
+    private boolean progressEvents;
+    
     @Autowired
     public AgentChatWorkflow(RequestPreprocessor requestPreprocessor,
                            ThinkingExecutor thinkingExecutor,
                            MemoryManager memoryManager,
                            ResponseGenerator responseGenerator,
-                           PostProcessor postProcessor) {
+                           PostProcessor postProcessor,
+                           ResponseCache responseCache,
+                           PostResponseExecutor postResponseExecutor,
+                           GraphCheckpointProperties checkpointProperties,
+                           ObjectMapper objectMapper,
+                           @Value("${ai.graph.thinking-timeout:90000}") long thinkingTimeoutMs,
+                           @Value("${ai.graph.branch-threads:64}") int branchThreads) {
         this.requestPreprocessor = requestPreprocessor;
         this.thinkingExecutor = thinkingExecutor;
         this.memoryManager = memoryManager;
         this.responseGenerator = responseGenerator;
         this.postProcessor = postProcessor;
+        this.responseCache = responseCache;
+        this.postResponseExecutor = postResponseExecutor;
+        this.branchExecutor = createBranchExecutor(branchThreads);
         
         // 初始化工作流图
-        initializeWorkflow();
+        initializeWorkflow(thinkingTimeoutMs, createCheckpointer(checkpointProperties, objectMapper));
+    }
+    
+    /**
+     * 按配置创建检查点存储
+     */
+    private static Checkpointer<AgentChatState> createCheckpointer(GraphCheckpointProperties properties,
+                                                                   ObjectMapper objectMapper) {
+        switch (properties.getStore()) {
+            case MEMORY:
+                return new MemoryCheckpointer<>(properties.getMaxEntries(), properties.getTtl());
+            case FILE:
+                return new FileCheckpointer<>(Paths.get(properties.getDirectory()), objectMapper,
+                    AgentChatState::new, properties.getTtl());
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * 创建并行分支执行器
+     * 线程数有上限且不排队：线程用满时分支在请求线程上执行，退化为顺序执行，而不是无限创建线程或排队等待
+     */
+    private static ThreadPoolExecutor createBranchExecutor(int threads) {
+        AtomicInteger index = new AtomicInteger();
+        int poolSize = Math.max(1, threads);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            poolSize, poolSize,
+            60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "graph-branch-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
     
     /**
      * 初始化Agent Chat工作流图
      */
-    private void initializeWorkflow() {
+    private void initializeWorkflow(long thinkingTimeoutMs, Checkpointer<AgentChatState> checkpointer) {
         log.info("🔧 初始化Agent Chat StateGraph工作流");
         
-        StateGraph<AgentChatState> graph = new StateGraph<>();
+        StateGraph<AgentChatState> graph = new StateGraph<>(branchExecutor);
+        graph.setCancellationKey(AgentChatState.CANCELLATION_TOKEN)
+             .setCheckpointer(checkpointer);
         
         // 添加状态节点
-        graph.addNode("preprocessing", this::preprocessingNode)
-             .addNode("cache_check", this::cacheCheckNode)
-             .addNode("memory_loading", this::memoryLoadingNode)
-             .addNode("thinking_execution", this::thinkingExecutionNode)
-             .addNode("function_calling", this::functionCallingNode)
-             .addNode("response_generation", this::responseGenerationNode)
-             .addNode("memory_saving", this::memorySavingNode)
-             .addNode("post_processing", this::postProcessingNode)
-             .addNode("finish", this::finishNode);
+        graph.addNode("preprocessing", cancellable(this::preprocessingNode))
+             .addNode("cache_check", cancellable(this::cacheCheckNode))
+             .addParallelNode("context_preparation", cancellable(this::contextPreparationNode))
+             .addNode("memory_loading", cancellable(this::memoryLoadingNode), memoryLoadingPolicy())
+             .addNode("thinking_execution", cancellable(this::thinkingExecutionNode), thinkingPolicy(thinkingTimeoutMs))
+             .addMergeNode("context_merge", cancellable(this::contextMergeNode))
+             .addNode("function_calling", cancellable(this::functionCallingNode))
+             .addNode("response_generation", cancellable(this::responseGenerationNode))
+             .addNode("memory_saving", cancellable(this::memorySavingNode))
+             .addNode("post_processing", cancellable(this::postProcessingNode))
+             .addNode("finish", cancellable(this::finishNode));
         
         // 设置流程边
         setupWorkflowEdges(graph);
@@ -71,6 +147,53 @@ public class AgentChatWorkflow {
         log.info("✅ Agent Chat StateGraph工作流初始化完成");
     }
     
+    /**
+     * 思考节点策略：超时后中止思考模型调用，带着已收到的部分思考内容继续生成回答
+     * 思考内容已实时推送给客户端，重试会重复推送，因此不重试
+     */
+    private NodePolicy<AgentChatState> thinkingPolicy(long timeoutMs) {
+        return NodePolicy.<AgentChatState>create()
+            .timeout(timeoutMs)
+            .fallback((state, failure) -> {
+                AgentExecutor.ExecutionContext context = executionContext(state);
+                ThinkingExecutor.ThinkingResult partial = (ThinkingExecutor.ThinkingResult) context.getThinkingResult();
+                if (partial != null) {
+                    state.setThinkingResult(partial);
+                }
+                if (failure instanceof NodeTimeoutException) {
+                    state.get(AgentChatState.CALLBACK).onResponse(StreamResponse.thinking(
+                        ThinkingStep.analyze("思考超时", partial != null
+                            ? "深度思考超时，基于已完成的分析继续回答" : "深度思考超时，直接生成回答")));
+                }
+                return state;
+            });
+    }
+    
+    /**
+     * 内存加载策略：偶发失败重试一次，仍失败时不带历史上下文继续
+     */
+    private NodePolicy<AgentChatState> memoryLoadingPolicy() {
+        return NodePolicy.<AgentChatState>create()
+            .retry(1, 50)
+            .fallback((state, failure) -> {
+                log.warn("⚠️ 历史上下文加载失败，不带历史继续 - 会话: {}", state.getSessionId());
+                return state;
+            });
+    }
+    
+    /**
+     * 节点执行前检查取消令牌，客户端断开后剩余节点不再执行
+     */
+    private StateFunction<AgentChatState> cancellable(StateFunction<AgentChatState> node) {
+        return state -> {
+            CancellationToken token = state.getCancellationToken();
+            if (token != null) {
+                token.throwIfCancelled();
+            }
+            return node.apply(state);
+        };
+    }
+    
     /**
      * 设置工作流边和条件分支
      */
@@ -83,23 +206,21 @@ public class AgentChatWorkflow {
         
         // 缓存检查的条件分支
         graph.addConditionalEdge("cache_check", "finish", 
-            state -> state.contains("cache_hit") && (Boolean) state.get("cache_hit", Boolean.class));
-        graph.addConditionalEdge("cache_check", "memory_loading", 
-            state -> !state.contains("cache_hit") || !(Boolean) state.get("cache_hit", Boolean.class));
-        
-        // 内存加载 -> 思考执行（条件）
-        graph.addConditionalEdge("memory_loading", "thinking_execution", 
-            state -> needsThinking(state));
-        graph.addConditionalEdge("memory_loading", "function_calling", 
-            state -> !needsThinking(state) && needsFunctionCalls(state));
-        graph.addConditionalEdge("memory_loading", "response_generation", 
-            state -> !needsThinking(state) && !needsFunctionCalls(state));
-        
-        // 思考执行 -> 函数调用（条件）
-        graph.addConditionalEdge("thinking_execution", "function_calling", 
-            state -> needsFunctionCalls(state));
-        graph.addConditionalEdge("thinking_execution", "response_generation", 
-            state -> !needsFunctionCalls(state));
+            state -> Boolean.TRUE.equals(state.get(AgentChatState.CACHE_HIT)));
+        graph.addConditionalEdge("cache_check", "context_preparation", 
+            state -> !Boolean.TRUE.equals(state.get(AgentChatState.CACHE_HIT)));
+        
+        // 上下文准备：内存加载与思考执行（条件）并行，思考只依赖请求本身，不依赖加载的历史上下文
+        graph.addEdge("context_preparation", "memory_loading");
+        graph.addRouteEdge("context_preparation", "thinking_execution", AgentChatState.ROUTE,
+            ProcessingRoute.DEEP_THINKING_SIMPLE, ProcessingRoute.DEEP_THINKING_WITH_TOOLS);
+        graph.addEdge("memory_loading", "context_merge");
+        graph.addEdge("thinking_execution", "context_merge");
+        
+        // 上下文合并 -> 函数调用（条件），其余路由直接生成响应
+        graph.addRouteEdge("context_merge", "function_calling", AgentChatState.ROUTE,
+            ProcessingRoute.DEEP_THINKING_WITH_TOOLS);
+        graph.addEdge("context_merge", "response_generation");
         
         // 函数调用 -> 响应生成
         graph.addEdge("function_calling", "response_generation");
@@ -121,28 +242,75 @@ public class AgentChatWorkflow {
      * 执行Agent Chat工作流
      */
     public void executeWorkflow(ChatRequest request, StreamResponseCallback callback) {
+        executeWorkflow(request, callback, new CancellationToken());
+    }
+    
+    /**
+     * 执行Agent Chat工作流（支持取消）
+     * 节点都在调用线程（流式执行器的工作线程）上内联执行，方法返回时工作流已结束
+     * 请求带executionId时按检查点执行：同一executionId的重试从上次成功的节点继续，不再重复思考等耗时阶段
+     */
+    public void executeWorkflow(ChatRequest request, StreamResponseCallback callback,
+                                CancellationToken cancellationToken) {
         log.info("🚀 开始执行Agent Chat StateGraph工作流");
         
+        // 所有响应帧都经过进度转发器，保证进度帧不会出现在完成信号之后
+        ProgressForwarder forwarder = new ProgressForwarder(callback, cancellationToken, progressEvents);
+        
         // 创建初始状态
         AgentChatState initialState = new AgentChatState();
         initialState.setRequest(request);
-        initialState.set("callback", callback);
-        initialState.set("start_time", System.currentTimeMillis());
+        initialState.setCancellationToken(cancellationToken);
+        initialState.set(AgentChatState.CALLBACK, forwarder);
+        initialState.set(AgentChatState.START_TIME, System.currentTimeMillis());
         
         // 执行工作流
-        compiledGraph.invoke(initialState)
+        String executionId = checkpointKey(request);
+        CompletableFuture<AgentChatState> execution = executionId != null
+            ? compiledGraph.resume(executionId, initialState, forwarder)
+            : compiledGraph.stream(initialState, forwarder);
+        execution
             .whenComplete((finalState, throwable) -> {
-                if (throwable != null) {
+                if (throwable != null && cancellationToken.isCancelled()) {
+                    log.info("🛑 StateGraph工作流已取消 - 原因: {}", cancellationToken.getReason());
+                } else if (throwable != null) {
                     log.error("❌ StateGraph工作流执行失败: {}", throwable.getMessage());
-                    callback.onResponse(StreamResponse.error("工作流执行失败: " + throwable.getMessage()));
+                    forwarder.onResponse(StreamResponse.error("工作流执行失败: " + throwable.getMessage()));
                 } else {
                     long totalTime = System.currentTimeMillis() - 
-                        (Long) finalState.get("start_time", Long.class);
+                        finalState.get(AgentChatState.START_TIME);
                     log.info("🎉 StateGraph工作流执行完成 - 总耗时: {}ms", totalTime);
                 }
             });
     }
     
+    /**
+     * 检查点键：客户端给出的executionId按会话和问题内容限定范围
+     * 只凭executionId查找时，复用同一个ID发送新问题会回放旧问题的回答，知道他人ID的请求也能拿到他人的回答；
+     * 限定后只有同一会话、同一问题的重试才能恢复，其余情况找不到检查点，从头执行（旧检查点按TTL过期）
+     */
+    private String checkpointKey(ChatRequest request) {
+        String executionId = request.getExecutionId();
+        if (executionId == null || executionId.isEmpty()) {
+            return null;
+        }
+        if (request.getSessionId() == null || request.getSessionId().isBlank()) {
+            // 没有会话ID时每次请求都会分配新会话，检查点无法安全地对应到原请求
+            log.debug("请求未携带会话ID，忽略executionId: {}", executionId);
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(request.getSessionId().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(request.getMessage()).getBytes(StandardCharsets.UTF_8));
+            String scope = HexFormat.of().formatHex(digest.digest(), 0, 16);
+            return scope + "-" + executionId;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+    
     // ==================== 状态节点实现 ====================
     
     /**
@@ -154,33 +322,51 @@ public class AgentChatWorkflow {
         ChatRequest request = state.getRequest();
         ProcessedRequest processedRequest = requestPreprocessor.preprocess(request);
         
-        state.set("processed_request", processedRequest);
+        state.set(AgentChatState.PROCESSED_REQUEST, processedRequest);
         state.setSessionId(processedRequest.getSessionId());
-        state.set("route", processedRequest.getRoute());
+        state.set(AgentChatState.ROUTE, processedRequest.getRoute());
         
         return state;
     }
     
+    /**
+     * 获取执行上下文，没有时按状态中已有的结果重建
+     * 执行上下文不写入检查点，从检查点恢复后由第一个用到它的节点重建
+     */
+    private AgentExecutor.ExecutionContext executionContext(AgentChatState state) {
+        AgentExecutor.ExecutionContext context = state.get(AgentChatState.EXECUTION_CONTEXT);
+        if (context == null) {
+            context = new AgentExecutor.ExecutionContext();
+            context.setProcessedRequest(state.get(AgentChatState.PROCESSED_REQUEST));
+            context.setMemoryContext(state.getMemoryContext());
+            context.setThinkingResult(state.getThinkingResult());
+            context.setGeneratedResponse(state.getGeneratedResponse());
+            context.setCancellationToken(state.getCancellationToken());
+            state.set(AgentChatState.EXECUTION_CONTEXT, context);
+        }
+        return context;
+    }
+    
     /**
      * 缓存检查节点
      */
     private AgentChatState cacheCheckNode(AgentChatState state) throws Exception {
         log.info("💾 执行缓存检查节点");
         
-        ProcessedRequest processedRequest = state.get("processed_request", ProcessedRequest.class);
+        ProcessedRequest processedRequest = state.get(AgentChatState.PROCESSED_REQUEST);
         boolean cacheHit = processedRequest.getCacheResult().isHit();
         
-        state.set("cache_hit", cacheHit);
+        state.set(AgentChatState.CACHE_HIT, cacheHit);
         
         if (cacheHit) {
             log.info("✅ 缓存命中，准备直接返回");
-            Object cachedResult = processedRequest.getCacheResult().getData();
-            state.set("cached_result", cachedResult);
+            String cachedAnswer = processedRequest.getCacheResult().getAnswer();
+            state.set(AgentChatState.CACHED_RESULT, cachedAnswer);
+            state.setGeneratedResponse(cachedAnswer);
             
-            // 发送缓存结果
-            StreamResponseCallback callback = state.get("callback", StreamResponseCallback.class);
-            callback.onResponse(StreamResponse.chunk("缓存结果: " + cachedResult.toString()));
-            callback.onResponse(StreamResponse.done());
+            // 按实时流的分块粒度回放缓存的回答
+            StreamResponseCallback callback = state.get(AgentChatState.CALLBACK);
+            responseCache.replay(cachedAnswer, callback, state.getCancellationToken());
         }
         
         return state;
@@ -193,28 +379,45 @@ public class AgentChatWorkflow {
         log.info("🧠 执行内存加载节点");
         
         String sessionId = state.getSessionId();
-        
-        // 模拟ExecutionContext
-        AgentExecutor.ExecutionContext context = new AgentExecutor.ExecutionContext();
+        AgentExecutor.ExecutionContext context = executionContext(state);
         memoryManager.loadContext(sessionId, context);
         
         state.setMemoryContext((MemoryManager.MemoryContext) context.getMemoryContext());
-        state.set("execution_context", context);
         
         return state;
     }
     
+    /**
+     * 上下文准备节点（并行分叉点）
+     */
+    private AgentChatState contextPreparationNode(AgentChatState state) throws Exception {
+        log.info("🔀 执行上下文准备节点 - 路由: {}", state.get(AgentChatState.ROUTE));
+        // 执行上下文在分叉前创建，并行分支共享同一个实例，各自写入不同的字段
+        executionContext(state);
+        return state;
+    }
+    
+    /**
+     * 上下文合并节点（并行汇合点）
+     */
+    private AgentChatState contextMergeNode(AgentChatState state) throws Exception {
+        log.info("🔀 执行上下文合并节点 - 历史上下文: {}, 思考结果: {}",
+            state.getMemoryContext() != null, state.getThinkingResult() != null);
+        return state;
+    }
+    
     /**
      * 思考执行节点
      */
     private AgentChatState thinkingExecutionNode(AgentChatState state) throws Exception {
         log.info("🤔 执行思考执行节点");
         
-        ProcessedRequest processedRequest = state.get("processed_request", ProcessedRequest.class);
-        StreamResponseCallback callback = state.get("callback", StreamResponseCallback.class);
-        AgentExecutor.ExecutionContext context = state.get("execution_context", AgentExecutor.ExecutionContext.class);
+        ProcessedRequest processedRequest = state.get(AgentChatState.PROCESSED_REQUEST);
+        StreamResponseCallback callback = state.get(AgentChatState.CALLBACK);
+        AgentExecutor.ExecutionContext context = executionContext(state);
         
-        thinkingExecutor.executeThinking(processedRequest, callback, context);
+        // 使用状态中的令牌：节点超时时引擎会换成带时限的子令牌
+        thinkingExecutor.executeThinking(processedRequest, callback, context, state.getCancellationToken());
         
         ThinkingExecutor.ThinkingResult thinkingResult = (ThinkingExecutor.ThinkingResult) context.getThinkingResult();
         if (thinkingResult != null) {
@@ -243,9 +446,9 @@ public class AgentChatWorkflow {
     private AgentChatState responseGenerationNode(AgentChatState state) throws Exception {
         log.info("📝 执行响应生成节点");
         
-        ProcessedRequest processedRequest = state.get("processed_request", ProcessedRequest.class);
-        StreamResponseCallback callback = state.get("callback", StreamResponseCallback.class);
-        AgentExecutor.ExecutionContext context = state.get("execution_context", AgentExecutor.ExecutionContext.class);
+        ProcessedRequest processedRequest = state.get(AgentChatState.PROCESSED_REQUEST);
+        StreamResponseCallback callback = state.get(AgentChatState.CALLBACK);
+        AgentExecutor.ExecutionContext context = executionContext(state);
         
         responseGenerator.generateResponse(processedRequest, callback, context);
         
@@ -263,20 +466,14 @@ public class AgentChatWorkflow {
     private AgentChatState memorySavingNode(AgentChatState state) throws Exception {
         log.info("💾 执行内存保存节点");
         
-        ProcessedRequest processedRequest = state.get("processed_request", ProcessedRequest.class);
-        AgentExecutor.ExecutionContext context = state.get("execution_context", AgentExecutor.ExecutionContext.class);
-        
-        // 保存对话历史
-        if (processedRequest.getRequest().getSaveHistory()) {
-            // 注意：这里使用现有的方法名，如果不存在需要实现
-            String response = (String) context.getGeneratedResponse();
-            if (response != null) {
-                // 临时使用现有的方法保存对话
-                log.info("保存对话历史: 会话={}, 用户消息={}, 响应={}", 
-                    processedRequest.getSessionId(),
-                    processedRequest.getRequest().getMessage(),
-                    response.substring(0, Math.min(50, response.length())) + "...");
-            }
+        ProcessedRequest processedRequest = state.get(AgentChatState.PROCESSED_REQUEST);
+        AgentExecutor.ExecutionContext context = executionContext(state);
+        
+        // 回答已发送完毕，对话历史在后台保存，同一会话的下一次加载会等待它完成
+        if (processedRequest.getRequest().getSaveHistory() && context.getGeneratedResponse() != null) {
+            String sessionId = processedRequest.getSessionId();
+            postResponseExecutor.submitRequired(sessionId, "memory_saving",
+                () -> memoryManager.saveContext(sessionId, context));
         }
         
         return state;
@@ -288,18 +485,12 @@ public class AgentChatWorkflow {
     private AgentChatState postProcessingNode(AgentChatState state) throws Exception {
         log.info("🔄 执行后处理节点");
         
-        ProcessedRequest processedRequest = state.get("processed_request", ProcessedRequest.class);
-        StreamResponseCallback callback = state.get("callback", StreamResponseCallback.class);
-        AgentExecutor.ExecutionContext context = state.get("execution_context", AgentExecutor.ExecutionContext.class);
+        ProcessedRequest processedRequest = state.get(AgentChatState.PROCESSED_REQUEST);
+        AgentExecutor.ExecutionContext context = executionContext(state);
         
-        // 注意：这里调用现有的方法，如果不存在需要调整方法名
-        try {
-            // 临时使用简化的后处理逻辑
-            log.info("执行后处理逻辑 - 会话: {}", processedRequest.getSessionId());
-            // postProcessor.processResponse(processedRequest, callback, context);
-        } catch (Exception e) {
-            log.warn("后处理执行失败: {}", e.getMessage());
-        }
+        // 质量评估、追问建议和性能统计在后台执行，不占用当前连接
+        postResponseExecutor.submitOptional(processedRequest.getSessionId(), "post_processing",
+            () -> postProcessor.postProcess(processedRequest, context));
         
         return state;
     }
@@ -310,34 +501,21 @@ public class AgentChatWorkflow {
     private AgentChatState finishNode(AgentChatState state) throws Exception {
         log.info("🏁 执行完成节点");
         
-        // 确保响应流已完成
-        StreamResponseCallback callback = state.get("callback", StreamResponseCallback.class);
-        if (!state.contains("cache_hit") || !(Boolean) state.get("cache_hit", Boolean.class)) {
-            callback.onResponse(StreamResponse.done());
+        // 缓存回放和响应生成都会发送完成信号，已发送时不再补发，避免客户端收到重复的完成信号；
+        // 从响应生成之后的检查点恢复时，本次连接还没有收到回答，按实时流的分块粒度回放已生成的回答
+        ProgressForwarder callback = (ProgressForwarder) state.get(AgentChatState.CALLBACK);
+        if (!callback.isClosed()) {
+            String generated = state.getGeneratedResponse();
+            if (generated != null) {
+                responseCache.replay(generated, callback, state.getCancellationToken());
+            } else {
+                callback.onResponse(StreamResponse.done());
+            }
         }
         
         return state;
     }
     
-    // ==================== 条件判断辅助方法 ====================
-    
-    /**
-     * 是否需要思考执行
-     */
-    private boolean needsThinking(AgentChatState state) {
-        ProcessingRoute route = state.get("route", ProcessingRoute.class);
-        return route == ProcessingRoute.DEEP_THINKING_SIMPLE || 
-               route == ProcessingRoute.DEEP_THINKING_WITH_TOOLS;
-    }
-    
-    /**
-     * 是否需要函数调用
-     */
-    private boolean needsFunctionCalls(AgentChatState state) {
-        ProcessingRoute route = state.get("route", ProcessingRoute.class);
-        return route == ProcessingRoute.DEEP_THINKING_WITH_TOOLS;
-    }
-    
     /**
      * 获取图信息
      */
@@ -348,9 +526,70 @@ public class AgentChatWorkflow {
     /**
      * 关闭资源
      */
+    @PreDestroy
     public void shutdown() {
         if (compiledGraph != null) {
             compiledGraph.shutdown();
         }
+        branchExecutor.shutdown();
+    }
+    
+    /**
+     * 节点进度转发器
+     * 把节点开始/结束事件转成进度帧发给客户端；客户端回调同时经过这里，
+     * 发送完成信号或错误后不再发送进度帧（完成后的节点如内存保存对客户端不可见）
+     */
+    private static final class ProgressForwarder implements StreamResponseCallback,
+            CompiledGraph.StateCallback<AgentChatState> {
+        
+        private final StreamResponseCallback delegate;
+        private final CancellationToken cancellationToken;
+        private final boolean enabled;
+        private final long startNanos = System.nanoTime();
+        private boolean closed;
+        
+        ProgressForwarder(StreamResponseCallback delegate, CancellationToken cancellationToken, boolean enabled) {
+            this.delegate = delegate;
+            this.cancellationToken = cancellationToken;
+            this.enabled = enabled;
+        }
+        
+        @Override
+        public synchronized void onResponse(StreamResponse response) {
+            if (response.isDone() || response.getError() != null) {
+                closed = true;
+            }
+            delegate.onResponse(response);
+        }
+        
+        @Override
+        public void onNodeEnter(String nodeId, AgentChatState state) {
+            sendProgress(NodeProgress.enter(nodeId, elapsedMillis()));
+        }
+        
+        @Override
+        public void onNodeExit(String nodeId, AgentChatState state, long durationMs) {
+            sendProgress(NodeProgress.exit(nodeId, durationMs, elapsedMillis()));
+        }
+        
+        @Override
+        public void onNodeError(String nodeId, Throwable error, long durationMs) {
+            sendProgress(NodeProgress.failed(nodeId, durationMs, elapsedMillis()));
+        }
+        
+        private synchronized void sendProgress(NodeProgress progress) {
+            if (!enabled || closed || cancellationToken.isCancelled()) {
+                return;
+            }
+            delegate.onResponse(StreamResponse.progress(progress));
+        }
+        
+        synchronized boolean isClosed() {
+            return closed;
+        }
+        
+        private long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        }
     }
-}
\ No newline at end of file
+}
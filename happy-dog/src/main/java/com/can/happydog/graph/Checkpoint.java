@@ -0,0 +1,38 @@
+package com.can.happydog.graph;
+
+/**
+ * 检查点 - 某个节点执行成功后的状态快照
+ * 恢复执行时从nextNode开始，completedNode之前的节点不再执行
+ */
+public class Checkpoint<T extends GraphState> {
+
+    private final String executionId;
+    private final String completedNode;
+    private final String nextNode;
+    private final T state;
+    private final long timestamp;
+
+    public Checkpoint(String executionId, String completedNode, String nextNode, T state, long timestamp) {
+        this.executionId = executionId;
+        this.completedNode = completedNode;
+        this.nextNode = nextNode;
+        this.state = state;
+        this.timestamp = timestamp;
+    }
+
+    public String getExecutionId() { return executionId; }
+    public String getCompletedNode() { return completedNode; }
+    public String getNextNode() { return nextNode; }
+    public T getState() { return state; }
+    public long getTimestamp() { return timestamp; }
+
+    @Override
+    public String toString() {
+        return "Checkpoint{" +
+                "executionId='" + executionId + '\'' +
+                ", completedNode='" + completedNode + '\'' +
+                ", nextNode='" + nextNode + '\'' +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
@@ -0,0 +1,23 @@
+package com.can.happydog.graph;
+
+/**
+ * 检查点存储 - 按执行ID保存图执行的进度
+ * 图在每个顶层节点执行成功后保存一次，执行完成后删除；失败时保留，供重试或重连时恢复
+ */
+public interface Checkpointer<T extends GraphState> {
+
+    /**
+     * 保存检查点，覆盖同一执行ID的旧检查点
+     */
+    void save(Checkpoint<T> checkpoint);
+
+    /**
+     * 读取检查点，不存在或已过期时返回null
+     */
+    Checkpoint<T> load(String executionId);
+
+    /**
+     * 删除检查点
+     */
+    void delete(String executionId);
+}
@@ -1,39 +1,178 @@
 package com.can.happydog.graph;
 
+import com.can.happydog.exception.NodeTimeoutException;
+import com.can.happydog.exception.RequestCancelledException;
+import com.can.happydog.service.CancellationToken;
 import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 
 /**
  * 编译后的图 - 提供优化的执行接口
+ *
+ * 编译时节点按声明顺序编号，出边整理成按下标访问的数组，执行期间不再查Map：
+ * - 只有无条件边的节点，后继在编译时就已确定
+ * - 出边由无条件边和同一路由键的路由边组成的节点，按路由枚举的序号直接查跳转表
+ * - 其余节点按声明顺序逐条求值条件
+ * 可达性和无条件环路也在编译时检查一次。
+ *
+ * 配置了NodePolicy的节点按策略执行：超时由共享的定时线程取消该次尝试的子令牌，
+ * 失败后按退避重试，重试耗尽后执行降级，因此单个阶段的耗时有上界，而不是整个请求共用一个超时。
+ *
+ * 图配置了Checkpointer且调用时给出执行ID时，每个顶层节点完成后保存一次状态快照（并行分支汇合后才保存），
+ * 执行成功后删除；失败时保留，resume()据此跳过已完成的节点，从下一个节点继续。
  */
 public class CompiledGraph<T extends GraphState> {
     
     private static final Logger log = LoggerFactory.getLogger(CompiledGraph.class);
     
+    // 表示没有后继节点（图或分支结束）
+    private static final int END = -1;
+    // 表示沿节点原有的出边继续（没有降级跳转）
+    private static final int FOLLOW_EDGES = -2;
+    private static final int[] NO_TARGETS = new int[0];
+    @SuppressWarnings("rawtypes")
+    private static final StateCallback NO_CALLBACK = new StateCallback() {};
+    // 所有图共享的节点超时定时线程，只负责到时取消令牌，不执行节点
+    private static final ScheduledThreadPoolExecutor DEADLINES = createDeadlineTimer();
+    
     private final StateGraph<T> graph;
+    private final Executor executor;
+    // 编译时已声明的状态槽位数，执行前一次性为初始状态分配，执行过程中不再扩容
+    private final int stateSlots;
+    
+    private final StateNode<T>[] nodes;
+    private final Dispatch<T>[] dispatch;
+    // 合并节点的归并器，按节点下标存放
+    private final StateReducer<T>[] reducers;
+    // 并行节点的分支超时（毫秒），小于0表示不限时
+    private final long[] branchTimeoutMs;
+    // 节点执行策略及降级跳转目标，按节点下标存放
+    private final NodePolicy<T>[] policies;
+    private final int[] fallbackTargets;
+    private final StateKey<CancellationToken> cancellationKey;
+    private final Checkpointer<T> checkpointer;
+    // 节点ID到下标，恢复执行时按检查点记录的节点ID定位
+    private final Map<String, Integer> nodeIndex;
+    private final int start;
+    private final int end;
     
+    @SuppressWarnings("unchecked")
     public CompiledGraph(StateGraph<T> graph) {
         this.graph = graph;
+        this.executor = graph.getExecutor();
+        this.stateSlots = StateKey.slotCount();
+        
+        int size = graph.getNodes().size();
+        this.nodes = graph.getNodes().values().toArray(new StateNode[0]);
+        Map<StateNode<T>, Integer> index = new IdentityHashMap<>();
+        for (int i = 0; i < size; i++) {
+            index.put(nodes[i], i);
+        }
+        
+        this.dispatch = new Dispatch[size];
+        this.reducers = new StateReducer[size];
+        this.branchTimeoutMs = new long[size];
+        this.policies = new NodePolicy[size];
+        this.fallbackTargets = new int[size];
+        this.cancellationKey = graph.getCancellationKey();
+        this.checkpointer = graph.getCheckpointer();
+        this.nodeIndex = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            StateNode<T> node = nodes[i];
+            nodeIndex.put(node.getId(), i);
+            dispatch[i] = Dispatch.compile(graph.getEdges().getOrDefault(node, List.of()), index);
+            StateReducer<T> reducer = graph.getReducer(node.getId());
+            reducers[i] = reducer != null ? reducer : StateReducer.changedKeys();
+            Long timeout = graph.getBranchTimeout(node.getId());
+            branchTimeoutMs[i] = timeout != null ? timeout : -1;
+            policies[i] = graph.getPolicy(node.getId());
+            String fallbackNode = policies[i] != null ? policies[i].getFallbackNode() : null;
+            fallbackTargets[i] = fallbackNode != null ? index.get(graph.getNodes().get(fallbackNode)) : FOLLOW_EDGES;
+        }
+        this.start = index.get(graph.getStartNode());
+        this.end = graph.getEndNode() != null ? index.get(graph.getEndNode()) : END;
+        
+        analyze();
     }
     
     /**
      * 执行图
      */
+    @SuppressWarnings("unchecked")
     public CompletableFuture<T> invoke(T initialState) {
         log.info("🚀 调用编译图执行 - 状态: {}", initialState);
-        return graph.execute(initialState);
+        return run(start, initialState, (StateCallback<T>) NO_CALLBACK, null);
+    }
+    
+    /**
+     * 执行图并按执行ID保存检查点
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<T> invoke(T initialState, String executionId) {
+        log.info("🚀 调用编译图执行 - 执行ID: {}, 状态: {}", executionId, initialState);
+        return run(start, initialState, (StateCallback<T>) NO_CALLBACK, executionId);
     }
     
     /**
      * 流式执行图（支持中间状态回调）
+     * 每个节点开始、结束（或失败）时回调一次；并行分支中的节点在各自的分支线程上回调，回调实现需要线程安全
      */
     public CompletableFuture<T> stream(T initialState, StateCallback<T> callback) {
         log.info("🌊 流式执行编译图 - 状态: {}", initialState);
-        
-        return graph.execute(initialState)
+        return streamFrom(start, initialState, callback, null);
+    }
+    
+    /**
+     * 从执行ID对应的检查点恢复执行，没有检查点（或已过期）时从头执行
+     * 检查点中的状态合并到initialState上，ephemeral键（回调、取消令牌等）由initialState提供
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<T> resume(String executionId, T initialState) {
+        return resume(executionId, initialState, (StateCallback<T>) NO_CALLBACK);
+    }
+    
+    /**
+     * 流式地从检查点恢复执行，已完成的节点不再执行也不再回调
+     */
+    public CompletableFuture<T> resume(String executionId, T initialState, StateCallback<T> callback) {
+        Objects.requireNonNull(executionId, "执行ID不能为空");
+        int from = start;
+        Checkpoint<T> checkpoint = loadCheckpoint(executionId);
+        if (checkpoint != null) {
+            Integer next = nodeIndex.get(checkpoint.getNextNode());
+            if (next != null) {
+                initialState.merge(checkpoint.getState());
+                from = next;
+                log.info("♻️ 从检查点恢复执行 - 执行ID: {}, 已完成: {}, 继续: {}",
+                    executionId, checkpoint.getCompletedNode(), checkpoint.getNextNode());
+            } else {
+                log.warn("⚠️ 检查点中的节点已不存在，从头执行 - 执行ID: {}, 节点: {}", executionId, checkpoint.getNextNode());
+            }
+        }
+        return streamFrom(from, initialState, callback, executionId);
+    }
+    
+    private CompletableFuture<T> streamFrom(int from, T initialState, StateCallback<T> callback, String executionId) {
+        return run(from, initialState, callback, executionId)
             .whenComplete((result, throwable) -> {
                 if (throwable != null) {
                     callback.onError(throwable);
@@ -43,6 +182,662 @@ public class CompiledGraph<T extends GraphState> {
             });
     }
     
+    // ==================== 执行 ====================
+    
+    private CompletableFuture<T> run(int from, T initialState, StateCallback<T> callback, String executionId) {
+        initialState.reserveSlots(stateSlots);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        runFrom(from, initialState, callback, executionId, result);
+        return result;
+    }
+    
+    /**
+     * 从指定节点开始循环执行，直到图结束或遇到ASYNC节点
+     * ASYNC节点完成后在执行器线程上从下一个节点继续，因此调用栈深度不随节点数增长
+     */
+    private void runFrom(int node, T state, StateCallback<T> callback, String executionId,
+                         CompletableFuture<T> result) {
+        int current = node;
+        T currentState = state;
+        
+        while (true) {
+            if (nodes[current].getExecutionMode() == StateNode.ExecutionMode.ASYNC) {
+                dispatchAsync(current, currentState, callback, executionId, result);
+                return;
+            }
+            
+            Transition<T> transition;
+            try {
+                transition = advance(current, currentState, callback);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            
+            if (transition.next == END) {
+                finish(result, transition.state, executionId);
+                return;
+            }
+            saveCheckpoint(executionId, current, transition);
+            current = transition.next;
+            currentState = transition.state;
+        }
+    }
+    
+    /**
+     * 将ASYNC节点派发到执行器，完成后继续执行后续节点
+     */
+    private void dispatchAsync(int node, T state, StateCallback<T> callback, String executionId,
+                               CompletableFuture<T> result) {
+        CompletableFuture.supplyAsync(() -> advance(node, state, callback), executor)
+            .whenComplete((transition, throwable) -> {
+                if (throwable != null) {
+                    result.completeExceptionally(unwrap(throwable));
+                } else if (transition.next == END) {
+                    finish(result, transition.state, executionId);
+                } else {
+                    saveCheckpoint(executionId, node, transition);
+                    runFrom(transition.next, transition.state, callback, executionId, result);
+                }
+            });
+    }
+    
+    private void finish(CompletableFuture<T> result, T state, String executionId) {
+        log.info("🏁 状态图执行完成");
+        if (checkpointer != null && executionId != null) {
+            try {
+                checkpointer.delete(executionId);
+            } catch (RuntimeException e) {
+                log.warn("⚠️ 删除检查点失败: {} - {}", executionId, e.getMessage());
+            }
+        }
+        result.complete(state);
+    }
+    
+    // ==================== 检查点 ====================
+    
+    /**
+     * 保存节点完成后的状态快照；保存失败只影响能否恢复，不影响本次执行
+     */
+    @SuppressWarnings("unchecked")
+    private void saveCheckpoint(String executionId, int completed, Transition<T> transition) {
+        if (checkpointer == null || executionId == null) {
+            return;
+        }
+        try {
+            checkpointer.save(new Checkpoint<>(executionId, nodes[completed].getId(), nodes[transition.next].getId(),
+                (T) transition.state.snapshot(), System.currentTimeMillis()));
+        } catch (RuntimeException e) {
+            log.warn("⚠️ 保存检查点失败: {} @ {} - {}", executionId, nodes[completed].getId(), e.getMessage());
+        }
+    }
+    
+    private Checkpoint<T> loadCheckpoint(String executionId) {
+        if (checkpointer == null) {
+            return null;
+        }
+        try {
+            return checkpointer.load(executionId);
+        } catch (RuntimeException e) {
+            log.warn("⚠️ 读取检查点失败，从头执行: {} - {}", executionId, e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 执行一个节点并确定下一个节点；并行节点会在这里完成分叉与汇合
+     * 结束节点执行后图即结束，不再查找它的出边
+     */
+    private Transition<T> advance(int node, T state, StateCallback<T> callback) {
+        T newState;
+        if (policies[node] == null) {
+            newState = executeNode(node, state, callback);
+        } else {
+            Transition<T> executed = executeWithPolicy(node, state, callback);
+            if (executed.next != FOLLOW_EDGES) {
+                return executed;
+            }
+            newState = executed.state;
+        }
+        if (node == end) {
+            return new Transition<>(newState, END);
+        }
+        if (nodes[node].getType() == StateNode.NodeType.PARALLEL) {
+            return forkJoin(node, newState, callback);
+        }
+        return new Transition<>(newState, next(node, newState));
+    }
+    
+    private int next(int node, T state) {
+        int next = dispatch[node].first(state);
+        if (log.isDebugEnabled()) {
+            log.debug("🔄 状态转换: {} -> {}", nodes[node].getId(), next == END ? "结束" : nodes[next].getId());
+        }
+        return next;
+    }
+    
+    /**
+     * 分叉执行并行节点的所有满足条件的分支，在合并节点（或结束节点）处汇合
+     * 只有一个分支时直接在当前线程执行；多个分支时第一个分支在当前线程执行，其余派发到执行器
+     */
+    private Transition<T> forkJoin(int parallelNode, T forkState, StateCallback<T> callback) {
+        int[] targets = dispatch[parallelNode].all(forkState);
+        if (targets.length == 0) {
+            return new Transition<>(forkState, END);
+        }
+        
+        List<Branch<T>> branches;
+        if (targets.length == 1) {
+            branches = List.of(runBranch(targets[0], copyOf(forkState), callback));
+        } else {
+            branches = awaitBranches(parallelNode, targets, forkState, callback);
+        }
+        
+        // 所有完成的分支必须汇合到同一个节点
+        int join = END;
+        List<T> branchStates = new ArrayList<>(branches.size());
+        for (Branch<T> branch : branches) {
+            if (branch.join != END) {
+                if (join != END && join != branch.join) {
+                    throw new IllegalStateException("并行节点 " + nodes[parallelNode].getId() + " 的分支汇合到了不同的节点: "
+                        + nodes[join].getId() + ", " + nodes[branch.join].getId());
+                }
+                join = branch.join;
+            }
+            branchStates.add(branch.state);
+        }
+        
+        StateReducer<T> reducer = join != END ? reducers[join] : StateReducer.changedKeys();
+        T merged = reducer.reduce(forkState, branchStates);
+        log.debug("🔀 并行分支已汇合: {} -> {}, 分支数: {}", nodes[parallelNode].getId(),
+            join != END ? nodes[join].getId() : "结束", branchStates.size());
+        return new Transition<>(merged, join);
+    }
+    
+    /**
+     * 并发执行多个分支并等待全部完成，超时的分支被丢弃
+     * 第一个分支在当前线程上执行，其余分支派发到执行器，每次分叉只占用分支数减一个执行器线程。
+     * 每个分支的状态副本持有请求令牌的子令牌：分支超时时取消该分支；任一分支失败时立即取消其余分支，
+     * 等待随之结束，不必等排在前面的分支完成。被丢弃的分支不会在汇合之后继续调用上游或推送内容
+     */
+    private List<Branch<T>> awaitBranches(int parallelNode, int[] targets, T forkState,
+                                          StateCallback<T> callback) {
+        CancellationToken parent = cancellationKey != null ? forkState.get(cancellationKey) : null;
+        List<T> branchStates = new ArrayList<>(targets.length);
+        List<CancellationToken> branchTokens = new ArrayList<>(targets.length);
+        for (int i = 0; i < targets.length; i++) {
+            T branchState = copyOf(forkState);
+            CancellationToken branchToken = null;
+            if (cancellationKey != null) {
+                branchToken = parent != null ? parent.child() : new CancellationToken();
+                branchState.set(cancellationKey, branchToken);
+            }
+            branchStates.add(branchState);
+            branchTokens.add(branchToken);
+        }
+        
+        // 第一个失败的分支完成它，同时取消其余分支
+        CompletableFuture<Void> firstFailure = new CompletableFuture<>();
+        List<CompletableFuture<Branch<T>>> futures = new ArrayList<>(targets.length - 1);
+        for (int i = 1; i < targets.length; i++) {
+            int target = targets[i];
+            T branchState = branchStates.get(i);
+            futures.add(CompletableFuture.supplyAsync(() -> runBranch(target, branchState, callback), executor)
+                .whenComplete((branch, throwable) -> {
+                    if (throwable != null) {
+                        failBranches(firstFailure, branchTokens, target, unwrap(throwable));
+                    }
+                }));
+        }
+        
+        long timeoutMs = branchTimeoutMs[parallelNode];
+        long deadline = timeoutMs >= 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs) : 0;
+        Branch<T> inline = runInlineBranch(parallelNode, targets[0], branchStates.get(0), branchTokens.get(0),
+            timeoutMs, deadline, firstFailure, branchTokens, callback);
+        
+        boolean timedOut = false;
+        try {
+            CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+            CompletableFuture<Object> joined = CompletableFuture.anyOf(all, firstFailure);
+            if (timeoutMs < 0) {
+                joined.get();
+            } else {
+                joined.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException e) {
+            timedOut = true;
+        } catch (ExecutionException e) {
+            // 失败的分支已在完成时取消了其余分支
+            Throwable cause = unwrap(firstFailure.isCompletedExceptionally() ? failureOf(firstFailure) : e.getCause());
+            throw cause instanceof RuntimeException ? (RuntimeException) cause
+                : new RuntimeException("并行分支执行失败: " + nodes[parallelNode].getId(), cause);
+        } catch (InterruptedException e) {
+            cancelBranches(branchTokens, "等待并行分支时被中断");
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待并行分支时被中断: " + nodes[parallelNode].getId(), e);
+        }
+        
+        List<Branch<T>> completed = new ArrayList<>(targets.length);
+        if (inline != null) {
+            completed.add(join(inline, branchTokens.get(0), parent));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            CompletableFuture<Branch<T>> future = futures.get(i);
+            if (!timedOut || (future.isDone() && !future.isCompletedExceptionally())) {
+                completed.add(join(future.join(), branchTokens.get(i + 1), parent));
+            } else {
+                cancelBranch(branchTokens.get(i + 1), "并行分支超时: " + nodes[targets[i + 1]].getId());
+                log.warn("⏰ 并行分支超时，已取消并丢弃结果: {} -> {}, 超时: {}ms",
+                    nodes[parallelNode].getId(), nodes[targets[i + 1]].getId(), timeoutMs);
+            }
+        }
+        return completed;
+    }
+    
+    /**
+     * 在当前线程上执行第一个分支；配置了分支超时时由定时线程到时取消该分支的令牌
+     * 超时的分支返回null，由调用方丢弃；其他失败会取消其余分支并抛出
+     */
+    private Branch<T> runInlineBranch(int parallelNode, int target, T branchState, CancellationToken branchToken,
+                                      long timeoutMs, long deadline, CompletableFuture<Void> firstFailure,
+                                      List<CancellationToken> branchTokens, StateCallback<T> callback) {
+        ScheduledFuture<?> timer = timeoutMs >= 0 && branchToken != null
+            ? DEADLINES.schedule(() -> branchToken.cancel("并行分支超时: " + nodes[target].getId()),
+                timeoutMs, TimeUnit.MILLISECONDS)
+            : null;
+        Branch<T> branch = null;
+        RuntimeException failure = null;
+        try {
+            branch = runBranch(target, branchState, callback);
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
+        
+        if (timeoutMs >= 0 && System.nanoTime() - deadline >= 0 && !firstFailure.isDone()) {
+            cancelBranch(branchToken, "并行分支超时: " + nodes[target].getId());
+            log.warn("⏰ 并行分支超时，已取消并丢弃结果: {} -> {}, 超时: {}ms",
+                nodes[parallelNode].getId(), nodes[target].getId(), timeoutMs);
+            return null;
+        }
+        if (failure != null) {
+            failBranches(firstFailure, branchTokens, target, failure);
+            // 本分支可能是因为其他分支失败而被取消的，抛出最先发生的失败
+            Throwable cause = failureOf(firstFailure);
+            throw cause instanceof RuntimeException ? (RuntimeException) cause
+                : new RuntimeException("并行分支执行失败: " + nodes[target].getId(), cause);
+        }
+        if (firstFailure.isDone()) {
+            Throwable cause = failureOf(firstFailure);
+            throw cause instanceof RuntimeException ? (RuntimeException) cause
+                : new RuntimeException("并行分支执行失败: " + nodes[parallelNode].getId(), cause);
+        }
+        return branch;
+    }
+    
+    /**
+     * 记录第一个失败的分支并取消全部分支，之后的失败（多为被取消的兄弟分支）只被忽略
+     */
+    private void failBranches(CompletableFuture<Void> firstFailure, List<CancellationToken> branchTokens,
+                              int target, Throwable failure) {
+        if (firstFailure.completeExceptionally(failure)) {
+            cancelBranches(branchTokens, "并行分支失败: " + nodes[target].getId());
+        }
+    }
+    
+    private static Throwable failureOf(CompletableFuture<Void> failed) {
+        try {
+            failed.join();
+            return null;
+        } catch (CompletionException e) {
+            return unwrap(e);
+        }
+    }
+    
+    /**
+     * 汇合前换回请求令牌，分支令牌随之结束，释放它在父令牌上的监听
+     */
+    private Branch<T> join(Branch<T> branch, CancellationToken branchToken, CancellationToken parent) {
+        if (cancellationKey != null) {
+            branch.state.set(cancellationKey, parent);
+        }
+        cancelBranch(branchToken, "并行分支结束");
+        return branch;
+    }
+    
+    private static void cancelBranch(CancellationToken branchToken, String reason) {
+        if (branchToken != null) {
+            branchToken.cancel(reason);
+        }
+    }
+    
+    private static void cancelBranches(List<CancellationToken> branchTokens, String reason) {
+        for (CancellationToken branchToken : branchTokens) {
+            cancelBranch(branchToken, reason);
+        }
+    }
+    
+    /**
+     * 执行单个分支：从起点依次执行，走到合并节点或结束节点时停下，由分叉处统一执行
+     * 分支内的节点都在分支所在线程上执行，嵌套的并行节点在分支内完成分叉与汇合
+     */
+    private Branch<T> runBranch(int first, T state, StateCallback<T> callback) {
+        int current = first;
+        T currentState = state;
+        while (current != END) {
+            if (current == end || nodes[current].getType() == StateNode.NodeType.MERGE) {
+                return new Branch<>(currentState, current);
+            }
+            if (policies[current] != null) {
+                Transition<T> executed = executeWithPolicy(current, currentState, callback);
+                currentState = executed.state;
+                if (executed.next != FOLLOW_EDGES) {
+                    current = executed.next;
+                    continue;
+                }
+            } else {
+                currentState = executeNode(current, currentState, callback);
+            }
+            if (nodes[current].getType() == StateNode.NodeType.PARALLEL) {
+                Transition<T> transition = forkJoin(current, currentState, callback);
+                currentState = transition.state;
+                current = transition.next;
+            } else {
+                current = next(current, currentState);
+            }
+        }
+        return new Branch<>(currentState, END);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private T copyOf(T state) {
+        return (T) state.copy();
+    }
+    
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null
+            ? throwable.getCause() : throwable;
+    }
+    
+    /**
+     * 执行单个节点，并在开始和结束时通知回调
+     */
+    private T executeNode(int index, T state, StateCallback<T> callback) {
+        StateNode<T> node = nodes[index];
+        log.info("📍 执行状态节点: {}", node.getId());
+        long startTime = System.nanoTime();
+        notifyEnter(callback, node, state);
+        
+        try {
+            // 执行节点函数
+            T newState = node.getFunction().apply(state);
+            
+            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            log.info("✅ 节点执行完成: {} - 耗时: {}ms", node.getId(), duration);
+            notifyExit(callback, node, newState, duration);
+            
+            return newState;
+        } catch (Exception e) {
+            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            log.error("❌ 节点执行失败: {} - 耗时: {}ms, 错误: {}", 
+                node.getId(), duration, e.getMessage());
+            notifyError(callback, node, e, duration);
+            throw new RuntimeException("节点执行失败: " + node.getId(), e);
+        }
+    }
+    
+    // ==================== 执行策略 ====================
+    
+    /**
+     * 按节点策略执行：超时、重试、降级
+     * 返回的next为FOLLOW_EDGES表示沿原有出边继续，否则为降级跳转的节点
+     */
+    private Transition<T> executeWithPolicy(int index, T state, StateCallback<T> callback) {
+        NodePolicy<T> policy = policies[index];
+        String nodeId = nodes[index].getId();
+        long backoff = policy.getBackoffMs();
+        RuntimeException failure = null;
+        
+        for (int attempt = 0; attempt <= policy.getMaxRetries(); attempt++) {
+            if (attempt > 0) {
+                log.warn("🔁 节点重试: {} - 第{}次, 等待{}ms, 上次错误: {}", nodeId, attempt, backoff, failure.getMessage());
+                awaitBackoff(backoff, state);
+                backoff = (long) (backoff * policy.getBackoffMultiplier());
+            }
+            try {
+                return new Transition<>(executeAttempt(index, state, callback, policy), FOLLOW_EDGES);
+            } catch (RuntimeException e) {
+                // 请求本身已取消，不再重试或降级
+                if (isRequestCancelled(state)) {
+                    throw e;
+                }
+                failure = e;
+            }
+        }
+        
+        if (!policy.hasFallback()) {
+            throw failure;
+        }
+        int target = fallbackTargets[index];
+        log.warn("↪️ 节点执行失败，执行降级: {} -> {}, 原因: {}", nodeId,
+            target == FOLLOW_EDGES ? "原有路径" : nodes[target].getId(), failure.getMessage());
+        T fallbackState = state;
+        if (policy.getFallback() != null) {
+            try {
+                fallbackState = policy.getFallback().apply(state, failure);
+            } catch (Exception e) {
+                RuntimeException fallbackFailure = new RuntimeException("节点降级失败: " + nodeId, e);
+                fallbackFailure.addSuppressed(failure);
+                throw fallbackFailure;
+            }
+        }
+        return new Transition<>(fallbackState, target);
+    }
+    
+    /**
+     * 执行一次尝试；配置了超时时，该次尝试使用请求令牌的子令牌，到时取消
+     * 节点在超时后才返回（例如吞掉了取消异常）同样按超时处理
+     */
+    private T executeAttempt(int index, T state, StateCallback<T> callback, NodePolicy<T> policy) {
+        if (!policy.hasTimeout()) {
+            return executeNode(index, state, callback);
+        }
+        
+        String nodeId = nodes[index].getId();
+        long timeoutMs = policy.getTimeoutMs();
+        CancellationToken parent = state.get(cancellationKey);
+        CancellationToken attemptToken = parent != null ? parent.child() : new CancellationToken();
+        ScheduledFuture<?> deadline = DEADLINES.schedule(() -> {
+            if (attemptToken.cancel("节点执行超时: " + nodeId)) {
+                log.warn("⏰ 节点执行超时，中止在途调用: {} - 时限: {}ms", nodeId, timeoutMs);
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        state.set(cancellationKey, attemptToken);
+        
+        T result;
+        try {
+            result = executeNode(index, state, callback);
+        } catch (RuntimeException e) {
+            boolean timedOut = isTimedOut(attemptToken, parent);
+            release(deadline, attemptToken, parent, state, null);
+            throw timedOut ? new NodeTimeoutException(nodeId, timeoutMs, e) : e;
+        }
+        boolean timedOut = isTimedOut(attemptToken, parent);
+        release(deadline, attemptToken, parent, state, result);
+        if (timedOut) {
+            throw new NodeTimeoutException(nodeId, timeoutMs, null);
+        }
+        return result;
+    }
+    
+    private static boolean isTimedOut(CancellationToken attemptToken, CancellationToken parent) {
+        return attemptToken.isCancelled() && (parent == null || !parent.isCancelled());
+    }
+    
+    /**
+     * 结束一次尝试：撤销定时、恢复请求令牌，并结束子令牌以释放它在父令牌上的监听
+     */
+    private void release(ScheduledFuture<?> deadline, CancellationToken attemptToken, CancellationToken parent,
+                         T state, T result) {
+        deadline.cancel(false);
+        state.set(cancellationKey, parent);
+        if (result != null && result != state) {
+            result.set(cancellationKey, parent);
+        }
+        attemptToken.cancel("节点执行结束");
+    }
+    
+    private boolean isRequestCancelled(T state) {
+        if (cancellationKey == null) {
+            return false;
+        }
+        CancellationToken token = state.get(cancellationKey);
+        return token != null && token.isCancelled();
+    }
+    
+    /**
+     * 重试前等待，请求被取消时立即结束等待
+     */
+    private void awaitBackoff(long delayMs, T state) {
+        if (delayMs <= 0) {
+            return;
+        }
+        CancellationToken token = cancellationKey != null ? state.get(cancellationKey) : null;
+        CountDownLatch latch = new CountDownLatch(1);
+        CancellationToken.Registration registration = token != null ? token.onCancel(latch::countDown) : null;
+        try {
+            latch.await(delayMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestCancelledException("节点重试等待时被中断");
+        } finally {
+            if (registration != null) {
+                registration.close();
+            }
+        }
+        if (token != null) {
+            token.throwIfCancelled();
+        }
+    }
+    
+    private static ScheduledThreadPoolExecutor createDeadlineTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "graph-node-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+    
+    // 回调只用于观察执行过程，回调自身抛出的异常不影响图的执行
+    
+    private void notifyEnter(StateCallback<T> callback, StateNode<T> node, T state) {
+        if (callback == NO_CALLBACK) {
+            return;
+        }
+        try {
+            callback.onNodeEnter(node.getId(), state);
+        } catch (RuntimeException e) {
+            log.warn("⚠️ 节点开始回调失败: {} - {}", node.getId(), e.getMessage());
+        }
+    }
+    
+    private void notifyExit(StateCallback<T> callback, StateNode<T> node, T state, long durationMs) {
+        if (callback == NO_CALLBACK) {
+            return;
+        }
+        try {
+            callback.onNodeExit(node.getId(), state, durationMs);
+        } catch (RuntimeException e) {
+            log.warn("⚠️ 节点完成回调失败: {} - {}", node.getId(), e.getMessage());
+        }
+    }
+    
+    private void notifyError(StateCallback<T> callback, StateNode<T> node, Throwable error, long durationMs) {
+        if (callback == NO_CALLBACK) {
+            return;
+        }
+        try {
+            callback.onNodeError(node.getId(), error, durationMs);
+        } catch (RuntimeException e) {
+            log.warn("⚠️ 节点失败回调失败: {} - {}", node.getId(), e.getMessage());
+        }
+    }
+    
+    // ==================== 编译期分析 ====================
+    
+    /**
+     * 检查可达性和环路
+     * 不可达的节点只告警；只由无条件边构成的环路必然死循环，直接报错；带条件的环路允许存在
+     */
+    private void analyze() {
+        boolean[] reachable = new boolean[nodes.length];
+        int[] stack = new int[nodes.length];
+        int top = 0;
+        stack[top++] = start;
+        reachable[start] = true;
+        while (top > 0) {
+            for (int target : dispatch[stack[--top]].targets) {
+                if (!reachable[target]) {
+                    reachable[target] = true;
+                    stack[top++] = target;
+                }
+            }
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            if (!reachable[i]) {
+                log.warn("⚠️ 节点从开始节点不可达: {}", nodes[i].getId());
+            }
+        }
+        if (end != END && !reachable[end]) {
+            log.warn("⚠️ 结束节点从开始节点不可达: {}", nodes[end].getId());
+        }
+        
+        // 沿着编译期已确定的唯一后继前进，回到走过的节点即为无条件环路
+        int[] visitedBy = new int[nodes.length];
+        Arrays.fill(visitedBy, -1);
+        for (int i = 0; i < nodes.length; i++) {
+            int current = i;
+            while (current != END && current != end && visitedBy[current] == -1) {
+                visitedBy[current] = i;
+                current = nodes[current].getType() == StateNode.NodeType.PARALLEL ? END : dispatch[current].constantNext();
+            }
+            if (current != END && current != end && visitedBy[current] == i) {
+                throw new IllegalStateException("状态图存在无条件环路，经过节点: " + nodes[current].getId());
+            }
+        }
+        
+        if (hasCycle()) {
+            log.info("🔁 状态图包含条件环路，执行时由条件决定是否退出");
+        }
+    }
+    
+    private boolean hasCycle() {
+        // 0: 未访问, 1: 在当前路径上, 2: 已完成
+        byte[] color = new byte[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            if (color[i] == 0 && hasCycleFrom(i, color)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private boolean hasCycleFrom(int node, byte[] color) {
+        color[node] = 1;
+        for (int target : dispatch[node].targets) {
+            if (color[target] == 1 || (color[target] == 0 && hasCycleFrom(target, color))) {
+                return true;
+            }
+        }
+        color[node] = 2;
+        return false;
+    }
+    
     /**
      * 获取图信息
      */
@@ -56,16 +851,177 @@ public class CompiledGraph<T extends GraphState> {
     }
     
     /**
-     * 关闭资源
+     * 关闭资源（只关闭图自己创建的执行器）
      */
     public void shutdown() {
         graph.shutdown();
     }
     
+    /**
+     * 节点执行结果：新状态及下一个节点下标
+     */
+    private static final class Transition<T extends GraphState> {
+        private final T state;
+        private final int next;
+        
+        Transition(T state, int next) {
+            this.state = state;
+            this.next = next;
+        }
+    }
+    
+    /**
+     * 分支执行结果：分支结束状态及汇合节点下标（分支直接结束时为END）
+     */
+    private static final class Branch<T extends GraphState> {
+        private final T state;
+        private final int join;
+        
+        Branch(T state, int join) {
+            this.state = state;
+            this.join = join;
+        }
+    }
+    
+    /**
+     * 单个节点编译后的出边
+     */
+    private static final class Dispatch<T extends GraphState> {
+        // 全部出边的目标，按声明顺序
+        private final int[] targets;
+        // 路由跳转表：按枚举序号索引，最后一行对应状态中没有路由值的情况；为null表示不使用跳转表
+        private final StateKey<? extends Enum<?>> routeKey;
+        private final int[][] routeTable;
+        // 逐条求值时使用的条件，null表示无条件
+        private final Predicate<T>[] conditions;
+        private final boolean unconditional;
+        
+        private Dispatch(int[] targets, StateKey<? extends Enum<?>> routeKey, int[][] routeTable,
+                         Predicate<T>[] conditions, boolean unconditional) {
+            this.targets = targets;
+            this.routeKey = routeKey;
+            this.routeTable = routeTable;
+            this.conditions = conditions;
+            this.unconditional = unconditional;
+        }
+        
+        @SuppressWarnings("unchecked")
+        static <T extends GraphState> Dispatch<T> compile(List<StateGraph.EdgeInfo<T>> edges,
+                                                          Map<StateNode<T>, Integer> index) {
+            int[] targets = new int[edges.size()];
+            Predicate<T>[] conditions = new Predicate[edges.size()];
+            boolean unconditional = true;
+            StateKey<? extends Enum<?>> routeKey = null;
+            boolean routable = true;
+            for (int i = 0; i < edges.size(); i++) {
+                StateGraph.EdgeInfo<T> edge = edges.get(i);
+                targets[i] = index.get(edge.getTarget());
+                conditions[i] = edge.getCondition();
+                if (edge.isUnconditional()) {
+                    continue;
+                }
+                unconditional = false;
+                if (edge.getRouteKey() == null || (routeKey != null && routeKey != edge.getRouteKey())) {
+                    routable = false;
+                }
+                routeKey = edge.getRouteKey();
+            }
+            if (unconditional || !routable) {
+                return new Dispatch<>(targets, null, null, conditions, unconditional);
+            }
+            
+            Enum<?>[] constants = routeKey.getType().getEnumConstants();
+            int[][] table = new int[constants.length + 1][];
+            for (int row = 0; row <= constants.length; row++) {
+                Enum<?> value = row < constants.length ? constants[row] : null;
+                int[] matched = new int[edges.size()];
+                int count = 0;
+                for (int i = 0; i < edges.size(); i++) {
+                    if (edges.get(i).matchesRoute(value)) {
+                        matched[count++] = targets[i];
+                    }
+                }
+                table[row] = count == 0 ? NO_TARGETS : Arrays.copyOf(matched, count);
+            }
+            return new Dispatch<>(targets, routeKey, table, conditions, false);
+        }
+        
+        /**
+         * 第一个命中的后继，没有时返回END
+         */
+        int first(T state) {
+            if (unconditional) {
+                return targets.length > 0 ? targets[0] : END;
+            }
+            if (routeTable != null) {
+                int[] row = routeRow(state);
+                return row.length > 0 ? row[0] : END;
+            }
+            for (int i = 0; i < conditions.length; i++) {
+                if (conditions[i] == null || conditions[i].test(state)) {
+                    return targets[i];
+                }
+            }
+            return END;
+        }
+        
+        /**
+         * 全部命中的后继，用于并行节点
+         */
+        int[] all(T state) {
+            if (unconditional) {
+                return targets;
+            }
+            if (routeTable != null) {
+                return routeRow(state);
+            }
+            int[] matched = new int[targets.length];
+            int count = 0;
+            for (int i = 0; i < conditions.length; i++) {
+                if (conditions[i] == null || conditions[i].test(state)) {
+                    matched[count++] = targets[i];
+                }
+            }
+            return count == matched.length ? matched : Arrays.copyOf(matched, count);
+        }
+        
+        /**
+         * 编译期即可确定的唯一后继；取决于状态时返回END
+         */
+        int constantNext() {
+            if (targets.length == 0) {
+                return END;
+            }
+            return conditions[0] == null ? targets[0] : END;
+        }
+        
+        private int[] routeRow(T state) {
+            Enum<?> value = state.get(routeKey);
+            return routeTable[value != null ? value.ordinal() : routeTable.length - 1];
+        }
+    }
+    
     /**
      * 状态回调接口
      */
     public interface StateCallback<T extends GraphState> {
+        /**
+         * 节点开始执行
+         */
+        default void onNodeEnter(String nodeId, T state) {}
+        
+        /**
+         * 节点执行完成，默认转发给onStateChange
+         */
+        default void onNodeExit(String nodeId, T state, long durationMs) {
+            onStateChange(nodeId, state);
+        }
+        
+        /**
+         * 节点执行失败，随后图以该异常结束
+         */
+        default void onNodeError(String nodeId, Throwable error, long durationMs) {}
+        
         default void onStateChange(String nodeId, T state) {}
         default void onComplete(T finalState) {}
         default void onError(Throwable throwable) {}
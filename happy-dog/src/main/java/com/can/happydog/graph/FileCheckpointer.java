@@ -0,0 +1,126 @@
+package com.can.happydog.graph;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 本地文件检查点存储
+ * 每个执行ID对应目录下的一个JSON文件，先写临时文件再原子替换，进程重启后仍可恢复。
+ * 状态按键名保存非ephemeral键的值，读取时按键声明的类型反序列化；
+ * 任意一个值无法还原时整个检查点视为无效，图从头执行，而不是带着残缺的状态继续。
+ */
+public class FileCheckpointer<T extends GraphState> implements Checkpointer<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(FileCheckpointer.class);
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+    private final Supplier<T> stateFactory;
+    private final long ttlMs;
+
+    public FileCheckpointer(Path directory, ObjectMapper objectMapper, Supplier<T> stateFactory, long ttlMs) {
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+        this.stateFactory = stateFactory;
+        this.ttlMs = ttlMs;
+    }
+
+    @Override
+    public void save(Checkpoint<T> checkpoint) {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("executionId", checkpoint.getExecutionId());
+        root.put("completedNode", checkpoint.getCompletedNode());
+        root.put("nextNode", checkpoint.getNextNode());
+        root.put("timestamp", checkpoint.getTimestamp());
+        ObjectNode state = root.putObject("state");
+        checkpoint.getState().forEach((key, value) -> {
+            if (!key.isEphemeral()) {
+                state.set(key.getName(), objectMapper.valueToTree(value));
+            }
+        });
+
+        Path target = fileOf(checkpoint.getExecutionId());
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, ".checkpoint", ".tmp");
+            try {
+                objectMapper.writeValue(temp.toFile(), root);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("写入检查点失败: " + target, e);
+        }
+    }
+
+    @Override
+    public Checkpoint<T> load(String executionId) {
+        Path file = fileOf(executionId);
+        JsonNode root;
+        try {
+            root = objectMapper.readTree(file.toFile());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            log.warn("⚠️ 检查点文件无法解析，忽略: {} - {}", file, e.getMessage());
+            return null;
+        }
+
+        long timestamp = root.path("timestamp").asLong();
+        if (System.currentTimeMillis() - timestamp > ttlMs) {
+            delete(executionId);
+            return null;
+        }
+
+        T state = stateFactory.get();
+        Iterator<Map.Entry<String, JsonNode>> fields = root.path("state").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            StateKey<?> key = StateKey.named(field.getKey());
+            if (key == null) {
+                log.warn("⚠️ 检查点包含未声明的状态键，忽略该检查点: {} - {}", executionId, field.getKey());
+                return null;
+            }
+            try {
+                state.writeSlot(key.slot(), objectMapper.treeToValue(field.getValue(), key.getType()));
+            } catch (IOException | IllegalArgumentException e) {
+                log.warn("⚠️ 检查点状态无法还原，忽略该检查点: {} - {}: {}", executionId, key, e.getMessage());
+                return null;
+            }
+        }
+        return new Checkpoint<>(executionId, root.path("completedNode").asText(null),
+            root.path("nextNode").asText(null), state, timestamp);
+    }
+
+    @Override
+    public void delete(String executionId) {
+        try {
+            Files.deleteIfExists(fileOf(executionId));
+        } catch (IOException e) {
+            log.warn("⚠️ 删除检查点失败: {} - {}", executionId, e.getMessage());
+        }
+    }
+
+    /**
+     * 执行ID来自客户端，只保留安全字符作为文件名
+     */
+    private Path fileOf(String executionId) {
+        return directory.resolve(executionId.replaceAll("[^A-Za-z0-9_.-]", "_") + ".json");
+    }
+}
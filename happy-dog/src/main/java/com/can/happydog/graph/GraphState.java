@@ -3,24 +3,68 @@ package com.can.happydog.graph;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 /**
  * 图状态基类 - 在状态图执行过程中传递的状态信息
+ *
+ * 状态值按StateKey的槽位存放在数组中，通过类型化的键读写不做哈希查找和类型转换；
+ * 字符串键的读写保留用于兼容，内部会先解析成对应的StateKey。
+ * copy()与原状态共享同一个数组，任意一方首次写入时才复制（写时复制）。
  */
-@Getter
-@Setter
 public abstract class GraphState {
 
-    protected Map<String, Object> data = new HashMap<>();
+    private static final Object[] EMPTY = new Object[0];
+
+    protected Object[] slots = EMPTY;
+    // 槽位数组是否与其他状态共享，共享时写入前需要先复制
+    protected boolean shared;
+    @Getter
+    @Setter
     protected long timestamp = System.currentTimeMillis();
 
     /**
-     * 获取状态数据
+     * 通过类型化的键获取状态数据
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(StateKey<V> key) {
+        int slot = key.slot();
+        return slot < slots.length ? (V) slots[slot] : null;
+    }
+
+    /**
+     * 通过类型化的键设置状态数据，值为null等同于移除
+     */
+    public <V> void set(StateKey<V> key, V value) {
+        writeSlot(key.slot(), value);
+    }
+
+    /**
+     * 检查是否包含某个键
+     */
+    public boolean contains(StateKey<?> key) {
+        return get(key) != null;
+    }
+
+    /**
+     * 移除状态数据
+     */
+    public void remove(StateKey<?> key) {
+        writeSlot(key.slot(), null);
+    }
+
+    /**
+     * 获取状态数据（字符串键）
      */
     public <T> T get(String key, Class<T> type) {
-        Object value = data.get(key);
+        StateKey<?> stateKey = StateKey.named(key);
+        if (stateKey == null) {
+            return null;
+        }
+        Object value = get(stateKey);
         if (value == null) {
             return null;
         }
@@ -33,43 +77,127 @@ public abstract class GraphState {
     }
 
     /**
-     * 设置状态数据
+     * 设置状态数据（字符串键），键已声明类型时校验值的类型
      */
     public void set(String key, Object value) {
-        data.put(key, value);
+        StateKey<?> stateKey = StateKey.namedOrDeclare(key);
+        if (value != null && !stateKey.getType().isInstance(value)) {
+            throw new ClassCastException("Cannot cast " + value.getClass() + " to " + stateKey.getType());
+        }
+        writeSlot(stateKey.slot(), value);
     }
 
     /**
-     * 检查是否包含某个键
+     * 检查是否包含某个键（字符串键）
      */
     public boolean contains(String key) {
-        return data.containsKey(key);
+        StateKey<?> stateKey = StateKey.named(key);
+        return stateKey != null && contains(stateKey);
     }
 
     /**
-     * 移除状态数据
+     * 移除状态数据（字符串键）
      */
     public void remove(String key) {
-        data.remove(key);
+        StateKey<?> stateKey = StateKey.named(key);
+        if (stateKey != null) {
+            remove(stateKey);
+        }
     }
 
     /**
-     * 获取所有状态数据
+     * 获取所有状态数据的快照，仅用于调试和日志
      */
     public Map<String, Object> getData() {
-        return new HashMap<>(data);
+        Map<String, Object> data = new LinkedHashMap<>();
+        forEach((key, value) -> data.put(key.getName(), value));
+        return data;
+    }
+
+    /**
+     * 预留槽位，避免执行过程中数组扩容
+     */
+    public void reserveSlots(int slotCount) {
+        if (slots.length < slotCount) {
+            slots = Arrays.copyOf(slots, slotCount);
+            shared = false;
+        }
+    }
+
+    /**
+     * 清空所有状态数据
+     */
+    public void clear() {
+        slots = EMPTY;
+        shared = false;
     }
 
+    /**
+     * 创建用于检查点的快照：与copy()相同，但不包含ephemeral键的值
+     */
+    public GraphState snapshot() {
+        GraphState snapshot = copy();
+        for (int i = 0; i < snapshot.slots.length; i++) {
+            if (snapshot.slots[i] != null && StateKey.bySlot(i).isEphemeral()) {
+                snapshot.writeSlot(i, null);
+            }
+        }
+        return snapshot;
+    }
+    
+    /**
+     * 遍历所有有值的键
+     */
+    public void forEach(BiConsumer<StateKey<?>, Object> action) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                action.accept(StateKey.bySlot(i), slots[i]);
+            }
+        }
+    }
+    
     /**
      * 创建状态副本
      */
     public abstract GraphState copy();
 
     /**
-     * 合并另一个状态
+     * 把当前状态的数据共享给副本，由子类的copy()调用
+     */
+    protected void copyInto(GraphState target) {
+        target.slots = this.slots;
+        target.timestamp = this.timestamp;
+        if (slots.length > 0) {
+            target.shared = true;
+            this.shared = true;
+        }
+    }
+
+    /**
+     * 合并另一个状态：对方有值的键覆盖当前值
      */
     public void merge(GraphState other) {
-        this.data.putAll(other.data);
+        Object[] source = other.slots;
+        for (int i = 0; i < source.length; i++) {
+            if (source[i] != null) {
+                writeSlot(i, source[i]);
+            }
+        }
+    }
+
+    Object readSlot(int slot) {
+        return slot < slots.length ? slots[slot] : null;
+    }
+
+    void writeSlot(int slot, Object value) {
+        if (shared || slot >= slots.length) {
+            if (value == null && slot >= slots.length) {
+                return;
+            }
+            slots = Arrays.copyOf(slots, Math.max(slot + 1, Math.max(slots.length, StateKey.slotCount())));
+            shared = false;
+        }
+        slots[slot] = value;
     }
 
     // 注意：timestamp的getter已通过@Getter注解自动生成
@@ -77,9 +205,8 @@ public abstract class GraphState {
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
-                "data=" + data.keySet() +
+                "data=" + getData().keySet() +
                 ", timestamp=" + timestamp +
                 '}';
     }
 }
-
@@ -0,0 +1,50 @@
+package com.can.happydog.graph;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 内存检查点存储
+ * 按条目数和存活时间双重限制，超出条目数时淘汰最早写入的检查点；进程重启后丢失
+ */
+public class MemoryCheckpointer<T extends GraphState> implements Checkpointer<T> {
+
+    private final long ttlMs;
+    private final Map<String, Checkpoint<T>> checkpoints;
+
+    public MemoryCheckpointer(int maxEntries, long ttlMs) {
+        this.ttlMs = ttlMs;
+        this.checkpoints = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Checkpoint<T>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public synchronized void save(Checkpoint<T> checkpoint) {
+        // 先删除再写入，保持按最近写入时间排序
+        checkpoints.remove(checkpoint.getExecutionId());
+        checkpoints.put(checkpoint.getExecutionId(), checkpoint);
+    }
+
+    @Override
+    public synchronized Checkpoint<T> load(String executionId) {
+        Checkpoint<T> checkpoint = checkpoints.get(executionId);
+        if (checkpoint != null && System.currentTimeMillis() - checkpoint.getTimestamp() > ttlMs) {
+            checkpoints.remove(executionId);
+            return null;
+        }
+        return checkpoint;
+    }
+
+    @Override
+    public synchronized void delete(String executionId) {
+        checkpoints.remove(executionId);
+    }
+
+    public synchronized int size() {
+        return checkpoints.size();
+    }
+}
@@ -0,0 +1,118 @@
+package com.can.happydog.graph;
+
+/**
+ * 节点执行策略 - 超时、重试与降级
+ *
+ * 超时通过取消令牌实现：每次尝试使用请求令牌的子令牌，到时由共享的定时线程取消，
+ * 在途的上游调用随之中止，不需要为每个节点额外占用等待线程；节点需要响应取消令牌才能及时结束。
+ * 重试耗尽后，若配置了降级则执行降级函数并跳转到降级节点（未配置时沿原有的边继续），否则图以失败结束。
+ * 请求本身被取消时不重试也不降级。
+ */
+public class NodePolicy<T extends GraphState> {
+
+    private long timeoutMs;
+    private int maxRetries;
+    private long backoffMs = 100;
+    private double backoffMultiplier = 2.0;
+    private String fallbackNode;
+    private Fallback<T> fallback;
+
+    /**
+     * 降级函数：根据失败前的状态和失败原因生成降级后的状态
+     */
+    @FunctionalInterface
+    public interface Fallback<T extends GraphState> {
+        T apply(T state, Throwable failure) throws Exception;
+    }
+
+    public static <T extends GraphState> NodePolicy<T> create() {
+        return new NodePolicy<>();
+    }
+
+    /**
+     * 单次尝试的时限（毫秒），小于等于0表示不限时
+     */
+    public NodePolicy<T> timeout(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        return this;
+    }
+
+    /**
+     * 失败后的重试次数，以及首次重试前的等待时间（之后按倍数递增）
+     */
+    public NodePolicy<T> retry(int maxRetries, long backoffMs) {
+        if (maxRetries < 0 || backoffMs < 0) {
+            throw new IllegalArgumentException("重试次数和退避时间不能为负数");
+        }
+        this.maxRetries = maxRetries;
+        this.backoffMs = backoffMs;
+        return this;
+    }
+
+    public NodePolicy<T> backoffMultiplier(double backoffMultiplier) {
+        if (backoffMultiplier < 1.0) {
+            throw new IllegalArgumentException("退避倍数不能小于1");
+        }
+        this.backoffMultiplier = backoffMultiplier;
+        return this;
+    }
+
+    /**
+     * 失败后跳转到指定节点继续执行
+     */
+    public NodePolicy<T> fallbackTo(String nodeId) {
+        this.fallbackNode = nodeId;
+        return this;
+    }
+
+    /**
+     * 失败后用降级函数生成状态，再沿原有的边（或fallbackTo指定的节点）继续执行
+     */
+    public NodePolicy<T> fallback(Fallback<T> fallback) {
+        this.fallback = fallback;
+        return this;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getBackoffMs() {
+        return backoffMs;
+    }
+
+    public double getBackoffMultiplier() {
+        return backoffMultiplier;
+    }
+
+    public String getFallbackNode() {
+        return fallbackNode;
+    }
+
+    public Fallback<T> getFallback() {
+        return fallback;
+    }
+
+    public boolean hasTimeout() {
+        return timeoutMs > 0;
+    }
+
+    public boolean hasFallback() {
+        return fallbackNode != null || fallback != null;
+    }
+
+    @Override
+    public String toString() {
+        return "NodePolicy{" +
+                "timeoutMs=" + timeoutMs +
+                ", maxRetries=" + maxRetries +
+                ", backoffMs=" + backoffMs +
+                ", fallbackNode='" + fallbackNode + '\'' +
+                ", fallback=" + (fallback != null) +
+                '}';
+    }
+}
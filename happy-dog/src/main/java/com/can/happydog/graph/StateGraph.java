@@ -1,17 +1,28 @@
 package com.can.happydog.graph;
 
+import com.can.happydog.service.CancellationToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 /**
- * LangGraph风格的状态图执行引擎
- * 支持DAG图的状态管理、并行执行和条件分支
+ * LangGraph风格的状态图
+ * 负责声明节点和边，compile()之后由CompiledGraph执行
+ *
+ * 默认节点在调用线程上按循环依次执行，不切换线程也不构建嵌套的Future链；
+ * 只有标记为ASYNC的节点才派发到执行器，其后的节点在该执行器线程上继续内联执行。
+ *
+ * PARALLEL节点执行后，所有满足条件的出边作为分支，在状态副本上并发执行，
+ * 各分支走到同一个MERGE节点时汇合，由该节点的归并器把分支结果合并后继续执行。
+ *
+ * 按路由枚举分支的边用addRouteEdge声明，编译后直接按枚举序号查表，不再逐个求值条件。
  */
 public class StateGraph<T extends GraphState> {
     
@@ -19,40 +30,149 @@ public class StateGraph<T extends GraphState> {
     
     private final Map<String, StateNode<T>> nodes;
     private final Map<StateNode<T>, List<EdgeInfo<T>>> edges;
-    private final ExecutorService executor;
+    private final Executor executor;
+    // 默认构造时由图自己创建的执行器，shutdown时需要关闭
+    private final ExecutorService ownedExecutor;
+    // 合并节点的归并器，未配置时使用StateReducer.changedKeys()
+    private final Map<String, StateReducer<T>> reducers = new HashMap<>();
+    // 并行节点的分支超时（毫秒），未配置表示不限时
+    private final Map<String, Long> branchTimeouts = new HashMap<>();
     private StateNode<T> startNode;
     private StateNode<T> endNode;
+    // 节点执行策略（超时/重试/降级）
+    private final Map<String, NodePolicy<T>> policies = new HashMap<>();
+    // 状态中取消令牌所在的键，节点超时通过取消该令牌的子令牌实现
+    private StateKey<CancellationToken> cancellationKey;
+    // 检查点存储，为null时不保存检查点
+    private Checkpointer<T> checkpointer;
     
     public StateGraph() {
-        this.nodes = new HashMap<>();
+        this(Executors.newCachedThreadPool(), true);
+    }
+    
+    /**
+     * 使用外部执行器运行ASYNC节点，执行器的生命周期由调用方管理
+     */
+    public StateGraph(Executor executor) {
+        this(executor, false);
+    }
+    
+    private StateGraph(Executor executor, boolean owned) {
+        this.nodes = new LinkedHashMap<>();
         this.edges = new HashMap<>();
-        this.executor = Executors.newCachedThreadPool();
+        this.executor = Objects.requireNonNull(executor, "执行器不能为空");
+        this.ownedExecutor = owned ? (ExecutorService) executor : null;
     }
     
     /**
      * 边信息
+     * condition为null表示无条件边；路由边同时记录路由键和命中的取值，编译时据此生成跳转表
      */
-    private static class EdgeInfo<T extends GraphState> {
+    static final class EdgeInfo<T extends GraphState> {
         private final StateNode<T> target;
         private final Predicate<T> condition;
+        private final StateKey<? extends Enum<?>> routeKey;
+        private final Set<? extends Enum<?>> routeValues;
         
-        public EdgeInfo(StateNode<T> target, Predicate<T> condition) {
+        EdgeInfo(StateNode<T> target, Predicate<T> condition) {
+            this(target, condition, null, null);
+        }
+        
+        EdgeInfo(StateNode<T> target, Predicate<T> condition,
+                 StateKey<? extends Enum<?>> routeKey, Set<? extends Enum<?>> routeValues) {
             this.target = target;
             this.condition = condition;
+            this.routeKey = routeKey;
+            this.routeValues = routeValues;
         }
         
         public StateNode<T> getTarget() { return target; }
         public Predicate<T> getCondition() { return condition; }
+        
+        boolean isUnconditional() { return condition == null; }
+        StateKey<? extends Enum<?>> getRouteKey() { return routeKey; }
+        
+        /**
+         * 路由值为value时这条边是否命中（value为null表示状态中没有路由值）
+         */
+        boolean matchesRoute(Enum<?> value) {
+            return condition == null || (value != null && routeValues.contains(value));
+        }
     }
     
     /**
      * 添加状态节点
      */
     public StateGraph<T> addNode(String nodeId, StateFunction<T> function) {
-        StateNode<T> node = new StateNode<>(nodeId, function);
-        nodes.put(nodeId, node);
+        return addNode(nodeId, function, StateNode.ExecutionMode.INLINE);
+    }
+    
+    /**
+     * 添加状态节点并指定执行方式，会阻塞调用线程的节点可标记为ASYNC
+     */
+    public StateGraph<T> addNode(String nodeId, StateFunction<T> function, StateNode.ExecutionMode executionMode) {
+        return putNode(new StateNode<>(nodeId, function, StateNode.NodeType.NORMAL, executionMode));
+    }
+    
+    /**
+     * 添加状态节点并指定执行策略（超时/重试/降级）
+     */
+    public StateGraph<T> addNode(String nodeId, StateFunction<T> function, NodePolicy<T> policy) {
+        addNode(nodeId, function);
+        policies.put(nodeId, Objects.requireNonNull(policy, "执行策略不能为空"));
+        return this;
+    }
+    
+    /**
+     * 设置状态中取消令牌所在的键，配置了超时的节点依赖它中止在途调用
+     */
+    public StateGraph<T> setCancellationKey(StateKey<CancellationToken> cancellationKey) {
+        this.cancellationKey = cancellationKey;
+        return this;
+    }
+    
+    /**
+     * 设置检查点存储，带执行ID调用时每个顶层节点完成后保存一次状态快照，可据此从中断处恢复
+     */
+    public StateGraph<T> setCheckpointer(Checkpointer<T> checkpointer) {
+        this.checkpointer = checkpointer;
+        return this;
+    }
+    
+    /**
+     * 添加并行节点：执行后所有满足条件的出边并发执行
+     */
+    public StateGraph<T> addParallelNode(String nodeId, StateFunction<T> function) {
+        return putNode(new StateNode<>(nodeId, function, StateNode.NodeType.PARALLEL));
+    }
+    
+    /**
+     * 添加并行节点，并限制每个分支的执行时长，超时的分支不参与归并
+     */
+    public StateGraph<T> addParallelNode(String nodeId, StateFunction<T> function, long branchTimeoutMs) {
+        branchTimeouts.put(nodeId, branchTimeoutMs);
+        return addParallelNode(nodeId, function);
+    }
+    
+    /**
+     * 添加合并节点：并行分支在此汇合，使用默认归并器
+     */
+    public StateGraph<T> addMergeNode(String nodeId, StateFunction<T> function) {
+        return addMergeNode(nodeId, function, StateReducer.changedKeys());
+    }
+    
+    /**
+     * 添加合并节点并指定归并器
+     */
+    public StateGraph<T> addMergeNode(String nodeId, StateFunction<T> function, StateReducer<T> reducer) {
+        reducers.put(nodeId, Objects.requireNonNull(reducer, "归并器不能为空"));
+        return putNode(new StateNode<>(nodeId, function, StateNode.NodeType.MERGE));
+    }
+    
+    private StateGraph<T> putNode(StateNode<T> node) {
+        nodes.put(node.getId(), node);
         edges.put(node, new ArrayList<>());
-        log.debug("添加状态节点: {}", nodeId);
+        log.debug("添加状态节点: {} ({}, {})", node.getId(), node.getType(), node.getExecutionMode());
         return this;
     }
     
@@ -61,23 +181,47 @@ public class StateGraph<T extends GraphState> {
      */
     public StateGraph<T> addConditionalEdge(String fromNodeId, String toNodeId, 
                                            Predicate<T> condition) {
-        StateNode<T> fromNode = nodes.get(fromNodeId);
-        StateNode<T> toNode = nodes.get(toNodeId);
-        
-        if (fromNode == null || toNode == null) {
-            throw new IllegalArgumentException("节点不存在: " + fromNodeId + " -> " + toNodeId);
-        }
-        
-        edges.get(fromNode).add(new EdgeInfo<>(toNode, condition));
+        addEdgeInfo(fromNodeId, toNodeId, target -> new EdgeInfo<>(target, Objects.requireNonNull(condition, "条件不能为空")));
         log.debug("添加条件边: {} -> {} (条件: {})", fromNodeId, toNodeId, condition);
         return this;
     }
     
+    /**
+     * 添加路由边：状态中routeKey的值属于给定取值之一时走这条边
+     * 同一节点的出边只由无条件边和同一个路由键的路由边组成时，编译为按枚举序号查表
+     */
+    @SafeVarargs
+    public final <E extends Enum<E>> StateGraph<T> addRouteEdge(String fromNodeId, String toNodeId,
+                                                               StateKey<E> routeKey, E first, E... rest) {
+        EnumSet<E> values = EnumSet.of(first, rest);
+        Predicate<T> condition = state -> {
+            E value = state.get(routeKey);
+            return value != null && values.contains(value);
+        };
+        addEdgeInfo(fromNodeId, toNodeId, target -> new EdgeInfo<>(target, condition, routeKey, values));
+        log.debug("添加路由边: {} -> {} ({} in {})", fromNodeId, toNodeId, routeKey.getName(), values);
+        return this;
+    }
+    
     /**
      * 添加普通边
      */
     public StateGraph<T> addEdge(String fromNodeId, String toNodeId) {
-        return addConditionalEdge(fromNodeId, toNodeId, state -> true);
+        addEdgeInfo(fromNodeId, toNodeId, target -> new EdgeInfo<>(target, null));
+        log.debug("添加边: {} -> {}", fromNodeId, toNodeId);
+        return this;
+    }
+    
+    private void addEdgeInfo(String fromNodeId, String toNodeId,
+                             Function<StateNode<T>, EdgeInfo<T>> factory) {
+        StateNode<T> fromNode = nodes.get(fromNodeId);
+        StateNode<T> toNode = nodes.get(toNodeId);
+        
+        if (fromNode == null || toNode == null) {
+            throw new IllegalArgumentException("节点不存在: " + fromNodeId + " -> " + toNodeId);
+        }
+        
+        edges.get(fromNode).add(factory.apply(toNode));
     }
     
     /**
@@ -105,76 +249,21 @@ public class StateGraph<T extends GraphState> {
     }
     
     /**
-     * 编译图（验证图的有效性）
+     * 编译图：验证图的有效性，并生成按下标执行的节点表和边表
      */
     public CompiledGraph<T> compile() {
         validateGraph();
-        log.info("状态图编译完成，包含 {} 个节点", nodes.size());
-        return new CompiledGraph<>(this);
+        CompiledGraph<T> compiled = new CompiledGraph<>(this);
+        log.info("状态图编译完成，包含 {} 个节点，{} 个状态槽位", nodes.size(), StateKey.slotCount());
+        return compiled;
     }
     
     /**
      * 执行状态图
+     * 每次调用都会重新编译，需要反复执行时应复用compile()的结果
      */
     public CompletableFuture<T> execute(T initialState) {
-        log.info("🎯 开始执行状态图 - 初始状态: {}", initialState.getClass().getSimpleName());
-        return executeNode(startNode, initialState);
-    }
-    
-    /**
-     * 执行单个节点
-     */
-    private CompletableFuture<T> executeNode(StateNode<T> node, T state) {
-        log.info("📍 执行状态节点: {}", node.getId());
-        long startTime = System.currentTimeMillis();
-        
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // 执行节点函数
-                T newState = node.getFunction().apply(state);
-                
-                long duration = System.currentTimeMillis() - startTime;
-                log.info("✅ 节点执行完成: {} - 耗时: {}ms", node.getId(), duration);
-                
-                return newState;
-            } catch (Exception e) {
-                long duration = System.currentTimeMillis() - startTime;
-                log.error("❌ 节点执行失败: {} - 耗时: {}ms, 错误: {}", 
-                    node.getId(), duration, e.getMessage());
-                throw new RuntimeException("节点执行失败: " + node.getId(), e);
-            }
-        }, executor).thenCompose(newState -> {
-            // 查找下一个节点
-            StateNode<T> nextNode = findNextNode(node, newState);
-            
-            if (nextNode == null || nextNode.equals(endNode)) {
-                log.info("🏁 状态图执行完成");
-                return CompletableFuture.completedFuture(newState);
-            }
-            
-            // 递归执行下一个节点
-            return executeNode(nextNode, newState);
-        });
-    }
-    
-    /**
-     * 查找下一个要执行的节点
-     */
-    private StateNode<T> findNextNode(StateNode<T> currentNode, T state) {
-        List<EdgeInfo<T>> outgoingEdges = edges.get(currentNode);
-        
-        if (outgoingEdges != null) {
-            for (EdgeInfo<T> edgeInfo : outgoingEdges) {
-                if (edgeInfo.getCondition().test(state)) {
-                    StateNode<T> targetNode = edgeInfo.getTarget();
-                    log.debug("🔄 状态转换: {} -> {}", currentNode.getId(), targetNode.getId());
-                    return targetNode;
-                }
-            }
-        }
-        
-        log.debug("🛑 没有找到下一个节点，执行结束");
-        return null;
+        return compile().invoke(initialState);
     }
     
     /**
@@ -189,10 +278,20 @@ public class StateGraph<T extends GraphState> {
             throw new IllegalStateException("图中必须至少有一个节点");
         }
         
-        // 检查是否有孤立节点
+        // 并行节点至少需要一条出边
         for (StateNode<T> node : nodes.values()) {
-            if (!edges.containsKey(node)) {
-                log.warn("⚠️ 发现孤立节点: {}", node.getId());
+            if (node.getType() == StateNode.NodeType.PARALLEL && edges.get(node).isEmpty()) {
+                throw new IllegalStateException("并行节点没有出边: " + node.getId());
+            }
+        }
+        
+        for (Map.Entry<String, NodePolicy<T>> entry : policies.entrySet()) {
+            NodePolicy<T> policy = entry.getValue();
+            if (policy.getFallbackNode() != null && !nodes.containsKey(policy.getFallbackNode())) {
+                throw new IllegalStateException("节点 " + entry.getKey() + " 的降级节点不存在: " + policy.getFallbackNode());
+            }
+            if (policy.hasTimeout() && cancellationKey == null) {
+                throw new IllegalStateException("节点 " + entry.getKey() + " 配置了超时，需要先设置取消令牌键");
             }
         }
         
@@ -211,11 +310,19 @@ public class StateGraph<T extends GraphState> {
      * 关闭执行器
      */
     public void shutdown() {
-        executor.shutdown();
-        log.info("状态图执行器已关闭");
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+            log.info("状态图执行器已关闭");
+        }
     }
     
     // Getters
+    Executor getExecutor() { return executor; }
+    StateReducer<T> getReducer(String nodeId) { return reducers.get(nodeId); }
+    Long getBranchTimeout(String nodeId) { return branchTimeouts.get(nodeId); }
+    NodePolicy<T> getPolicy(String nodeId) { return policies.get(nodeId); }
+    StateKey<CancellationToken> getCancellationKey() { return cancellationKey; }
+    Checkpointer<T> getCheckpointer() { return checkpointer; }
     public Map<String, StateNode<T>> getNodes() { return nodes; }
     public Map<StateNode<T>, List<EdgeInfo<T>>> getEdges() { return edges; }
     public StateNode<T> getStartNode() { return startNode; }
@@ -0,0 +1,118 @@
+package com.can.happydog.graph;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 类型化的状态键 - 声明一次，在GraphState中对应一个固定的数组槽位
+ *
+ * 键在声明时分配全局唯一的槽位号，同名的键只会分配一次；
+ * 通过键读写状态是一次数组下标访问，不做哈希查找，也不需要类型转换。
+ * 建议声明为状态类上的静态常量，这样在图编译之前所有槽位都已确定。
+ * 回调、取消令牌这类只在本次执行中有效的值用ephemeral声明，不会写入检查点。
+ */
+public final class StateKey<T> {
+
+    private static final Map<String, StateKey<?>> KEYS = new ConcurrentHashMap<>();
+    // 按槽位号索引的键，只在声明新键时整体替换
+    private static volatile StateKey<?>[] bySlot = new StateKey<?>[0];
+
+    private final String name;
+    private final Class<T> type;
+    private final int slot;
+    private final boolean ephemeral;
+
+    private StateKey(String name, Class<T> type, int slot, boolean ephemeral) {
+        this.name = name;
+        this.type = type;
+        this.slot = slot;
+        this.ephemeral = ephemeral;
+    }
+
+    /**
+     * 声明状态键，同名键重复声明时返回已有的键，类型不一致时报错
+     */
+    public static <T> StateKey<T> of(String name, Class<T> type) {
+        return declare(name, type, false);
+    }
+
+    /**
+     * 声明只在本次执行中有效的状态键，检查点不保存它的值，恢复执行时由调用方重新提供
+     */
+    public static <T> StateKey<T> ephemeral(String name, Class<T> type) {
+        return declare(name, type, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> StateKey<T> declare(String name, Class<T> type, boolean ephemeral) {
+        StateKey<?> key = KEYS.get(name);
+        if (key == null) {
+            key = register(name, type, ephemeral);
+        }
+        if (key.type != type || key.ephemeral != ephemeral) {
+            throw new IllegalArgumentException("状态键类型冲突: " + name + " 已声明为 " + key);
+        }
+        return (StateKey<T>) key;
+    }
+
+    private static synchronized StateKey<?> register(String name, Class<?> type, boolean ephemeral) {
+        StateKey<?> key = KEYS.get(name);
+        if (key == null) {
+            StateKey<?>[] current = bySlot;
+            key = new StateKey<>(name, type, current.length, ephemeral);
+            StateKey<?>[] next = Arrays.copyOf(current, current.length + 1);
+            next[key.slot] = key;
+            bySlot = next;
+            KEYS.put(name, key);
+        }
+        return key;
+    }
+
+    /**
+     * 按名称查找已声明的键，兼容字符串键的读写
+     */
+    static StateKey<?> named(String name) {
+        return KEYS.get(name);
+    }
+
+    /**
+     * 按名称查找键，未声明时以Object类型声明
+     */
+    static StateKey<?> namedOrDeclare(String name) {
+        StateKey<?> key = KEYS.get(name);
+        return key != null ? key : of(name, Object.class);
+    }
+
+    /**
+     * 已分配的槽位数量
+     */
+    public static int slotCount() {
+        return bySlot.length;
+    }
+
+    static StateKey<?> bySlot(int slot) {
+        return bySlot[slot];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public boolean isEphemeral() {
+        return ephemeral;
+    }
+
+    int slot() {
+        return slot;
+    }
+
+    @Override
+    public String toString() {
+        return name + "<" + type.getSimpleName() + ">#" + slot + (ephemeral ? "(ephemeral)" : "");
+    }
+}
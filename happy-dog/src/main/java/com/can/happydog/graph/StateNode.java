@@ -12,15 +12,21 @@ public class StateNode<T extends GraphState> {
     private final String id;
     private final StateFunction<T> function;
     private final NodeType type;
+    private final ExecutionMode executionMode;
     
     public StateNode(String id, StateFunction<T> function) {
         this(id, function, NodeType.NORMAL);
     }
     
     public StateNode(String id, StateFunction<T> function, NodeType type) {
+        this(id, function, type, ExecutionMode.INLINE);
+    }
+    
+    public StateNode(String id, StateFunction<T> function, NodeType type, ExecutionMode executionMode) {
         this.id = Objects.requireNonNull(id, "节点ID不能为空");
         this.function = Objects.requireNonNull(function, "节点函数不能为空");
         this.type = Objects.requireNonNull(type, "节点类型不能为空");
+        this.executionMode = Objects.requireNonNull(executionMode, "执行方式不能为空");
     }
     
     /**
@@ -42,10 +48,26 @@ public class StateNode<T extends GraphState> {
         }
     }
     
+    /**
+     * 执行方式
+     */
+    public enum ExecutionMode {
+        INLINE("在调用线程上执行"),
+        ASYNC("派发到图的执行器上执行");
+        
+        @Getter
+        private final String description;
+        
+        ExecutionMode(String description) {
+            this.description = description;
+        }
+    }
+    
     // 手动添加getter方法（Lombok注解可能需要重新编译）
     public String getId() { return id; }
     public StateFunction<T> getFunction() { return function; }
     public NodeType getType() { return type; }
+    public ExecutionMode getExecutionMode() { return executionMode; }
     
     @Override
     public boolean equals(Object o) {
@@ -65,6 +87,7 @@ public class StateNode<T extends GraphState> {
         return "StateNode{" +
                 "id='" + id + '\'' +
                 ", type=" + type +
+                ", executionMode=" + executionMode +
                 '}';
     }
 }
@@ -0,0 +1,43 @@
+package com.can.happydog.graph;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 状态归并器 - 并行分支在合并节点汇合时，把各分支的状态归并回分叉前的状态
+ */
+@FunctionalInterface
+public interface StateReducer<T extends GraphState> {
+
+    /**
+     * 归并分支状态
+     *
+     * @param forkState 分叉前的状态（各分支拿到的是它的副本）
+     * @param branchStates 按分支声明顺序排列的分支结束状态，超时的分支不在其中
+     * @return 归并后的状态
+     */
+    T reduce(T forkState, List<T> branchStates);
+
+    /**
+     * 默认归并：只把各分支相对分叉点改动过的键合并回来，
+     * 避免后一个分支用未改动的旧值覆盖前一个分支的结果；
+     * 多个分支改动同一个键时以声明顺序靠后的分支为准。
+     */
+    static <T extends GraphState> StateReducer<T> changedKeys() {
+        return (forkState, branchStates) -> {
+            // 分支副本与分叉状态共享槽位数组，归并写入时分叉状态会先复制，base保持分叉时的值
+            Object[] base = forkState.slots;
+            for (T branch : branchStates) {
+                Object[] branchSlots = branch.slots;
+                for (int i = 0; i < branchSlots.length; i++) {
+                    Object value = branchSlots[i];
+                    if (value == null || (i < base.length && Objects.equals(base[i], value))) {
+                        continue;
+                    }
+                    forkState.writeSlot(i, value);
+                }
+            }
+            return forkState;
+        };
+    }
+}
@@ -1,6 +1,7 @@
 package com.can.happydog.service;
 
 import com.can.happydog.dto.StreamResponse;
+import com.can.happydog.exception.RequestCancelledException;
 import com.can.happydog.service.RequestPreprocessor.ProcessedRequest;
 import com.can.happydog.service.RequestPreprocessor.ProcessingRoute;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,26 +23,45 @@ public class AgentExecutor {
     private final MemoryManager memoryManager;
     private final ResponseGenerator responseGenerator;
     private final PostProcessor postProcessor;
+    private final ResponseCache responseCache;
+    private final SpeculativeGenerator speculativeGenerator;
+    private final PostResponseExecutor postResponseExecutor;
     
     @Autowired
     public AgentExecutor(RequestPreprocessor requestPreprocessor,
                         ThinkingExecutor thinkingExecutor,
                         MemoryManager memoryManager,
                         ResponseGenerator responseGenerator,
-                        PostProcessor postProcessor) {
+                        PostProcessor postProcessor,
+                        ResponseCache responseCache,
+                        SpeculativeGenerator speculativeGenerator,
+                        PostResponseExecutor postResponseExecutor) {
         this.requestPreprocessor = requestPreprocessor;
         this.thinkingExecutor = thinkingExecutor;
         this.memoryManager = memoryManager;
         this.responseGenerator = responseGenerator;
         this.postProcessor = postProcessor;
+        this.responseCache = responseCache;
+        this.speculativeGenerator = speculativeGenerator;
+        this.postResponseExecutor = postResponseExecutor;
     }
     
     /**
      * 执行智能体处理流程
      */
     public void execute(com.can.happydog.dto.ChatRequest request, StreamResponseCallback callback) {
+        execute(request, callback, new CancellationToken());
+    }
+    
+    /**
+     * 执行智能体处理流程（支持取消）
+     * 每个阶段开始前检查取消令牌，客户端断开后剩余阶段不再执行
+     */
+    public void execute(com.can.happydog.dto.ChatRequest request, StreamResponseCallback callback,
+                        CancellationToken cancellationToken) {
         long executionStartTime = System.currentTimeMillis();
         ExecutionContext context = new ExecutionContext();
+        context.setCancellationToken(cancellationToken);
         
         try {
             log.info("🤖 智能体执行开始");
@@ -56,32 +76,50 @@ public class AgentExecutor {
             }
             
             // 阶段2: 内存管理 - 加载历史上下文
+            cancellationToken.throwIfCancelled();
             executeMemoryLoading(processedRequest, context);
             
-            // 阶段3: 思考执行（如果需要）
+            // 阶段3: 思考执行（如果需要），启用推测生成时回答模型同时开始生成草稿
+            SpeculativeGenerator.Draft draft = null;
             if (needsThinking(processedRequest.getRoute())) {
-                executeThinking(processedRequest, callback, context);
+                cancellationToken.throwIfCancelled();
+                draft = speculativeGenerator.start(processedRequest, context);
+                try {
+                    executeThinking(processedRequest, callback, context);
+                } catch (RuntimeException e) {
+                    speculativeGenerator.discard(draft);
+                    throw e;
+                }
             }
             
             // 阶段4: 函数调用（如果需要）
             if (needsFunctionCalls(processedRequest.getRoute())) {
+                cancellationToken.throwIfCancelled();
                 executeFunctionCalls(processedRequest, callback, context);
             }
             
             // 阶段5: 响应生成
-            executeResponseGeneration(processedRequest, callback, context);
+            cancellationToken.throwIfCancelled();
+            executeResponseGeneration(processedRequest, callback, context, draft);
             
-            // 阶段6: 内存管理 - 保存对话历史
+            // 阶段6/7: 回答和完成信号已发出，保存对话历史和后处理交给后台执行，工作线程随即释放
+            // （已取消的请求不保存不完整的回答）
+            cancellationToken.throwIfCancelled();
             executeMemorySaving(processedRequest, context);
-            
-            // 阶段7: 后处理
-            executePostProcessing(processedRequest, callback, context);
+            executePostProcessing(processedRequest, context);
             
             long totalExecutionTime = System.currentTimeMillis() - executionStartTime;
             log.info("🎉 智能体执行完成 - 会话: {}, 总耗时: {}ms", 
                 processedRequest.getSessionId(), totalExecutionTime);
             
+        } catch (RequestCancelledException e) {
+            long totalExecutionTime = System.currentTimeMillis() - executionStartTime;
+            log.info("🛑 智能体执行已取消 - 原因: {}, 耗时: {}ms", cancellationToken.getReason(), totalExecutionTime);
         } catch (Exception e) {
+            if (cancellationToken.isCancelled()) {
+                log.info("🛑 智能体执行已取消 - 原因: {}", cancellationToken.getReason());
+                return;
+            }
             long totalExecutionTime = System.currentTimeMillis() - executionStartTime;
             log.error("❌ 智能体执行失败 - 错误: {}, 耗时: {}ms", e.getMessage(), totalExecutionTime);
             
@@ -113,13 +151,13 @@ public class AgentExecutor {
     private void handleCacheHit(ProcessedRequest processedRequest, StreamResponseCallback callback, ExecutionContext context) {
         log.info("💾 处理缓存命中 - 会话: {}", processedRequest.getSessionId());
         
-        // 从缓存获取结果并直接返回
-        Object cachedResult = processedRequest.getCacheResult().getData();
+        // 按实时流的分块粒度回放缓存的回答
+        String cachedAnswer = processedRequest.getCacheResult().getAnswer();
+        responseCache.replay(cachedAnswer, callback, context.getCancellationToken());
         
-        // 这里需要根据缓存数据类型进行适当的处理
-        // 简化处理，直接发送缓存结果
-        callback.onResponse(StreamResponse.chunk("缓存结果: " + cachedResult.toString()));
-        callback.onResponse(StreamResponse.done());
+        // 回放的回答同样计入会话历史
+        context.setGeneratedResponse(cachedAnswer);
+        executeMemorySaving(processedRequest, context);
     }
     
     /**
@@ -166,40 +204,38 @@ public class AgentExecutor {
     /**
      * 执行响应生成
      */
-    private void executeResponseGeneration(ProcessedRequest processedRequest, StreamResponseCallback callback, ExecutionContext context) {
+    private void executeResponseGeneration(ProcessedRequest processedRequest, StreamResponseCallback callback,
+                                           ExecutionContext context, SpeculativeGenerator.Draft draft) {
         log.info("📝 执行响应生成阶段 - 会话: {}", processedRequest.getSessionId());
         long startTime = System.currentTimeMillis();
         
-        responseGenerator.generateResponse(processedRequest, callback, context);
+        if (draft != null) {
+            speculativeGenerator.finish(draft, processedRequest, callback, context);
+        } else {
+            responseGenerator.generateResponse(processedRequest, callback, context);
+        }
         
         long duration = System.currentTimeMillis() - startTime;
         log.info("✅ 响应生成完成 - 耗时: {}ms", duration);
     }
     
     /**
-     * 执行内存保存
+     * 提交内存保存，同一会话的下一次加载会等待它完成
      */
     private void executeMemorySaving(ProcessedRequest processedRequest, ExecutionContext context) {
-        log.info("💾 执行内存保存阶段 - 会话: {}", processedRequest.getSessionId());
-        long startTime = System.currentTimeMillis();
-        
-        memoryManager.saveContext(processedRequest.getSessionId(), context);
-        
-        long duration = System.currentTimeMillis() - startTime;
-        log.info("✅ 内存保存完成 - 耗时: {}ms", duration);
+        String sessionId = processedRequest.getSessionId();
+        log.info("💾 提交内存保存 - 会话: {}", sessionId);
+        postResponseExecutor.submitRequired(sessionId, "memory_saving",
+            () -> memoryManager.saveContext(sessionId, context));
     }
     
     /**
-     * 执行后处理
+     * 提交后处理（质量评估、追问建议、性能统计）
      */
-    private void executePostProcessing(ProcessedRequest processedRequest, StreamResponseCallback callback, ExecutionContext context) {
-        log.info("🔄 执行后处理阶段 - 会话: {}", processedRequest.getSessionId());
-        long startTime = System.currentTimeMillis();
-        
-        postProcessor.postProcess(processedRequest, callback, context);
-        
-        long duration = System.currentTimeMillis() - startTime;
-        log.info("✅ 后处理完成 - 耗时: {}ms", duration);
+    private void executePostProcessing(ProcessedRequest processedRequest, ExecutionContext context) {
+        log.info("🔄 提交后处理 - 会话: {}", processedRequest.getSessionId());
+        postResponseExecutor.submitOptional(processedRequest.getSessionId(), "post_processing",
+            () -> postProcessor.postProcess(processedRequest, context));
     }
     
     /**
@@ -228,6 +264,8 @@ public class AgentExecutor {
         private Object generatedResponse;
         private long totalTokens;
         private long totalCost;
+        private Object contextUsage;
+        private CancellationToken cancellationToken = new CancellationToken();
         
         // Getters and Setters
         public ProcessedRequest getProcessedRequest() { return processedRequest; }
@@ -250,5 +288,11 @@ public class AgentExecutor {
         
         public long getTotalCost() { return totalCost; }
         public void setTotalCost(long totalCost) { this.totalCost = totalCost; }
+        
+        public Object getContextUsage() { return contextUsage; }
+        public void setContextUsage(Object contextUsage) { this.contextUsage = contextUsage; }
+        
+        public CancellationToken getCancellationToken() { return cancellationToken; }
+        public void setCancellationToken(CancellationToken cancellationToken) { this.cancellationToken = cancellationToken; }
     }
 }
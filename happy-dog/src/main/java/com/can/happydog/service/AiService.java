@@ -6,10 +6,12 @@ import com.can.happydog.dto.ChatResponse;
 import com.can.happydog.dto.StreamResponse;
 import com.can.happydog.dto.ThinkingStep;
 import com.can.happydog.exception.HappyDogException;
+import com.can.happydog.exception.RequestCancelledException;
 import org.springframework.beans.factory.annotation.Value;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.io.entity.StringEntity;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
@@ -18,13 +20,13 @@ import org.springframework.web.client.RestTemplate;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.util.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
-import java.time.LocalDateTime;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,11 +42,12 @@ public class AiService {
     private final CloseableHttpClient httpClient;
     private final ObjectMapper objectMapper;
     
-    // 内存存储聊天历史
-    private final Map<String, List<ChatMessage>> chatHistory = new ConcurrentHashMap<>();
+    // 普通聊天带入提示词的最近历史条数
+    private static final int CHAT_CONTEXT_SIZE = 20;
 
-    // 文件存储根目录
-    private static final String HISTORY_DIR = "chat-history";
+    // 会话历史（与智能体共用）
+    private final ConversationStore conversationStore;
+    private final ContextAssembler contextAssembler;
     
     @Value("${ai.api-key}")
     private String apiKey;
@@ -73,27 +76,70 @@ public class AiService {
     @Value("${ai.stream.chunk-size:10}")
     private int streamChunkSize;
 
-    @Value("${ai.stream.delay:50}")
-    private int streamDelay;
+    @Value("${ai.stream.max-latency:50}")
+    private long streamMaxLatency;
 
     @Value("${ai.stream.timeout:300000}")
     private long streamTimeout;
 
-    public AiService(RestTemplate restTemplate, CloseableHttpClient httpClient, ObjectMapper objectMapper) {
+    // 流式分块节拍器的定时刷新调度器，所有流共享，只负责计时，不做阻塞发送
+    private final ScheduledExecutorService pacerScheduler;
+
+    // 定时刷新的发送线程，每个流同一时刻最多占用一个，慢客户端只阻塞自己的发送
+    private final ExecutorService pacerSendExecutor;
+
+    public AiService(RestTemplate restTemplate, CloseableHttpClient httpClient, ObjectMapper objectMapper,
+                     ConversationStore conversationStore, ContextAssembler contextAssembler) {
         this.restTemplate = restTemplate;
         this.httpClient = httpClient;
         this.objectMapper = objectMapper;
-        // 确保聊天历史目录存在
-        try {
-            Path dir = Paths.get(HISTORY_DIR);
-            if (!Files.exists(dir)) {
-                Files.createDirectories(dir);
-            }
-        } catch (Exception e) {
-            log.warn("无法创建聊天历史目录: {}", e.getMessage());
+        this.conversationStore = conversationStore;
+        this.contextAssembler = contextAssembler;
+        this.pacerScheduler = Executors.newScheduledThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2), runnable -> {
+                Thread thread = new Thread(runnable, "stream-pacer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        AtomicInteger sendThreadIndex = new AtomicInteger();
+        this.pacerSendExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stream-pacer-send-" + sendThreadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 关闭节拍器调度器和发送线程
+     */
+    @PreDestroy
+    public void shutdown() {
+        pacerScheduler.shutdownNow();
+        pacerSendExecutor.shutdown();
+    }
+
+    /**
+     * 记录增量中携带的用量和错误信息
+     */
+    private void logDeltaMetadata(String sessionId, SseDeltaDecoder.Delta delta) {
+        if (delta.hasUsage()) {
+            log.info("📊 Token用量 - 会话: {}, 输入: {}, 输出: {}, 合计: {}",
+                sessionId, delta.getPromptTokens(), delta.getCompletionTokens(), delta.getTotalTokens());
+        }
+        if (delta.getErrorMessage() != null) {
+            log.warn("⚠️ 上游返回流式错误 - 会话: {}, 错误: {}", sessionId, delta.getErrorMessage());
         }
     }
 
+    /**
+     * 创建流式分块节拍器
+     */
+    private StreamChunkPacer createPacer(StreamResponseCallback callback,
+                                         java.util.function.Function<String, StreamResponse> frameFactory) {
+        return new StreamChunkPacer(callback, frameFactory, streamChunkSize, streamMaxLatency,
+            pacerScheduler, pacerSendExecutor);
+    }
+
     /**
      * 流式聊天
      */
@@ -165,7 +211,17 @@ public class AiService {
     /**
      * 流式输出思考步骤（使用自定义提示词）
      */
-    public void streamThinkingStepsWithPrompt(String userMessage, String sessionId, String customPrompt, StreamResponseCallback callback) {
+    public boolean streamThinkingStepsWithPrompt(String userMessage, String sessionId, String customPrompt, StreamResponseCallback callback) {
+        return streamThinkingStepsWithPrompt(userMessage, sessionId, customPrompt, callback, new CancellationToken());
+    }
+
+    /**
+     * 流式输出思考步骤（使用自定义提示词，支持取消）
+     *
+     * @return 思考模型是否正常完成输出，失败或中途截断时为false
+     */
+    public boolean streamThinkingStepsWithPrompt(String userMessage, String sessionId, String customPrompt,
+                                                 StreamResponseCallback callback, CancellationToken cancellationToken) {
         long thinkingStartTime = System.currentTimeMillis();
         try {
             log.info("🧠 开始构建自定义深度思考消息 - 会话: {}", sessionId);
@@ -183,7 +239,7 @@ public class AiService {
             long modelCallStart = System.currentTimeMillis();
             
             // 使用流式调用进行深度思考
-            streamCallThinkingModel(thinkingMessages, thinkingModel, sessionId, callback);
+            boolean completed = streamCallThinkingModel(thinkingMessages, thinkingModel, sessionId, callback, cancellationToken);
             
             long modelCallDuration = System.currentTimeMillis() - modelCallStart;
             log.info("🤖 策略思考模型调用完成 - 会话: {}, 耗时: {}ms", sessionId, modelCallDuration);
@@ -193,6 +249,7 @@ public class AiService {
             
             // 清理跟踪信息
             sentThinkingSteps.remove(sessionId);
+            return completed;
             
         } catch (Exception e) {
             long totalThinkingTime = System.currentTimeMillis() - thinkingStartTime;
@@ -202,16 +259,32 @@ public class AiService {
             // 清理跟踪信息
             sentThinkingSteps.remove(sessionId);
             
+            // 已取消的请求不再发送任何内容
+            if (e instanceof RequestCancelledException) {
+                throw (RequestCancelledException) e;
+            }
+            
             callback.onResponse(StreamResponse.thinking(
                 ThinkingStep.analyze("思考过程", "正在分析您的问题...")
             ));
+            return false;
         }
     }
 
     /**
      * 流式输出思考步骤（使用默认提示词）
      */
-    public void streamThinkingSteps(String userMessage, String sessionId, StreamResponseCallback callback) {
+    public boolean streamThinkingSteps(String userMessage, String sessionId, StreamResponseCallback callback) {
+        return streamThinkingSteps(userMessage, sessionId, callback, new CancellationToken());
+    }
+
+    /**
+     * 流式输出思考步骤（使用默认提示词，支持取消）
+     *
+     * @return 思考模型是否正常完成输出，失败或中途截断时为false
+     */
+    public boolean streamThinkingSteps(String userMessage, String sessionId, StreamResponseCallback callback,
+                                       CancellationToken cancellationToken) {
         long thinkingStartTime = System.currentTimeMillis();
         try {
             log.info("🧠 开始构建深度思考消息 - 会话: {}", sessionId);
@@ -232,7 +305,7 @@ public class AiService {
             long modelCallStart = System.currentTimeMillis();
             
             // 使用流式调用进行深度思考
-            streamCallThinkingModel(thinkingMessages, thinkingModel, sessionId, callback);
+            boolean completed = streamCallThinkingModel(thinkingMessages, thinkingModel, sessionId, callback, cancellationToken);
             
             long modelCallDuration = System.currentTimeMillis() - modelCallStart;
             log.info("🤖 流式思考模型调用完成 - 会话: {}, 耗时: {}ms", sessionId, modelCallDuration);
@@ -242,6 +315,7 @@ public class AiService {
             
             // 清理跟踪信息
             sentThinkingSteps.remove(sessionId);
+            return completed;
             
         } catch (Exception e) {
             long totalThinkingTime = System.currentTimeMillis() - thinkingStartTime;
@@ -251,19 +325,30 @@ public class AiService {
             // 清理跟踪信息
             sentThinkingSteps.remove(sessionId);
             
+            // 已取消的请求不再发送任何内容
+            if (e instanceof RequestCancelledException) {
+                throw (RequestCancelledException) e;
+            }
+            
             callback.onResponse(StreamResponse.thinking(
                 ThinkingStep.analyze("思考过程", "正在分析您的问题...")
             ));
+            return false;
         }
     }
 
     /**
      * 流式调用思考模型
+     *
+     * @return 思考内容是否完整：上游正常结束（finish_reason或[DONE]）且全部内容已发送
      */
-    private void streamCallThinkingModel(List<Map<String, String>> messages, String modelName, String sessionId, StreamResponseCallback callback) {
+    private boolean streamCallThinkingModel(List<Map<String, String>> messages, String modelName, String sessionId,
+                                         StreamResponseCallback callback, CancellationToken cancellationToken) {
         final long streamCallStart = System.currentTimeMillis();
+        CancellationToken.Registration abortRegistration = null;
         
         try {
+            cancellationToken.throwIfCancelled();
             log.info("🔍 开始验证思考模型调用参数 - 会话: {}, 模型: {}", sessionId, modelName);
             
             // 验证参数
@@ -293,6 +378,7 @@ public class AiService {
             requestBody.put("temperature", 0.7);
             requestBody.put("max_tokens", 4000); // 思考过程需要更多tokens
             requestBody.put("stream", true);
+            requestBody.put("stream_options", Map.of("include_usage", true));
             
             // 创建POST请求
             HttpPost httpPost = new HttpPost(baseUrl + "/chat/completions");
@@ -300,86 +386,72 @@ public class AiService {
             httpPost.setHeader("Content-Type", "application/json");
             httpPost.setEntity(new StringEntity(objectMapper.writeValueAsString(requestBody), ContentType.APPLICATION_JSON));
             
+            // 客户端断开时中止在途的上游请求，释放连接并停止消耗token
+            abortRegistration = cancellationToken.onCancel(httpPost::cancel);
+            
             // 执行请求并处理流式响应
             log.debug("🌐 开始执行思考模型HTTP请求 - 会话: {}", sessionId);
             long httpRequestStart = System.currentTimeMillis();
             
-            httpClient.execute(httpPost, response -> {
+            Boolean completed = httpClient.execute(httpPost, response -> {
                 try {
                     long httpResponseTime = System.currentTimeMillis() - httpRequestStart;
                     log.info("🌐 思考模型HTTP响应已接收 - 会话: {}, 响应时间: {}ms, 状态码: {}", 
                         sessionId, httpResponseTime, response.getCode());
                     
                     StringBuilder currentThinkingContent = new StringBuilder();
-                    StringBuilder contentBuffer = new StringBuilder(); // 用于缓冲内容
-                    java.io.BufferedReader reader = new java.io.BufferedReader(
-                        new java.io.InputStreamReader(response.getEntity().getContent())
-                    );
-                    String line;
-                    int chunkCount = 0;
-                    long firstChunkTime = 0;
-                    
-                    while ((line = reader.readLine()) != null) {
-                        if (line.startsWith("data: ")) {
-                            chunkCount++;
-                            if (firstChunkTime == 0) {
-                                firstChunkTime = System.currentTimeMillis() - httpRequestStart;
-                                log.info("⚡ 思考模型首个数据块已接收 - 会话: {}, 首块延迟: {}ms", sessionId, firstChunkTime);
-                            }
-                            
-                            String data = line.substring(6).trim();
-                            if (data.equals("[DONE]")) {
-                                log.info("🏁 思考模型流式响应结束 - 会话: {}, 总块数: {}", sessionId, chunkCount);
-                                break;
-                            }
-                            
-                            try {
-                                // 解析JSON响应
-                                Map<String, Object> chunk = objectMapper.readValue(data, Map.class);
-                                if (chunk == null) {
-                                    log.warn("⚠️ 思考模型接收到空数据块 - 会话: {}, 块序号: {}", sessionId, chunkCount);
-                                    continue;
-                                }
-                                
-                                @SuppressWarnings("unchecked")
-                                List<Map<String, Object>> choices = (List<Map<String, Object>>) chunk.get("choices");
-                                
-                                if (choices != null && !choices.isEmpty()) {
-                                    Map<String, Object> choice = choices.get(0);
-                                    if (choice == null) {
-                                        log.warn("⚠️ 思考模型接收到空选择 - 会话: {}, 块序号: {}", sessionId, chunkCount);
-                                        continue;
-                                    }
-                                    
-                                    Map<String, Object> delta = (Map<String, Object>) choice.get("delta");
-                                    
-                                    if (delta != null && delta.containsKey("content")) {
-                                        String content = (String) delta.get("content");
-                                        if (content != null) {
-                                            currentThinkingContent.append(content);
-                                            contentBuffer.append(content);
-                                            
-                                            // 流式发送思考内容用于累积显示
-                                            if (content.length() > 0) {
-                                                try {
-                                                    callback.onResponse(StreamResponse.thinking(
-                                                        ThinkingStep.reason("思考中", content)
-                                                    ));
-                                                } catch (Exception ex) {
-                                                    // 如果callback失败（如连接已断开），停止处理
-                                                    log.debug("⚠️ 思考内容发送失败，停止处理 - 会话: {}, 错误: {}", sessionId, ex.getMessage());
-                                                    return null; // 提前结束流式响应处理
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            } catch (Exception e) {
-                                log.warn("⚠️ 处理思考模型数据块时出错 - 会话: {}, 错误: {}", sessionId, e.getMessage());
-                                continue;
-                            }
+                    StreamChunkPacer pacer = createPacer(callback,
+                        text -> StreamResponse.thinking(ThinkingStep.reason("思考中", text)));
+                    if (response.getCode() >= 400) {
+                        throw new HappyDogException("思考模型返回错误状态码: " + response.getCode()
+                            + ", 响应: " + EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8));
+                    }
+
+                    // 直接在字节流上解码增量，不再逐行构建String和Map
+                    SseDeltaDecoder decoder = new SseDeltaDecoder(objectMapper.getFactory());
+                    decoder.decode(response.getEntity().getContent(), delta -> {
+                        if (cancellationToken.isCancelled()) {
+                            return false;
+                        }
+                        if (decoder.getEventCount() == 1) {
+                            log.info("⚡ 思考模型首个数据块已接收 - 会话: {}, 首块延迟: {}ms",
+                                sessionId, decoder.getFirstEventAt() - httpRequestStart);
+                        }
+                        logDeltaMetadata(sessionId, delta);
+
+                        String content = delta.getContent();
+                        if (content == null || content.isEmpty()) {
+                            return true;
+                        }
+                        currentThinkingContent.append(content);
+
+                        // 交给节拍器合并后发送
+                        if (!pacer.offer(content)) {
+                            // 如果callback失败（如连接已断开），停止处理
+                            log.debug("⚠️ 思考内容发送失败，停止处理 - 会话: {}", sessionId);
+                            return false;
                         }
-                        Thread.sleep(streamDelay);
+                        return true;
+                    });
+
+                    if (cancellationToken.isCancelled()) {
+                        // 请求已取消，丢弃尚未发送的内容
+                        pacer.discard();
+                        log.info("🛑 流式响应已取消 - 会话: {}, 已接收块数: {}", sessionId, decoder.getEventCount());
+                        return false;
+                    }
+
+                    int chunkCount = decoder.getEventCount();
+                    long firstChunkTime = chunkCount > 0 ? decoder.getFirstEventAt() - httpRequestStart : 0;
+                    if (decoder.isDoneReceived()) {
+                        log.info("🏁 思考模型流式响应结束 - 会话: {}, 总块数: {}, 损坏块数: {}",
+                            sessionId, chunkCount, decoder.getMalformedCount());
+                    }
+
+                    // 发送节拍器中剩余的思考内容
+                    if (!pacer.finish()) {
+                        log.debug("⚠️ 剩余思考内容发送失败 - 会话: {}", sessionId);
+                        return false;
                     }
                     
                     // 思考完成，发送完成标识
@@ -395,7 +467,10 @@ public class AiService {
                     log.info("✅ 思考模型流式响应处理完成 - 会话: {}, 总耗时: {}ms, 总块数: {}, 首块延迟: {}ms, 思考内容长度: {}字符", 
                         sessionId, totalStreamTime, chunkCount, firstChunkTime, currentThinkingContent.length());
                     
-                    return null;
+                    if (!decoder.isCompleted()) {
+                        log.warn("⚠️ 思考模型流式响应在完成前中断 - 会话: {}, 已接收块数: {}", sessionId, chunkCount);
+                    }
+                    return decoder.isCompleted();
                 } catch (Exception e) {
                     long totalStreamTime = System.currentTimeMillis() - streamCallStart;
                     log.error("❌ 思考模型流式响应处理失败 - 会话: {}, 错误: {}, 耗时: {}ms", 
@@ -404,11 +479,21 @@ public class AiService {
                 }
             });
             
+            cancellationToken.throwIfCancelled();
+            return Boolean.TRUE.equals(completed);
+            
         } catch (Exception e) {
+            if (cancellationToken.isCancelled()) {
+                throw new RequestCancelledException(cancellationToken.getReason());
+            }
             long totalStreamTime = System.currentTimeMillis() - streamCallStart;
             log.error("❌ 思考模型流式调用失败 - 会话: {}, 错误: {}, 总耗时: {}ms", 
                 sessionId, e.getMessage(), totalStreamTime);
             throw new HappyDogException("调用思考模型失败: " + e.getMessage(), e);
+        } finally {
+            if (abortRegistration != null) {
+                abortRegistration.close();
+            }
         }
     }
 
@@ -450,7 +535,6 @@ public class AiService {
                 
                 try {
                     callback.onResponse(StreamResponse.thinking(step));
-                    Thread.sleep(streamDelay);
                     
                     // 更新已发送的步骤数量
                     sentThinkingSteps.put(sessionId, i + 1);
@@ -470,6 +554,14 @@ public class AiService {
      * 流式调用AI模型
      */
     public void streamCallAiModel(List<Map<String, String>> messages, StreamResponseCallback callback) {
+        streamCallAiModel(messages, callback, new CancellationToken());
+    }
+
+    /**
+     * 流式调用AI模型（支持取消）
+     */
+    public void streamCallAiModel(List<Map<String, String>> messages, StreamResponseCallback callback,
+                                  CancellationToken cancellationToken) {
         final long streamCallStart = System.currentTimeMillis();
         final String sessionId;
         
@@ -479,8 +571,10 @@ public class AiService {
         } else {
             sessionId = "unknown";
         }
+        CancellationToken.Registration abortRegistration = null;
         
         try {
+            cancellationToken.throwIfCancelled();
             log.info("🔍 开始验证流式调用参数 - 会话: {}", sessionId);
             
             // 验证参数
@@ -510,6 +604,7 @@ public class AiService {
             requestBody.put("temperature", 0.7);
             requestBody.put("max_tokens", 2000);
             requestBody.put("stream", true);
+            requestBody.put("stream_options", Map.of("include_usage", true));
             
             // 创建POST请求
             HttpPost httpPost = new HttpPost(baseUrl + "/chat/completions");
@@ -517,6 +612,9 @@ public class AiService {
             httpPost.setHeader("Content-Type", "application/json");
             httpPost.setEntity(new StringEntity(objectMapper.writeValueAsString(requestBody), ContentType.APPLICATION_JSON));
             
+            // 客户端断开时中止在途的上游请求，释放连接并停止消耗token
+            abortRegistration = cancellationToken.onCancel(httpPost::cancel);
+            
             // 执行请求并处理流式响应
             log.debug("🌐 开始执行HTTP请求 - 会话: {}", sessionId);
             long httpRequestStart = System.currentTimeMillis();
@@ -528,77 +626,62 @@ public class AiService {
                         sessionId, httpResponseTime, response.getCode());
                     
                     StringBuilder currentMessage = new StringBuilder();
-                    java.io.BufferedReader reader = new java.io.BufferedReader(
-                        new java.io.InputStreamReader(response.getEntity().getContent())
-                    );
-                    String line;
-                    int chunkCount = 0;
-                    long firstChunkTime = 0;
-                    
-                    while ((line = reader.readLine()) != null) {
-                        if (line.startsWith("data: ")) {
-                            chunkCount++;
-                            if (firstChunkTime == 0) {
-                                firstChunkTime = System.currentTimeMillis() - httpRequestStart;
-                                log.info("⚡ 首个数据块已接收 - 会话: {}, 首块延迟: {}ms", sessionId, firstChunkTime);
-                            }
-                            
-                            String data = line.substring(6).trim();
-                            if (data.equals("[DONE]")) {
-                                log.info("🏁 流式响应结束标记 - 会话: {}, 总块数: {}", sessionId, chunkCount);
-                                break;
-                            }
-                            
-                            try {
-                                // 解析JSON响应
-                                Map<String, Object> chunk = objectMapper.readValue(data, Map.class);
-                                if (chunk == null) {
-                                    log.warn("⚠️ 接收到空数据块 - 会话: {}, 块序号: {}", sessionId, chunkCount);
-                                    continue;
-                                }
-                                
-                                @SuppressWarnings("unchecked")
-                                List<Map<String, Object>> choices = (List<Map<String, Object>>) chunk.get("choices");
-                                
-                                if (choices != null && !choices.isEmpty()) {
-                                    Map<String, Object> choice = choices.get(0);
-                                    if (choice == null) {
-                                        log.warn("Received null choice from AI model");
-                                        continue;
-                                    }
-                                    
-                                    Map<String, Object> delta = (Map<String, Object>) choice.get("delta");
-                                    
-                                    if (delta != null && delta.containsKey("content")) {
-                                        String content = (String) delta.get("content");
-                                        if (content != null) {
-                                            currentMessage.append(content);
-                                            
-                                            // 发送内容块
-                                            try {
-                                                callback.onResponse(StreamResponse.chunk(content));
-                                            } catch (Exception ex) {
-                                                // 如果callback失败（如连接已断开），停止处理
-                                                log.debug("⚠️ 内容块发送失败，停止处理 - 会话: {}, 错误: {}", sessionId, ex.getMessage());
-                                                return null; // 提前结束流式响应处理
-                                            }
-                                            
-                                            // 注意：历史记录现在由新架构的MemoryManager管理
-                                        }
-                                    }
-                                }
-                            } catch (Exception e) {
-                                log.warn("Error processing chunk: " + e.getMessage());
-                                // 继续处理下一个chunk，而不是中断整个流
-                                continue;
-                            }
+                    StreamChunkPacer pacer = createPacer(callback, StreamResponse::chunk);
+                    if (response.getCode() >= 400) {
+                        throw new HappyDogException("AI模型返回错误状态码: " + response.getCode()
+                            + ", 响应: " + EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8));
+                    }
+
+                    // 直接在字节流上解码增量，不再逐行构建String和Map
+                    SseDeltaDecoder decoder = new SseDeltaDecoder(objectMapper.getFactory());
+                    decoder.decode(response.getEntity().getContent(), delta -> {
+                        if (cancellationToken.isCancelled()) {
+                            return false;
+                        }
+                        if (decoder.getEventCount() == 1) {
+                            log.info("⚡ 首个数据块已接收 - 会话: {}, 首块延迟: {}ms",
+                                sessionId, decoder.getFirstEventAt() - httpRequestStart);
                         }
-                        Thread.sleep(streamDelay);
+                        logDeltaMetadata(sessionId, delta);
+
+                        String content = delta.getContent();
+                        if (content == null || content.isEmpty()) {
+                            return true;
+                        }
+                        currentMessage.append(content);
+
+                        // 交给节拍器合并后发送
+                        if (!pacer.offer(content)) {
+                            // 如果callback失败（如连接已断开），停止处理
+                            log.debug("⚠️ 内容块发送失败，停止处理 - 会话: {}", sessionId);
+                            return false;
+                        }
+                        return true;
+                    });
+
+                    if (cancellationToken.isCancelled()) {
+                        // 请求已取消，丢弃尚未发送的内容
+                        pacer.discard();
+                        log.info("🛑 流式响应已取消 - 会话: {}, 已接收块数: {}", sessionId, decoder.getEventCount());
+                        return null;
+                    }
+
+                    int chunkCount = decoder.getEventCount();
+                    long firstChunkTime = chunkCount > 0 ? decoder.getFirstEventAt() - httpRequestStart : 0;
+                    if (decoder.isDoneReceived()) {
+                        log.info("🏁 流式响应结束标记 - 会话: {}, 总块数: {}, 损坏块数: {}",
+                            sessionId, chunkCount, decoder.getMalformedCount());
+                    }
+
+                    // 发送节拍器中剩余的内容，保证在完成信号之前到达
+                    if (!pacer.finish()) {
+                        log.debug("⚠️ 剩余内容块发送失败 - 会话: {}", sessionId);
+                        return null;
                     }
                     
                     long totalStreamTime = System.currentTimeMillis() - streamCallStart;
-                    log.info("✅ 流式响应处理完成 - 会话: {}, 总耗时: {}ms, 总块数: {}, 首块延迟: {}ms, 消息长度: {}字符", 
-                        sessionId, totalStreamTime, chunkCount, firstChunkTime, currentMessage.length());
+                    log.info("✅ 流式响应处理完成 - 会话: {}, 总耗时: {}ms, 总块数: {}, 发送帧数: {}, 首块延迟: {}ms, 消息长度: {}字符", 
+                        sessionId, totalStreamTime, chunkCount, pacer.getFramesSent(), firstChunkTime, currentMessage.length());
                     
                     // 发送完成信号
                     try {
@@ -617,11 +700,20 @@ public class AiService {
                 }
             });
             
+            cancellationToken.throwIfCancelled();
+            
         } catch (Exception e) {
+            if (cancellationToken.isCancelled()) {
+                throw new RequestCancelledException(cancellationToken.getReason());
+            }
             long totalStreamTime = System.currentTimeMillis() - streamCallStart;
             log.error("❌ 流式AI模型调用失败 - 会话: {}, 错误: {}, 总耗时: {}ms", 
                 sessionId, e.getMessage(), totalStreamTime);
             throw new HappyDogException("调用AI模型失败: " + e.getMessage(), e);
+        } finally {
+            if (abortRegistration != null) {
+                abortRegistration.close();
+            }
         }
     }
     
@@ -699,39 +791,32 @@ public class AiService {
      * 构建消息列表
      */
     private List<Map<String, String>> buildMessages(String userMessage, String sessionId) {
-        List<Map<String, String>> messages = new ArrayList<>();
-        
-        // 添加系统消息
-        Map<String, String> systemMessage = new HashMap<>();
-        systemMessage.put("role", "system");
-        systemMessage.put("content", systemPrompt);
-        systemMessage.put("sessionId", sessionId); // 添加sessionId
-        messages.add(systemMessage);
-        
-        // 添加历史对话
-        List<ChatMessage> history = getHistory(sessionId);
-        for (ChatMessage msg : history) {
-            Map<String, String> historyMessage = new HashMap<>();
-            if (msg.getType() == ChatMessage.MessageType.USER) {
-                historyMessage.put("role", "user");
-            } else if (msg.getType() == ChatMessage.MessageType.ASSISTANT) {
-                historyMessage.put("role", "assistant");
-            } else {
-                continue; // 跳过系统消息
+        return contextAssembler.builder("CHAT")
+            .sessionId(sessionId)
+            .system(systemPrompt)
+            .summary(summaryOf(sessionId))
+            .history(chatHistory(sessionId))
+            .user(userMessage)
+            .build();
+    }
+    
+    /**
+     * 最近的用户和助手对话，跳过系统消息和已被滚动摘要覆盖的消息
+     */
+    private List<ChatMessage> chatHistory(String sessionId) {
+        List<ChatMessage> uncompacted = conversationStore.uncompacted(sessionId);
+        List<ChatMessage> history = new ArrayList<>();
+        for (ChatMessage msg : uncompacted.subList(Math.max(0, uncompacted.size() - CHAT_CONTEXT_SIZE), uncompacted.size())) {
+            if (msg.getType() == ChatMessage.MessageType.USER || msg.getType() == ChatMessage.MessageType.ASSISTANT) {
+                history.add(msg);
             }
-            historyMessage.put("content", msg.getContent());
-            historyMessage.put("sessionId", sessionId); // 添加sessionId
-            messages.add(historyMessage);
         }
-        
-        // 添加当前用户消息
-        Map<String, String> currentMessage = new HashMap<>();
-        currentMessage.put("role", "user");
-        currentMessage.put("content", userMessage);
-        currentMessage.put("sessionId", sessionId); // 添加sessionId
-        messages.add(currentMessage);
-        
-        return messages;
+        return history;
+    }
+    
+    private String summaryOf(String sessionId) {
+        ConversationStore.Summary summary = conversationStore.summary(sessionId);
+        return summary != null ? summary.getContent() : null;
     }
     
     /**
@@ -816,7 +901,7 @@ public class AiService {
     /**
      * 构建深度思考的消息列表（使用自定义提示词）
      */
-    private List<Map<String, String>> buildThinkingMessagesWithPrompt(String userMessage, String sessionId, String customPrompt) {
+    public List<Map<String, String>> buildThinkingMessagesWithPrompt(String userMessage, String sessionId, String customPrompt) {
         List<Map<String, String>> messages = new ArrayList<>();
         
         // 添加自定义思考系统提示
@@ -976,46 +1061,22 @@ public class AiService {
      */
     private String generateFinalAnswer(String userMessage, String sessionId, List<ThinkingStep> thinkingSteps) {
         try {
-            // 构建包含思考结果的消息
-            List<Map<String, String>> messages = new ArrayList<>();
-            
-            // 添加系统消息
-            Map<String, String> systemMessage = new HashMap<>();
-            systemMessage.put("role", "system");
-            systemMessage.put("content", systemPrompt + "\n\n你已经完成了深度思考，现在请基于思考结果给出简洁明了的最终答案。");
-            systemMessage.put("sessionId", sessionId); // 添加sessionId
-            messages.add(systemMessage);
-            
-            // 添加历史对话
-            List<ChatMessage> history = getHistory(sessionId);
-            for (ChatMessage msg : history) {
-                Map<String, String> historyMessage = new HashMap<>();
-                if (msg.getType() == ChatMessage.MessageType.USER) {
-                    historyMessage.put("role", "user");
-                } else if (msg.getType() == ChatMessage.MessageType.ASSISTANT) {
-                    historyMessage.put("role", "assistant");
-                } else {
-                    continue;
-                }
-                historyMessage.put("content", msg.getContent());
-                historyMessage.put("sessionId", sessionId); // 添加sessionId
-                messages.add(historyMessage);
-            }
-            
-            // 添加思考过程摘要
+            // 添加思考过程摘要，超出预算时保留结尾的结论部分
             StringBuilder thinkingSummary = new StringBuilder();
             thinkingSummary.append("基于以下思考过程：\n\n");
             for (ThinkingStep step : thinkingSteps) {
                 thinkingSummary.append("【").append(step.getTitle()).append("】：")
                              .append(step.getContent()).append("\n\n");
             }
-            thinkingSummary.append("现在请回答用户的问题：").append(userMessage);
             
-            Map<String, String> thinkingMessage = new HashMap<>();
-            thinkingMessage.put("role", "user");
-            thinkingMessage.put("content", thinkingSummary.toString());
-            thinkingMessage.put("sessionId", sessionId); // 添加sessionId
-            messages.add(thinkingMessage);
+            List<Map<String, String>> messages = contextAssembler.builder("CHAT_THINKING")
+                .sessionId(sessionId)
+                .system(systemPrompt + "\n\n你已经完成了深度思考，现在请基于思考结果给出简洁明了的最终答案。")
+                .thinking(thinkingSummary.toString())
+                .summary(summaryOf(sessionId))
+                .history(chatHistory(sessionId))
+                .user("现在请回答用户的问题：" + userMessage)
+                .build();
             
             return callAiModel(messages);
             
@@ -1025,6 +1086,13 @@ public class AiService {
         }
     }
     
+    /**
+     * 使用指定模型进行一次非流式调用，供后台任务（如会话摘要）使用
+     */
+    public String complete(List<Map<String, String>> messages, String modelName) {
+        return callAiModelWithModel(messages, modelName);
+    }
+    
     /**
      * 使用指定模型调用AI
      */
@@ -1081,90 +1149,7 @@ public class AiService {
      * 添加消息到历史记录
      */
     private void addMessageToHistory(String sessionId, ChatMessage message) {
-        chatHistory.computeIfAbsent(sessionId, k -> new ArrayList<>()).add(message);
-        
-        // 限制历史记录数量（保留最近20条）
-        List<ChatMessage> history = chatHistory.get(sessionId);
-        if (history.size() > 20) {
-            history.subList(0, history.size() - 20).clear();
-        }
-
-        // 追加到文件
-        try {
-            Path file = Paths.get(HISTORY_DIR, sessionId + ".jsonl");
-            if (!Files.exists(file)) {
-                Files.createFile(file);
-            }
-            // 使用JSON行格式写入
-            Map<String, Object> record = new HashMap<>();
-            record.put("timestamp", LocalDateTime.now().toString());
-            record.put("type", message.getType().name());
-            record.put("sender", message.getSender());
-            record.put("content", message.getContent());
-            record.put("sessionId", sessionId);
-            String line = objectMapper.writeValueAsString(record) + System.lineSeparator();
-            Files.write(file, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
-        } catch (Exception e) {
-            log.warn("写入聊天历史文件失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
-        }
-    }
-    
-    /**
-     * 获取会话历史
-     */
-    public List<ChatMessage> getHistory(String sessionId) {
-        // 优先从内存
-        List<ChatMessage> memory = chatHistory.get(sessionId);
-        if (memory != null) {
-            return memory;
-        }
-        // 尝试从文件读取最近若干条
-        List<ChatMessage> result = new ArrayList<>();
-        try {
-            Path file = Paths.get(HISTORY_DIR, sessionId + ".jsonl");
-            if (Files.exists(file)) {
-                List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
-                // 只加载最近的20条到内存
-                int start = Math.max(0, lines.size() - 20);
-                for (int i = start; i < lines.size(); i++) {
-                    String line = lines.get(i);
-                    if (line == null || line.trim().isEmpty()) continue;
-                    Map<?,?> record = objectMapper.readValue(line, Map.class);
-                    String content = String.valueOf(record.get("content"));
-                    String type = String.valueOf(record.get("type"));
-                    String sender = String.valueOf(record.get("sender"));
-                    ChatMessage msg;
-                    if ("USER".equals(type)) {
-                        msg = ChatMessage.userMessage(content, sessionId, sender);
-                    } else if ("ASSISTANT".equals(type)) {
-                        msg = ChatMessage.assistantMessage(content, sessionId);
-                    } else {
-                        msg = ChatMessage.systemMessage(content, sessionId);
-                    }
-                    result.add(msg);
-                }
-                chatHistory.put(sessionId, new ArrayList<>(result));
-            }
-        } catch (Exception e) {
-            log.warn("读取聊天历史文件失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
-        }
-        return result;
-    }
-    
-    /**
-     * 清除会话历史
-     */
-    public void clearHistory(String sessionId) {
-        chatHistory.remove(sessionId);
-        try {
-            Path file = Paths.get(HISTORY_DIR, sessionId + ".jsonl");
-            if (Files.exists(file)) {
-                Files.delete(file);
-            }
-        } catch (Exception e) {
-            log.warn("删除聊天历史文件失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
-        }
-        log.info("Cleared history for session: " + sessionId);
+        conversationStore.append(sessionId, message);
     }
     
     /**
@@ -1173,7 +1158,7 @@ public class AiService {
     public Map<String, Object> getSessionStats(String sessionId) {
         Map<String, Object> stats = new HashMap<>();
         stats.put("sessionId", sessionId);
-        stats.put("messageCount", getHistory(sessionId).size());
+        stats.put("messageCount", conversationStore.history(sessionId).size());
         stats.put("model", model);
         return stats;
     }
@@ -1188,7 +1173,7 @@ public class AiService {
         health.put("baseUrl", baseUrl);
         health.put("deepThinkingEnabled", deepThinkingEnabled);
         health.put("streamChunkSize", streamChunkSize);
-        health.put("streamDelay", streamDelay);
+        health.put("streamMaxLatency", streamMaxLatency);
         
         // 检查关键配置
         boolean configValid = StringUtils.hasText(apiKey) && 
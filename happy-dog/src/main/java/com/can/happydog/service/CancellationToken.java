@@ -0,0 +1,98 @@
+package com.can.happydog.service;
+
+import com.can.happydog.exception.RequestCancelledException;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 请求取消令牌
+ * 由SSE连接的生命周期回调触发，沿执行链传递；在途的上游请求通过onCancel注册中止动作，
+ * 各阶段之间通过throwIfCancelled检查是否继续。
+ */
+public class CancellationToken {
+
+    private static final String DEFAULT_REASON = "未说明原因";
+
+    // 取消原因，非null即表示已取消；原因与取消状态一起发布，读到已取消时一定能读到原因
+    private final AtomicReference<String> reason = new AtomicReference<>();
+    private final Queue<Runnable> listeners = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 取消请求，只有第一次调用生效
+     *
+     * @return 本次调用是否真正触发了取消
+     */
+    public boolean cancel(String reason) {
+        if (!this.reason.compareAndSet(null, reason != null ? reason : DEFAULT_REASON)) {
+            return false;
+        }
+        // 逐个取出执行：与onCancel中的remove竞争同一个元素，谁取到谁执行，每个监听者恰好执行一次
+        Runnable listener;
+        while ((listener = listeners.poll()) != null) {
+            runQuietly(listener);
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return reason.get() != null;
+    }
+
+    public String getReason() {
+        return reason.get();
+    }
+
+    /**
+     * 已取消时抛出RequestCancelledException，用于阶段之间的检查点
+     */
+    public void throwIfCancelled() {
+        String current = reason.get();
+        if (current != null) {
+            throw new RequestCancelledException(current);
+        }
+    }
+
+    /**
+     * 注册取消时的回调；令牌已取消时立即执行
+     *
+     * @return 注销句柄，在途操作结束后应调用close释放引用
+     */
+    public Registration onCancel(Runnable listener) {
+        // 包装成独立对象，同一个Runnable重复注册时各自只被移除和执行一次
+        Runnable entry = listener::run;
+        listeners.add(entry);
+        if (isCancelled() && listeners.remove(entry)) {
+            runQuietly(entry);
+        }
+        return () -> listeners.remove(entry);
+    }
+
+    /**
+     * 创建子令牌：父令牌取消时子令牌随之取消，子令牌单独取消不影响父令牌
+     */
+    public CancellationToken child() {
+        CancellationToken child = new CancellationToken();
+        Registration registration = onCancel(() -> child.cancel(reason.get()));
+        child.onCancel(registration::close);
+        return child;
+    }
+
+    private static void runQuietly(Runnable listener) {
+        try {
+            listener.run();
+        } catch (Exception ignored) {
+            // 中止动作失败不影响其他监听者
+        }
+    }
+
+    /**
+     * 取消回调注销句柄
+     */
+    @FunctionalInterface
+    public interface Registration extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
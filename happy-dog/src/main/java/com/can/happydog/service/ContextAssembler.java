@@ -0,0 +1,359 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.ContextBudgetProperties;
+import com.can.happydog.dto.ChatMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上下文组装器
+ * 按路由的token预算组装发给模型的消息列表，超出预算时按优先级裁剪：
+ * 系统提示词和当前问题始终保留，其次是工具结果、更早对话的摘要、最近几条对话、更早的相关对话，最后是思考内容。
+ * 历史消息按整条取舍，工具结果和摘要保留开头，思考内容保留结尾（结论通常在最后）。
+ * token数按通义千问分词的保守近似估算：汉字等非ASCII字符每字1个，ASCII字母数字每4个1个，标点每个1个。
+ */
+@Component
+public class ContextAssembler {
+
+    private static final Logger log = LoggerFactory.getLogger(ContextAssembler.class);
+
+    // 每条消息的角色标记等固定开销
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+    private static final String TRUNCATED_MARK = "…（已截断）";
+    private static final String SUMMARY_PREFIX = "以下是更早对话的摘要：\n";
+    private static final int TRUNCATED_MARK_TOKENS = estimateTokens(TRUNCATED_MARK);
+
+    private final ContextBudgetProperties properties;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong totalBudget = new AtomicLong();
+    private final AtomicLong totalUsed = new AtomicLong();
+    private final AtomicLong maxUsed = new AtomicLong();
+    private final AtomicLong trimmedRequests = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong truncatedSegments = new AtomicLong();
+
+    public ContextAssembler(ContextBudgetProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * 开始为某个路由组装上下文
+     */
+    public Builder builder(String route) {
+        return new Builder(route);
+    }
+
+    /**
+     * 估算文本的token数（不含消息开销）
+     */
+    public static int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int quarters = 0;
+        for (int i = 0; i < text.length(); i++) {
+            quarters += quarterTokens(text.charAt(i));
+        }
+        return (quarters + 3) / 4;
+    }
+
+    /**
+     * 单个字符的token数，以1/4个token为单位
+     */
+    private static int quarterTokens(char c) {
+        if (c >= 128) {
+            return 4;
+        }
+        if (Character.isLetterOrDigit(c) || Character.isWhitespace(c)) {
+            return 1;
+        }
+        return 4;
+    }
+
+    /**
+     * 截取开头，使其不超过maxTokens
+     */
+    static String keepHead(String text, int maxTokens) {
+        int limit = Math.max(0, maxTokens - TRUNCATED_MARK_TOKENS) * 4;
+        int quarters = 0;
+        for (int i = 0; i < text.length(); i++) {
+            quarters += quarterTokens(text.charAt(i));
+            if (quarters > limit) {
+                return text.substring(0, i) + TRUNCATED_MARK;
+            }
+        }
+        return text;
+    }
+
+    /**
+     * 截取结尾，使其不超过maxTokens
+     */
+    static String keepTail(String text, int maxTokens) {
+        int limit = Math.max(0, maxTokens - TRUNCATED_MARK_TOKENS) * 4;
+        int quarters = 0;
+        for (int i = text.length() - 1; i >= 0; i--) {
+            quarters += quarterTokens(text.charAt(i));
+            if (quarters > limit) {
+                return TRUNCATED_MARK + text.substring(i + 1);
+            }
+        }
+        return text;
+    }
+
+    int budgetFor(String route) {
+        Integer budget = properties.getBudgets().get(route);
+        return budget != null ? budget : properties.getDefaultBudget();
+    }
+
+    /**
+     * 获取上下文预算指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long count = requests.get();
+        stats.put("enabled", properties.isEnabled());
+        stats.put("requests", count);
+        stats.put("avgBudget", count > 0 ? (double) totalBudget.get() / count : 0.0);
+        stats.put("avgUsedTokens", count > 0 ? (double) totalUsed.get() / count : 0.0);
+        stats.put("maxUsedTokens", maxUsed.get());
+        stats.put("trimmedRequests", trimmedRequests.get());
+        stats.put("droppedMessages", droppedMessages.get());
+        stats.put("truncatedSegments", truncatedSegments.get());
+        return stats;
+    }
+
+    private void record(Usage usage) {
+        requests.incrementAndGet();
+        totalBudget.addAndGet(usage.budget);
+        totalUsed.addAndGet(usage.usedTokens);
+        maxUsed.accumulateAndGet(usage.usedTokens, Math::max);
+        if (usage.droppedMessages > 0 || !usage.truncated.isEmpty()) {
+            trimmedRequests.incrementAndGet();
+            droppedMessages.addAndGet(usage.droppedMessages);
+            truncatedSegments.addAndGet(usage.truncated.size());
+        }
+    }
+
+    /**
+     * 上下文构建器：按任意顺序添加各部分，build()时按优先级分配预算并按固定顺序输出
+     * 输出顺序：系统提示词、思考内容、工具结果、对话摘要、历史对话（按时间顺序）、当前问题
+     */
+    public final class Builder {
+        private final String route;
+        private String sessionId;
+        private String systemPrompt;
+        private String thinking;
+        private String toolResult;
+        private String summary;
+        private List<ChatMessage> history = List.of();
+        private String userMessage;
+        private Usage usage;
+
+        private Builder(String route) {
+            this.route = route;
+        }
+
+        /**
+         * 每条消息附带会话ID
+         */
+        public Builder sessionId(String sessionId) {
+            this.sessionId = sessionId;
+            return this;
+        }
+
+        public Builder system(String systemPrompt) {
+            this.systemPrompt = systemPrompt;
+            return this;
+        }
+
+        public Builder thinking(String thinking) {
+            this.thinking = thinking;
+            return this;
+        }
+
+        public Builder toolResult(String toolResult) {
+            this.toolResult = toolResult;
+            return this;
+        }
+
+        /**
+         * 更早对话的滚动摘要，历史对话中只应包含摘要之后的消息
+         */
+        public Builder summary(String summary) {
+            this.summary = summary != null && !summary.isEmpty() ? SUMMARY_PREFIX + summary : null;
+            return this;
+        }
+
+        /**
+         * 历史对话，按时间顺序
+         */
+        public Builder history(List<ChatMessage> history) {
+            this.history = history != null ? history : List.of();
+            return this;
+        }
+
+        public Builder user(String userMessage) {
+            this.userMessage = userMessage;
+            return this;
+        }
+
+        /**
+         * 本次组装的预算使用情况，build()之后可用
+         */
+        public Usage usage() {
+            return usage;
+        }
+
+        public List<Map<String, String>> build() {
+            boolean limited = properties.isEnabled();
+            int budget = limited ? budgetFor(route) : Integer.MAX_VALUE;
+            List<String> truncated = new ArrayList<>();
+
+            // 1. 系统提示词和当前问题始终保留
+            int used = cost(systemPrompt) + cost(userMessage);
+            int remaining = budget - used;
+
+            // 2. 工具结果：保留开头
+            String tool = toolResult;
+            if (tool != null) {
+                int need = cost(tool);
+                if (need > remaining) {
+                    tool = remaining > MESSAGE_OVERHEAD_TOKENS ? keepHead(tool, remaining - MESSAGE_OVERHEAD_TOKENS) : null;
+                    truncated.add("tool");
+                    need = cost(tool);
+                }
+                remaining -= need;
+            }
+
+            // 3. 对话摘要：保留开头
+            String digest = summary;
+            if (digest != null) {
+                int need = cost(digest);
+                if (need > remaining) {
+                    digest = remaining > MESSAGE_OVERHEAD_TOKENS ? keepHead(digest, remaining - MESSAGE_OVERHEAD_TOKENS) : null;
+                    truncated.add("summary");
+                    need = cost(digest);
+                }
+                remaining -= need;
+            }
+
+            // 4. 最近的对话：从新到旧整条保留，放不下即停止，保证最近对话连续
+            int size = history.size();
+            boolean[] kept = new boolean[size];
+            int recentStart = Math.max(0, size - Math.max(0, properties.getRecentMessages()));
+            int keptCount = 0;
+            for (int i = size - 1; i >= recentStart; i--) {
+                int need = cost(history.get(i).getContent());
+                if (need > remaining) {
+                    break;
+                }
+                kept[i] = true;
+                keptCount++;
+                remaining -= need;
+            }
+
+            // 5. 更早的相关对话：从新到旧，放不下的跳过
+            if (keptCount == size - recentStart) {
+                for (int i = recentStart - 1; i >= 0; i--) {
+                    int need = cost(history.get(i).getContent());
+                    if (need <= remaining) {
+                        kept[i] = true;
+                        keptCount++;
+                        remaining -= need;
+                    }
+                }
+            }
+
+            // 6. 思考内容：保留结尾
+            String thought = thinking;
+            if (thought != null) {
+                int need = cost(thought);
+                if (need > remaining) {
+                    thought = remaining > MESSAGE_OVERHEAD_TOKENS ? keepTail(thought, remaining - MESSAGE_OVERHEAD_TOKENS) : null;
+                    truncated.add("thinking");
+                    need = cost(thought);
+                }
+                remaining -= need;
+            }
+
+            List<Map<String, String>> messages = new ArrayList<>();
+            add(messages, "system", systemPrompt);
+            add(messages, "system", thought);
+            add(messages, "system", tool);
+            add(messages, "system", digest);
+            for (int i = 0; i < size; i++) {
+                if (kept[i]) {
+                    ChatMessage message = history.get(i);
+                    add(messages, message.getType().toString().toLowerCase(), message.getContent());
+                }
+            }
+            add(messages, "user", userMessage);
+
+            int usedTokens = budget - remaining;
+            usage = new Usage(route, limited ? budget : 0, usedTokens, size - keptCount, truncated);
+            record(usage);
+            if (usage.droppedMessages > 0 || !truncated.isEmpty()) {
+                log.info("✂️ 上下文超出预算已裁剪 - 会话: {}, {}", sessionId, usage);
+            } else {
+                log.debug("📏 上下文预算 - 会话: {}, {}", sessionId, usage);
+            }
+            return messages;
+        }
+
+        private void add(List<Map<String, String>> messages, String role, String content) {
+            if (content == null) {
+                return;
+            }
+            Map<String, String> message = new HashMap<>();
+            message.put("role", role);
+            message.put("content", content);
+            if (sessionId != null) {
+                message.put("sessionId", sessionId);
+            }
+            messages.add(message);
+        }
+
+        private int cost(String content) {
+            return content != null ? estimateTokens(content) + MESSAGE_OVERHEAD_TOKENS : 0;
+        }
+    }
+
+    /**
+     * 一次组装的预算使用情况
+     */
+    public static final class Usage {
+        private final String route;
+        private final int budget;
+        private final int usedTokens;
+        private final int droppedMessages;
+        private final List<String> truncated;
+
+        Usage(String route, int budget, int usedTokens, int droppedMessages, List<String> truncated) {
+            this.route = route;
+            this.budget = budget;
+            this.usedTokens = usedTokens;
+            this.droppedMessages = droppedMessages;
+            this.truncated = truncated;
+        }
+
+        public String getRoute() { return route; }
+        public int getBudget() { return budget; }
+        public int getUsedTokens() { return usedTokens; }
+        public int getDroppedMessages() { return droppedMessages; }
+        public List<String> getTruncated() { return truncated; }
+
+        @Override
+        public String toString() {
+            return "路由: " + route + ", 预算: " + budget + ", 估算用量: " + usedTokens
+                + ", 丢弃历史: " + droppedMessages + "条, 截断: " + truncated;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.CompactionProperties;
+import com.can.happydog.dto.ChatMessage;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 会话摘要压缩器
+ * 会话中未被摘要覆盖的消息估算token数超过阈值时，在独立的后台线程上调用小模型，
+ * 把已有摘要和较早的对话合并成新的滚动摘要保存到会话中，最近几条消息保留原文。
+ * 之后发给模型的上下文变为"摘要 + 最近对话"，长会话的提示词大小基本不再增长。
+ * 压缩不经过请求线程，也不占用回答后任务执行器（加载上下文会等待同一会话的后台任务），
+ * 每个会话有最小间隔，全局有每分钟次数上限，队列满时直接放弃，下次追加消息时再检查。
+ */
+@Component
+public class ConversationCompactor {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationCompactor.class);
+
+    // 单条消息并入摘要提示词时的估算token上限，避免一条超长回答占满摘要模型的输入
+    private static final int MAX_MESSAGE_TOKENS = 800;
+
+    private final ConversationStore conversationStore;
+    private final CompactionProperties properties;
+    private final Function<List<Map<String, String>>, String> summarizer;
+    private final ThreadPoolExecutor executor;
+
+    // 已提交、尚未完成压缩的会话
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    // 会话最近一次发起压缩的时间
+    private final Map<String, Long> lastStarted = new ConcurrentHashMap<>();
+
+    // 全局每分钟限流窗口
+    private long windowStart;
+    private int windowCount;
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong compactedMessages = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+
+    @Autowired
+    public ConversationCompactor(ConversationStore conversationStore, AiService aiService, CompactionProperties properties) {
+        this(conversationStore, properties, messages -> aiService.complete(messages, properties.getModel()));
+    }
+
+    ConversationCompactor(ConversationStore conversationStore, CompactionProperties properties,
+                          Function<List<Map<String, String>>, String> summarizer) {
+        this.conversationStore = conversationStore;
+        this.properties = properties;
+        this.summarizer = summarizer;
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, properties.getQueueCapacity())), runnable -> {
+                Thread thread = new Thread(runnable, "conversation-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        conversationStore.addAppendListener(this::onAppend);
+        conversationStore.addEvictionListener(lastStarted::remove);
+    }
+
+    /**
+     * 追加消息后检查是否需要压缩，只做估算和限流判断，满足条件时提交后台任务
+     */
+    private void onAppend(String sessionId) {
+        if (!properties.isEnabled() || inFlight.contains(sessionId)) {
+            return;
+        }
+        List<ChatMessage> uncompacted = conversationStore.uncompacted(sessionId);
+        if (uncompacted.size() <= properties.getKeepRecent() || estimateTokens(uncompacted) <= properties.getTriggerTokens()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Long last = lastStarted.get(sessionId);
+        if (last != null && now - last < properties.getMinInterval()) {
+            return;
+        }
+        if (!inFlight.add(sessionId)) {
+            return;
+        }
+        if (!tryAcquire(now)) {
+            inFlight.remove(sessionId);
+            rateLimited.incrementAndGet();
+            return;
+        }
+        lastStarted.put(sessionId, now);
+        try {
+            executor.execute(() -> {
+                try {
+                    compact(sessionId);
+                } finally {
+                    inFlight.remove(sessionId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(sessionId);
+            rejected.incrementAndGet();
+            log.debug("🚦 摘要压缩队列已满，跳过 - 会话: {}", sessionId);
+        }
+    }
+
+    /**
+     * 把已有摘要和较早的消息合并为新摘要，最近keepRecent条消息保留原文
+     */
+    void compact(String sessionId) {
+        long startTime = System.currentTimeMillis();
+        started.incrementAndGet();
+        // 在读取消息之前取得代数，压缩期间会话被清除时保存会被拒绝
+        long generation = conversationStore.generation(sessionId);
+        try {
+            List<ChatMessage> uncompacted = conversationStore.uncompacted(sessionId);
+            int cut = uncompacted.size() - Math.max(0, properties.getKeepRecent());
+            // 摘要按时间点覆盖消息，分界处时间相同的消息要么都并入、要么都保留
+            while (cut > 0 && cut < uncompacted.size()
+                && !uncompacted.get(cut).getTimestamp().isAfter(uncompacted.get(cut - 1).getTimestamp())) {
+                cut--;
+            }
+            if (cut <= 0) {
+                return;
+            }
+            List<ChatMessage> folded = uncompacted.subList(0, cut);
+            ConversationStore.Summary previous = conversationStore.summary(sessionId);
+            String content = summarizer.apply(buildPrompt(previous, folded));
+            if (content == null || content.trim().isEmpty()) {
+                throw new IllegalStateException("摘要模型返回空内容");
+            }
+            int coveredMessages = (previous != null ? previous.getCoveredMessages() : 0) + folded.size();
+            ConversationStore.Summary summary = new ConversationStore.Summary(content.trim(),
+                folded.get(folded.size() - 1).getTimestamp(), coveredMessages, LocalDateTime.now());
+            if (!conversationStore.saveSummary(sessionId, generation, summary)) {
+                log.debug("🗑️ 会话已清除，丢弃摘要 - 会话: {}", sessionId);
+                return;
+            }
+            long duration = System.currentTimeMillis() - startTime;
+            completed.incrementAndGet();
+            compactedMessages.addAndGet(folded.size());
+            totalMillis.addAndGet(duration);
+            log.info("🗜️ 会话摘要已更新 - 会话: {}, 并入消息: {}, 累计覆盖: {}, 摘要长度: {}, 耗时: {}ms",
+                sessionId, folded.size(), coveredMessages, summary.getContent().length(), duration);
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.warn("⚠️ 会话摘要压缩失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
+        }
+    }
+
+    private List<Map<String, String>> buildPrompt(ConversationStore.Summary previous, List<ChatMessage> folded) {
+        StringBuilder transcript = new StringBuilder();
+        if (previous != null) {
+            transcript.append("已有摘要：\n").append(previous.getContent()).append("\n\n");
+        }
+        transcript.append("新的对话：\n");
+        for (ChatMessage message : folded) {
+            String speaker = message.getType() == ChatMessage.MessageType.USER ? "用户"
+                : message.getType() == ChatMessage.MessageType.ASSISTANT ? "助手" : "系统";
+            transcript.append(speaker).append("：")
+                .append(ContextAssembler.keepHead(String.valueOf(message.getContent()), MAX_MESSAGE_TOKENS))
+                .append("\n");
+        }
+
+        List<Map<String, String>> messages = new ArrayList<>();
+        Map<String, String> systemMessage = new HashMap<>();
+        systemMessage.put("role", "system");
+        systemMessage.put("content", "你负责压缩对话记录。请把已有摘要和新的对话合并成一份新的摘要，不超过"
+            + properties.getSummaryMaxChars() + "字。保留用户的身份、偏好、明确提出的要求、已确认的事实和结论、"
+            + "尚未解决的问题；省略寒暄和重复内容。只输出摘要正文，使用第三人称陈述。");
+        messages.add(systemMessage);
+        Map<String, String> userMessage = new HashMap<>();
+        userMessage.put("role", "user");
+        userMessage.put("content", transcript.toString());
+        messages.add(userMessage);
+        return messages;
+    }
+
+    private static int estimateTokens(List<ChatMessage> messages) {
+        int tokens = 0;
+        for (ChatMessage message : messages) {
+            tokens += ContextAssembler.estimateTokens(message.getContent());
+        }
+        return tokens;
+    }
+
+    /**
+     * 全局每分钟限流，固定窗口计数
+     */
+    private synchronized boolean tryAcquire(long now) {
+        if (now - windowStart >= 60000) {
+            windowStart = now;
+            windowCount = 0;
+        }
+        if (windowCount >= properties.getMaxPerMinute()) {
+            return false;
+        }
+        windowCount++;
+        return true;
+    }
+
+    /**
+     * 获取压缩指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long done = completed.get();
+        stats.put("enabled", properties.isEnabled());
+        stats.put("model", properties.getModel());
+        stats.put("started", started.get());
+        stats.put("completed", done);
+        stats.put("failed", failed.get());
+        stats.put("rateLimited", rateLimited.get());
+        stats.put("rejected", rejected.get());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("compactedMessages", compactedMessages.get());
+        stats.put("avgMillis", done > 0 ? (double) totalMillis.get() / done : 0.0);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,614 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.SessionHistoryProperties;
+import com.can.happydog.dto.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 会话历史存储
+ * 普通聊天和智能体共用的唯一历史来源：内存热数据层（每个会话一个环形缓冲区）加文件持久层（每个会话一个jsonl文件）。
+ * 追加消息时先写内存再进入落盘队列，由后台线程按会话批量追加到文件；读取时内存未命中才从文件加载最近的消息。
+ * 长会话可以带一份滚动摘要，覆盖到某个时间点为止的消息，与历史文件并列保存为 会话ID.summary.json。
+ * 从文件加载时只从末尾向前读取最近的消息；更早的历史通过并列的行偏移索引（会话ID.idx）分页读取。
+ * 文件读写按会话分段加锁，不同会话的加载、落盘和分页互不阻塞；全局锁只用于从落盘队列取出积压的消息。
+ */
+@Component
+public class ConversationStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationStore.class);
+    
+    private static final String HISTORY_SUFFIX = ".jsonl";
+    private static final String SUMMARY_SUFFIX = ".summary.json";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int LOCK_STRIPES = 64;
+
+    private final ObjectMapper objectMapper;
+    private final SessionHistoryProperties properties;
+    private final SessionHistoryStore memory;
+    private final Path directory;
+    private final LinkedBlockingQueue<PendingWrite> pending;
+    // 每个会话尚未落盘的消息数，加载文件前只需为有积压的会话先落盘
+    private final Map<String, AtomicInteger> pendingBySession = new ConcurrentHashMap<>();
+    // 已从落盘队列取出、尚未写入文件的消息，按会话暂存，保持取出时的顺序
+    private final Map<String, List<ChatMessage>> staged = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService writer;
+    // 只保护从落盘队列取出并暂存的过程，保证同一会话的消息按入队顺序暂存
+    private final Object drainLock = new Object();
+    // 会话文件的追加、读取和删除在该会话所属的分段锁上进行，同一线程不会同时持有两把分段锁
+    private final Object[] sessionLocks = new Object[LOCK_STRIPES];
+    // 会话的滚动摘要，随会话一起移出内存
+    private final Map<String, Summary> summaries = new ConcurrentHashMap<>();
+    // 会话被清除的次数，只记录清除过的会话；进行中的摘要压缩据此判断会话是否在压缩期间被清除
+    private final Map<String, Long> generations = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> appendListeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong writeErrors = new AtomicLong();
+    private final AtomicLong syncWrites = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong totalLoadMillis = new AtomicLong();
+    private final AtomicLong pageReads = new AtomicLong();
+    private final AtomicLong indexRebuilds = new AtomicLong();
+    private final AtomicLong decodeErrors = new AtomicLong();
+
+    @Autowired
+    public ConversationStore(ObjectMapper objectMapper, SessionHistoryProperties properties) {
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.memory = new SessionHistoryStore("conversation", properties.getMemorySize(), properties);
+        this.directory = Paths.get(properties.getDirectory()).toAbsolutePath().normalize();
+        this.pending = new LinkedBlockingQueue<>(Math.max(1, properties.getWriteQueueCapacity()));
+        for (int i = 0; i < sessionLocks.length; i++) {
+            sessionLocks[i] = new Object();
+        }
+        try {
+            Files.createDirectories(directory);
+        } catch (Exception e) {
+            log.warn("无法创建聊天历史目录: {}", e.getMessage());
+        }
+        memory.addEvictionListener(summaries::remove);
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "conversation-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long flushInterval = Math.max(10, properties.getFlushInterval());
+        writer.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 追加一条消息：立即写入内存，文件由后台批量追加
+     */
+    public void append(String sessionId, ChatMessage message) {
+        ensureLoaded(sessionId);
+        memory.append(sessionId, message);
+        if (fileOf(sessionId) == null) {
+            return;
+        }
+        PendingWrite write = new PendingWrite(sessionId, message);
+        pendingBySession.computeIfAbsent(sessionId, k -> new AtomicInteger()).incrementAndGet();
+        if (!pending.offer(write)) {
+            releasePending(sessionId, 1);
+            // 落盘队列已满，在当前线程清空队列，并把本会话积压的消息连同这一条一起写入
+            syncWrites.incrementAndGet();
+            synchronized (lockOf(sessionId)) {
+                flushSessionLocked(sessionId);
+                writeBatch(sessionId, List.of(message));
+            }
+        }
+        for (Consumer<String> listener : appendListeners) {
+            listener.accept(sessionId);
+        }
+    }
+
+    /**
+     * 按时间顺序返回会话历史（内存中的最近消息），内存未命中时从文件加载
+     */
+    public List<ChatMessage> history(String sessionId) {
+        List<ChatMessage> cached = memory.get(sessionId);
+        if (cached != null) {
+            return cached;
+        }
+        ensureLoaded(sessionId);
+        return memory.getOrEmpty(sessionId);
+    }
+
+    /**
+     * 返回会话最近的limit条消息
+     */
+    public List<ChatMessage> recent(String sessionId, int limit) {
+        List<ChatMessage> history = history(sessionId);
+        return history.size() > limit ? new ArrayList<>(history.subList(history.size() - limit, history.size())) : history;
+    }
+
+    /**
+     * 分页读取完整历史（含已移出内存的更早消息），offset为跳过的最新消息数，返回的消息按时间顺序排列
+     */
+    public Page page(String sessionId, int offset, int limit) {
+        offset = Math.max(0, offset);
+        limit = Math.max(0, limit);
+        Path file = fileOf(sessionId);
+        if (file != null) {
+            synchronized (lockOf(sessionId)) {
+                if (pendingBySession.containsKey(sessionId)) {
+                    flushSessionLocked(sessionId);
+                }
+                if (Files.exists(file)) {
+                    return readPage(sessionId, file, offset, limit);
+                }
+            }
+        }
+        // 没有历史文件的会话只有内存中的消息
+        List<ChatMessage> history = history(sessionId);
+        int to = Math.max(0, history.size() - offset);
+        int from = Math.max(0, to - limit);
+        return new Page(new ArrayList<>(history.subList(from, to)), history.size());
+    }
+    
+    /**
+     * 会话的滚动摘要，没有时返回null
+     */
+    public Summary summary(String sessionId) {
+        ensureLoaded(sessionId);
+        return summaries.get(sessionId);
+    }
+    
+    /**
+     * 按时间顺序返回尚未被摘要覆盖的消息，没有摘要时与history相同
+     */
+    public List<ChatMessage> uncompacted(String sessionId) {
+        List<ChatMessage> history = history(sessionId);
+        Summary summary = summaries.get(sessionId);
+        if (summary == null || summary.coveredUntil == null) {
+            return history;
+        }
+        List<ChatMessage> result = new ArrayList<>();
+        for (ChatMessage message : history) {
+            if (message.getTimestamp() == null || message.getTimestamp().isAfter(summary.coveredUntil)) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 会话当前的代数，每次clear加一；生成摘要前取得，保存时用于识别期间发生的清除
+     */
+    public long generation(String sessionId) {
+        return generations.getOrDefault(sessionId, 0L);
+    }
+    
+    /**
+     * 保存会话的滚动摘要，会话在取得generation之后被清除（即使随后又有新消息）或已移出内存时不保存
+     * @return 是否已保存
+     */
+    public boolean saveSummary(String sessionId, long generation, Summary summary) {
+        synchronized (lockOf(sessionId)) {
+            if (generation(sessionId) != generation || !memory.contains(sessionId)) {
+                return false;
+            }
+            summaries.put(sessionId, summary);
+            Path file = fileOf(sessionId, SUMMARY_SUFFIX);
+            if (file == null) {
+                return true;
+            }
+            try {
+                Map<String, Object> record = new LinkedHashMap<>();
+                record.put("content", summary.content);
+                record.put("coveredUntil", summary.coveredUntil.toString());
+                record.put("coveredMessages", summary.coveredMessages);
+                record.put("updatedAt", summary.updatedAt.toString());
+                // 先写临时文件再替换，避免读到写了一半的摘要
+                Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.write(temp, objectMapper.writeValueAsBytes(record));
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (Exception e) {
+                log.warn("写入会话摘要文件失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * 注册追加消息后的回调，在追加消息的线程上执行，回调需足够轻量
+     */
+    public void addAppendListener(Consumer<String> listener) {
+        appendListeners.add(listener);
+    }
+    
+    /**
+     * 清除会话的内存和文件历史
+     */
+    public void clear(String sessionId) {
+        synchronized (lockOf(sessionId)) {
+            generations.merge(sessionId, 1L, Long::sum);
+            // 先把本会话积压的消息落盘，避免删除文件后又被后台线程重新创建
+            flushSessionLocked(sessionId);
+            memory.remove(sessionId);
+            summaries.remove(sessionId);
+            Path file = fileOf(sessionId);
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                    Files.deleteIfExists(fileOf(sessionId, INDEX_SUFFIX));
+                    Files.deleteIfExists(fileOf(sessionId, SUMMARY_SUFFIX));
+                } catch (Exception e) {
+                    log.warn("删除聊天历史文件失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 注册会话从内存中移除时的回调
+     */
+    public void addEvictionListener(Consumer<String> listener) {
+        memory.addEvictionListener(listener);
+    }
+
+    /**
+     * 获取存储指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>(memory.getStats());
+        long loadCount = loads.get();
+        stats.put("summaries", summaries.size());
+        stats.put("pendingWrites", pending.size());
+        stats.put("writtenMessages", written.get());
+        stats.put("writeBatches", batches.get());
+        stats.put("writeErrors", writeErrors.get());
+        stats.put("syncWrites", syncWrites.get());
+        stats.put("fileLoads", loadCount);
+        stats.put("avgLoadMillis", loadCount > 0 ? (double) totalLoadMillis.get() / loadCount : 0.0);
+        stats.put("pageReads", pageReads.get());
+        stats.put("indexRebuilds", indexRebuilds.get());
+        stats.put("decodeErrors", decodeErrors.get());
+        return stats;
+    }
+
+    /**
+     * 内存未命中时从文件加载最近的消息，已在内存中时不做任何事
+     */
+    private void ensureLoaded(String sessionId) {
+        if (memory.contains(sessionId)) {
+            return;
+        }
+        Path file = fileOf(sessionId);
+        if (file == null) {
+            return;
+        }
+        boolean hasPending = pendingBySession.containsKey(sessionId);
+        if (!hasPending && !Files.exists(file)) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        List<ChatMessage> loaded;
+        synchronized (lockOf(sessionId)) {
+            // 会话可能在消息落盘前就被淘汰，读取前先把积压的消息写入文件
+            if (hasPending) {
+                flushSessionLocked(sessionId);
+            }
+            if (!Files.exists(file)) {
+                return;
+            }
+            loaded = readRecent(sessionId, file, properties.getMemorySize());
+            Summary summary = readSummary(sessionId);
+            if (summary != null) {
+                summaries.putIfAbsent(sessionId, summary);
+            }
+            // 放入内存也要在锁内完成：否则并发的clear()删除文件和内存之后，这里仍会把读到的旧历史放回内存
+            memory.loadIfAbsent(sessionId, loaded);
+        }
+        loads.incrementAndGet();
+        totalLoadMillis.addAndGet(System.currentTimeMillis() - startTime);
+        log.debug("📂 从文件加载会话历史 - 会话: {}, 条数: {}", sessionId, loaded.size());
+    }
+
+    /**
+     * 从文件末尾向前读取最近的limit条消息，只解码这些行
+     */
+    private List<ChatMessage> readRecent(String sessionId, Path file, int limit) {
+        try {
+            return decodeAll(sessionId, JsonlFiles.tail(file, limit));
+        } catch (Exception e) {
+            log.warn("读取聊天历史文件失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+    
+    /**
+     * 按行偏移索引读取一页，索引缺失或与文件不一致时先扫描文件重建，调用方需持有会话的分段锁
+     */
+    private Page readPage(String sessionId, Path file, int offset, int limit) {
+        Path index = fileOf(sessionId, INDEX_SUFFIX);
+        try {
+            if (!JsonlFiles.isIndexValid(file, index)) {
+                int lines = JsonlFiles.rebuildIndex(file, index);
+                indexRebuilds.incrementAndGet();
+                log.info("🗂️ 重建聊天历史索引 - 会话: {}, 行数: {}", sessionId, lines);
+            }
+            int total = JsonlFiles.lineCount(index);
+            int to = Math.max(0, total - offset);
+            int from = Math.max(0, to - limit);
+            pageReads.incrementAndGet();
+            return new Page(decodeAll(sessionId, JsonlFiles.readLines(file, index, from, to - from)), total);
+        } catch (Exception e) {
+            log.warn("分页读取聊天历史失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
+            return new Page(new ArrayList<>(), 0);
+        }
+    }
+    
+    /**
+     * 逐行解码，损坏的行（如写入中途进程退出留下的半行）跳过并计数
+     */
+    private List<ChatMessage> decodeAll(String sessionId, List<String> lines) {
+        List<ChatMessage> result = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            try {
+                result.add(decode(sessionId, line));
+            } catch (Exception e) {
+                decodeErrors.incrementAndGet();
+                log.debug("跳过无法解析的聊天历史行 - 会话: {}, 错误: {}", sessionId, e.getMessage());
+            }
+        }
+        return result;
+    }
+    
+    private Summary readSummary(String sessionId) {
+        Path file = fileOf(sessionId, SUMMARY_SUFFIX);
+        if (file == null || !Files.exists(file)) {
+            return null;
+        }
+        try {
+            Map<?, ?> record = objectMapper.readValue(file.toFile(), Map.class);
+            return new Summary(String.valueOf(record.get("content")),
+                LocalDateTime.parse(String.valueOf(record.get("coveredUntil"))),
+                ((Number) record.get("coveredMessages")).intValue(),
+                LocalDateTime.parse(String.valueOf(record.get("updatedAt"))));
+        } catch (Exception e) {
+            log.warn("读取会话摘要文件失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
+            return null;
+        }
+    }
+    
+    private ChatMessage decode(String sessionId, String line) throws Exception {
+        Map<?, ?> record = objectMapper.readValue(line, Map.class);
+        String content = String.valueOf(record.get("content"));
+        String type = String.valueOf(record.get("type"));
+        String sender = String.valueOf(record.get("sender"));
+        ChatMessage message;
+        if ("USER".equals(type)) {
+            message = ChatMessage.userMessage(content, sessionId, sender);
+        } else if ("ASSISTANT".equals(type)) {
+            message = ChatMessage.assistantMessage(content, sessionId);
+        } else {
+            message = ChatMessage.systemMessage(content, sessionId);
+        }
+        Object timestamp = record.get("timestamp");
+        if (timestamp != null) {
+            try {
+                message.setTimestamp(LocalDateTime.parse(timestamp.toString()));
+            } catch (Exception e) {
+                // 保留加载时间
+            }
+        }
+        return message;
+    }
+
+    private String encode(String sessionId, ChatMessage message) throws Exception {
+        Map<String, Object> record = new LinkedHashMap<>();
+        LocalDateTime timestamp = message.getTimestamp() != null ? message.getTimestamp() : LocalDateTime.now();
+        record.put("timestamp", timestamp.toString());
+        record.put("type", message.getType().name());
+        record.put("sender", message.getSender());
+        record.put("content", message.getContent());
+        record.put("sessionId", sessionId);
+        return objectMapper.writeValueAsString(record);
+    }
+
+    private void flushQuietly() {
+        if (pending.isEmpty() && staged.isEmpty()) {
+            return;
+        }
+        try {
+            flushAll();
+        } catch (RuntimeException e) {
+            log.error("❌ 聊天历史落盘失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 取出所有积压的消息，逐个会话在各自的分段锁上追加，每个文件追加一次
+     */
+    private void flushAll() {
+        drainPending();
+        for (String sessionId : new ArrayList<>(staged.keySet())) {
+            synchronized (lockOf(sessionId)) {
+                writeStaged(sessionId);
+            }
+        }
+    }
+
+    /**
+     * 清空落盘队列并写入本会话积压的消息，其他会话的消息留给后台线程，调用方需持有会话的分段锁
+     */
+    private void flushSessionLocked(String sessionId) {
+        drainPending();
+        writeStaged(sessionId);
+    }
+
+    /**
+     * 在全局锁上把落盘队列中的消息按会话暂存；暂存按取出顺序追加，写入时整批取走，
+     * 因此同一会话的消息无论由哪个线程写入都保持入队顺序
+     */
+    private void drainPending() {
+        synchronized (drainLock) {
+            List<PendingWrite> drained = new ArrayList<>();
+            pending.drainTo(drained);
+            for (PendingWrite write : drained) {
+                staged.compute(write.sessionId, (k, messages) -> {
+                    List<ChatMessage> batch = messages != null ? messages : new ArrayList<>();
+                    batch.add(write.message);
+                    return batch;
+                });
+            }
+        }
+    }
+
+    /**
+     * 取走会话暂存的消息并追加到文件，调用方需持有会话的分段锁
+     */
+    private void writeStaged(String sessionId) {
+        List<ChatMessage> messages = staged.remove(sessionId);
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        writeBatch(sessionId, messages);
+        releasePending(sessionId, messages.size());
+    }
+
+    private void writeBatch(String sessionId, List<ChatMessage> messages) {
+        Path file = fileOf(sessionId);
+        long start;
+        int[] lineLengths = new int[messages.size()];
+        try {
+            StringBuilder lines = new StringBuilder();
+            int lineSeparatorBytes = System.lineSeparator().getBytes(StandardCharsets.UTF_8).length;
+            for (int i = 0; i < messages.size(); i++) {
+                String line = encode(sessionId, messages.get(i));
+                lineLengths[i] = line.getBytes(StandardCharsets.UTF_8).length + lineSeparatorBytes;
+                lines.append(line).append(System.lineSeparator());
+            }
+            start = Files.exists(file) ? Files.size(file) : 0;
+            Files.write(file, lines.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            written.addAndGet(messages.size());
+            batches.incrementAndGet();
+        } catch (Exception e) {
+            writeErrors.addAndGet(messages.size());
+            log.warn("写入聊天历史文件失败 - 会话: {}, 条数: {}, 错误: {}", sessionId, messages.size(), e.getMessage());
+            return;
+        }
+        // 索引只在新文件或已有索引时追加；旧文件没有索引，首次分页时再扫描重建
+        Path index = fileOf(sessionId, INDEX_SUFFIX);
+        try {
+            if (start == 0) {
+                // 新文件：丢弃可能残留的旧索引
+                Files.deleteIfExists(index);
+            }
+            if (start == 0 || Files.exists(index)) {
+                JsonlFiles.appendIndex(index, start, lineLengths);
+            }
+        } catch (Exception e) {
+            log.warn("写入聊天历史索引失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
+        }
+    }
+
+    private Object lockOf(String sessionId) {
+        return sessionLocks[Math.floorMod(sessionId.hashCode(), sessionLocks.length)];
+    }
+
+    private void releasePending(String sessionId, int count) {
+        pendingBySession.computeIfPresent(sessionId, (k, counter) -> counter.addAndGet(-count) <= 0 ? null : counter);
+    }
+
+    /**
+     * 会话对应的历史文件，会话ID会逃出历史目录时返回null（只保留在内存中）
+     */
+    private Path fileOf(String sessionId) {
+        return fileOf(sessionId, HISTORY_SUFFIX);
+    }
+    
+    private Path fileOf(String sessionId, String suffix) {
+        if (sessionId == null || sessionId.isEmpty()) {
+            return null;
+        }
+        Path file = directory.resolve(sessionId + suffix).normalize();
+        return file.getParent() != null && file.getParent().equals(directory) ? file : null;
+    }
+
+    /**
+     * 关闭时把积压的消息全部落盘
+     */
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdown();
+        flushAll();
+    }
+
+    /**
+     * 会话的滚动摘要：概括了coveredUntil及之前的全部消息
+     */
+    public static final class Summary {
+        private final String content;
+        private final LocalDateTime coveredUntil;
+        private final int coveredMessages;
+        private final LocalDateTime updatedAt;
+        
+        public Summary(String content, LocalDateTime coveredUntil, int coveredMessages, LocalDateTime updatedAt) {
+            this.content = content;
+            this.coveredUntil = coveredUntil;
+            this.coveredMessages = coveredMessages;
+            this.updatedAt = updatedAt;
+        }
+        
+        public String getContent() { return content; }
+        public LocalDateTime getCoveredUntil() { return coveredUntil; }
+        public int getCoveredMessages() { return coveredMessages; }
+        public LocalDateTime getUpdatedAt() { return updatedAt; }
+    }
+    
+    /**
+     * 分页读取的一页历史
+     */
+    public static final class Page {
+        private final List<ChatMessage> messages;
+        private final int total;
+        
+        public Page(List<ChatMessage> messages, int total) {
+            this.messages = messages;
+            this.total = total;
+        }
+        
+        public List<ChatMessage> getMessages() { return messages; }
+        public int getTotal() { return total; }
+    }
+    
+    private static final class PendingWrite {
+        private final String sessionId;
+        private final ChatMessage message;
+
+        PendingWrite(String sessionId, ChatMessage message) {
+            this.sessionId = sessionId;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.can.happydog.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按行存储的历史文件读取工具
+ * 尾部读取从文件末尾向前按块读取，只解码最后若干行，耗时与文件总大小无关；
+ * 偏移索引是与历史文件并列的定长文件，每行一个8字节的行起始偏移，用于按行号分页读取更早的历史。
+ * 调用方负责加锁，保证读取时没有并发写入。
+ */
+final class JsonlFiles {
+
+    // 尾部读取的初始窗口，行数不够时翻倍
+    private static final int TAIL_WINDOW = 64 * 1024;
+    private static final int OFFSET_BYTES = Long.BYTES;
+
+    private JsonlFiles() {
+    }
+
+    /**
+     * 读取文件最后limit个非空行，按文件中的顺序返回
+     */
+    static List<String> tail(Path file, int limit) throws IOException {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long window = TAIL_WINDOW;
+            while (true) {
+                long start = Math.max(0, size - window);
+                byte[] bytes = read(channel, start, size);
+                int from = 0;
+                if (start > 0) {
+                    // 窗口起点可能落在一行中间，从第一个换行之后开始
+                    while (from < bytes.length && bytes[from] != '\n') {
+                        from++;
+                    }
+                    from++;
+                }
+                List<String> lines = splitLines(bytes, Math.min(from, bytes.length), bytes.length);
+                if (lines.size() >= limit || start == 0) {
+                    return lines.size() > limit ? new ArrayList<>(lines.subList(lines.size() - limit, lines.size())) : lines;
+                }
+                window *= 2;
+            }
+        }
+    }
+
+    /**
+     * 按偏移索引读取第from行起的count行
+     */
+    static List<String> readLines(Path file, Path index, int from, int count) throws IOException {
+        if (count <= 0) {
+            return new ArrayList<>();
+        }
+        try (FileChannel indexChannel = FileChannel.open(index, StandardOpenOption.READ);
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int total = (int) (indexChannel.size() / OFFSET_BYTES);
+            int to = Math.min(total, from + count);
+            if (from >= to) {
+                return new ArrayList<>();
+            }
+            long start = offsetAt(indexChannel, from);
+            long end = to < total ? offsetAt(indexChannel, to) : channel.size();
+            byte[] bytes = read(channel, start, end);
+            return splitLines(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * 索引中的行数
+     */
+    static int lineCount(Path index) throws IOException {
+        return (int) (Files.size(index) / OFFSET_BYTES);
+    }
+
+    /**
+     * 追加一批行之后把它们的起始偏移追加到索引
+     * @param start 这批行写入前的文件大小
+     * @param lineLengths 每行的字节数（含换行符）
+     */
+    static void appendIndex(Path index, long start, int[] lineLengths) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(lineLengths.length * OFFSET_BYTES);
+        long offset = start;
+        for (int length : lineLengths) {
+            buffer.putLong(offset);
+            offset += length;
+        }
+        Files.write(index, buffer.array(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * 索引与文件是否一致：条目完整，且最后一个条目正好指向文件最后一行的开头
+     */
+    static boolean isIndexValid(Path file, Path index) throws IOException {
+        if (!Files.exists(index)) {
+            return false;
+        }
+        long indexSize = Files.size(index);
+        long fileSize = Files.size(file);
+        if (indexSize % OFFSET_BYTES != 0) {
+            return false;
+        }
+        if (indexSize == 0) {
+            return fileSize == 0;
+        }
+        try (FileChannel indexChannel = FileChannel.open(index, StandardOpenOption.READ);
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long last = offsetAt(indexChannel, (int) (indexSize / OFFSET_BYTES) - 1);
+            if (last >= fileSize || (last > 0 && read(channel, last - 1, last)[0] != '\n')) {
+                return false;
+            }
+            byte[] lastLine = read(channel, last, fileSize);
+            for (int i = 0; i < lastLine.length - 1; i++) {
+                if (lastLine[i] == '\n') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 扫描整个文件重建索引，返回行数
+     */
+    static int rebuildIndex(Path file, Path index) throws IOException {
+        Path temp = index.resolveSibling(index.getFileName() + ".tmp");
+        int lines = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(newOutput(temp)))) {
+            long offset = 0;
+            long lineStart = 0;
+            boolean blank = true;
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    if (!blank) {
+                        out.writeLong(lineStart);
+                        lines++;
+                    }
+                    lineStart = offset + 1;
+                    blank = true;
+                } else if (b != '\r' && b != ' ' && b != '\t') {
+                    blank = false;
+                }
+                offset++;
+            }
+            if (!blank) {
+                out.writeLong(lineStart);
+                lines++;
+            }
+        }
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return lines;
+    }
+
+    private static OutputStream newOutput(Path path) throws IOException {
+        return Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+    }
+
+    private static long offsetAt(FileChannel indexChannel, int line) throws IOException {
+        return ByteBuffer.wrap(read(indexChannel, (long) line * OFFSET_BYTES, (long) (line + 1) * OFFSET_BYTES)).getLong();
+    }
+
+    private static byte[] read(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        long position = start;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 按换行切分字节区间并解码为UTF-8，跳过空行；换行符不会出现在多字节字符内部，按字节切分是安全的
+     */
+    private static List<String> splitLines(byte[] bytes, int from, int to) {
+        List<String> lines = new ArrayList<>();
+        int lineStart = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || bytes[i] == '\n') {
+                int lineEnd = i;
+                if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+                    lineEnd--;
+                }
+                if (lineEnd > lineStart) {
+                    String line = new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+                    if (!line.trim().isEmpty()) {
+                        lines.add(line);
+                    }
+                }
+                lineStart = i + 1;
+            }
+        }
+        return lines;
+    }
+}
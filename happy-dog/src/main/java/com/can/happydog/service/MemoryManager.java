@@ -2,6 +2,7 @@ package com.can.happydog.service;
 
 import com.can.happydog.dto.ChatMessage;
 import com.can.happydog.service.AgentExecutor.ExecutionContext;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,18 +20,39 @@ public class MemoryManager {
     
     private static final Logger log = LoggerFactory.getLogger(MemoryManager.class);
     
-    // 对话历史存储
-    private final Map<String, List<ChatMessage>> chatHistory = new ConcurrentHashMap<>();
+    // 对话历史存储（与普通聊天共用）
+    private final ConversationStore conversationStore;
+    
+    // 历史保存在回答结束后由后台执行，加载前需等待同一会话尚未完成的保存
+    private final PostResponseExecutor postResponseExecutor;
+    
+    // 中文按词典和相邻字组合切分，计算相关性用
+    private final TextTokenizer tokenizer;
+    
+    // 每个会话历史消息的词项倒排索引
+    private final Map<String, SessionTermIndex> termIndexes = new ConcurrentHashMap<>();
     
     // 上下文相关性缓存
     private final Map<String, ContextRelevance> contextCache = new ConcurrentHashMap<>();
     
     // 配置参数
-    private static final int MAX_HISTORY_SIZE = 50; // 最大历史记录数
     private static final int CONTEXT_WINDOW_SIZE = 10; // 上下文窗口大小
     private static final double RELEVANCE_THRESHOLD = 0.3; // 相关性阈值
     private static final long CONTEXT_TTL = 3600000; // 上下文缓存TTL (1小时)
     
+    @Autowired
+    public MemoryManager(PostResponseExecutor postResponseExecutor, ConversationStore conversationStore,
+                         TextTokenizer tokenizer) {
+        this.postResponseExecutor = postResponseExecutor;
+        this.conversationStore = conversationStore;
+        this.tokenizer = tokenizer;
+        // 会话移出内存时一并移除它的相关性缓存和词项索引
+        conversationStore.addEvictionListener(sessionId -> {
+            contextCache.remove(sessionId);
+            termIndexes.remove(sessionId);
+        });
+    }
+    
     /**
      * 加载上下文
      */
@@ -39,9 +61,11 @@ public class MemoryManager {
         
         try {
             log.info("🧠 加载上下文 - 会话: {}", sessionId);
+            postResponseExecutor.awaitSession(sessionId);
             
-            // 1. 获取对话历史
-            List<ChatMessage> history = getSessionHistory(sessionId);
+            // 1. 获取对话历史：已被滚动摘要覆盖的消息由摘要代替
+            List<ChatMessage> history = conversationStore.uncompacted(sessionId);
+            ConversationStore.Summary summary = conversationStore.summary(sessionId);
             
             // 2. 计算上下文相关性
             ContextRelevance relevance = calculateContextRelevance(sessionId, history, context);
@@ -57,6 +81,9 @@ public class MemoryManager {
                 relevance,
                 System.currentTimeMillis()
             );
+            if (summary != null) {
+                memoryContext.setSummary(summary.getContent());
+            }
             
             context.setMemoryContext(memoryContext);
             
@@ -120,9 +147,6 @@ public class MemoryManager {
                 contextCache.put(sessionId, memoryContext.getRelevance());
             }
             
-            // 4. 执行智能清理
-            performIntelligentCleanup(sessionId);
-            
             long duration = System.currentTimeMillis() - startTime;
             log.info("✅ 上下文保存完成 - 会话: {}, 耗时: {}ms", sessionId, duration);
             
@@ -137,74 +161,48 @@ public class MemoryManager {
      * 获取会话历史
      */
     private List<ChatMessage> getSessionHistory(String sessionId) {
-        return chatHistory.getOrDefault(sessionId, new ArrayList<>());
+        return conversationStore.history(sessionId);
     }
     
     /**
      * 添加消息到历史记录
      */
     public void addMessageToHistory(String sessionId, ChatMessage message) {
-        chatHistory.computeIfAbsent(sessionId, k -> new ArrayList<>()).add(message);
+        conversationStore.append(sessionId, message);
         log.debug("📝 消息已添加到历史 - 会话: {}, 类型: {}", sessionId, message.getType());
     }
     
     /**
      * 计算上下文相关性
+     * 历史消息的词项在会话的倒排索引中只计算一次，这里只遍历当前消息各词项的倒排表
      */
     private ContextRelevance calculateContextRelevance(String sessionId, List<ChatMessage> history, ExecutionContext context) {
         ContextRelevance relevance = new ContextRelevance();
+        relevance.setMessageCount(history.size());
         
         if (history.isEmpty()) {
             return relevance;
         }
         
         String currentMessage = context.getProcessedRequest().getRequest().getMessage();
+        SessionTermIndex index = termIndexes.computeIfAbsent(sessionId, k -> new SessionTermIndex(tokenizer::terms));
+        double[] scores = index.score(history, currentMessage);
         
-        // 计算每条历史消息与当前消息的相关性
-        for (int i = 0; i < history.size(); i++) {
-            ChatMessage msg = history.get(i);
-            double score = calculateMessageRelevance(currentMessage, msg.getContent());
-            
-            // 时间衰减：越近的消息权重越高
-            double timeDecay = Math.exp(-0.1 * (history.size() - i - 1));
-            double finalScore = score * timeDecay;
-            
-            relevance.addScore(i, finalScore);
+        // 没有共同词项的消息得分为0，不记录
+        for (int i = 0; i < scores.length; i++) {
+            if (scores[i] > 0) {
+                // 时间衰减：越近的消息权重越高
+                double timeDecay = Math.exp(-0.1 * (history.size() - i - 1));
+                relevance.addScore(i, scores[i] * timeDecay);
+            }
         }
         
-        log.debug("🔍 上下文相关性计算完成 - 会话: {}, 平均相关性: {:.3f}", 
-            sessionId, relevance.getAverageScore());
+        log.debug("🔍 上下文相关性计算完成 - 会话: {}, 平均相关性: {}", 
+            sessionId, String.format("%.3f", relevance.getAverageScore()));
         
         return relevance;
     }
     
-    /**
-     * 计算消息相关性（简化实现）
-     */
-    private double calculateMessageRelevance(String currentMessage, String historyMessage) {
-        if (currentMessage == null || historyMessage == null) {
-            return 0.0;
-        }
-        
-        // 简单的关键词匹配相关性计算
-        String[] currentWords = currentMessage.toLowerCase().split("\\s+");
-        String[] historyWords = historyMessage.toLowerCase().split("\\s+");
-        
-        Set<String> currentSet = new HashSet<>(Arrays.asList(currentWords));
-        Set<String> historySet = new HashSet<>(Arrays.asList(historyWords));
-        
-        // 计算交集
-        Set<String> intersection = new HashSet<>(currentSet);
-        intersection.retainAll(historySet);
-        
-        // 计算并集
-        Set<String> union = new HashSet<>(currentSet);
-        union.addAll(historySet);
-        
-        // Jaccard相似度
-        return union.isEmpty() ? 0.0 : (double) intersection.size() / union.size();
-    }
-    
     /**
      * 压缩上下文
      */
@@ -237,40 +235,6 @@ public class MemoryManager {
         return compressedContext;
     }
     
-    /**
-     * 执行智能清理
-     */
-    private void performIntelligentCleanup(String sessionId) {
-        List<ChatMessage> history = chatHistory.get(sessionId);
-        if (history == null || history.size() <= MAX_HISTORY_SIZE) {
-            return;
-        }
-        
-        // 保留最近的消息和高相关性的消息
-        ContextRelevance relevance = contextCache.get(sessionId);
-        if (relevance != null) {
-            List<Integer> keepIndices = relevance.getTopRelevantIndices(MAX_HISTORY_SIZE - 5, RELEVANCE_THRESHOLD);
-            
-            // 确保保留最近的5条消息
-            for (int i = Math.max(0, history.size() - 5); i < history.size(); i++) {
-                if (!keepIndices.contains(i)) {
-                    keepIndices.add(i);
-                }
-            }
-            
-            keepIndices.sort(Integer::compareTo);
-            
-            List<ChatMessage> cleanedHistory = keepIndices.stream()
-                .map(history::get)
-                .collect(Collectors.toList());
-            
-            chatHistory.put(sessionId, cleanedHistory);
-            
-            log.info("🧹 智能清理完成 - 会话: {}, 清理前: {}, 清理后: {}", 
-                sessionId, history.size(), cleanedHistory.size());
-        }
-    }
-    
     /**
      * 清理过期的上下文缓存
      */
@@ -306,6 +270,8 @@ public class MemoryManager {
         private final List<ChatMessage> compressedContext;
         private final ContextRelevance relevance;
         private final long timestamp;
+        // 更早对话的滚动摘要，没有时为null
+        private String summary;
         
         public MemoryContext(String sessionId, List<ChatMessage> fullHistory, 
                            List<ChatMessage> compressedContext, ContextRelevance relevance, long timestamp) {
@@ -322,6 +288,8 @@ public class MemoryManager {
         public List<ChatMessage> getCompressedContext() { return compressedContext; }
         public ContextRelevance getRelevance() { return relevance; }
         public long getTimestamp() { return timestamp; }
+        public String getSummary() { return summary; }
+        public void setSummary(String summary) { this.summary = summary; }
     }
     
     /**
@@ -330,17 +298,23 @@ public class MemoryManager {
     public static class ContextRelevance {
         private final Map<Integer, Double> scores = new HashMap<>();
         private long timestamp = System.currentTimeMillis();
+        // 参与计算的历史消息数，只有得分大于0的消息会记录分数
+        private int messageCount;
         
         public void addScore(int index, double score) {
             scores.put(index, score);
         }
         
+        public int getMessageCount() { return messageCount; }
+        public void setMessageCount(int messageCount) { this.messageCount = messageCount; }
+        
         public double getScore(int index) {
             return scores.getOrDefault(index, 0.0);
         }
         
         public double getAverageScore() {
-            return scores.values().stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
+            int count = Math.max(messageCount, scores.size());
+            return count > 0 ? scores.values().stream().mapToDouble(Double::doubleValue).sum() / count : 0.0;
         }
         
         public List<Integer> getTopRelevantIndices(int count, double threshold) {
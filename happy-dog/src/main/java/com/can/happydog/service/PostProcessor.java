@@ -1,7 +1,5 @@
 package com.can.happydog.service;
 
-import com.can.happydog.dto.StreamResponse;
-import com.can.happydog.dto.ThinkingStep;
 import com.can.happydog.service.RequestPreprocessor.ProcessedRequest;
 import com.can.happydog.service.AgentExecutor.ExecutionContext;
 import com.can.happydog.config.PromptTemplates;
@@ -14,34 +12,50 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * 后处理器
  * 负责追问生成、响应质量评估、日志记录和性能统计
+ * 在回答发送完毕后由PostResponseExecutor在后台执行，不再向客户端发送任何帧
  */
 @Component
 public class PostProcessor {
     
     private static final Logger log = LoggerFactory.getLogger(PostProcessor.class);
     
+    // 以下缓存都以会话为键，会话从ConversationStore中淘汰或被清除时一并移除
+    
     // 性能统计缓存
     private final Map<String, PerformanceStats> performanceStats = new ConcurrentHashMap<>();
     
     // 质量评估缓存
     private final Map<String, QualityAssessment> qualityCache = new ConcurrentHashMap<>();
     
+    // 追问建议缓存，客户端在回答结束后按会话获取
+    private final Map<String, FollowUpSuggestions> followUpCache = new ConcurrentHashMap<>();
+    
     // 提示词模板管理
     private final PromptTemplates promptTemplates;
+    private final TextTokenizer tokenizer;
     
     @Autowired
-    public PostProcessor(PromptTemplates promptTemplates) {
+    public PostProcessor(PromptTemplates promptTemplates, TextTokenizer tokenizer, ConversationStore conversationStore) {
         this.promptTemplates = promptTemplates;
+        this.tokenizer = tokenizer;
+        conversationStore.addEvictionListener(this::evictSession);
+    }
+    
+    private void evictSession(String sessionId) {
+        performanceStats.remove(sessionId);
+        qualityCache.remove(sessionId);
+        followUpCache.remove(sessionId);
     }
     
     /**
      * 执行后处理
      */
-    public void postProcess(ProcessedRequest processedRequest, StreamResponseCallback callback, ExecutionContext context) {
+    public void postProcess(ProcessedRequest processedRequest, ExecutionContext context) {
         long postProcessStartTime = System.currentTimeMillis();
         String sessionId = processedRequest.getSessionId();
         
@@ -57,13 +71,10 @@ public class PostProcessor {
             // 3. 记录性能统计
             PerformanceStats stats = recordPerformanceStats(processedRequest, context, postProcessStartTime);
             
-            // 4. 发送追问建议
-            sendFollowUpQuestions(followUpQuestions, callback);
-            
-            // 5. 发送完成信号
-            callback.onResponse(StreamResponse.done());
+            // 4. 保存追问建议（完成信号已由响应生成发出，连接已关闭，这里不再推送）
+            followUpCache.put(sessionId, new FollowUpSuggestions(followUpQuestions));
             
-            // 6. 记录详细日志
+            // 5. 记录详细日志
             logDetailedAnalysis(processedRequest, context, quality, stats);
             
             long postProcessDuration = System.currentTimeMillis() - postProcessStartTime;
@@ -270,21 +281,6 @@ public class PostProcessor {
         return stats;
     }
     
-    /**
-     * 发送追问建议
-     */
-    private void sendFollowUpQuestions(List<String> followUpQuestions, StreamResponseCallback callback) {
-        if (followUpQuestions.isEmpty()) {
-            return;
-        }
-        
-        // 发送追问建议
-        callback.onResponse(StreamResponse.thinking(
-            ThinkingStep.analyze("追问建议", 
-                "以下是一些您可能感兴趣的追问：\n" + String.join("\n", followUpQuestions))
-        ));
-    }
-    
     /**
      * 记录详细分析日志
      */
@@ -305,17 +301,18 @@ public class PostProcessor {
     
     // 辅助方法
     private boolean containsKeywords(String response, String question) {
-        String[] questionWords = question.toLowerCase().split("\\s+");
-        String responseLower = response.toLowerCase();
+        // 中文整句没有空格，按词典词和相邻字组合比较，停用词不计入
+        Set<String> questionTerms = tokenizer.terms(question);
+        Set<String> responseTerms = tokenizer.terms(response);
         
         int matchCount = 0;
-        for (String word : questionWords) {
-            if (responseLower.contains(word)) {
+        for (String term : questionTerms) {
+            if (responseTerms.contains(term)) {
                 matchCount++;
             }
         }
         
-        return matchCount >= Math.min(questionWords.length / 2, 3);
+        return matchCount >= Math.min(questionTerms.size() / 2, 3);
     }
     
     private boolean isTopicCoherent(String response, String question) {
@@ -358,19 +355,11 @@ public class PostProcessor {
     }
     
     /**
-     * 清理过期数据
+     * 获取会话最近一轮回答的追问建议，后处理尚未完成时返回空列表
      */
-    public void cleanupExpiredData() {
-        long currentTime = System.currentTimeMillis();
-        long ttl = 24 * 60 * 60 * 1000; // 24小时
-        
-        performanceStats.entrySet().removeIf(entry -> 
-            currentTime - entry.getValue().getTimestamp() > ttl);
-            
-        qualityCache.entrySet().removeIf(entry -> 
-            currentTime - entry.getValue().getTimestamp() > ttl);
-            
-        log.debug("🧹 清理过期数据完成");
+    public List<String> getFollowUpQuestions(String sessionId) {
+        FollowUpSuggestions suggestions = followUpCache.get(sessionId);
+        return suggestions != null ? suggestions.getQuestions() : List.of();
     }
     
     /**
@@ -403,6 +392,21 @@ public class PostProcessor {
         public long getTimestamp() { return timestamp; }
     }
     
+    /**
+     * 追问建议类
+     */
+    public static class FollowUpSuggestions {
+        private final List<String> questions;
+        private final long timestamp = System.currentTimeMillis();
+        
+        public FollowUpSuggestions(List<String> questions) {
+            this.questions = questions;
+        }
+        
+        public List<String> getQuestions() { return questions; }
+        public long getTimestamp() { return timestamp; }
+    }
+    
     /**
      * 性能统计类
      */
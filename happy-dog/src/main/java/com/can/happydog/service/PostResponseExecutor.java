@@ -0,0 +1,201 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.PostResponseProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 回答后任务执行器
+ * 回答发送完毕（完成信号已发出）后的历史保存、质量评估、统计和追问生成都提交到这里，
+ * 流式工作线程和客户端连接在回答结束时即可释放。
+ *
+ * 同一会话的任务按提交顺序依次执行；加载会话历史前可以等待该会话未完成的任务，保证读到上一轮的保存结果。
+ * 排队任务数有上限：超出时必需的任务（历史保存）在提交线程上执行，可选的任务（统计、追问等）直接丢弃。
+ */
+@Component
+public class PostResponseExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(PostResponseExecutor.class);
+
+    private final PostResponseProperties properties;
+    private final ThreadPoolExecutor executor;
+    // 关闭过程中排在前一个任务之后的任务才会提交，此时执行器已拒绝新任务，改在完成前一个任务的线程上执行
+    private final Executor chained;
+    // 每个会话最后提交的任务，后续任务接在它之后执行
+    private final Map<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    private final AtomicInteger peakPending = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong inlined = new AtomicLong();
+    private final AtomicLong totalTaskMillis = new AtomicLong();
+
+    public PostResponseExecutor(PostResponseProperties properties) {
+        this.properties = properties;
+        AtomicInteger threadIndex = new AtomicInteger();
+        int threads = Math.max(1, properties.getThreads());
+        // 队列本身不设上限，排队数量由pending计数控制，超限时按任务类型处理而不是抛出拒绝异常
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "post-response-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.chained = runnable -> {
+            try {
+                executor.execute(runnable);
+            } catch (RejectedExecutionException e) {
+                runnable.run();
+            }
+        };
+        log.info("🧵 回答后任务执行器已启动 - 线程: {}, 排队上限: {}", threads, properties.getQueueCapacity());
+    }
+
+    /**
+     * 提交必需的任务（如历史保存），执行器饱和时在当前线程上执行，不会丢失
+     */
+    public void submitRequired(String sessionId, String taskName, Runnable task) {
+        submit(sessionId, taskName, task, true);
+    }
+
+    /**
+     * 提交可选的任务（如质量评估、统计），执行器饱和时丢弃
+     */
+    public void submitOptional(String sessionId, String taskName, Runnable task) {
+        submit(sessionId, taskName, task, false);
+    }
+
+    /**
+     * 等待会话中已提交的任务执行完，最多等待awaitTimeout
+     */
+    public void awaitSession(String sessionId) {
+        CompletableFuture<Void> tail = tails.get(keyOf(sessionId));
+        if (tail == null) {
+            return;
+        }
+        try {
+            tail.get(properties.getAwaitTimeout(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("⏰ 等待会话的回答后任务超时，继续执行 - 会话: {}, 时限: {}ms", sessionId, properties.getAwaitTimeout());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // 任务自身的异常已在执行时记录
+        }
+    }
+
+    private void submit(String sessionId, String taskName, Runnable task, boolean required) {
+        String key = keyOf(sessionId);
+        if (!tryReserve()) {
+            if (!required) {
+                dropped.incrementAndGet();
+                log.warn("🚦 回答后任务执行器已饱和，丢弃任务 - 会话: {}, 任务: {}", sessionId, taskName);
+                return;
+            }
+            inlined.incrementAndGet();
+            log.warn("🚦 回答后任务执行器已饱和，在当前线程执行 - 会话: {}, 任务: {}", sessionId, taskName);
+            awaitSession(sessionId);
+            runTracked(sessionId, taskName, task);
+            return;
+        }
+
+        submitted.incrementAndGet();
+        peakPending.accumulateAndGet(pending.get(), Math::max);
+        Runnable tracked = () -> runTracked(sessionId, taskName, task);
+        CompletableFuture<Void> next = tails.compute(key, (k, previous) -> previous == null
+            ? CompletableFuture.runAsync(tracked, chained)
+            : previous.thenRunAsync(tracked, chained));
+        next.whenComplete((ignored, throwable) -> {
+            pending.decrementAndGet();
+            tails.remove(key, next);
+        });
+    }
+
+    /**
+     * 占用一个排队名额，已关闭或排队数已达上限时返回false
+     */
+    private boolean tryReserve() {
+        if (shutdown) {
+            return false;
+        }
+        if (pending.incrementAndGet() > properties.getQueueCapacity()) {
+            pending.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void runTracked(String sessionId, String taskName, Runnable task) {
+        long startTime = System.currentTimeMillis();
+        try {
+            task.run();
+            completed.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.error("❌ 回答后任务执行失败 - 会话: {}, 任务: {}, 错误: {}", sessionId, taskName, e.getMessage());
+        } finally {
+            totalTaskMillis.addAndGet(System.currentTimeMillis() - startTime);
+        }
+    }
+
+    private static String keyOf(String sessionId) {
+        return sessionId != null ? sessionId : "";
+    }
+
+    /**
+     * 获取执行器指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long finished = completed.get() + failed.get();
+        stats.put("threads", executor.getMaximumPoolSize());
+        stats.put("active", executor.getActiveCount());
+        stats.put("pending", pending.get());
+        stats.put("peakPending", peakPending.get());
+        stats.put("queueCapacity", properties.getQueueCapacity());
+        stats.put("sessionsInFlight", tails.size());
+        stats.put("submitted", submitted.get());
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        stats.put("dropped", dropped.get());
+        stats.put("inlined", inlined.get());
+        stats.put("avgTaskMillis", finished > 0 ? (double) totalTaskMillis.get() / finished : 0.0);
+        return stats;
+    }
+
+    /**
+     * 关闭时等待已提交的任务执行完，避免丢失尚未保存的历史
+     */
+    @PreDestroy
+    public void shutdown() {
+        shutdown = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(properties.getShutdownTimeout(), TimeUnit.MILLISECONDS)) {
+                log.warn("⚠️ 回答后任务未在{}ms内完成，剩余: {}", properties.getShutdownTimeout(), pending.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.ReactiveStreamProperties;
+import com.can.happydog.dto.ChatRequest;
+import com.can.happydog.dto.StreamResponse;
+import com.can.happydog.dto.ThinkingStep;
+import com.can.happydog.service.AgentExecutor.ExecutionContext;
+import com.can.happydog.service.ResponseCache.CacheKey;
+import com.can.happydog.service.RequestPreprocessor.ProcessedRequest;
+import com.can.happydog.service.RequestPreprocessor.ProcessingRoute;
+import com.can.happydog.service.ThinkingExecutor.ThinkingPlan;
+import com.can.happydog.service.ThinkingExecutor.ThinkingResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 响应式智能体管道
+ * 与AgentExecutor执行相同的阶段（预处理、内存加载、思考、响应生成、内存保存、后处理），
+ * 但以Flux<StreamResponse>输出，上游调用使用非阻塞客户端，读取速度由下游需求决定。
+ */
+@Component
+public class ReactiveAgentPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveAgentPipeline.class);
+
+    private final RequestPreprocessor requestPreprocessor;
+    private final MemoryManager memoryManager;
+    private final ThinkingExecutor thinkingExecutor;
+    private final ResponseGenerator responseGenerator;
+    private final PostProcessor postProcessor;
+    private final ReactiveAiClient reactiveAiClient;
+    private final ReactiveStreamProperties properties;
+    private final ResponseCache responseCache;
+    private final SingleFlightStreams singleFlightStreams;
+    private final PostResponseExecutor postResponseExecutor;
+
+    @Value("${ai.model}")
+    private String model;
+
+    @Value("${ai.deep-thinking.thinking-model:qwen-max}")
+    private String thinkingModel;
+
+    public ReactiveAgentPipeline(RequestPreprocessor requestPreprocessor,
+                                 MemoryManager memoryManager,
+                                 ThinkingExecutor thinkingExecutor,
+                                 ResponseGenerator responseGenerator,
+                                 PostProcessor postProcessor,
+                                 ReactiveAiClient reactiveAiClient,
+                                 ReactiveStreamProperties properties,
+                                 ResponseCache responseCache,
+                                 SingleFlightStreams singleFlightStreams,
+                                 PostResponseExecutor postResponseExecutor) {
+        this.requestPreprocessor = requestPreprocessor;
+        this.memoryManager = memoryManager;
+        this.thinkingExecutor = thinkingExecutor;
+        this.responseGenerator = responseGenerator;
+        this.postProcessor = postProcessor;
+        this.reactiveAiClient = reactiveAiClient;
+        this.properties = properties;
+        this.responseCache = responseCache;
+        this.singleFlightStreams = singleFlightStreams;
+        this.postResponseExecutor = postResponseExecutor;
+    }
+
+    /**
+     * 执行智能体管道
+     */
+    public Flux<StreamResponse> execute(ChatRequest request) {
+        return Flux.defer(() -> {
+            long startTime = System.currentTimeMillis();
+            ExecutionContext context = new ExecutionContext();
+            CancellationToken cancellationToken = context.getCancellationToken();
+
+            // 阶段1: 预处理
+            ProcessedRequest processedRequest = requestPreprocessor.preprocess(request);
+            context.setProcessedRequest(processedRequest);
+            String sessionId = processedRequest.getSessionId();
+            log.info("🤖 [Rx] 智能体管道开始 - 会话: {}, 路由: {}", sessionId, processedRequest.getRoute());
+
+            if (processedRequest.getCacheResult().isHit()) {
+                String cachedAnswer = processedRequest.getCacheResult().getAnswer();
+                context.setGeneratedResponse(cachedAnswer);
+                return Flux.fromIterable(responseCache.splitForReplay(cachedAnswer))
+                    .map(StreamResponse::chunk)
+                    .concatWith(Flux.just(StreamResponse.done()))
+                    .concatWith(Mono.<StreamResponse>fromRunnable(() -> postResponseExecutor.submitRequired(
+                        sessionId, "memory_saving", () -> memoryManager.saveContext(sessionId, context))));
+            }
+
+            // 阶段2: 加载历史上下文
+            memoryManager.loadContext(sessionId, context);
+
+            // 阶段3: 思考（如果需要）
+            Flux<StreamResponse> thinking = needsThinking(processedRequest.getRoute())
+                ? thinkingStage(processedRequest, context)
+                : Flux.empty();
+
+            // 阶段4: 响应生成，思考完成后才构建消息，以便带上思考结果
+            Flux<StreamResponse> answer = Flux.defer(() -> answerStage(processedRequest, context));
+
+            // 阶段5/6: 内存保存与后处理交给后台执行，不向客户端输出
+            Mono<StreamResponse> finishing = Mono.<StreamResponse>fromRunnable(() -> {
+                    postResponseExecutor.submitRequired(sessionId, "memory_saving",
+                        () -> memoryManager.saveContext(sessionId, context));
+                    postResponseExecutor.submitOptional(sessionId, "post_processing",
+                        () -> postProcessor.postProcess(processedRequest, context));
+                    log.info("🎉 [Rx] 智能体管道完成 - 会话: {}, 总耗时: {}ms",
+                        sessionId, System.currentTimeMillis() - startTime);
+                });
+
+            return withTotalTimeout(thinking.concatWith(answer))
+                .concatWith(finishing)
+                .doOnCancel(() -> {
+                    cancellationToken.cancel("客户端断开连接");
+                    log.info("🛑 [Rx] 客户端断开，管道已取消 - 会话: {}", sessionId);
+                })
+                .onErrorResume(e -> {
+                    String message = e instanceof TimeoutException ? "上游响应超时，请稍后重试" : e.getMessage();
+                    log.error("❌ [Rx] 智能体管道失败 - 会话: {}, 错误: {}", sessionId, message);
+                    return Flux.just(StreamResponse.error("处理失败: " + message));
+                });
+        });
+    }
+
+    /**
+     * 思考阶段：策略提示 → 思考模型增量 → 思考完成
+     */
+    private Flux<StreamResponse> thinkingStage(ProcessedRequest processedRequest, ExecutionContext context) {
+        return Flux.defer(() -> {
+            ThinkingPlan plan = thinkingExecutor.prepareThinking(processedRequest);
+            String description = plan.getStrategy().getDescription();
+
+            ThinkingResult cached = thinkingExecutor.lookupThinking(processedRequest, plan.getStrategy());
+            if (cached != null) {
+                context.setThinkingResult(cached);
+                return Flux.just(StreamResponse.thinking(
+                        ThinkingStep.analyze("智能缓存", "发现相似问题的思考结果，正在快速加载...")))
+                    .concatWith(Flux.fromIterable(cached.getSteps()).map(StreamResponse::thinking));
+            }
+
+            Flux<StreamResponse> notice = Flux.just(StreamResponse.thinking(
+                ThinkingStep.analyze("思考策略", "采用" + description + "进行深度分析")));
+
+            StringBuilder reasoning = new StringBuilder();
+            Flux<StreamResponse> deltas = reactiveAiClient
+                .streamCompletion(plan.getMessages(), thinkingModel, 4000, processedRequest.getSessionId())
+                .doOnNext(reasoning::append)
+                .map(text -> StreamResponse.thinking(ThinkingStep.reason("思考中", text)));
+
+            Mono<StreamResponse> completed = Mono.fromSupplier(() -> {
+                context.setThinkingResult(thinkingExecutor.recordThinking(
+                    processedRequest, plan.getStrategy(), reasoning.toString()));
+                return StreamResponse.thinking(ThinkingStep.analyze("思考完成", "深度思考已完成，正在生成回答..."));
+            });
+
+            return notice.concatWith(deltas).concatWith(completed);
+        });
+    }
+
+    /**
+     * 响应生成阶段：回答增量 → 完成信号
+     */
+    private Flux<StreamResponse> answerStage(ProcessedRequest processedRequest, ExecutionContext context) {
+        List<Map<String, String>> messages = responseGenerator.buildGenerationMessages(processedRequest, context);
+        StringBuilder answer = new StringBuilder();
+
+        // 与会话无关的请求合并相同问题的上游调用
+        CacheKey coalesceKey = responseGenerator.isSessionIndependent(processedRequest, context)
+            ? processedRequest.getCacheResult().getKey() : null;
+
+        return singleFlightStreams.coalesce(coalesceKey,
+                () -> reactiveAiClient.streamCompletion(messages, model, 2000, processedRequest.getSessionId()))
+            .doOnNext(answer::append)
+            .map(StreamResponse::chunk)
+            .concatWith(Mono.fromSupplier(() -> {
+                context.setGeneratedResponse(answer.toString());
+                responseCache.put(processedRequest.getCacheResult().getKey(), answer.toString());
+                return StreamResponse.done();
+            }));
+    }
+
+    /**
+     * 整个请求的总时长上限，超时后以TimeoutException结束
+     */
+    private Flux<StreamResponse> withTotalTimeout(Flux<StreamResponse> flux) {
+        AtomicBoolean timedOut = new AtomicBoolean(false);
+        return flux
+            .takeUntilOther(Mono.delay(Duration.ofMillis(properties.getTotalTimeout()))
+                .doOnNext(tick -> timedOut.set(true)))
+            .concatWith(Mono.defer(() -> timedOut.get()
+                ? Mono.error(new TimeoutException("请求总时长超过" + properties.getTotalTimeout() + "ms"))
+                : Mono.empty()));
+    }
+
+    private boolean needsThinking(ProcessingRoute route) {
+        return route == ProcessingRoute.DEEP_THINKING_SIMPLE ||
+               route == ProcessingRoute.DEEP_THINKING_WITH_TOOLS;
+    }
+}
@@ -0,0 +1,119 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.ReactiveStreamProperties;
+import com.can.happydog.exception.HappyDogException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 非阻塞AI模型客户端
+ * 以Flux形式返回流式补全的增量内容，取消订阅会直接关闭上游连接
+ */
+@Component
+public class ReactiveAiClient {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveAiClient.class);
+
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE =
+        new ParameterizedTypeReference<>() {};
+
+    private final WebClient aiWebClient;
+    private final ObjectMapper objectMapper;
+    private final ReactiveStreamProperties properties;
+
+    @Value("${ai.api-key}")
+    private String apiKey;
+
+    public ReactiveAiClient(WebClient aiWebClient, ObjectMapper objectMapper, ReactiveStreamProperties properties) {
+        this.aiWebClient = aiWebClient;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+    }
+
+    /**
+     * 流式调用模型，返回增量文本
+     * 首个增量和相邻增量之间分别受firstTokenTimeout和idleTimeout约束
+     */
+    public Flux<String> streamCompletion(List<Map<String, String>> messages, String modelName,
+                                         int maxTokens, String sessionId) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", modelName);
+        requestBody.put("messages", messages);
+        requestBody.put("temperature", 0.7);
+        requestBody.put("max_tokens", maxTokens);
+        requestBody.put("stream", true);
+        requestBody.put("stream_options", Map.of("include_usage", true));
+
+        return Flux.defer(() -> {
+            long requestStart = System.currentTimeMillis();
+            // 每次订阅使用独立的解码器，Flux的信号是串行的，无需同步
+            SseDeltaDecoder decoder = new SseDeltaDecoder(objectMapper.getFactory(), 1024);
+
+            return aiWebClient.post()
+                .uri("/chat/completions")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .bodyValue(requestBody)
+                .retrieve()
+                .onStatus(status -> status.isError(), response -> response.bodyToMono(String.class)
+                    .defaultIfEmpty("")
+                    .map(body -> new HappyDogException("上游返回错误状态码: " + response.statusCode().value() + ", 响应: " + body)))
+                .bodyToFlux(SSE_TYPE)
+                .limitRate(properties.getPrefetch())
+                .<String>handle((event, sink) -> {
+                    String data = event.data();
+                    if (data == null) {
+                        return;
+                    }
+                    byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+                    try {
+                        SseDeltaDecoder.Delta delta = decoder.decodeData(bytes, 0, bytes.length);
+                        if (delta == null) {
+                            sink.complete();
+                            return;
+                        }
+                        if (decoder.getEventCount() == 1) {
+                            log.info("⚡ [Rx] 首个数据块已接收 - 会话: {}, 模型: {}, 首块延迟: {}ms",
+                                sessionId, modelName, System.currentTimeMillis() - requestStart);
+                        }
+                        if (delta.hasUsage()) {
+                            log.info("📊 [Rx] Token用量 - 会话: {}, 输入: {}, 输出: {}, 合计: {}",
+                                sessionId, delta.getPromptTokens(), delta.getCompletionTokens(), delta.getTotalTokens());
+                        }
+                        if (delta.getContent() != null && !delta.getContent().isEmpty()) {
+                            sink.next(delta.getContent());
+                        }
+                    } catch (Exception e) {
+                        log.warn("⚠️ [Rx] 跳过无法解析的数据块 - 会话: {}, 错误: {}", sessionId, e.getMessage());
+                    }
+                })
+                // 连接在finish_reason/[DONE]之前关闭视为错误，避免截断的内容被当作完整结果缓存
+                .concatWith(Mono.defer(() -> decoder.isCompleted()
+                    ? Mono.<String>empty()
+                    : Mono.<String>error(new HappyDogException("上游流式响应在完成前中断"))))
+                .timeout(Mono.delay(Duration.ofMillis(properties.getFirstTokenTimeout())),
+                    content -> Mono.delay(Duration.ofMillis(properties.getIdleTimeout())))
+                .doOnComplete(() -> log.info("✅ [Rx] 流式调用完成 - 会话: {}, 模型: {}, 总块数: {}, 耗时: {}ms",
+                    sessionId, modelName, decoder.getEventCount(), System.currentTimeMillis() - requestStart))
+                .doOnCancel(() -> log.info("🛑 [Rx] 下游取消，关闭上游连接 - 会话: {}, 已接收块数: {}",
+                    sessionId, decoder.getEventCount()));
+        });
+    }
+}
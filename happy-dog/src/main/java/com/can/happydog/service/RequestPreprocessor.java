@@ -1,14 +1,14 @@
 package com.can.happydog.service;
 
 import com.can.happydog.dto.ChatRequest;
+import com.can.happydog.service.ResponseCache.CacheKey;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.Map;
 
 /**
  * 请求预处理器
@@ -19,8 +19,12 @@ public class RequestPreprocessor {
     
     private static final Logger log = LoggerFactory.getLogger(RequestPreprocessor.class);
     
-    // 请求缓存，用于去重和快速响应
-    private final Map<String, Object> requestCache = new ConcurrentHashMap<>();
+    private final ResponseCache responseCache;
+    
+    @Autowired
+    public RequestPreprocessor(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
     
     /**
      * 预处理聊天请求
@@ -40,12 +44,12 @@ public class RequestPreprocessor {
             // 3. 生成或验证会话ID
             String sessionId = ensureSessionId(normalizedRequest);
             
-            // 4. 缓存检查
-            CacheResult cacheResult = checkCache(normalizedRequest, sessionId);
-            
-            // 5. 路由决策
+            // 4. 路由决策
             ProcessingRoute route = determineRoute(normalizedRequest);
             
+            // 5. 缓存检查（缓存键包含路由，因此在路由决策之后）
+            CacheResult cacheResult = checkCache(normalizedRequest, sessionId, route);
+            
             long processingTime = System.currentTimeMillis() - startTime;
             log.info("✅ 请求预处理完成 - 会话: {}, 路由: {}, 耗时: {}ms", 
                 sessionId, route, processingTime);
@@ -126,34 +130,25 @@ public class RequestPreprocessor {
     /**
      * 检查缓存
      */
-    private CacheResult checkCache(ChatRequest request, String sessionId) {
-        // 生成缓存键
-        String cacheKey = generateCacheKey(request);
+    private CacheResult checkCache(ChatRequest request, String sessionId, ProcessingRoute route) {
+        // 生成缓存键，不可缓存的路由没有键
+        CacheKey cacheKey = responseCache.keyFor(route, request.getMessage());
+        if (cacheKey == null) {
+            return new CacheResult(false, null, null);
+        }
         
         // 检查是否有缓存结果
-        Object cachedResult = requestCache.get(cacheKey);
+        String cachedAnswer = responseCache.get(cacheKey);
         
-        if (cachedResult != null) {
+        if (cachedAnswer != null) {
             log.info("💾 缓存命中 - 会话: {}, 键: {}", sessionId, cacheKey);
-            return new CacheResult(true, cachedResult, cacheKey);
+            return new CacheResult(true, cachedAnswer, cacheKey);
         } else {
             log.debug("🔍 缓存未命中 - 会话: {}, 键: {}", sessionId, cacheKey);
             return new CacheResult(false, null, cacheKey);
         }
     }
     
-    /**
-     * 生成缓存键
-     */
-    private String generateCacheKey(ChatRequest request) {
-        // 基于消息内容和关键参数生成缓存键
-        return String.format("req_%s_%s_%s", 
-            request.getMessage().hashCode(),
-            request.getEnableDeepThinking(),
-            request.getSaveHistory()
-        );
-    }
-    
     /**
      * 确定处理路由
      */
@@ -197,27 +192,6 @@ public class RequestPreprocessor {
                 message.contains("再见"));
     }
     
-    /**
-     * 缓存结果
-     */
-    public void cacheResult(String cacheKey, Object result) {
-        if (cacheKey != null && result != null) {
-            requestCache.put(cacheKey, result);
-            log.debug("💾 结果已缓存 - 键: {}", cacheKey);
-        }
-    }
-    
-    /**
-     * 清理过期缓存
-     */
-    public void cleanupCache() {
-        // 简单的缓存清理逻辑
-        if (requestCache.size() > 1000) {
-            requestCache.clear();
-            log.info("🧹 缓存已清理");
-        }
-    }
-    
     /**
      * 处理后的请求对象
      */
@@ -250,19 +224,19 @@ public class RequestPreprocessor {
      */
     public static class CacheResult {
         private final boolean hit;
-        private final Object data;
-        private final String key;
+        private final String answer;
+        private final CacheKey key;
         
-        public CacheResult(boolean hit, Object data, String key) {
+        public CacheResult(boolean hit, String answer, CacheKey key) {
             this.hit = hit;
-            this.data = data;
+            this.answer = answer;
             this.key = key;
         }
         
         // Getters
         public boolean isHit() { return hit; }
-        public Object getData() { return data; }
-        public String getKey() { return key; }
+        public String getAnswer() { return answer; }
+        public CacheKey getKey() { return key; }
     }
     
     /**
@@ -0,0 +1,428 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.ResponseCacheProperties;
+import com.can.happydog.config.SemanticCacheProperties;
+import com.can.happydog.dto.StreamResponse;
+import com.can.happydog.service.RequestPreprocessor.ProcessingRoute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * 回答缓存
+ * 分片的分段LRU（SLRU）：新条目进入试用区，再次命中后晋升到受保护区，
+ * 一次性的请求只会在试用区内被淘汰，不会冲掉热点回答。
+ * 每个分片按条目数和字节数双重限制，条目带TTL，读取时惰性过期。
+ * 精确键未命中时，再通过近似问题索引查找措辞略有不同的同一问题。
+ */
+@Component
+public class ResponseCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // 每个条目除内容外的固定开销估算（键、节点、时间戳）
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final ResponseCacheProperties properties;
+    private final Shard[] shards;
+    // 近似问题索引只保存精确键，回答本身仍由分片按字节数管理
+    private final SemanticCache<CacheKey> semanticIndex;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder semanticHits = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    @Value("${ai.model}")
+    private String model;
+
+    @Value("${ai.stream.chunk-size:10}")
+    private int replayChunkSize;
+
+    public ResponseCache(ResponseCacheProperties properties, SemanticCacheProperties semanticProperties) {
+        this.properties = properties;
+        this.semanticIndex = new SemanticCache<>(semanticProperties, properties.getMaxEntries());
+        int shardCount = Math.max(1, properties.getShards());
+        int entriesPerShard = Math.max(1, properties.getMaxEntries() / shardCount);
+        long bytesPerShard = Math.max(1, properties.getMaxBytes() / shardCount);
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(entriesPerShard, bytesPerShard, properties.getProtectedRatio());
+        }
+    }
+
+    /**
+     * 判断路由是否允许缓存
+     */
+    public boolean isCacheable(ProcessingRoute route) {
+        return properties.isEnabled() && route != null && properties.getRoutes().contains(route);
+    }
+
+    /**
+     * 为请求生成缓存键，不可缓存的路由返回null
+     */
+    public CacheKey keyFor(ProcessingRoute route, String message) {
+        if (!isCacheable(route) || message == null) {
+            return null;
+        }
+        return new CacheKey(model, route, normalizePrompt(message));
+    }
+
+    /**
+     * 查询缓存
+     */
+    public String get(CacheKey key) {
+        if (key == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        String value = shardFor(key).get(key, now);
+        if (value == null && semanticIndex.isEnabled()) {
+            value = getSimilar(key, now);
+        }
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+    
+    /**
+     * 通过近似问题索引查找，命中后按对应的精确键读取回答
+     */
+    private String getSimilar(CacheKey key, long now) {
+        SemanticCache.Match<CacheKey> match = semanticIndex.lookup(partitionOf(key), key.getPrompt());
+        if (match == null || match.getValue().equals(key)) {
+            return null;
+        }
+        String value = shardFor(match.getValue()).get(match.getValue(), now);
+        if (value != null) {
+            semanticHits.increment();
+            log.info("💾 近似问题缓存命中 - 路由: {}, 相似度: {}, 原问题: {}",
+                key.getRoute(), String.format("%.2f", match.getSimilarity()), match.getMatchedText());
+        }
+        return value;
+    }
+
+    /**
+     * 写入缓存
+     */
+    public void put(CacheKey key, String answer) {
+        if (key == null || answer == null || answer.isEmpty()) {
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + properties.getTtl();
+        if (shardFor(key).put(key, answer, expiresAt)) {
+            semanticIndex.put(partitionOf(key), key.getPrompt(), key, expiresAt);
+            puts.increment();
+            log.debug("💾 回答已缓存 - 路由: {}, 长度: {}", key.getRoute(), answer.length());
+        }
+    }
+
+    /**
+     * 删除缓存
+     */
+    public void invalidate(CacheKey key) {
+        if (key != null) {
+            shardFor(key).remove(key);
+            semanticIndex.remove(partitionOf(key), key.getPrompt());
+        }
+    }
+
+    /**
+     * 将缓存的回答拆分为与实时流相同粒度的分块
+     */
+    public List<String> splitForReplay(String answer) {
+        int size = Math.max(1, replayChunkSize);
+        List<String> chunks = new ArrayList<>((answer.length() + size - 1) / size);
+        int i = 0;
+        while (i < answer.length()) {
+            int end = Math.min(answer.length(), i + size);
+            // 不拆开代理对，避免emoji被截成两半
+            if (end < answer.length() && Character.isHighSurrogate(answer.charAt(end - 1))) {
+                end++;
+            }
+            chunks.add(answer.substring(i, end));
+            i = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * 以SSE分块回放缓存的回答，最后发送完成信号
+     */
+    public void replay(String answer, StreamResponseCallback callback, CancellationToken cancellationToken) {
+        for (String chunk : splitForReplay(answer)) {
+            cancellationToken.throwIfCancelled();
+            callback.onResponse(StreamResponse.chunk(chunk));
+        }
+        callback.onResponse(StreamResponse.done());
+    }
+
+    /**
+     * 获取缓存指标
+     */
+    public Map<String, Object> getStats() {
+        long entries = 0;
+        long bytes = 0;
+        long protectedEntries = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                entries += shard.probation.size() + shard.protectedArea.size();
+                protectedEntries += shard.protectedArea.size();
+                bytes += shard.bytes;
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", properties.isEnabled());
+        stats.put("routes", properties.getRoutes());
+        stats.put("entries", entries);
+        stats.put("protectedEntries", protectedEntries);
+        stats.put("bytes", bytes);
+        stats.put("maxEntries", properties.getMaxEntries());
+        stats.put("maxBytes", properties.getMaxBytes());
+        stats.put("hits", hitCount);
+        stats.put("semanticHits", semanticHits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("hitRate", lookups == 0 ? 0.0 : (double) hitCount / lookups);
+        stats.put("puts", puts.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("expirations", expirations.sum());
+        stats.put("semantic", semanticIndex.getStats());
+        return stats;
+    }
+
+    /**
+     * 提示词标准化：Unicode兼容归一、合并空白、转小写
+     */
+    static String normalizePrompt(String message) {
+        String normalized = Normalizer.normalize(message, Normalizer.Form.NFKC);
+        return WHITESPACE.matcher(normalized.trim()).replaceAll(" ").toLowerCase();
+    }
+
+    private static String partitionOf(CacheKey key) {
+        return key.getModel() + "/" + key.getRoute().name();
+    }
+
+    private Shard shardFor(CacheKey key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return shards[Math.floorMod(h, shards.length)];
+    }
+
+    private static long estimateBytes(CacheKey key, String value) {
+        return ENTRY_OVERHEAD_BYTES + 2L * (value.length() + key.getPrompt().length());
+    }
+
+    /**
+     * 缓存分片：试用区 + 受保护区，两者都是访问顺序的LinkedHashMap
+     */
+    private final class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<CacheKey, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<CacheKey, Entry> protectedArea = new LinkedHashMap<>(16, 0.75f, true);
+        private final int maxEntries;
+        private final long maxBytes;
+        private final int maxProtectedEntries;
+        private final long maxProtectedBytes;
+        private long bytes;
+        private long protectedBytes;
+
+        Shard(int maxEntries, long maxBytes, double protectedRatio) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+            this.maxProtectedEntries = (int) (maxEntries * protectedRatio);
+            this.maxProtectedBytes = (long) (maxBytes * protectedRatio);
+        }
+
+        String get(CacheKey key, long now) {
+            lock.lock();
+            try {
+                Entry entry = protectedArea.get(key);
+                if (entry != null) {
+                    if (entry.expiresAt <= now) {
+                        protectedArea.remove(key);
+                        protectedBytes -= entry.bytes;
+                        bytes -= entry.bytes;
+                        expirations.increment();
+                        return null;
+                    }
+                    return entry.value;
+                }
+
+                entry = probation.remove(key);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.expiresAt <= now) {
+                    bytes -= entry.bytes;
+                    expirations.increment();
+                    return null;
+                }
+                // 试用区再次命中，晋升到受保护区
+                protectedArea.put(key, entry);
+                protectedBytes += entry.bytes;
+                demoteOverflow();
+                return entry.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean put(CacheKey key, String value, long expiresAt) {
+            Entry entry = new Entry(value, estimateBytes(key, value), expiresAt);
+            if (entry.bytes > maxBytes) {
+                return false;
+            }
+            lock.lock();
+            try {
+                removeLocked(key);
+                probation.put(key, entry);
+                bytes += entry.bytes;
+                evictOverflow();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(CacheKey key) {
+            lock.lock();
+            try {
+                removeLocked(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void removeLocked(CacheKey key) {
+            Entry old = protectedArea.remove(key);
+            if (old != null) {
+                protectedBytes -= old.bytes;
+            } else {
+                old = probation.remove(key);
+            }
+            if (old != null) {
+                bytes -= old.bytes;
+            }
+        }
+
+        /**
+         * 受保护区超限时，把最久未访问的条目降级回试用区
+         */
+        private void demoteOverflow() {
+            Iterator<Map.Entry<CacheKey, Entry>> it = protectedArea.entrySet().iterator();
+            while ((protectedArea.size() > maxProtectedEntries || protectedBytes > maxProtectedBytes) && it.hasNext()) {
+                Map.Entry<CacheKey, Entry> eldest = it.next();
+                it.remove();
+                protectedBytes -= eldest.getValue().bytes;
+                probation.put(eldest.getKey(), eldest.getValue());
+            }
+            evictOverflow();
+        }
+
+        /**
+         * 分片超限时优先淘汰试用区，试用区为空时才淘汰受保护区
+         */
+        private void evictOverflow() {
+            while (probation.size() + protectedArea.size() > maxEntries || bytes > maxBytes) {
+                LinkedHashMap<CacheKey, Entry> victimArea = probation.isEmpty() ? protectedArea : probation;
+                Iterator<Map.Entry<CacheKey, Entry>> it = victimArea.entrySet().iterator();
+                if (!it.hasNext()) {
+                    return;
+                }
+                Entry victim = it.next().getValue();
+                it.remove();
+                bytes -= victim.bytes;
+                if (victimArea == protectedArea) {
+                    protectedBytes -= victim.bytes;
+                }
+                evictions.increment();
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final String value;
+        private final long bytes;
+        private final long expiresAt;
+
+        Entry(String value, long bytes, long expiresAt) {
+            this.value = value;
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * 缓存键：模型 + 路由 + 标准化后的完整提示词
+     * equals比较完整字段，哈希冲突不会返回错误的回答
+     */
+    public static final class CacheKey {
+        private final String model;
+        private final ProcessingRoute route;
+        private final String prompt;
+        private final int hash;
+
+        public CacheKey(String model, ProcessingRoute route, String prompt) {
+            this.model = model;
+            this.route = route;
+            this.prompt = prompt;
+            this.hash = Objects.hash(model, route, prompt);
+        }
+
+        public String getModel() { return model; }
+        public ProcessingRoute getRoute() { return route; }
+        public String getPrompt() { return prompt; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return hash == other.hash
+                && route == other.route
+                && Objects.equals(model, other.model)
+                && Objects.equals(prompt, other.prompt);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return model + "/" + route.name() + "/" + Integer.toHexString(hash);
+        }
+    }
+}
@@ -29,6 +29,9 @@ public class ResponseGenerator {
     
     private final AiService aiService;
     private final PromptTemplates promptTemplates;
+    private final ResponseCache responseCache;
+    private final SingleFlightStreams singleFlightStreams;
+    private final ContextAssembler contextAssembler;
     
     @Value("${ai.model}")
     private String model;
@@ -37,9 +40,13 @@ public class ResponseGenerator {
     private String systemPrompt;
     
     @Autowired
-    public ResponseGenerator(AiService aiService, PromptTemplates promptTemplates) {
+    public ResponseGenerator(AiService aiService, PromptTemplates promptTemplates, ResponseCache responseCache,
+                             SingleFlightStreams singleFlightStreams, ContextAssembler contextAssembler) {
         this.aiService = aiService;
         this.promptTemplates = promptTemplates;
+        this.responseCache = responseCache;
+        this.singleFlightStreams = singleFlightStreams;
+        this.contextAssembler = contextAssembler;
     }
     
     /**
@@ -57,7 +64,7 @@ public class ResponseGenerator {
             log.info("🎯 生成策略: {} - 会话: {}", strategy, sessionId);
             
             // 创建响应收集器来收集流式响应内容
-            ResponseCollector responseCollector = new ResponseCollector(callback, context);
+            ResponseCollector responseCollector = new ResponseCollector(callback, context, responseCache);
             
             // 执行响应生成
             executeGenerationStrategy(processedRequest, context, strategy, responseCollector);
@@ -67,6 +74,9 @@ public class ResponseGenerator {
                 sessionId, strategy, generationDuration);
             
         } catch (Exception e) {
+            if (context.getCancellationToken().isCancelled()) {
+                throw e;
+            }
             long generationDuration = System.currentTimeMillis() - generationStartTime;
             log.error("❌ 响应生成失败 - 会话: {}, 错误: {}, 耗时: {}ms", 
                 sessionId, e.getMessage(), generationDuration);
@@ -77,6 +87,43 @@ public class ResponseGenerator {
         }
     }
     
+    /**
+     * 构建生成请求的消息列表
+     * 与generateResponse使用相同的策略选择，供响应式管道直接发起上游调用
+     */
+    public List<Map<String, String>> buildGenerationMessages(ProcessedRequest processedRequest, ExecutionContext context) {
+        GenerationStrategy strategy = determineGenerationStrategy(processedRequest, context);
+        switch (strategy) {
+            case RAG_GENERATION:
+                return buildRAGMessages(processedRequest, context);
+            case THINKING_BASED_GENERATION:
+                return buildThinkingBasedMessages(processedRequest, context);
+            case CONTEXT_AWARE_GENERATION:
+                return buildContextAwareMessages(processedRequest, context);
+            case ENHANCED_GENERATION:
+                return buildEnhancedMessages(processedRequest, context);
+            case SIMPLE_GENERATION:
+                return buildSimpleMessages(processedRequest);
+            default:
+                return buildStandardMessages(processedRequest, context);
+        }
+    }
+    
+    /**
+     * 创建响应收集器：转发响应，完成时把回答写入执行上下文和回答缓存
+     * 供在别处发起上游调用的生成方式（如推测生成）沿用同样的收尾逻辑
+     */
+    public StreamResponseCallback collector(StreamResponseCallback callback, ExecutionContext context) {
+        return new ResponseCollector(callback, context, responseCache);
+    }
+    
+    /**
+     * 生成请求是否与会话无关（不带历史和思考结果），只有这类请求可以合并上游调用
+     */
+    public boolean isSessionIndependent(ProcessedRequest processedRequest, ExecutionContext context) {
+        return determineGenerationStrategy(processedRequest, context) == GenerationStrategy.SIMPLE_GENERATION;
+    }
+    
     /**
      * 确定生成策略
      */
@@ -155,7 +202,7 @@ public class ResponseGenerator {
                 }
                 callback.onResponse(streamResponse);
             }
-        });
+        }, context.getCancellationToken());
         
         return response.toString();
     }
@@ -182,7 +229,7 @@ public class ResponseGenerator {
                 }
                 callback.onResponse(streamResponse);
             }
-        });
+        }, context.getCancellationToken());
         
         return response.toString();
     }
@@ -206,7 +253,7 @@ public class ResponseGenerator {
                 }
                 callback.onResponse(streamResponse);
             }
-        });
+        }, context.getCancellationToken());
         
         return response.toString();
     }
@@ -233,7 +280,7 @@ public class ResponseGenerator {
                 }
                 callback.onResponse(streamResponse);
             }
-        });
+        }, context.getCancellationToken());
         
         return response.toString();
     }
@@ -247,9 +294,9 @@ public class ResponseGenerator {
         // 构建简单消息
         List<Map<String, String>> messages = buildSimpleMessages(processedRequest);
         
-        // 流式调用AI模型
+        // 流式调用AI模型，并发的相同问题共享同一次上游调用
         StringBuilder response = new StringBuilder();
-        aiService.streamCallAiModel(messages, new StreamResponseCallback() {
+        singleFlightStreams.execute(processedRequest.getCacheResult().getKey(), new StreamResponseCallback() {
             @Override
             public void onResponse(StreamResponse streamResponse) {
                 if (streamResponse.getContent() != null) {
@@ -257,7 +304,7 @@ public class ResponseGenerator {
                 }
                 callback.onResponse(streamResponse);
             }
-        });
+        }, context.getCancellationToken(), (sink, token) -> aiService.streamCallAiModel(messages, sink, token));
         
         return response.toString();
     }
@@ -272,134 +319,76 @@ public class ResponseGenerator {
         List<Map<String, String>> messages = buildStandardMessages(processedRequest, context);
         
         // 流式调用AI模型
-        aiService.streamCallAiModel(messages, responseCollector);
+        aiService.streamCallAiModel(messages, responseCollector, context.getCancellationToken());
     }
     
     /**
      * 构建RAG消息
      */
     private List<Map<String, String>> buildRAGMessages(ProcessedRequest processedRequest, ExecutionContext context) {
-        List<Map<String, String>> messages = new ArrayList<>();
-        
-        // 系统消息
-        Map<String, String> systemMessage = new HashMap<>();
-        systemMessage.put("role", "system");
-        systemMessage.put("content", systemPrompt + "\n\n请基于提供的搜索结果和工具调用结果来回答用户问题。");
-        messages.add(systemMessage);
+        ContextAssembler.Builder builder = contextAssembler.builder(processedRequest.getRoute().name())
+            .system(systemPrompt + "\n\n请基于提供的搜索结果和工具调用结果来回答用户问题。")
+            .user(processedRequest.getRequest().getMessage());
         
         // 添加工具结果
         if (context.getFunctionCallResult() != null) {
-            Map<String, String> toolMessage = new HashMap<>();
-            toolMessage.put("role", "system");
-            toolMessage.put("content", "工具调用结果：\n" + context.getFunctionCallResult().toString());
-            messages.add(toolMessage);
+            builder.toolResult("工具调用结果：\n" + context.getFunctionCallResult().toString());
         }
         
-        // 用户消息
-        Map<String, String> userMessage = new HashMap<>();
-        userMessage.put("role", "user");
-        userMessage.put("content", processedRequest.getRequest().getMessage());
-        messages.add(userMessage);
-        
-        return messages;
+        return build(builder, context);
     }
     
     /**
      * 构建基于思考的消息
      */
     private List<Map<String, String>> buildThinkingBasedMessages(ProcessedRequest processedRequest, ExecutionContext context) {
-        List<Map<String, String>> messages = new ArrayList<>();
-        String sessionId = processedRequest.getSessionId();
-        
-        // 系统消息
-        Map<String, String> systemMessage = new HashMap<>();
-        systemMessage.put("role", "system");
-        systemMessage.put("content", systemPrompt + "\n\n请基于之前的深度思考结果来生成最终回答。");
-        systemMessage.put("sessionId", sessionId);
-        messages.add(systemMessage);
+        ContextAssembler.Builder builder = contextAssembler.builder(processedRequest.getRoute().name())
+            .sessionId(processedRequest.getSessionId())
+            .system(systemPrompt + "\n\n请基于之前的深度思考结果来生成最终回答。")
+            .user(processedRequest.getRequest().getMessage());
         
         // 添加思考结果
         if (context.getThinkingResult() != null) {
-            Map<String, String> thinkingMessage = new HashMap<>();
-            thinkingMessage.put("role", "system");
-            thinkingMessage.put("content", "深度思考结果：\n" + context.getThinkingResult().toString());
-            thinkingMessage.put("sessionId", sessionId);
-            messages.add(thinkingMessage);
+            builder.thinking("深度思考结果：\n" + context.getThinkingResult().toString());
         }
         
-        // 用户消息
-        Map<String, String> userMessage = new HashMap<>();
-        userMessage.put("role", "user");
-        userMessage.put("content", processedRequest.getRequest().getMessage());
-        userMessage.put("sessionId", sessionId);
-        messages.add(userMessage);
-        
-        return messages;
+        return build(builder, context);
     }
     
     /**
      * 构建上下文感知消息
      */
     private List<Map<String, String>> buildContextAwareMessages(ProcessedRequest processedRequest, ExecutionContext context) {
-        List<Map<String, String>> messages = new ArrayList<>();
         String sessionId = processedRequest.getSessionId();
-        
-        // 系统消息
-        Map<String, String> systemMessage = new HashMap<>();
-        systemMessage.put("role", "system");
-        systemMessage.put("content", systemPrompt);
-        systemMessage.put("sessionId", sessionId);
-        messages.add(systemMessage);
+        ContextAssembler.Builder builder = contextAssembler.builder(processedRequest.getRoute().name())
+            .sessionId(sessionId)
+            .system(systemPrompt)
+            .user(processedRequest.getRequest().getMessage());
         
         // 添加历史上下文
         MemoryContext memoryContext = (MemoryContext) context.getMemoryContext();
         if (memoryContext != null && !memoryContext.getCompressedContext().isEmpty()) {
             log.info("🔍 添加历史上下文 - 会话: {}, 压缩后消息数: {}", sessionId, memoryContext.getCompressedContext().size());
-            for (ChatMessage msg : memoryContext.getCompressedContext()) {
-                Map<String, String> historyMessage = new HashMap<>();
-                String role = msg.getType().toString().toLowerCase();
-                historyMessage.put("role", role);
-                historyMessage.put("content", msg.getContent());
-                historyMessage.put("sessionId", sessionId);
-                messages.add(historyMessage);
-                log.info("📝 历史消息 - 角色: {}, 内容: {}", role, msg.getContent().substring(0, Math.min(50, msg.getContent().length())) + "...");
-            }
+            builder.summary(memoryContext.getSummary()).history(memoryContext.getCompressedContext());
         } else {
             log.info("⚠️ 没有历史上下文 - 会话: {}", sessionId);
         }
         
-        // 用户消息
-        Map<String, String> userMessage = new HashMap<>();
-        userMessage.put("role", "user");
-        userMessage.put("content", processedRequest.getRequest().getMessage());
-        userMessage.put("sessionId", sessionId);
-        messages.add(userMessage);
-        
-        return messages;
+        return build(builder, context);
     }
     
     /**
      * 构建增强消息
      */
     private List<Map<String, String>> buildEnhancedMessages(ProcessedRequest processedRequest, ExecutionContext context) {
-        List<Map<String, String>> messages = new ArrayList<>();
-        
-        // 增强的系统消息
-        Map<String, String> systemMessage = new HashMap<>();
-        systemMessage.put("role", "system");
-        systemMessage.put("content", systemPrompt + "\n\n请提供详细、准确、有帮助的回答。考虑多个角度，提供实用的建议。");
-        messages.add(systemMessage);
+        ContextAssembler.Builder builder = contextAssembler.builder(processedRequest.getRoute().name())
+            .system(systemPrompt + "\n\n请提供详细、准确、有帮助的回答。考虑多个角度，提供实用的建议。")
+            .user(processedRequest.getRequest().getMessage());
         
         // 添加所有可用的上下文信息
-        addAllAvailableContext(messages, context);
-        
-        // 用户消息
-        Map<String, String> userMessage = new HashMap<>();
-        userMessage.put("role", "user");
-        userMessage.put("content", processedRequest.getRequest().getMessage());
-        messages.add(userMessage);
+        addAllAvailableContext(builder, context);
         
-        return messages;
+        return build(builder, context);
     }
     
     /**
@@ -450,35 +439,33 @@ public class ResponseGenerator {
     /**
      * 添加所有可用的上下文信息
      */
-    private void addAllAvailableContext(List<Map<String, String>> messages, ExecutionContext context) {
+    private void addAllAvailableContext(ContextAssembler.Builder builder, ExecutionContext context) {
         // 添加思考结果
         if (context.getThinkingResult() != null) {
-            Map<String, String> thinkingMessage = new HashMap<>();
-            thinkingMessage.put("role", "system");
-            thinkingMessage.put("content", "思考过程：\n" + context.getThinkingResult().toString());
-            messages.add(thinkingMessage);
+            builder.thinking("思考过程：\n" + context.getThinkingResult().toString());
         }
         
         // 添加工具结果
         if (context.getFunctionCallResult() != null) {
-            Map<String, String> toolMessage = new HashMap<>();
-            toolMessage.put("role", "system");
-            toolMessage.put("content", "工具结果：\n" + context.getFunctionCallResult().toString());
-            messages.add(toolMessage);
+            builder.toolResult("工具结果：\n" + context.getFunctionCallResult().toString());
         }
         
         // 添加历史上下文
         MemoryContext memoryContext = (MemoryContext) context.getMemoryContext();
-        if (memoryContext != null && !memoryContext.getCompressedContext().isEmpty()) {
-            for (ChatMessage msg : memoryContext.getCompressedContext()) {
-                Map<String, String> historyMessage = new HashMap<>();
-                historyMessage.put("role", msg.getType().toString().toLowerCase());
-                historyMessage.put("content", msg.getContent());
-                messages.add(historyMessage);
-            }
+        if (memoryContext != null) {
+            builder.summary(memoryContext.getSummary()).history(memoryContext.getCompressedContext());
         }
     }
     
+    /**
+     * 按路由预算组装消息，并把预算使用情况记录到执行上下文
+     */
+    private List<Map<String, String>> build(ContextAssembler.Builder builder, ExecutionContext context) {
+        List<Map<String, String>> messages = builder.build();
+        context.setContextUsage(builder.usage());
+        return messages;
+    }
+    
     /**
      * 生成策略枚举
      */
@@ -513,11 +500,14 @@ public class ResponseGenerator {
         private final StreamResponseCallback originalCallback;
         private final ExecutionContext context;
         private final StringBuilder responseContent;
+        private final ResponseCache responseCache;
 
-        public ResponseCollector(StreamResponseCallback originalCallback, ExecutionContext context) {
+        public ResponseCollector(StreamResponseCallback originalCallback, ExecutionContext context,
+                                 ResponseCache responseCache) {
             this.originalCallback = originalCallback;
             this.context = context;
             this.responseContent = new StringBuilder();
+            this.responseCache = responseCache;
         }
 
         @Override
@@ -537,6 +527,11 @@ public class ResponseGenerator {
                 log.info("✅ ResponseCollector保存最终响应 - 长度: {}, 内容: {}",
                     finalResponse.length(),
                     finalResponse.substring(0, Math.min(50, finalResponse.length())) + "...");
+
+                // 完整且正常结束的回答写入回答缓存
+                if (response.getError() == null && !context.getCancellationToken().isCancelled()) {
+                    responseCache.put(context.getProcessedRequest().getCacheResult().getKey(), finalResponse);
+                }
             }
         }
 
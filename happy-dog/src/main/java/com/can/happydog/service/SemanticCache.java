@@ -0,0 +1,491 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.SemanticCacheProperties;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 近似问题缓存
+ * 把问题切成字符n-gram，用MinHash签名 + LSH分段索引找出候选，
+ * 再用n-gram集合的精确Jaccard相似度校验，达到阈值才算命中。
+ * 近似命中还要求两个问题中的数字串和否定词完全一致：
+ * "2023年…"与"2024年…"、"能…"与"不能…"的n-gram几乎相同，含义却不同。
+ * 纯内存计算，不依赖任何外部模型或网络。
+ *
+ * 条目按分区隔离（如 模型/路由），不同分区之间不会互相命中。
+ */
+public class SemanticCache<V> {
+
+    // 固定种子，保证同一问题在重启前后得到相同签名
+    private static final long HASH_SEED = 0x5DEECE66DL;
+
+    // 中文否定词（单字），出现与否及顺序必须一致才允许近似命中
+    private static final String NEGATION_CHARS = "不没无非未别莫勿";
+
+    // 英文否定词，n't结尾的缩写单独处理
+    private static final Set<String> NEGATION_WORDS = Set.of("not", "no", "never", "none", "nothing", "without");
+
+    private final SemanticCacheProperties properties;
+    private final int maxEntries;
+    private final int rows;
+    private final long[] hashA;
+    private final long[] hashB;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, Node<V>> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<Long, List<Node<V>>> buckets = new HashMap<>();
+    private long nextId;
+    private long lookupSeq;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder approximateHits = new LongAdder();
+    private final LongAdder candidates = new LongAdder();
+    private final LongAdder lookupNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public SemanticCache(SemanticCacheProperties properties, int maxEntries) {
+        if (properties.getBands() <= 0 || properties.getNumHashes() % properties.getBands() != 0) {
+            throw new IllegalArgumentException("ai.cache.semantic.num-hashes必须能被bands整除");
+        }
+        this.properties = properties;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.rows = properties.getNumHashes() / properties.getBands();
+        this.hashA = new long[properties.getNumHashes()];
+        this.hashB = new long[properties.getNumHashes()];
+        Random random = new Random(HASH_SEED);
+        for (int i = 0; i < hashA.length; i++) {
+            hashA[i] = random.nextLong() | 1L;
+            hashB[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * 查找与text相同或足够相似的条目
+     */
+    public Match<V> lookup(String partition, String text) {
+        long start = System.nanoTime();
+        lookups.increment();
+        Fingerprint fingerprint = fingerprint(partition, text);
+        if (fingerprint.canonical.isEmpty()) {
+            lookupNanos.add(System.nanoTime() - start);
+            return null;
+        }
+        long now = System.currentTimeMillis();
+
+        lock.lock();
+        try {
+            Node<V> best = null;
+            double bestSimilarity = 0;
+            long seq = ++lookupSeq;
+            int checked = 0;
+            List<Node<V>> expired = null;
+
+            for (long bandKey : fingerprint.bandKeys) {
+                List<Node<V>> bucket = buckets.get(bandKey);
+                if (bucket == null) {
+                    continue;
+                }
+                for (Node<V> node : bucket) {
+                    // 同一条目可能出现在多个分段中，只校验一次
+                    if (node.visitedAt == seq) {
+                        continue;
+                    }
+                    node.visitedAt = seq;
+                    if (node.expiresAt <= now) {
+                        if (expired == null) {
+                            expired = new ArrayList<>();
+                        }
+                        expired.add(node);
+                        continue;
+                    }
+                    if (!node.partition.equals(partition)) {
+                        continue;
+                    }
+                    checked++;
+                    double similarity;
+                    if (node.canonical.equals(fingerprint.canonical)) {
+                        similarity = 1.0;
+                    } else if (!node.guard.equals(fingerprint.guard)) {
+                        // 数字或否定词不同，字面再相似也不是同一个问题
+                        continue;
+                    } else {
+                        similarity = jaccard(node.shingles, fingerprint.shingles);
+                    }
+                    if (similarity > bestSimilarity) {
+                        best = node;
+                        bestSimilarity = similarity;
+                    }
+                }
+            }
+            if (expired != null) {
+                expired.forEach(this::removeNode);
+            }
+            candidates.add(checked);
+
+            if (best == null || bestSimilarity < thresholdFor(fingerprint)) {
+                return null;
+            }
+            // 刷新访问顺序
+            entries.get(best.id);
+            hits.increment();
+            if (bestSimilarity < 1.0) {
+                approximateHits.increment();
+            }
+            return new Match<>(best.value, bestSimilarity, best.text);
+        } finally {
+            lock.unlock();
+            lookupNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 写入条目，标准化后相同的问题会覆盖旧条目
+     */
+    public void put(String partition, String text, V value, long expiresAt) {
+        Fingerprint fingerprint = fingerprint(partition, text);
+        // 只有标点或表情的问题没有可比较的内容，不建索引
+        if (fingerprint.canonical.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            Node<V> existing = findExact(partition, fingerprint);
+            if (existing != null) {
+                removeNode(existing);
+            }
+            Node<V> node = new Node<>(nextId++, partition, text, fingerprint, value, expiresAt);
+            entries.put(node.id, node);
+            for (long bandKey : node.bandKeys) {
+                buckets.computeIfAbsent(bandKey, k -> new ArrayList<>(2)).add(node);
+            }
+            evictOverflow();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除标准化后与text相同的条目
+     */
+    public void remove(String partition, String text) {
+        Fingerprint fingerprint = fingerprint(partition, text);
+        lock.lock();
+        try {
+            Node<V> existing = findExact(partition, fingerprint);
+            if (existing != null) {
+                removeNode(existing);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取缓存指标
+     */
+    public Map<String, Object> getStats() {
+        long lookupCount = lookups.sum();
+        long hitCount = hits.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", properties.isEnabled());
+        stats.put("threshold", properties.getThreshold());
+        stats.put("entries", size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("lookups", lookupCount);
+        stats.put("hits", hitCount);
+        stats.put("approximateHits", approximateHits.sum());
+        stats.put("hitRate", lookupCount == 0 ? 0.0 : (double) hitCount / lookupCount);
+        stats.put("avgCandidates", lookupCount == 0 ? 0.0 : (double) candidates.sum() / lookupCount);
+        stats.put("avgLookupMicros", lookupCount == 0 ? 0.0 : lookupNanos.sum() / 1000.0 / lookupCount);
+        stats.put("evictions", evictions.sum());
+        return stats;
+    }
+
+    /**
+     * 文本标准化：Unicode兼容归一、转小写、只保留字母和数字（含汉字）
+     * 标点、空白和全半角差异不影响匹配
+     */
+    static String canonicalize(String text) {
+        return canonicalizeNormalized(normalize(text));
+    }
+
+    private static String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase();
+    }
+
+    private static String canonicalizeNormalized(String normalized) {
+        StringBuilder sb = new StringBuilder(normalized.length());
+        normalized.codePoints()
+            .filter(Character::isLetterOrDigit)
+            .forEach(sb::appendCodePoint);
+        return sb.toString();
+    }
+
+    /**
+     * 近似匹配的守卫键：按出现顺序拼接数字串和否定词，两个问题的守卫键相同才允许近似命中
+     */
+    static String guardKey(String normalized) {
+        StringBuilder guard = new StringBuilder();
+        int length = normalized.length();
+        int i = 0;
+        while (i < length) {
+            char c = normalized.charAt(i);
+            if (Character.isDigit(c)) {
+                int end = i;
+                // 小数点只在后面仍是数字时算作数字串的一部分
+                while (end < length && (Character.isDigit(normalized.charAt(end))
+                    || (normalized.charAt(end) == '.' && end + 1 < length && Character.isDigit(normalized.charAt(end + 1))))) {
+                    end++;
+                }
+                guard.append('#').append(normalized, i, end);
+                i = end;
+            } else if (NEGATION_CHARS.indexOf(c) >= 0) {
+                guard.append('!').append(c);
+                i++;
+            } else if (Character.isLetter(c) && c < 0x80) {
+                int end = i;
+                while (end < length && ((normalized.charAt(end) < 0x80 && Character.isLetter(normalized.charAt(end)))
+                    || normalized.charAt(end) == '\'' || normalized.charAt(end) == '\u2019')) {
+                    end++;
+                }
+                String word = normalized.substring(i, end);
+                if (NEGATION_WORDS.contains(word) || word.endsWith("n't") || word.endsWith("n\u2019t")) {
+                    guard.append('!').append(word.startsWith("no") ? word : "not");
+                }
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return guard.toString();
+    }
+
+    private double thresholdFor(Fingerprint fingerprint) {
+        // 关闭近似匹配或问题过短时，只接受完全相同的问题
+        if (!properties.isEnabled() || fingerprint.canonical.length() < properties.getMinLength()) {
+            return 1.0;
+        }
+        return properties.getThreshold();
+    }
+
+    private Node<V> findExact(String partition, Fingerprint fingerprint) {
+        // 完全相同的问题签名也相同，第一个分段的桶里一定能找到
+        List<Node<V>> bucket = buckets.get(fingerprint.bandKeys[0]);
+        if (bucket == null) {
+            return null;
+        }
+        for (Node<V> node : bucket) {
+            if (node.partition.equals(partition) && node.canonical.equals(fingerprint.canonical)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private void evictOverflow() {
+        Iterator<Node<V>> it = entries.values().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            Node<V> eldest = it.next();
+            it.remove();
+            unindex(eldest);
+            evictions.increment();
+        }
+    }
+
+    private void removeNode(Node<V> node) {
+        if (entries.remove(node.id) != null) {
+            unindex(node);
+        }
+    }
+
+    private void unindex(Node<V> node) {
+        for (long bandKey : node.bandKeys) {
+            List<Node<V>> bucket = buckets.get(bandKey);
+            if (bucket != null) {
+                bucket.remove(node);
+                if (bucket.isEmpty()) {
+                    buckets.remove(bandKey);
+                }
+            }
+        }
+    }
+
+    private Fingerprint fingerprint(String partition, String text) {
+        String normalized = normalize(text);
+        String canonical = canonicalizeNormalized(normalized);
+        int[] shingles = shingles(canonical, Math.max(1, properties.getShingleSize()));
+        int[] signature = signature(shingles);
+        long[] bandKeys = new long[properties.getBands()];
+        long partitionHash = partition.hashCode();
+        for (int band = 0; band < bandKeys.length; band++) {
+            long h = partitionHash * 0x9E3779B97F4A7C15L + band;
+            for (int r = 0; r < rows; r++) {
+                h = (h ^ signature[band * rows + r]) * 0x100000001B3L;
+            }
+            bandKeys[band] = mix64(h);
+        }
+        return new Fingerprint(canonical, guardKey(normalized), shingles, bandKeys);
+    }
+
+    /**
+     * 字符n-gram的哈希集合（已排序、去重）
+     */
+    private static int[] shingles(String canonical, int k) {
+        int[] codePoints = canonical.codePoints().toArray();
+        if (codePoints.length <= k) {
+            return new int[] {hashRange(codePoints, 0, codePoints.length)};
+        }
+        int[] result = new int[codePoints.length - k + 1];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = hashRange(codePoints, i, k);
+        }
+        Arrays.sort(result);
+        int unique = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (i == 0 || result[i] != result[i - 1]) {
+                result[unique++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, unique);
+    }
+
+    private static int hashRange(int[] codePoints, int from, int length) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = from; i < from + length; i++) {
+            h = (h ^ codePoints[i]) * 0x100000001B3L;
+        }
+        return (int) mix64(h);
+    }
+
+    /**
+     * MinHash签名：每个哈希函数取所有n-gram的最小值
+     * 哈希函数为乘移位形式 (a*x + b) >>> 32
+     */
+    private int[] signature(int[] shingles) {
+        int[] signature = new int[hashA.length];
+        for (int i = 0; i < hashA.length; i++) {
+            long a = hashA[i];
+            long b = hashB[i];
+            long min = Long.MAX_VALUE;
+            for (int shingle : shingles) {
+                long v = (a * (shingle & 0xFFFFFFFFL) + b) >>> 32;
+                if (v < min) {
+                    min = v;
+                }
+            }
+            signature[i] = (int) min;
+        }
+        return signature;
+    }
+
+    /**
+     * 两个已排序集合的精确Jaccard相似度
+     */
+    private static double jaccard(int[] a, int[] b) {
+        int i = 0;
+        int j = 0;
+        int intersection = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                intersection++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        int union = a.length + b.length - intersection;
+        return union == 0 ? 0 : (double) intersection / union;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static final class Fingerprint {
+        private final String canonical;
+        private final String guard;
+        private final int[] shingles;
+        private final long[] bandKeys;
+
+        Fingerprint(String canonical, String guard, int[] shingles, long[] bandKeys) {
+            this.canonical = canonical;
+            this.guard = guard;
+            this.shingles = shingles;
+            this.bandKeys = bandKeys;
+        }
+    }
+
+    private static final class Node<V> {
+        private final long id;
+        private final String partition;
+        private final String text;
+        private final String canonical;
+        private final String guard;
+        private final int[] shingles;
+        private final long[] bandKeys;
+        private final V value;
+        private final long expiresAt;
+        private long visitedAt;
+
+        Node(long id, String partition, String text, Fingerprint fingerprint, V value, long expiresAt) {
+            this.id = id;
+            this.partition = partition;
+            this.text = text;
+            this.canonical = fingerprint.canonical;
+            this.guard = fingerprint.guard;
+            this.shingles = fingerprint.shingles;
+            this.bandKeys = fingerprint.bandKeys;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * 命中结果：缓存值、相似度及当初写入时的问题原文
+     */
+    public static final class Match<V> {
+        private final V value;
+        private final double similarity;
+        private final String matchedText;
+
+        Match(V value, double similarity, String matchedText) {
+            this.value = value;
+            this.similarity = similarity;
+            this.matchedText = matchedText;
+        }
+
+        public V getValue() { return value; }
+        public double getSimilarity() { return similarity; }
+        public String getMatchedText() { return matchedText; }
+    }
+}
@@ -0,0 +1,292 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.SessionHistoryProperties;
+import com.can.happydog.dto.ChatMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 会话历史存储
+ * 每个会话一个固定容量的环形缓冲区，写满后覆盖最旧的消息；同一会话的读写在该会话自己的锁上进行，
+ * 不同会话互不阻塞。会话空闲超过idleTtl，或会话数超过maxSessions时按最久未访问淘汰，
+ * 淘汰在写入时顺带进行，不需要额外的清理线程。
+ */
+public class SessionHistoryStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionHistoryStore.class);
+
+    // 单条消息除文本外的估算开销：对象头、时间戳、消息ID等
+    private static final long MESSAGE_OVERHEAD_BYTES = 200;
+    // 超出会话上限时一次多淘汰的比例，避免每次新建会话都触发淘汰
+    private static final double OVERFLOW_EVICT_RATIO = 0.1;
+
+    private final String name;
+    private final int capacity;
+    private final SessionHistoryProperties properties;
+    private final Map<String, SessionHistory> sessions = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final List<Consumer<String>> evictionListeners = new CopyOnWriteArrayList<>();
+    private volatile long lastSweep = System.currentTimeMillis();
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong overwritten = new AtomicLong();
+    private final AtomicLong idleEvictions = new AtomicLong();
+    private final AtomicLong overflowEvictions = new AtomicLong();
+
+    public SessionHistoryStore(String name, int capacity, SessionHistoryProperties properties) {
+        this.name = name;
+        this.capacity = Math.max(1, capacity);
+        this.properties = properties;
+    }
+
+    /**
+     * 注册会话被淘汰或清除时的回调，用于同步清理以会话为键的其他缓存
+     */
+    public void addEvictionListener(Consumer<String> evictionListener) {
+        evictionListeners.add(evictionListener);
+    }
+
+    /**
+     * 追加一条消息，缓冲区已满时覆盖最旧的消息
+     */
+    public void append(String sessionId, ChatMessage message) {
+        while (true) {
+            SessionHistory history = sessions.computeIfAbsent(sessionId, k -> new SessionHistory(capacity));
+            if (history.append(message, this)) {
+                break;
+            }
+            // 会话恰好被淘汰，重新创建后再写入
+        }
+        maintain();
+    }
+
+    /**
+     * 按时间顺序返回会话历史的副本，会话不在内存中时返回null
+     */
+    public List<ChatMessage> get(String sessionId) {
+        SessionHistory history = sessions.get(sessionId);
+        return history != null ? history.snapshot() : null;
+    }
+
+    /**
+     * 按时间顺序返回会话历史的副本，会话不在内存中时返回空列表
+     */
+    public List<ChatMessage> getOrEmpty(String sessionId) {
+        List<ChatMessage> history = get(sessionId);
+        return history != null ? history : new ArrayList<>();
+    }
+
+    /**
+     * 会话不在内存中时用给定的消息初始化（如从文件加载），已存在时保持不变
+     */
+    public void loadIfAbsent(String sessionId, List<ChatMessage> loaded) {
+        SessionHistory created = new SessionHistory(capacity);
+        for (ChatMessage message : loaded) {
+            created.append(message, this);
+        }
+        SessionHistory existing = sessions.putIfAbsent(sessionId, created);
+        if (existing != null) {
+            created.discard(this);
+            return;
+        }
+        maintain();
+    }
+
+    /**
+     * 移除会话
+     */
+    public void remove(String sessionId) {
+        SessionHistory history = sessions.get(sessionId);
+        if (history != null) {
+            evict(sessionId, history);
+        }
+    }
+
+    public boolean contains(String sessionId) {
+        return sessions.containsKey(sessionId);
+    }
+
+    public int size(String sessionId) {
+        SessionHistory history = sessions.get(sessionId);
+        return history != null ? history.size() : 0;
+    }
+
+    /**
+     * 获取存储指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("name", name);
+        stats.put("sessions", sessions.size());
+        stats.put("messages", messages.get());
+        stats.put("approxBytes", bytes.get());
+        stats.put("capacityPerSession", capacity);
+        stats.put("maxSessions", properties.getMaxSessions());
+        stats.put("overwrittenMessages", overwritten.get());
+        stats.put("idleEvictions", idleEvictions.get());
+        stats.put("overflowEvictions", overflowEvictions.get());
+        return stats;
+    }
+
+    /**
+     * 写入后顺带执行：定期清理空闲会话，会话数超限时淘汰最久未访问的会话
+     */
+    private void maintain() {
+        long now = System.currentTimeMillis();
+        boolean sweepDue = now - lastSweep >= properties.getSweepInterval();
+        boolean overflow = sessions.size() > properties.getMaxSessions();
+        if ((!sweepDue && !overflow) || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            if (sweepDue) {
+                lastSweep = now;
+                sweepIdle(now);
+            }
+            if (sessions.size() > properties.getMaxSessions()) {
+                evictOverflow();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void sweepIdle(long now) {
+        long idleTtl = properties.getIdleTtl();
+        int evicted = 0;
+        for (Map.Entry<String, SessionHistory> entry : sessions.entrySet()) {
+            if (now - entry.getValue().lastAccess > idleTtl && evict(entry.getKey(), entry.getValue())) {
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            idleEvictions.addAndGet(evicted);
+            log.info("🧹 清理空闲会话历史 - 存储: {}, 清理: {}, 剩余: {}", name, evicted, sessions.size());
+        }
+    }
+
+    private void evictOverflow() {
+        int maxSessions = properties.getMaxSessions();
+        int target = (int) (maxSessions * (1 - OVERFLOW_EVICT_RATIO));
+        List<Map.Entry<String, SessionHistory>> candidates = new ArrayList<>(sessions.entrySet());
+        if (candidates.size() <= maxSessions) {
+            return;
+        }
+        candidates.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+        int evicted = 0;
+        for (int i = 0; i < candidates.size() - target; i++) {
+            Map.Entry<String, SessionHistory> entry = candidates.get(i);
+            if (evict(entry.getKey(), entry.getValue())) {
+                evicted++;
+            }
+        }
+        overflowEvictions.addAndGet(evicted);
+        log.info("🧹 会话数超限，淘汰最久未访问的会话 - 存储: {}, 淘汰: {}, 剩余: {}", name, evicted, sessions.size());
+    }
+
+    private boolean evict(String sessionId, SessionHistory history) {
+        if (!history.discard(this)) {
+            return false;
+        }
+        sessions.remove(sessionId, history);
+        for (Consumer<String> listener : evictionListeners) {
+            listener.accept(sessionId);
+        }
+        return true;
+    }
+
+    private static long estimateBytes(ChatMessage message) {
+        long chars = (message.getContent() != null ? message.getContent().length() : 0)
+            + (message.getSender() != null ? message.getSender().length() : 0);
+        return MESSAGE_OVERHEAD_BYTES + chars * 2;
+    }
+
+    /**
+     * 单个会话的环形缓冲区，所有操作在自身的锁上进行
+     */
+    private static final class SessionHistory {
+        private final ChatMessage[] ring;
+        private int head;
+        private int size;
+        private long bytes;
+        private boolean discarded;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        SessionHistory(int capacity) {
+            this.ring = new ChatMessage[capacity];
+        }
+
+        /**
+         * 追加消息，会话已被淘汰时返回false
+         */
+        synchronized boolean append(ChatMessage message, SessionHistoryStore store) {
+            if (discarded) {
+                return false;
+            }
+            long added = estimateBytes(message);
+            ChatMessage replaced = ring[head];
+            if (replaced != null) {
+                long removed = estimateBytes(replaced);
+                bytes -= removed;
+                store.bytes.addAndGet(-removed);
+                store.messages.decrementAndGet();
+                store.overwritten.incrementAndGet();
+            } else {
+                size++;
+            }
+            ring[head] = message;
+            head = (head + 1) % ring.length;
+            bytes += added;
+            store.bytes.addAndGet(added);
+            store.messages.incrementAndGet();
+            lastAccess = System.currentTimeMillis();
+            return true;
+        }
+
+        synchronized List<ChatMessage> snapshot() {
+            lastAccess = System.currentTimeMillis();
+            if (size == 0) {
+                return new ArrayList<>();
+            }
+            List<ChatMessage> result = new ArrayList<>(size);
+            int start = (head - size + ring.length) % ring.length;
+            for (int i = 0; i < size; i++) {
+                result.add(ring[(start + i) % ring.length]);
+            }
+            return result;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * 标记为已淘汰并归还计数，之后的写入会失败并重新创建会话
+         */
+        synchronized boolean discard(SessionHistoryStore store) {
+            if (discarded) {
+                return false;
+            }
+            discarded = true;
+            store.bytes.addAndGet(-bytes);
+            store.messages.addAndGet(-size);
+            bytes = 0;
+            size = 0;
+            Arrays.fill(ring, null);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.can.happydog.service;
+
+import com.can.happydog.dto.ChatMessage;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * 会话词项倒排索引
+ * 每条历史消息只在第一次出现时切分一次词项，之后按词项记录包含它的消息；
+ * 计算当前消息与全部历史的Jaccard相似度时只遍历当前消息各词项的倒排表，
+ * 与当前消息没有共同词项的历史消息不参与计算。
+ * 索引与会话历史按消息ID对齐：历史头部被环形缓冲区覆盖的消息从索引头部移除，新追加的消息补到尾部。
+ */
+public final class SessionTermIndex {
+
+    private final Function<String, Collection<String>> tokenizer;
+    // 按历史顺序排列的已索引消息
+    private final ArrayDeque<Document> documents = new ArrayDeque<>();
+    // 词项 -> 包含该词项的消息，按序号递增排列
+    private final Map<String, ArrayDeque<Document>> postings = new HashMap<>();
+    private long nextSequence;
+
+    public SessionTermIndex(Function<String, Collection<String>> tokenizer) {
+        this.tokenizer = tokenizer;
+    }
+
+    /**
+     * 计算query与history中每条消息的Jaccard相似度，返回数组与history下标一一对应
+     */
+    public synchronized double[] score(List<ChatMessage> history, String query) {
+        sync(history);
+        double[] scores = new double[history.size()];
+        if (query == null || documents.isEmpty()) {
+            return scores;
+        }
+        Collection<String> queryTerms = tokenizer.apply(query);
+        if (queryTerms.isEmpty()) {
+            return scores;
+        }
+        int[] overlap = new int[documents.size()];
+        long firstSequence = documents.peekFirst().sequence;
+        for (String term : queryTerms) {
+            ArrayDeque<Document> matches = postings.get(term);
+            if (matches != null) {
+                for (Document document : matches) {
+                    overlap[(int) (document.sequence - firstSequence)]++;
+                }
+            }
+        }
+        int position = 0;
+        for (Document document : documents) {
+            int shared = overlap[position];
+            if (shared > 0) {
+                int union = queryTerms.size() + document.terms.length - shared;
+                scores[position] = (double) shared / union;
+            }
+            position++;
+        }
+        return scores;
+    }
+
+    public synchronized int size() {
+        return documents.size();
+    }
+
+    /**
+     * 让索引与历史对齐：移除已不在历史头部的消息，补充新追加的消息；无法对齐时整体重建
+     */
+    private void sync(List<ChatMessage> history) {
+        if (history.isEmpty()) {
+            clear();
+            return;
+        }
+        String firstId = history.get(0).getMessageId();
+        while (!documents.isEmpty() && !Objects.equals(documents.peekFirst().messageId, firstId)) {
+            removeFirst();
+        }
+        int indexed = documents.size();
+        if (indexed > history.size()
+            || (indexed > 0 && !Objects.equals(documents.peekLast().messageId, history.get(indexed - 1).getMessageId()))) {
+            clear();
+            indexed = 0;
+        }
+        for (int i = indexed; i < history.size(); i++) {
+            add(history.get(i));
+        }
+    }
+
+    private void add(ChatMessage message) {
+        Collection<String> terms = message.getContent() != null ? tokenizer.apply(message.getContent()) : List.of();
+        Document document = new Document(message.getMessageId(), nextSequence++, terms.toArray(new String[0]));
+        documents.addLast(document);
+        for (String term : document.terms) {
+            postings.computeIfAbsent(term, k -> new ArrayDeque<>()).addLast(document);
+        }
+    }
+
+    private void removeFirst() {
+        Document document = documents.pollFirst();
+        for (String term : document.terms) {
+            ArrayDeque<Document> matches = postings.get(term);
+            // 最旧的消息一定位于每个倒排表的头部
+            matches.pollFirst();
+            if (matches.isEmpty()) {
+                postings.remove(term);
+            }
+        }
+    }
+
+    private void clear() {
+        documents.clear();
+        postings.clear();
+    }
+
+    private static final class Document {
+        private final String messageId;
+        private final long sequence;
+        // 去重后的词项
+        private final String[] terms;
+
+        Document(String messageId, long sequence, String[] terms) {
+            this.messageId = messageId;
+            this.sequence = sequence;
+            this.terms = terms;
+        }
+    }
+}
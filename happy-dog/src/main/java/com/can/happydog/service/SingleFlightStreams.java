@@ -0,0 +1,345 @@
+package com.can.happydog.service;
+
+import com.can.happydog.dto.StreamResponse;
+import com.can.happydog.exception.RequestCancelledException;
+import com.can.happydog.service.ResponseCache.CacheKey;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 相同请求合并
+ * 同一时刻多个会话发来相同的问题（模型 + 路由 + 标准化问题相同）时，只发起一次上游调用，
+ * 后到的请求作为订阅者挂到进行中的调用上，先回放已收到的内容，再接收后续增量。
+ * 只用于与会话无关的路由，键直接复用回答缓存的CacheKey，不可缓存的路由没有键。
+ */
+@Component
+public class SingleFlightStreams {
+
+    private static final Logger log = LoggerFactory.getLogger(SingleFlightStreams.class);
+
+    private final ConcurrentHashMap<CacheKey, Flight> flights = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<CacheKey, Flux<String>> reactiveFlights = new ConcurrentHashMap<>();
+
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder followers = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    @Value("${ai.cache.single-flight.enabled:true}")
+    private boolean enabled;
+
+    // 订阅者加入后新到达、但尚未发出的帧数上限，超过且还有其他跟得上的订阅者时移出合并调用
+    @Value("${ai.cache.single-flight.max-lag:256}")
+    private int maxLag;
+
+    // 合并调用的上游读取线程，每个进行中的调用占用一个，数量受流式执行器的准入限制约束
+    private final ExecutorService upstreamExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger index = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "single-flight-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    @PreDestroy
+    public void shutdown() {
+        upstreamExecutor.shutdown();
+    }
+
+    /**
+     * 上游调用：向sink发送增量，使用给定令牌控制取消
+     */
+    @FunctionalInterface
+    public interface UpstreamCall {
+        void run(StreamResponseCallback sink, CancellationToken cancellationToken);
+    }
+
+    /**
+     * 执行上游调用，相同键的并发请求共享同一次调用
+     * 上游调用在独立线程上运行，只负责把增量追加到回放缓冲；
+     * 每个请求（包括发起者）在自己的线程上按偏移量读取缓冲并发送，慢客户端不会拖住上游读取和其他订阅者
+     */
+    public void execute(CacheKey key, StreamResponseCallback callback, CancellationToken cancellationToken,
+                        UpstreamCall upstream) {
+        if (!enabled || key == null) {
+            upstream.run(callback, cancellationToken);
+            return;
+        }
+
+        Flight created = new Flight(key, maxLag);
+        Flight existing = flights.putIfAbsent(key, created);
+        if (existing != null) {
+            Subscriber follower = existing.attach(callback, cancellationToken);
+            if (follower != null) {
+                followers.increment();
+                log.info("🔗 合并到进行中的上游调用 - 键: {}, 当前订阅者: {}", key, existing.subscriberCount());
+                existing.drain(follower, cancellationToken);
+                return;
+            }
+            // 进行中的调用已被取消，直接单独调用
+            upstream.run(callback, cancellationToken);
+            return;
+        }
+
+        leaders.increment();
+        Subscriber leader = created.attach(callback, cancellationToken);
+        Runnable upstreamTask = () -> {
+            try {
+                upstream.run(created::publish, created.upstreamToken);
+                created.finish(null);
+            } catch (RuntimeException e) {
+                created.finish(e);
+            } finally {
+                flights.remove(key, created);
+            }
+        };
+        try {
+            upstreamExecutor.execute(upstreamTask);
+        } catch (RejectedExecutionException e) {
+            // 应用关闭中，在当前线程上完成调用后再发送
+            upstreamTask.run();
+        }
+        created.drain(leader, cancellationToken);
+    }
+
+    /**
+     * 响应式版本：相同键的并发订阅共享同一个上游Flux，后到的订阅者从头回放
+     * 全部订阅者取消后上游随之取消
+     */
+    public Flux<String> coalesce(CacheKey key, Supplier<Flux<String>> upstream) {
+        if (!enabled || key == null) {
+            return upstream.get();
+        }
+        return Flux.defer(() -> {
+            AtomicReference<Flux<String>> self = new AtomicReference<>();
+            Flux<String> shared = Flux.defer(upstream)
+                .doFinally(signal -> reactiveFlights.remove(key, self.get()))
+                .replay()
+                .refCount();
+            self.set(shared);
+
+            Flux<String> existing = reactiveFlights.putIfAbsent(key, shared);
+            if (existing != null) {
+                followers.increment();
+                log.info("🔗 [Rx] 合并到进行中的上游调用 - 键: {}", key);
+                return existing;
+            }
+            leaders.increment();
+            return shared;
+        });
+    }
+
+    /**
+     * 获取合并指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("inFlight", flights.size() + reactiveFlights.size());
+        stats.put("upstreamCalls", leaders.sum());
+        stats.put("coalescedRequests", followers.sum());
+        stats.put("laggingSubscribersDropped", dropped.sum());
+        return stats;
+    }
+
+    /**
+     * 一次进行中的上游调用：回放缓冲 + 订阅者列表
+     * 锁只保护缓冲和订阅者状态，发送在锁外由各订阅者自己的线程完成；
+     * 每个订阅者从缓冲中按顺序读取，因此都能收到完整、有序的内容
+     */
+    private final class Flight {
+        private final CacheKey key;
+        private final int maxLag;
+        private final CancellationToken upstreamToken = new CancellationToken();
+        private final List<StreamResponse> replayBuffer = new ArrayList<>();
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        private boolean finished;
+        private RuntimeException failure;
+
+        Flight(CacheKey key, int maxLag) {
+            this.key = key;
+            this.maxLag = Math.max(1, maxLag);
+        }
+
+        /**
+         * 加入调用，已收到的内容由订阅者自己的线程回放；调用已被取消时返回null
+         */
+        synchronized Subscriber attach(StreamResponseCallback callback, CancellationToken cancellationToken) {
+            if (upstreamToken.isCancelled()) {
+                return null;
+            }
+            Subscriber subscriber = new Subscriber(callback, replayBuffer.size());
+            subscribers.add(subscriber);
+            subscriber.registration = cancellationToken.onCancel(() -> detach(subscriber));
+            return subscriber;
+        }
+
+        /**
+         * 追加增量并唤醒订阅者，在上游读取线程上调用，不做任何阻塞发送
+         */
+        synchronized void publish(StreamResponse response) {
+            replayBuffer.add(response);
+            evictLagging();
+            notifyAll();
+        }
+
+        /**
+         * 移出落后超过maxLag帧的订阅者
+         * 只在还有跟得上的订阅者时移出：唯一的订阅者或全部订阅者都落后时，移出只会取消上游，
+         * 谁也拿不到完整回答，此时继续缓冲，由订阅者按自己的速度读取
+         */
+        private void evictLagging() {
+            List<Subscriber> lagging = null;
+            for (Subscriber subscriber : subscribers) {
+                // 只计算加入之后新到达的帧，加入时的回放积压不算落后
+                if (lagOf(subscriber) > maxLag) {
+                    if (lagging == null) {
+                        lagging = new ArrayList<>();
+                    }
+                    lagging.add(subscriber);
+                }
+            }
+            if (lagging == null || lagging.size() == subscribers.size()) {
+                return;
+            }
+            for (Subscriber subscriber : lagging) {
+                subscribers.remove(subscriber);
+                subscriber.closed = true;
+                subscriber.lagging = true;
+                dropped.increment();
+                log.warn("🐢 订阅者落后{}帧，移出合并调用 - 键: {}, 剩余订阅者: {}", lagOf(subscriber), key, subscribers.size());
+            }
+        }
+
+        private int lagOf(Subscriber subscriber) {
+            return replayBuffer.size() - Math.max(subscriber.offset, subscriber.joinedAt);
+        }
+
+        synchronized void finish(RuntimeException e) {
+            finished = true;
+            failure = e;
+            notifyAll();
+        }
+
+        synchronized void detach(Subscriber subscriber) {
+            if (subscribers.remove(subscriber)) {
+                cancelIfAbandoned();
+            }
+            subscriber.closed = true;
+            notifyAll();
+        }
+
+        synchronized int subscriberCount() {
+            return subscribers.size();
+        }
+
+        /**
+         * 全部订阅者都已离开时取消上游调用
+         */
+        private void cancelIfAbandoned() {
+            if (!finished && subscribers.isEmpty() && upstreamToken.cancel("所有订阅者已断开")) {
+                log.info("🛑 合并的上游调用已无订阅者，取消调用 - 键: {}", key);
+            }
+        }
+
+        /**
+         * 在订阅者自己的线程上发送缓冲中的内容，直到调用结束、订阅者断开或被移出
+         */
+        void drain(Subscriber subscriber, CancellationToken cancellationToken) {
+            try {
+                while (true) {
+                    List<StreamResponse> batch;
+                    synchronized (this) {
+                        while (!subscriber.closed && !finished && subscriber.offset >= replayBuffer.size()) {
+                            wait();
+                        }
+                        if (subscriber.closed || subscriber.offset >= replayBuffer.size()) {
+                            break;
+                        }
+                        batch = new ArrayList<>(replayBuffer.subList(subscriber.offset, replayBuffer.size()));
+                    }
+                    for (StreamResponse response : batch) {
+                        if (subscriber.closed) {
+                            break;
+                        }
+                        if (!subscriber.deliver(response)) {
+                            // 发送失败只影响该订阅者，不中断共享的上游调用
+                            detach(subscriber);
+                            break;
+                        }
+                        synchronized (this) {
+                            subscriber.offset++;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RequestCancelledException("等待合并的上游调用时被中断");
+            } finally {
+                detach(subscriber);
+                if (subscriber.registration != null) {
+                    subscriber.registration.close();
+                }
+            }
+
+            if (subscriber.lagging) {
+                throw new RequestCancelledException("客户端接收过慢，已移出合并的上游调用");
+            }
+            cancellationToken.throwIfCancelled();
+            RuntimeException e;
+            synchronized (this) {
+                e = failure;
+            }
+            if (e != null) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 合并调用的订阅者，offset/closed/lagging由Flight的锁保护
+     */
+    private static final class Subscriber {
+        private final StreamResponseCallback callback;
+        private final int joinedAt;
+        private int offset;
+        private volatile boolean closed;
+        private boolean lagging;
+        private CancellationToken.Registration registration;
+
+        Subscriber(StreamResponseCallback callback, int joinedAt) {
+            this.callback = callback;
+            this.joinedAt = joinedAt;
+        }
+
+        boolean deliver(StreamResponse response) {
+            try {
+                callback.onResponse(response);
+                return true;
+            } catch (Exception e) {
+                log.debug("⚠️ 订阅者发送失败，移出合并调用 - 错误: {}", e.getMessage());
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.SpeculativeGenerationProperties;
+import com.can.happydog.dto.StreamResponse;
+import com.can.happydog.exception.HappyDogException;
+import com.can.happydog.exception.RequestCancelledException;
+import com.can.happydog.service.AgentExecutor.ExecutionContext;
+import com.can.happydog.service.RequestPreprocessor.ProcessedRequest;
+import com.can.happydog.service.ThinkingExecutor.ThinkingResult;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 推测生成器
+ * 深度思考路由原本要等思考模型结束后才调用回答模型，用户要等两次串行的模型调用。
+ * 启用后在思考开始的同时，用不含思考结果的提示词在独立的有界线程池上预先生成一份草稿，草稿先缓存不推送；
+ * 思考结束后比较思考结论与草稿的关键词覆盖率：一致则立即推送已缓存的草稿并继续转发剩余部分，
+ * 不一致则取消草稿，按原流程带着思考结果重新生成。
+ * 草稿不能提交到流式执行器：流式工作线程会阻塞等待草稿，草稿排在同一个执行器的队列里时可能永远等不到线程。
+ */
+@Component
+public class SpeculativeGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(SpeculativeGenerator.class);
+
+    private final AiService aiService;
+    private final ResponseGenerator responseGenerator;
+    private final ThreadPoolExecutor draftExecutor;
+    private final SpeculativeGenerationProperties properties;
+    private final TextTokenizer tokenizer;
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong kept = new AtomicLong();
+    private final AtomicLong restarted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    @Autowired
+    public SpeculativeGenerator(AiService aiService, ResponseGenerator responseGenerator,
+                                SpeculativeGenerationProperties properties, TextTokenizer tokenizer) {
+        this.aiService = aiService;
+        this.responseGenerator = responseGenerator;
+        this.properties = properties;
+        this.tokenizer = tokenizer;
+        this.draftExecutor = createDraftExecutor(properties);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        draftExecutor.shutdownNow();
+    }
+
+    /**
+     * 草稿专用线程池：线程数即同时进行的草稿上限，不排队，线程用满时直接跳过推测生成
+     */
+    private static ThreadPoolExecutor createDraftExecutor(SpeculativeGenerationProperties properties) {
+        int threads = Math.max(1, properties.getMaxConcurrent());
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "speculative-draft-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 在思考开始前启动草稿生成
+     * 未启用或草稿线程已用满时返回null，调用方按原流程生成
+     */
+    public Draft start(ProcessedRequest processedRequest, ExecutionContext context) {
+        if (!properties.isEnabled()) {
+            return null;
+        }
+
+        // 此时上下文中还没有思考结果，得到的是不带思考的增强生成提示词
+        List<Map<String, String>> messages = responseGenerator.buildGenerationMessages(processedRequest, context);
+        Draft draft = new Draft(context.getCancellationToken().child());
+        try {
+            draftExecutor.execute(() -> draft.run(aiService, messages));
+        } catch (RejectedExecutionException e) {
+            draft.cancel("推测草稿线程已用满");
+            rejected.incrementAndGet();
+            log.debug("🚦 推测草稿线程已用满，跳过推测生成 - 会话: {}", processedRequest.getSessionId());
+            return null;
+        }
+
+        started.incrementAndGet();
+        log.info("🔮 推测生成已启动 - 会话: {}", processedRequest.getSessionId());
+        return draft;
+    }
+
+    /**
+     * 思考结束后完成回答：草稿与思考结论一致时沿用草稿，否则取消草稿并重新生成
+     */
+    public void finish(Draft draft, ProcessedRequest processedRequest, StreamResponseCallback callback,
+                       ExecutionContext context) {
+        String sessionId = processedRequest.getSessionId();
+        Verdict verdict = judge(draft, context);
+
+        if (!verdict.keep) {
+            restarted.incrementAndGet();
+            log.info("🔁 推测草稿未采用，重新生成 - 会话: {}, 原因: {}", sessionId, verdict.reason);
+            draft.cancel("推测草稿未采用");
+            responseGenerator.generateResponse(processedRequest, callback, context);
+            return;
+        }
+
+        kept.incrementAndGet();
+        log.info("✅ 沿用推测草稿 - 会话: {}, 原因: {}, 已生成: {}字符", sessionId, verdict.reason, draft.length());
+        draft.attach(responseGenerator.collector(callback, context));
+        try {
+            draft.await(properties.getAwaitTimeout(), context.getCancellationToken());
+        } catch (RuntimeException e) {
+            if (context.getCancellationToken().isCancelled()) {
+                throw new RequestCancelledException(context.getCancellationToken().getReason());
+            }
+            log.error("❌ 推测草稿生成失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
+            callback.onResponse(StreamResponse.error("响应生成失败: " + e.getMessage()));
+            throw e;
+        }
+    }
+
+    /**
+     * 放弃草稿（思考失败或请求被取消时）
+     */
+    public void discard(Draft draft) {
+        if (draft != null) {
+            draft.cancel("思考阶段失败");
+        }
+    }
+
+    /**
+     * 推测生成指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", properties.isEnabled());
+        stats.put("started", started.get());
+        stats.put("kept", kept.get());
+        stats.put("restarted", restarted.get());
+        stats.put("rejected", rejected.get());
+        long decided = kept.get() + restarted.get();
+        stats.put("keepRate", decided > 0 ? (double) kept.get() / decided : 0.0);
+        return stats;
+    }
+
+    private Verdict judge(Draft draft, ExecutionContext context) {
+        if (draft.isFailed()) {
+            return new Verdict(false, "草稿生成失败");
+        }
+        if (!draft.isStarted()) {
+            // 草稿任务还没拿到线程，等待它不比直接重新生成快
+            return new Verdict(false, "草稿尚未开始");
+        }
+        if (context.getFunctionCallResult() != null) {
+            return new Verdict(false, "存在工具调用结果");
+        }
+        ThinkingResult thinking = (ThinkingResult) context.getThinkingResult();
+        String reasoning = thinking != null ? thinking.getReasoning() : null;
+        if (reasoning == null || reasoning.isEmpty()) {
+            // 没有思考内容时重新生成用的也是同一份提示词，草稿可以直接使用
+            return new Verdict(true, "无思考内容");
+        }
+
+        String text = draft.text();
+        if (!draft.isCompleted() && text.length() < properties.getMinDraftChars()) {
+            return new Verdict(false, "草稿过短(" + text.length() + "字符)");
+        }
+        String question = context.getProcessedRequest().getRequest().getMessage();
+        double agreement = agreement(reasoning, text, question, properties.getConclusionChars());
+        String reason = String.format("一致度 %.2f", agreement);
+        return new Verdict(agreement >= properties.getMinAgreement(), reason);
+    }
+
+    /**
+     * 一致度：思考结论中的关键词（排除问题本身已有的词）在草稿中出现的比例
+     */
+    double agreement(String reasoning, String draft, String question, int conclusionChars) {
+        String conclusion = reasoning.length() > conclusionChars
+            ? reasoning.substring(reasoning.length() - conclusionChars) : reasoning;
+        Set<String> expected = tokenizer.terms(conclusion);
+        expected.removeAll(tokenizer.terms(question));
+        if (expected.isEmpty()) {
+            return 1.0;
+        }
+        Set<String> actual = tokenizer.terms(draft);
+        int hits = 0;
+        for (String term : expected) {
+            if (actual.contains(term)) {
+                hits++;
+            }
+        }
+        return (double) hits / expected.size();
+    }
+
+    private static final class Verdict {
+        private final boolean keep;
+        private final String reason;
+
+        Verdict(boolean keep, String reason) {
+            this.keep = keep;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * 推测草稿
+     * 采用前收到的响应帧全部缓存；attach之后先按顺序补发缓存的帧，之后的帧直接转发
+     */
+    public static final class Draft implements StreamResponseCallback {
+
+        private final CancellationToken token;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private final List<StreamResponse> buffered = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private StreamResponseCallback target;
+        private boolean completed;
+        private volatile boolean started;
+
+        Draft(CancellationToken token) {
+            this.token = token;
+        }
+
+        void run(AiService aiService, List<Map<String, String>> messages) {
+            started = true;
+            try {
+                aiService.streamCallAiModel(messages, this, token);
+                completion.complete(null);
+            } catch (RuntimeException e) {
+                completion.completeExceptionally(e);
+            } finally {
+                // 结束子令牌，释放它在请求令牌上的监听
+                token.cancel("推测草稿结束");
+            }
+        }
+
+        @Override
+        public synchronized void onResponse(StreamResponse response) {
+            if (target != null) {
+                target.onResponse(response);
+                return;
+            }
+            if (response.getContent() != null) {
+                text.append(response.getContent());
+            }
+            if (response.isDone()) {
+                completed = true;
+            }
+            buffered.add(response);
+        }
+
+        synchronized void attach(StreamResponseCallback target) {
+            for (StreamResponse response : buffered) {
+                target.onResponse(response);
+            }
+            buffered.clear();
+            this.target = target;
+        }
+
+        /**
+         * 等待草稿生成结束，失败时抛出生成异常
+         * 请求被取消时立即返回（抛出RequestCancelledException），超过timeoutMs仍未结束时取消草稿并抛出超时异常
+         */
+        void await(long timeoutMs, CancellationToken requestToken) {
+            CancellationToken.Registration registration = requestToken.onCancel(
+                () -> completion.completeExceptionally(new RequestCancelledException(requestToken.getReason())));
+            try {
+                completion.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                    : new HappyDogException("推测草稿生成失败: " + e.getCause().getMessage(), e.getCause());
+            } catch (TimeoutException e) {
+                cancel("推测草稿等待超时");
+                throw new HappyDogException("推测草稿生成超时(" + timeoutMs + "ms)");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel("等待推测草稿时被中断");
+                throw new RequestCancelledException("等待推测草稿时被中断");
+            } finally {
+                registration.close();
+            }
+        }
+
+        void cancel(String reason) {
+            token.cancel(reason);
+            // 等待方不再依赖草稿线程结束，即使草稿任务从未开始也能返回
+            completion.completeExceptionally(new RequestCancelledException(reason));
+        }
+
+        boolean isStarted() {
+            return started;
+        }
+
+        boolean isFailed() {
+            return completion.isCompletedExceptionally();
+        }
+
+        synchronized boolean isCompleted() {
+            return completed;
+        }
+
+        synchronized String text() {
+            return text.toString();
+        }
+
+        synchronized int length() {
+            return text.length();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.can.happydog.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 流式补全增量解码器
+ * 直接从响应字节流中切分SSE事件，用Jackson流式解析器提取
+ * choices[0].delta.content、finish_reason和usage，不构建Map/List树。
+ * 读缓冲、行缓冲和Delta对象在整个流中复用；实例非线程安全，每个流使用一个实例。
+ */
+public class SseDeltaDecoder {
+
+    private static final byte[] DATA_PREFIX = {'d', 'a', 't', 'a', ':'};
+    private static final byte[] DONE_MARKER = {'[', 'D', 'O', 'N', 'E', ']'};
+
+    private final JsonFactory jsonFactory;
+    private final byte[] readBuffer;
+    private byte[] lineBuffer;
+    private int lineLength;
+    private final Delta delta = new Delta();
+
+    private int eventCount;
+    private int malformedCount;
+    private long firstEventAt;
+    private boolean doneReceived;
+    private boolean finishReasonReceived;
+
+    public SseDeltaDecoder(JsonFactory jsonFactory) {
+        this(jsonFactory, 8192);
+    }
+
+    public SseDeltaDecoder(JsonFactory jsonFactory, int bufferSize) {
+        this.jsonFactory = jsonFactory;
+        this.readBuffer = new byte[bufferSize];
+        this.lineBuffer = new byte[bufferSize];
+    }
+
+    /**
+     * 增量回调
+     */
+    @FunctionalInterface
+    public interface DeltaHandler {
+        /**
+         * @return false表示停止解码（如下游连接已断开）
+         */
+        boolean onDelta(Delta delta) throws Exception;
+    }
+
+    /**
+     * 解码整个响应流，直到[DONE]、流结束或回调要求停止
+     */
+    public void decode(InputStream in, DeltaHandler handler) throws Exception {
+        int read;
+        while ((read = in.read(readBuffer)) != -1) {
+            int lineStart = 0;
+            for (int i = 0; i < read; i++) {
+                if (readBuffer[i] == '\n') {
+                    appendToLine(readBuffer, lineStart, i - lineStart);
+                    lineStart = i + 1;
+                    if (!processLine(handler)) {
+                        return;
+                    }
+                }
+            }
+            appendToLine(readBuffer, lineStart, read - lineStart);
+        }
+        // 流结束但最后一行没有换行符
+        if (lineLength > 0) {
+            processLine(handler);
+        }
+    }
+
+    /**
+     * 解码单个SSE data负载（已去掉"data:"前缀），供非阻塞客户端复用
+     *
+     * @return 解析得到的Delta（复用对象），[DONE]时返回null
+     */
+    public Delta decodeData(byte[] data, int offset, int length) throws IOException {
+        int start = skipSpaces(data, offset, offset + length);
+        int end = trimEnd(data, start, offset + length);
+        if (matches(data, start, end, DONE_MARKER)) {
+            doneReceived = true;
+            return null;
+        }
+        if (eventCount++ == 0) {
+            firstEventAt = System.currentTimeMillis();
+        }
+        parseChunk(data, start, end - start);
+        return delta;
+    }
+
+    public int getEventCount() { return eventCount; }
+    public int getMalformedCount() { return malformedCount; }
+    public long getFirstEventAt() { return firstEventAt; }
+    public boolean isDoneReceived() { return doneReceived; }
+
+    /**
+     * 上游是否正常结束了生成（收到finish_reason或[DONE]），false表示流在中途被截断
+     */
+    public boolean isCompleted() { return doneReceived || finishReasonReceived; }
+
+    private boolean processLine(DeltaHandler handler) throws Exception {
+        int length = trimEnd(lineBuffer, 0, lineLength);
+        lineLength = 0;
+
+        // 空行是SSE事件分隔符，注释行以冒号开头，都直接跳过
+        if (length < DATA_PREFIX.length || !startsWith(lineBuffer, DATA_PREFIX)) {
+            return true;
+        }
+
+        Delta parsed;
+        try {
+            parsed = decodeData(lineBuffer, DATA_PREFIX.length, length - DATA_PREFIX.length);
+        } catch (JsonProcessingException e) {
+            // 单个损坏的事件不中断整个流，跳过继续处理下一个
+            malformedCount++;
+            return true;
+        }
+        if (parsed == null) {
+            return false;
+        }
+        return handler.onDelta(parsed);
+    }
+
+    private void parseChunk(byte[] data, int offset, int length) throws IOException {
+        delta.reset();
+        try (JsonParser parser = jsonFactory.createParser(data, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("choices".equals(field) && value == JsonToken.START_ARRAY) {
+                    parseChoices(parser);
+                } else if ("usage".equals(field) && value == JsonToken.START_OBJECT) {
+                    parseUsage(parser);
+                } else if ("error".equals(field) && value == JsonToken.START_OBJECT) {
+                    parseError(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private void parseChoices(JsonParser parser) throws IOException {
+        boolean first = true;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            if (first && token == JsonToken.START_OBJECT) {
+                parseFirstChoice(parser);
+                first = false;
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void parseFirstChoice(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("delta".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String deltaField = parser.getCurrentName();
+                    JsonToken deltaValue = parser.nextToken();
+                    if ("content".equals(deltaField) && deltaValue == JsonToken.VALUE_STRING) {
+                        delta.content = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if ("finish_reason".equals(field) && value == JsonToken.VALUE_STRING) {
+                delta.finishReason = parser.getText();
+                finishReasonReceived = true;
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void parseUsage(JsonParser parser) throws IOException {
+        delta.hasUsage = true;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value != JsonToken.VALUE_NUMBER_INT) {
+                parser.skipChildren();
+            } else if ("prompt_tokens".equals(field)) {
+                delta.promptTokens = parser.getIntValue();
+            } else if ("completion_tokens".equals(field)) {
+                delta.completionTokens = parser.getIntValue();
+            } else if ("total_tokens".equals(field)) {
+                delta.totalTokens = parser.getIntValue();
+            }
+        }
+    }
+
+    private void parseError(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("message".equals(field) && value == JsonToken.VALUE_STRING) {
+                delta.errorMessage = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void appendToLine(byte[] source, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (lineLength + length > lineBuffer.length) {
+            byte[] grown = new byte[Math.max(lineBuffer.length * 2, lineLength + length)];
+            System.arraycopy(lineBuffer, 0, grown, 0, lineLength);
+            lineBuffer = grown;
+        }
+        System.arraycopy(source, offset, lineBuffer, lineLength, length);
+        lineLength += length;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(byte[] data, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (data[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipSpaces(byte[] data, int start, int end) {
+        while (start < end && (data[start] == ' ' || data[start] == '\t')) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(byte[] data, int start, int end) {
+        while (end > start && (data[end - 1] == '\r' || data[end - 1] == ' ' || data[end - 1] == '\t')) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * 单个SSE事件解析出的增量（复用对象，回调返回后内容会被覆盖）
+     */
+    public static class Delta {
+        private String content;
+        private String finishReason;
+        private String errorMessage;
+        private boolean hasUsage;
+        private int promptTokens;
+        private int completionTokens;
+        private int totalTokens;
+
+        private void reset() {
+            content = null;
+            finishReason = null;
+            errorMessage = null;
+            hasUsage = false;
+            promptTokens = 0;
+            completionTokens = 0;
+            totalTokens = 0;
+        }
+
+        public String getContent() { return content; }
+        public String getFinishReason() { return finishReason; }
+        public String getErrorMessage() { return errorMessage; }
+        public boolean hasUsage() { return hasUsage; }
+        public int getPromptTokens() { return promptTokens; }
+        public int getCompletionTokens() { return completionTokens; }
+        public int getTotalTokens() { return totalTokens; }
+    }
+}
@@ -0,0 +1,197 @@
+package com.can.happydog.service;
+
+import com.can.happydog.dto.StreamResponse;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 流式分块节拍器
+ * 位于上游解析器与StreamResponseCallback之间，按字符数或最大延迟窗口合并增量内容。
+ * 读取线程只负责追加，不会休眠；窗口到期后由共享调度器把刷新交给发送执行器，调度线程本身不做阻塞发送。
+ * 锁只保护缓冲区，发送在锁外进行，同一时刻每个流最多只有一个发送在途，保证帧的顺序。
+ */
+public class StreamChunkPacer {
+
+    private final StreamResponseCallback downstream;
+    private final Function<String, StreamResponse> frameFactory;
+    private final int chunkSize;
+    private final long maxLatencyMs;
+    private final ScheduledExecutorService scheduler;
+    private final Executor sendExecutor;
+
+    private final StringBuilder buffer = new StringBuilder();
+    private ScheduledFuture<?> pendingFlush;
+    private boolean closed;
+    private boolean sending;
+    private int framesSent;
+
+    public StreamChunkPacer(StreamResponseCallback downstream, Function<String, StreamResponse> frameFactory,
+                            int chunkSize, long maxLatencyMs, ScheduledExecutorService scheduler,
+                            Executor sendExecutor) {
+        this.downstream = downstream;
+        this.frameFactory = frameFactory;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxLatencyMs = maxLatencyMs;
+        this.scheduler = scheduler;
+        this.sendExecutor = sendExecutor;
+    }
+
+    /**
+     * 追加一段增量内容
+     * 如果已有发送在途，只追加到缓冲区，由在途的发送方在完成后继续处理，读取线程不会被慢客户端阻塞
+     *
+     * @return 下游是否仍然可用，false表示连接已断开，调用方应停止读取
+     */
+    public boolean offer(String delta) {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (delta == null || delta.isEmpty()) {
+                return true;
+            }
+            buffer.append(delta);
+        }
+        return drain(false);
+    }
+
+    /**
+     * 立即发送缓冲区中的内容，有发送在途时等待其完成
+     */
+    public boolean flush() {
+        return drain(true);
+    }
+
+    /**
+     * 结束节拍器：等待在途发送完成，发送剩余内容并取消挂起的定时刷新
+     */
+    public boolean finish() {
+        boolean open = drain(true);
+        synchronized (this) {
+            cancelPendingFlush();
+        }
+        return open;
+    }
+
+    /**
+     * 丢弃缓冲区中的内容并关闭节拍器，用于请求取消
+     */
+    public synchronized void discard() {
+        cancelPendingFlush();
+        buffer.setLength(0);
+        closed = true;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized int getFramesSent() {
+        return framesSent;
+    }
+
+    /**
+     * 发送缓冲区内容直到不再满足发送条件
+     * 强制模式（flush/finish）会等待在途发送完成后把缓冲区全部发出；
+     * 非强制模式在已有发送在途时直接返回，只在凑满chunkSize时发送，否则挂起定时刷新
+     */
+    private boolean drain(boolean force) {
+        while (true) {
+            String text;
+            synchronized (this) {
+                if (force) {
+                    while (sending && !closed) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return !closed;
+                        }
+                    }
+                }
+                if (closed || sending) {
+                    return !closed;
+                }
+                if (buffer.length() == 0) {
+                    cancelPendingFlush();
+                    return true;
+                }
+                if (!force && buffer.length() < chunkSize && maxLatencyMs > 0) {
+                    if (pendingFlush == null) {
+                        // 第一个未发送的字符开始计时，窗口到期后无论是否凑满都会发送
+                        pendingFlush = scheduler.schedule(this::handOffTimedFlush, maxLatencyMs, TimeUnit.MILLISECONDS);
+                    }
+                    return true;
+                }
+
+                cancelPendingFlush();
+                text = buffer.toString();
+                buffer.setLength(0);
+                sending = true;
+            }
+
+            boolean delivered = send(text);
+
+            synchronized (this) {
+                sending = false;
+                if (delivered) {
+                    framesSent++;
+                } else {
+                    // 下游发送失败（如连接已断开），后续内容全部丢弃
+                    closed = true;
+                    buffer.setLength(0);
+                    cancelPendingFlush();
+                }
+                notifyAll();
+            }
+            // 发送期间追加的内容按常规条件处理：凑满则继续发送，否则重新计时
+            force = false;
+        }
+    }
+
+    private boolean send(String text) {
+        try {
+            downstream.onResponse(frameFactory.apply(text));
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 定时刷新在调度线程上触发，只负责把实际发送交给发送执行器
+     */
+    private void handOffTimedFlush() {
+        try {
+            sendExecutor.execute(this::timedFlush);
+        } catch (RejectedExecutionException e) {
+            // 应用关闭中，剩余内容由finish()发送
+            synchronized (this) {
+                pendingFlush = null;
+            }
+        }
+    }
+
+    private void timedFlush() {
+        synchronized (this) {
+            pendingFlush = null;
+            if (sending) {
+                // 在途的发送完成后会重新计时
+                return;
+            }
+        }
+        drain(true);
+    }
+
+    private void cancelPendingFlush() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+    }
+}
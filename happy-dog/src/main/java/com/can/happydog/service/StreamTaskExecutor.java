@@ -0,0 +1,183 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.StreamExecutorProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 流式请求执行器
+ * 运行在Java 21+时使用虚拟线程（信号量限制并发数），否则退化为有界平台线程池（可选小准入队列）。
+ * 两种模式在饱和时都会拒绝提交，由调用方返回429。
+ */
+@Component
+public class StreamTaskExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamTaskExecutor.class);
+
+    private final StreamExecutorProperties properties;
+    private final ExecutorService executor;
+    private final boolean virtual;
+
+    // 虚拟线程模式下的并发许可，平台线程模式下为null
+    private final Semaphore permits;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    public StreamTaskExecutor(StreamExecutorProperties properties) {
+        this.properties = properties;
+
+        String mode = properties.getMode() == null ? "auto" : properties.getMode().toLowerCase();
+        ExecutorService virtualExecutor = "platform".equals(mode) ? null : createVirtualExecutor();
+        if ("virtual".equals(mode) && virtualExecutor == null) {
+            log.warn("⚠️ 当前JVM不支持虚拟线程，流式执行器退化为平台线程池");
+        }
+
+        if (virtualExecutor != null) {
+            this.executor = virtualExecutor;
+            this.virtual = true;
+            this.permits = new Semaphore(properties.getMaxConcurrent());
+            log.info("🧵 流式执行器使用虚拟线程 - 最大并发: {}", properties.getMaxConcurrent());
+        } else {
+            this.executor = createPlatformExecutor();
+            this.virtual = false;
+            this.permits = null;
+            log.info("🧵 流式执行器使用平台线程池 - 最大线程: {}, 队列: {}",
+                properties.getMaxPoolSize(), properties.getQueueCapacity());
+        }
+    }
+
+    /**
+     * 提交流式任务
+     *
+     * @return false表示执行器已饱和，任务未被接受
+     */
+    public boolean submit(Runnable task) {
+        if (virtual && !permits.tryAcquire()) {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        try {
+            executor.execute(() -> runTracked(task));
+            submitted.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (virtual) {
+                permits.release();
+            }
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    public int getRetryAfterSeconds() {
+        return properties.getRetryAfterSeconds();
+    }
+
+    /**
+     * 获取执行器指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("mode", virtual ? "virtual" : "platform");
+        stats.put("active", active.get());
+        stats.put("peakActive", peakActive.get());
+        stats.put("submitted", submitted.get());
+        stats.put("rejected", rejected.get());
+        stats.put("completed", completed.get());
+
+        if (virtual) {
+            stats.put("maxConcurrent", properties.getMaxConcurrent());
+            stats.put("availablePermits", permits.availablePermits());
+            stats.put("queueDepth", 0);
+        } else {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            stats.put("poolSize", pool.getPoolSize());
+            stats.put("maxPoolSize", pool.getMaximumPoolSize());
+            stats.put("queueDepth", pool.getQueue().size());
+            stats.put("queueCapacity", properties.getQueueCapacity());
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void runTracked(Runnable task) {
+        int current = active.incrementAndGet();
+        peakActive.accumulateAndGet(current, Math::max);
+        try {
+            task.run();
+        } catch (Exception e) {
+            log.error("❌ 流式任务执行异常: {}", e.getMessage(), e);
+        } finally {
+            active.decrementAndGet();
+            completed.incrementAndGet();
+            if (virtual) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * 通过反射创建虚拟线程执行器，项目以Java 17编译，运行在21+时才可用
+     */
+    private ExecutorService createVirtualExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 创建平台线程池
+     * ThreadPoolExecutor只有在队列满之后才会创建超过核心数的线程，而SSE流会占用线程数分钟，
+     * 核心数小于最大数时超出核心数的请求会在队列里一直等待。因此核心数等于最大数并允许核心线程空闲回收，
+     * 准入队列默认为0（直接交接），线程用满时立即返回429而不是让请求无响应地排队
+     */
+    private ExecutorService createPlatformExecutor() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        int poolSize = Math.max(1, properties.getMaxPoolSize());
+        BlockingQueue<Runnable> queue = properties.getQueueCapacity() > 0
+            ? new ArrayBlockingQueue<>(properties.getQueueCapacity())
+            : new SynchronousQueue<>();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            poolSize, poolSize,
+            properties.getKeepAlive(), TimeUnit.MILLISECONDS,
+            queue,
+            runnable -> {
+                Thread thread = new Thread(runnable, "stream-worker-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
@@ -0,0 +1,257 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.TokenizerProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 文本分词器
+ * 中文连续片段：先按词典做最大正向匹配切出词语，再补充相邻两字（可选三字）组合，词典未收录的词也能匹配上；
+ * 其他文字按连续的字母数字切分并转小写。可选去除停用词，停用词在切分时即被跳过，不会生成字符串。
+ * 词典和停用词都放在字符前缀树中，纯本地计算，记忆相关性、回答质量评估和推测草稿比较共用。
+ */
+@Component
+public class TextTokenizer {
+
+    private static final Logger log = LoggerFactory.getLogger(TextTokenizer.class);
+
+    private static final String DICTIONARY_RESOURCE = "tokenizer/dictionary.txt";
+    private static final String STOP_WORDS_RESOURCE = "tokenizer/stopwords.txt";
+
+    private final TokenizerProperties properties;
+    private final CharTrie dictionary = new CharTrie();
+    private final CharTrie stopWords = new CharTrie();
+
+    public TextTokenizer(TokenizerProperties properties) {
+        this.properties = properties;
+        int words = loadResource(DICTIONARY_RESOURCE, dictionary);
+        if (properties.getDictionaryPath() != null && !properties.getDictionaryPath().isEmpty()) {
+            try (InputStream in = Files.newInputStream(Paths.get(properties.getDictionaryPath()))) {
+                words += load(in, dictionary);
+            } catch (Exception e) {
+                log.warn("⚠️ 加载自定义词典失败 - 路径: {}, 错误: {}", properties.getDictionaryPath(), e.getMessage());
+            }
+        }
+        int stops = properties.isStopWords() ? loadResource(STOP_WORDS_RESOURCE, stopWords) : 0;
+        log.info("🔤 分词器已加载 - 词典: {}词, 停用词: {}词, 三字组合: {}", words, stops, properties.isTrigrams());
+    }
+
+    /**
+     * 去重后的词项
+     */
+    public Set<String> terms(String text) {
+        Set<String> terms = new HashSet<>();
+        tokenize(text, terms::add);
+        return terms;
+    }
+
+    /**
+     * 按出现顺序排列的词项（不去重）
+     */
+    public List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        tokenize(text, tokens::add);
+        return tokens;
+    }
+
+    /**
+     * 依次输出文本中的词项
+     */
+    public void tokenize(String text, Consumer<String> sink) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (isHan(c)) {
+                int end = i + 1;
+                while (end < length && isHan(text.charAt(end))) {
+                    end++;
+                }
+                emitHan(text, i, end, sink);
+                i = end;
+            } else if (Character.isLetterOrDigit(c)) {
+                int end = i + 1;
+                while (end < length && Character.isLetterOrDigit(text.charAt(end)) && !isHan(text.charAt(end))) {
+                    end++;
+                }
+                emitWord(text, i, end, sink);
+                i = end;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * 中文连续片段：词典最大正向匹配 + 相邻两字/三字组合；单个汉字的片段原样输出
+     */
+    private void emitHan(String text, int start, int end, Consumer<String> sink) {
+        if (end - start == 1) {
+            emit(text, start, end, sink);
+            return;
+        }
+        int i = start;
+        while (i < end) {
+            int matched = dictionary.longestMatch(text, i, end);
+            if (matched >= 2) {
+                emit(text, i, i + matched, sink);
+                i += matched;
+            } else {
+                i++;
+            }
+        }
+        for (int j = start; j + 2 <= end; j++) {
+            emitGram(text, j, j + 2, sink);
+        }
+        if (properties.isTrigrams()) {
+            for (int j = start; j + 3 <= end; j++) {
+                emitGram(text, j, j + 3, sink);
+            }
+        }
+    }
+
+    /**
+     * 首尾是单字停用词（如"的"、"了"）的组合多是跨词拼接，不输出
+     */
+    private void emitGram(String text, int start, int end, Consumer<String> sink) {
+        if (stopWords.contains(text, start, start + 1) || stopWords.contains(text, end - 1, end)) {
+            return;
+        }
+        emit(text, start, end, sink);
+    }
+
+    private void emitWord(String text, int start, int end, Consumer<String> sink) {
+        // 单个字母意义不大，单个数字保留
+        if (end - start == 1 && !Character.isDigit(text.charAt(start))) {
+            return;
+        }
+        if (stopWords.contains(text, start, end)) {
+            return;
+        }
+        sink.accept(text.substring(start, end).toLowerCase(Locale.ROOT));
+    }
+
+    private void emit(String text, int start, int end, Consumer<String> sink) {
+        if (!stopWords.contains(text, start, end)) {
+            sink.accept(text.substring(start, end));
+        }
+    }
+
+    private static boolean isHan(char c) {
+        return Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN;
+    }
+
+    private static int loadResource(String resource, CharTrie trie) {
+        try (InputStream in = new ClassPathResource(resource).getInputStream()) {
+            return load(in, trie);
+        } catch (Exception e) {
+            log.warn("⚠️ 加载分词资源失败 - 资源: {}, 错误: {}", resource, e.getMessage());
+            return 0;
+        }
+    }
+
+    private static int load(InputStream in, CharTrie trie) throws Exception {
+        int count = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String word = line.trim();
+            if (!word.isEmpty() && !word.startsWith("#")) {
+                trie.add(word.toLowerCase(Locale.ROOT));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 字符前缀树：子节点按字符排序存放在数组中，查找用二分，不装箱也不分配对象；匹配时忽略大小写
+     */
+    static final class CharTrie {
+        private final Node root = new Node();
+
+        void add(String word) {
+            Node node = root;
+            for (int i = 0; i < word.length(); i++) {
+                node = node.childOrCreate(word.charAt(i));
+            }
+            node.terminal = true;
+        }
+
+        /**
+         * 从start开始、不超过end的最长词长度，没有匹配时返回0
+         */
+        int longestMatch(CharSequence text, int start, int end) {
+            Node node = root;
+            int longest = 0;
+            for (int i = start; i < end; i++) {
+                node = node.child(Character.toLowerCase(text.charAt(i)));
+                if (node == null) {
+                    break;
+                }
+                if (node.terminal) {
+                    longest = i - start + 1;
+                }
+            }
+            return longest;
+        }
+
+        boolean contains(CharSequence text, int start, int end) {
+            Node node = root;
+            for (int i = start; i < end && node != null; i++) {
+                node = node.child(Character.toLowerCase(text.charAt(i)));
+            }
+            return node != null && node.terminal;
+        }
+    }
+
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private boolean terminal;
+
+        Node child(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node childOrCreate(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertAt = -index - 1;
+            char[] nextKeys = new char[keys.length + 1];
+            Node[] nextChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, nextKeys, 0, insertAt);
+            System.arraycopy(children, 0, nextChildren, 0, insertAt);
+            System.arraycopy(keys, insertAt, nextKeys, insertAt + 1, keys.length - insertAt);
+            System.arraycopy(children, insertAt, nextChildren, insertAt + 1, children.length - insertAt);
+            Node created = new Node();
+            nextKeys[insertAt] = c;
+            nextChildren[insertAt] = created;
+            keys = nextKeys;
+            children = nextChildren;
+            return created;
+        }
+    }
+}
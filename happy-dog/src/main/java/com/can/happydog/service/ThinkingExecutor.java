@@ -5,13 +5,13 @@ import com.can.happydog.dto.ThinkingStep;
 import com.can.happydog.service.RequestPreprocessor.ProcessedRequest;
 import com.can.happydog.service.AgentExecutor.ExecutionContext;
 import com.can.happydog.config.PromptTemplates;
+import com.can.happydog.config.SemanticCacheProperties;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
@@ -25,8 +25,8 @@ public class ThinkingExecutor {
     
     private static final Logger log = LoggerFactory.getLogger(ThinkingExecutor.class);
     
-    // 思考结果缓存
-    private final Map<String, ThinkingResult> thinkingCache = new ConcurrentHashMap<>();
+    // 思考结果缓存，措辞相近的同一问题也能命中
+    private final SemanticCache<ThinkingResult> thinkingCache;
     
     // 原有的AiService，用于实际的思考调用
     private final AiService aiService;
@@ -40,16 +40,31 @@ public class ThinkingExecutor {
     @Value("${ai.deep-thinking.cache-ttl:3600000}") // 1小时
     private long cacheTTL;
     
+    @Value("${ai.deep-thinking.thinking-model:qwen-max}")
+    private String thinkingModel;
+    
     @Autowired
-    public ThinkingExecutor(AiService aiService, PromptTemplates promptTemplates) {
+    public ThinkingExecutor(AiService aiService, PromptTemplates promptTemplates,
+                            SemanticCacheProperties semanticCacheProperties,
+                            @Value("${ai.deep-thinking.cache-max-entries:1000}") int cacheMaxEntries) {
         this.aiService = aiService;
         this.promptTemplates = promptTemplates;
+        this.thinkingCache = new SemanticCache<>(semanticCacheProperties, cacheMaxEntries);
     }
     
     /**
      * 执行思考流程
      */
     public void executeThinking(ProcessedRequest processedRequest, StreamResponseCallback callback, ExecutionContext context) {
+        executeThinking(processedRequest, callback, context, context.getCancellationToken());
+    }
+    
+    /**
+     * 执行思考流程，使用单独的取消令牌（例如工作流节点带超时的子令牌）
+     * 令牌取消时已收到的思考内容作为部分结果写入上下文，后续阶段仍可使用
+     */
+    public void executeThinking(ProcessedRequest processedRequest, StreamResponseCallback callback,
+                                ExecutionContext context, CancellationToken cancellationToken) {
         long thinkingStartTime = System.currentTimeMillis();
         String sessionId = processedRequest.getSessionId();
         String message = processedRequest.getRequest().getMessage();
@@ -57,19 +72,20 @@ public class ThinkingExecutor {
         try {
             log.info("🧠 思考执行器开始 - 会话: {}", sessionId);
             
-            // 1. 思考缓存检查
-            ThinkingResult cachedThinking = checkThinkingCache(message, sessionId);
+            // 1. 思考路由决策（缓存按策略隔离，因此先确定策略）
+            ThinkingStrategy strategy = determineThinkingStrategy(processedRequest);
+            log.info("🎯 思考策略: {} - 会话: {}", strategy, sessionId);
+            
+            // 2. 思考缓存检查
+            ThinkingResult cachedThinking = checkThinkingCache(message, strategy, sessionId);
             if (cachedThinking != null) {
-                handleCachedThinking(cachedThinking, callback, context);
+                handleCachedThinking(cachedThinking, callback, context, cancellationToken);
                 return;
             }
             
-            // 2. 思考路由决策
-            ThinkingStrategy strategy = determineThinkingStrategy(processedRequest);
-            log.info("🎯 思考策略: {} - 会话: {}", strategy, sessionId);
-            
             // 3. 执行思考
-            ThinkingResult thinkingResult = executeThinkingWithStrategy(processedRequest, strategy, callback);
+            ThinkingResult thinkingResult = executeThinkingWithStrategy(processedRequest, strategy, callback, context,
+                cancellationToken);
             
             // 4. 缓存思考结果
             cacheThinkingResult(message, thinkingResult);
@@ -82,6 +98,9 @@ public class ThinkingExecutor {
                 sessionId, strategy, thinkingDuration);
             
         } catch (Exception e) {
+            if (cancellationToken.isCancelled()) {
+                throw e;
+            }
             long thinkingDuration = System.currentTimeMillis() - thinkingStartTime;
             log.error("❌ 思考执行失败 - 会话: {}, 错误: {}, 耗时: {}ms", 
                 sessionId, e.getMessage(), thinkingDuration);
@@ -98,31 +117,44 @@ public class ThinkingExecutor {
     /**
      * 检查思考缓存
      */
-    private ThinkingResult checkThinkingCache(String message, String sessionId) {
+    private ThinkingResult checkThinkingCache(String message, ThinkingStrategy strategy, String sessionId) {
         if (!cacheEnabled) {
             return null;
         }
         
-        String cacheKey = generateThinkingCacheKey(message);
-        ThinkingResult cachedResult = thinkingCache.get(cacheKey);
-        
-        if (cachedResult != null && !isExpired(cachedResult)) {
-            log.info("💾 思考缓存命中 - 会话: {}, 键: {}", sessionId, cacheKey);
-            return cachedResult;
-        } else if (cachedResult != null && isExpired(cachedResult)) {
-            // 清理过期缓存
-            thinkingCache.remove(cacheKey);
-            log.debug("🧹 清理过期思考缓存 - 键: {}", cacheKey);
+        SemanticCache.Match<ThinkingResult> match = thinkingCache.lookup(cachePartition(strategy), message);
+        if (match != null) {
+            log.info("💾 思考缓存命中 - 会话: {}, 策略: {}, 相似度: {}", 
+                sessionId, strategy, String.format("%.2f", match.getSimilarity()));
+            return match.getValue();
         }
         
-        log.debug("🔍 思考缓存未命中 - 会话: {}, 键: {}", sessionId, cacheKey);
+        log.debug("🔍 思考缓存未命中 - 会话: {}, 策略: {}", sessionId, strategy);
         return null;
     }
     
+    /**
+     * 查询思考缓存（供响应式管道使用）
+     */
+    public ThinkingResult lookupThinking(ProcessedRequest processedRequest, ThinkingStrategy strategy) {
+        return checkThinkingCache(processedRequest.getRequest().getMessage(), strategy, processedRequest.getSessionId());
+    }
+    
+    /**
+     * 根据思考模型输出的完整内容生成思考结果并写入缓存（供响应式管道使用）
+     * 只在上游流正常结束后调用，ReactiveAiClient对未收到finish_reason或[DONE]的流发出错误信号
+     */
+    public ThinkingResult recordThinking(ProcessedRequest processedRequest, ThinkingStrategy strategy, String reasoning) {
+        ThinkingResult result = buildThinkingResult(strategy, reasoning, true);
+        cacheThinkingResult(processedRequest.getRequest().getMessage(), result);
+        return result;
+    }
+    
     /**
      * 处理缓存的思考结果
      */
-    private void handleCachedThinking(ThinkingResult cachedThinking, StreamResponseCallback callback, ExecutionContext context) {
+    private void handleCachedThinking(ThinkingResult cachedThinking, StreamResponseCallback callback, ExecutionContext context,
+                                      CancellationToken cancellationToken) {
         log.info("⚡ 使用缓存的思考结果");
         
         // 发送缓存提示
@@ -132,6 +164,7 @@ public class ThinkingExecutor {
         
         // 快速播放思考步骤
         for (ThinkingStep step : cachedThinking.getSteps()) {
+            cancellationToken.throwIfCancelled();
             callback.onResponse(StreamResponse.thinking(step));
             try {
                 Thread.sleep(50); // 快速播放
@@ -144,6 +177,17 @@ public class ThinkingExecutor {
         context.setThinkingResult(cachedThinking);
     }
     
+    /**
+     * 准备思考请求：确定策略并构建思考模型的消息列表，不发起调用
+     */
+    public ThinkingPlan prepareThinking(ProcessedRequest processedRequest) {
+        ThinkingStrategy strategy = determineThinkingStrategy(processedRequest);
+        String thinkingPrompt = promptTemplates.getThinkingStrategyPrompt(strategy.name());
+        List<Map<String, String>> messages = aiService.buildThinkingMessagesWithPrompt(
+            processedRequest.getRequest().getMessage(), processedRequest.getSessionId(), thinkingPrompt);
+        return new ThinkingPlan(strategy, messages);
+    }
+    
     /**
      * 确定思考策略
      */
@@ -169,7 +213,9 @@ public class ThinkingExecutor {
      */
     private ThinkingResult executeThinkingWithStrategy(ProcessedRequest processedRequest, 
                                                      ThinkingStrategy strategy, 
-                                                     StreamResponseCallback callback) {
+                                                     StreamResponseCallback callback,
+                                                     ExecutionContext context,
+                                                     CancellationToken cancellationToken) {
         String sessionId = processedRequest.getSessionId();
         String message = processedRequest.getRequest().getMessage();
         
@@ -181,71 +227,86 @@ public class ThinkingExecutor {
         // 获取对应的思考提示词
         String thinkingPrompt = promptTemplates.getThinkingStrategyPrompt(strategy.name());
         
-        // 调用原有的思考流程，使用策略特定的提示词
-        List<ThinkingStep> steps = new ArrayList<>();
+        // 转发思考内容的同时记录完整的思考文本，缓存命中时无需再调用思考模型
+        StringBuilder reasoning = new StringBuilder();
+        StreamResponseCallback recordingCallback = response -> {
+            ThinkingStep step = response.getCurrentStep();
+            if (step != null && step.getType() == ThinkingStep.StepType.REASON && step.getContent() != null) {
+                reasoning.append(step.getContent());
+            }
+            callback.onResponse(response);
+        };
         
+        // 上游在中途失败时思考内容是截断的，只有正常结束的思考才能进入缓存
+        boolean completed;
         try {
             // 使用策略提示词进行思考
-            aiService.streamThinkingStepsWithPrompt(message, sessionId, thinkingPrompt, callback);
-            
-            // 创建思考结果（简化实现）
-            steps.add(ThinkingStep.analyze("策略执行", "使用" + strategy.getDescription() + "完成分析"));
+            completed = aiService.streamThinkingStepsWithPrompt(message, sessionId, thinkingPrompt, recordingCallback,
+                cancellationToken);
             
         } catch (Exception e) {
+            // 已取消的请求不再回退，避免再发起一次上游调用；已收到的思考内容保留为部分结果
+            if (cancellationToken.isCancelled()) {
+                if (reasoning.length() > 0) {
+                    context.setThinkingResult(buildThinkingResult(strategy, reasoning.toString(), false));
+                }
+                throw e;
+            }
             log.error("思考策略执行失败: {}, 回退到默认思考流程", e.getMessage());
             // 回退到原有的思考流程
             try {
-                aiService.streamThinkingSteps(message, sessionId, callback);
-                steps.add(ThinkingStep.analyze("思考过程", "正在分析您的问题..."));
+                reasoning.setLength(0);
+                completed = aiService.streamThinkingSteps(message, sessionId, recordingCallback, cancellationToken);
             } catch (Exception fallbackError) {
                 log.error("默认思考流程也失败: {}", fallbackError.getMessage());
-                steps.add(ThinkingStep.analyze("思考过程", "思考过程遇到问题，正在尝试其他方式..."));
+                completed = false;
             }
         }
         
-        return new ThinkingResult(steps, strategy, System.currentTimeMillis());
+        return buildThinkingResult(strategy, reasoning.toString(), completed);
+    }
+    
+    /**
+     * 构建思考结果，reasoning为思考模型输出的内容，complete表示思考模型是否正常结束
+     */
+    private ThinkingResult buildThinkingResult(ThinkingStrategy strategy, String reasoning, boolean complete) {
+        List<ThinkingStep> steps = new ArrayList<>();
+        steps.add(ThinkingStep.analyze("策略执行", "使用" + strategy.getDescription() + "完成分析"));
+        if (reasoning != null && !reasoning.isEmpty()) {
+            steps.add(ThinkingStep.reason("深度思考", reasoning));
+        } else {
+            steps.add(ThinkingStep.analyze("思考过程", "思考过程遇到问题，正在尝试其他方式..."));
+        }
+        return new ThinkingResult(steps, strategy, System.currentTimeMillis(), complete);
     }
     
     /**
      * 缓存思考结果
      */
     private void cacheThinkingResult(String message, ThinkingResult result) {
-        if (!cacheEnabled) {
+        // 没有拿到思考内容或思考被截断的结果不缓存，避免把失败结果回放给后续请求
+        if (!cacheEnabled || !result.isComplete() || result.getReasoning() == null) {
             return;
         }
         
-        String cacheKey = generateThinkingCacheKey(message);
-        thinkingCache.put(cacheKey, result);
+        thinkingCache.put(cachePartition(result.getStrategy()), message, result, result.getTimestamp() + cacheTTL);
         
-        log.debug("💾 思考结果已缓存 - 键: {}, 步骤数: {}", cacheKey, result.getSteps().size());
-        
-        // 清理过期缓存
-        cleanupExpiredCache();
-    }
-    
-    /**
-     * 生成思考缓存键
-     */
-    private String generateThinkingCacheKey(String message) {
-        // 基于消息内容生成缓存键，考虑语义相似性
-        return "thinking_" + message.hashCode();
+        log.debug("💾 思考结果已缓存 - 策略: {}, 思考内容长度: {}, 缓存数量: {}", 
+            result.getStrategy(), result.getReasoning().length(), thinkingCache.size());
     }
     
     /**
-     * 检查缓存是否过期
+     * 思考缓存分区：同一问题在不同思考模型或策略下的结果互不复用
      */
-    private boolean isExpired(ThinkingResult result) {
-        return System.currentTimeMillis() - result.getTimestamp() > cacheTTL;
+    private String cachePartition(ThinkingStrategy strategy) {
+        return thinkingModel + "/" + strategy.name();
     }
     
     /**
-     * 清理过期缓存
+     * 获取思考缓存指标
      */
-    private void cleanupExpiredCache() {
-        if (thinkingCache.size() > 100) { // 当缓存过多时进行清理
-            thinkingCache.entrySet().removeIf(entry -> isExpired(entry.getValue()));
-            log.debug("🧹 清理过期思考缓存，当前缓存数量: {}", thinkingCache.size());
-        }
+    public Map<String, Object> getCacheStats() {
+        return thinkingCache.getStats();
     }
     
     // 查询类型判断方法
@@ -272,17 +333,36 @@ public class ThinkingExecutor {
         private final List<ThinkingStep> steps;
         private final ThinkingStrategy strategy;
         private final long timestamp;
+        private final boolean complete;
         
-        public ThinkingResult(List<ThinkingStep> steps, ThinkingStrategy strategy, long timestamp) {
+        public ThinkingResult(List<ThinkingStep> steps, ThinkingStrategy strategy, long timestamp, boolean complete) {
             this.steps = steps;
             this.strategy = strategy;
             this.timestamp = timestamp;
+            this.complete = complete;
         }
         
         public List<ThinkingStep> getSteps() { return steps; }
         public ThinkingStrategy getStrategy() { return strategy; }
         public long getTimestamp() { return timestamp; }
         
+        /**
+         * 思考模型是否正常结束，中途失败或被取消的部分结果为false
+         */
+        public boolean isComplete() { return complete; }
+        
+        /**
+         * 思考模型输出的完整思考内容，没有时返回null
+         */
+        public String getReasoning() {
+            for (ThinkingStep step : steps) {
+                if (step.getType() == ThinkingStep.StepType.REASON) {
+                    return step.getContent();
+                }
+            }
+            return null;
+        }
+        
         /**
          * 将思考结果转换为可读的文本格式
          */
@@ -309,6 +389,22 @@ public class ThinkingExecutor {
         }
     }
     
+    /**
+     * 思考计划：策略及对应的思考模型消息
+     */
+    public static class ThinkingPlan {
+        private final ThinkingStrategy strategy;
+        private final List<Map<String, String>> messages;
+        
+        public ThinkingPlan(ThinkingStrategy strategy, List<Map<String, String>> messages) {
+            this.strategy = strategy;
+            this.messages = messages;
+        }
+        
+        public ThinkingStrategy getStrategy() { return strategy; }
+        public List<Map<String, String>> getMessages() { return messages; }
+    }
+    
     /**
      * 思考策略枚举
      */
@@ -0,0 +1,123 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.HttpClientProperties;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.classic.methods.HttpHead;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 上游连接池管理
+ * 负责启动预热以及连接池租借/等待/空闲指标的采集
+ */
+@Component
+public class UpstreamConnectionPool {
+
+    private static final Logger log = LoggerFactory.getLogger(UpstreamConnectionPool.class);
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final HttpClientProperties properties;
+
+    @Value("${ai.base-url}")
+    private String baseUrl;
+
+    public UpstreamConnectionPool(PoolingHttpClientConnectionManager connectionManager,
+                                  CloseableHttpClient httpClient,
+                                  HttpClientProperties properties) {
+        this.connectionManager = connectionManager;
+        this.httpClient = httpClient;
+        this.properties = properties;
+    }
+
+    /**
+     * 应用启动后预热连接池
+     * 并发发起若干个轻量HEAD请求，让TCP+TLS握手在首个用户请求之前完成
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        int connections = Math.min(properties.getWarmupConnections(), properties.getMaxPerRoute());
+        if (connections <= 0 || !StringUtils.hasText(baseUrl)) {
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        ExecutorService warmupExecutor = Executors.newFixedThreadPool(connections, runnable -> {
+            Thread thread = new Thread(runnable, "http-pool-warmup");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            futures.add(CompletableFuture.supplyAsync(this::openWarmupConnection, warmupExecutor));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+            .whenComplete((ignored, throwable) -> {
+                long warmed = futures.stream().filter(f -> f.getNow(false)).count();
+                log.info("🔥 上游连接池预热完成 - 成功: {}/{}, 耗时: {}ms, 池状态: {}",
+                    warmed, connections, System.currentTimeMillis() - startTime, connectionManager.getTotalStats());
+                warmupExecutor.shutdown();
+            });
+    }
+
+    /**
+     * 建立一个预热连接，响应体被完整消费后连接回到池中
+     */
+    private boolean openWarmupConnection() {
+        try {
+            return httpClient.execute(new HttpHead(baseUrl), response -> {
+                EntityUtils.consume(response.getEntity());
+                return true;
+            });
+        } catch (Exception e) {
+            log.debug("⚠️ 连接预热失败: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 获取连接池指标
+     */
+    public Map<String, Object> getPoolStats() {
+        PoolStats total = connectionManager.getTotalStats();
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("leased", total.getLeased());
+        stats.put("pending", total.getPending());
+        stats.put("available", total.getAvailable());
+        stats.put("max", total.getMax());
+        stats.put("maxPerRoute", connectionManager.getDefaultMaxPerRoute());
+
+        Map<String, Object> routes = new HashMap<>();
+        for (HttpRoute route : connectionManager.getRoutes()) {
+            PoolStats routeStats = connectionManager.getStats(route);
+            routes.put(route.getTargetHost().toURI(), Map.of(
+                "leased", routeStats.getLeased(),
+                "pending", routeStats.getPending(),
+                "available", routeStats.getAvailable(),
+                "max", routeStats.getMax()
+            ));
+        }
+        stats.put("routes", routes);
+        return stats;
+    }
+}
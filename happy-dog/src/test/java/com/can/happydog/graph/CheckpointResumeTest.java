@@ -0,0 +1,128 @@
+package com.can.happydog.graph;
+
+import com.can.happydog.service.CancellationToken;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CheckpointResumeTest {
+
+    private static final StateKey<CancellationToken> TOKEN = StateKey.ephemeral("checkpointTestToken", CancellationToken.class);
+    private static final StateKey<String> THINKING = StateKey.of("checkpointTestThinking", String.class);
+    private static final StateKey<String> ANSWER = StateKey.of("checkpointTestAnswer", String.class);
+
+    private final MemoryCheckpointer<TestState> checkpointer = new MemoryCheckpointer<>(100, 60_000);
+    private final List<String> executed = new ArrayList<>();
+    private final AtomicBoolean failGeneration = new AtomicBoolean(true);
+
+    @Test
+    void resumeAfterMidGraphFailureSkipsCompletedNodes() {
+        CompiledGraph<TestState> graph = workflow();
+
+        assertThrows(CompletionException.class, () -> graph.invoke(initialState(), "exec-1").join());
+        assertEquals(List.of("preprocess", "thinking", "generate"), executed);
+
+        // 失败时保留最后一个成功节点之后的检查点，且不包含ephemeral键
+        Checkpoint<TestState> checkpoint = checkpointer.load("exec-1");
+        assertNotNull(checkpoint);
+        assertEquals("thinking", checkpoint.getCompletedNode());
+        assertEquals("generate", checkpoint.getNextNode());
+        assertEquals("思考结论", checkpoint.getState().get(THINKING));
+        assertNull(checkpoint.getState().get(TOKEN));
+
+        executed.clear();
+        failGeneration.set(false);
+        CancellationToken retryToken = new CancellationToken();
+        TestState retry = new TestState();
+        retry.set(TOKEN, retryToken);
+        TestState result = graph.resume("exec-1", retry).join();
+
+        // 预处理和思考不再执行，思考结果来自检查点，取消令牌来自本次请求
+        assertEquals(List.of("generate", "finish"), executed);
+        assertEquals("基于思考结论的回答", result.get(ANSWER));
+        assertSame(retryToken, result.get(TOKEN));
+        assertNull(checkpointer.load("exec-1"));
+    }
+
+    @Test
+    void checkpointIsDeletedWhenExecutionFinishes() {
+        failGeneration.set(false);
+        CompiledGraph<TestState> graph = workflow();
+
+        graph.invoke(initialState(), "exec-2").join();
+
+        assertEquals(List.of("preprocess", "thinking", "generate", "finish"), executed);
+        assertNull(checkpointer.load("exec-2"));
+        assertEquals(0, checkpointer.size());
+    }
+
+    @Test
+    void resumeWithoutCheckpointStartsFromEntryPoint() {
+        failGeneration.set(false);
+        CompiledGraph<TestState> graph = workflow();
+
+        TestState result = graph.resume("unknown", initialState()).join();
+
+        assertEquals(List.of("preprocess", "thinking", "generate", "finish"), executed);
+        assertEquals("基于思考结论的回答", result.get(ANSWER));
+    }
+
+    /**
+     * preprocess -> thinking -> generate -> finish，generate按开关失败
+     */
+    private CompiledGraph<TestState> workflow() {
+        StateGraph<TestState> graph = new StateGraph<>(Runnable::run);
+        graph.setCancellationKey(TOKEN)
+             .setCheckpointer(checkpointer)
+             .addNode("preprocess", record("preprocess", state -> state))
+             .addNode("thinking", record("thinking", state -> {
+                 state.set(THINKING, "思考结论");
+                 return state;
+             }))
+             .addNode("generate", record("generate", state -> {
+                 if (failGeneration.get()) {
+                     throw new IllegalStateException("上游连接中断");
+                 }
+                 state.set(ANSWER, "基于" + state.get(THINKING) + "的回答");
+                 return state;
+             }))
+             .addNode("finish", record("finish", state -> state))
+             .addEdge("preprocess", "thinking")
+             .addEdge("thinking", "generate")
+             .addEdge("generate", "finish")
+             .setEntryPoint("preprocess")
+             .setFinishPoint("finish");
+        return graph.compile();
+    }
+
+    private StateFunction<TestState> record(String nodeId, StateFunction<TestState> function) {
+        return state -> {
+            executed.add(nodeId);
+            return function.apply(state);
+        };
+    }
+
+    private static TestState initialState() {
+        TestState state = new TestState();
+        state.set(TOKEN, new CancellationToken());
+        return state;
+    }
+
+    static class TestState extends GraphState {
+        @Override
+        public GraphState copy() {
+            TestState copy = new TestState();
+            copyInto(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.can.happydog.graph;
+
+import com.can.happydog.exception.NodeTimeoutException;
+import com.can.happydog.service.CancellationToken;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NodePolicyTest {
+
+    private static final StateKey<CancellationToken> TOKEN = StateKey.ephemeral("policyTestToken", CancellationToken.class);
+    private static final StateKey<String> RESULT = StateKey.of("policyTestResult", String.class);
+
+    @Test
+    void timeoutCancelsAttemptAndRoutesToFallbackNode() {
+        List<String> visited = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<Throwable> fallbackCause = new AtomicReference<>();
+        CountDownLatch attemptCancelled = new CountDownLatch(1);
+
+        StateGraph<TestState> graph = new StateGraph<>(Runnable::run);
+        graph.setCancellationKey(TOKEN)
+             .addNode("slow", state -> {
+                 visited.add("slow");
+                 // 模拟卡住的上游调用：只有令牌被取消才返回
+                 CancellationToken token = state.get(TOKEN);
+                 CountDownLatch latch = new CountDownLatch(1);
+                 token.onCancel(latch::countDown);
+                 if (latch.await(5, TimeUnit.SECONDS)) {
+                     attemptCancelled.countDown();
+                 }
+                 token.throwIfCancelled();
+                 return state;
+             }, NodePolicy.<TestState>create()
+                 .timeout(100)
+                 .fallbackTo("rescue")
+                 .fallback((state, failure) -> {
+                     fallbackCause.set(failure);
+                     return state;
+                 }))
+             .addNode("normal", state -> {
+                 visited.add("normal");
+                 return state;
+             })
+             .addNode("rescue", state -> {
+                 visited.add("rescue");
+                 state.set(RESULT, "降级");
+                 return state;
+             })
+             .addEdge("slow", "normal")
+             .addEdge("normal", "rescue")
+             .setEntryPoint("slow")
+             .setFinishPoint("rescue");
+
+        CancellationToken requestToken = new CancellationToken();
+        long start = System.nanoTime();
+        TestState result = graph.compile().invoke(initialState(requestToken)).join();
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 3000, "超时应中止卡住的节点");
+        assertEquals(List.of("slow", "rescue"), visited);
+        assertEquals(0, attemptCancelled.getCount());
+        assertInstanceOf(NodeTimeoutException.class, fallbackCause.get());
+        assertEquals("降级", result.get(RESULT));
+        // 超时只取消该次尝试的子令牌，请求令牌不受影响并已换回状态中
+        assertFalse(requestToken.isCancelled());
+        assertEquals(requestToken, result.get(TOKEN));
+    }
+
+    @Test
+    void retriesStopAfterConfiguredCount() {
+        AtomicInteger attempts = new AtomicInteger();
+        StateGraph<TestState> graph = new StateGraph<>(Runnable::run);
+        graph.setCancellationKey(TOKEN)
+             .addNode("flaky", state -> {
+                 attempts.incrementAndGet();
+                 throw new IllegalStateException("上游503");
+             }, NodePolicy.<TestState>create().retry(2, 10))
+             .setEntryPoint("flaky")
+             .setFinishPoint("flaky");
+
+        CompletionException e = assertThrows(CompletionException.class,
+            () -> graph.compile().invoke(initialState(new CancellationToken())).join());
+
+        // 首次执行 + 2次重试
+        assertEquals(3, attempts.get());
+        assertEquals("节点执行失败: flaky", e.getCause().getMessage());
+    }
+
+    @Test
+    void retrySucceedsBeforeLimitAndContinuesAlongEdges() {
+        AtomicInteger attempts = new AtomicInteger();
+        StateGraph<TestState> graph = new StateGraph<>(Runnable::run);
+        graph.setCancellationKey(TOKEN)
+             .addNode("flaky", state -> {
+                 if (attempts.incrementAndGet() < 2) {
+                     throw new IllegalStateException("连接被重置");
+                 }
+                 return state;
+             }, NodePolicy.<TestState>create().retry(3, 10).fallbackTo("rescue"))
+             .addNode("next", state -> {
+                 state.set(RESULT, "正常");
+                 return state;
+             })
+             .addNode("rescue", state -> state)
+             .addEdge("flaky", "next")
+             .setEntryPoint("flaky")
+             .setFinishPoint("next");
+
+        TestState result = graph.compile().invoke(initialState(new CancellationToken())).join();
+
+        assertEquals(2, attempts.get());
+        assertEquals("正常", result.get(RESULT));
+    }
+
+    @Test
+    void cancelledRequestIsNotRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+        CancellationToken requestToken = new CancellationToken();
+        StateGraph<TestState> graph = new StateGraph<>(Runnable::run);
+        graph.setCancellationKey(TOKEN)
+             .addNode("node", state -> {
+                 attempts.incrementAndGet();
+                 requestToken.cancel("客户端断开连接");
+                 throw new IllegalStateException("请求已取消");
+             }, NodePolicy.<TestState>create().retry(3, 10).fallback((state, failure) -> state))
+             .setEntryPoint("node")
+             .setFinishPoint("node");
+
+        assertThrows(CompletionException.class, () -> graph.compile().invoke(initialState(requestToken)).join());
+        assertEquals(1, attempts.get());
+    }
+
+    private static TestState initialState(CancellationToken token) {
+        TestState state = new TestState();
+        state.set(TOKEN, token);
+        return state;
+    }
+
+    static class TestState extends GraphState {
+        @Override
+        public GraphState copy() {
+            TestState copy = new TestState();
+            copyInto(copy);
+            return copy;
+        }
+    }
+}
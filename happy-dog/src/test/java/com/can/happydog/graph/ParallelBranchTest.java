@@ -0,0 +1,167 @@
+package com.can.happydog.graph;
+
+import com.can.happydog.service.CancellationToken;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelBranchTest {
+
+    private static final StateKey<CancellationToken> TOKEN = StateKey.ephemeral("parallelTestToken", CancellationToken.class);
+    private static final StateKey<String> LEFT = StateKey.of("parallelTestLeft", String.class);
+    private static final StateKey<String> RIGHT = StateKey.of("parallelTestRight", String.class);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void firstBranchRunsOnCallingThreadAndResultsAreMerged() {
+        AtomicReference<Thread> leftThread = new AtomicReference<>();
+        AtomicReference<Thread> rightThread = new AtomicReference<>();
+        CompiledGraph<TestState> graph = forkJoin(state -> {
+            leftThread.set(Thread.currentThread());
+            state.set(LEFT, "左");
+            return state;
+        }, state -> {
+            rightThread.set(Thread.currentThread());
+            state.set(RIGHT, "右");
+            return state;
+        });
+
+        TestState result = graph.invoke(initialState()).join();
+
+        assertEquals("左", result.get(LEFT));
+        assertEquals("右", result.get(RIGHT));
+        assertSame(Thread.currentThread(), leftThread.get());
+        assertTrue(rightThread.get() != Thread.currentThread());
+    }
+
+    @Test
+    void asyncBranchFailureCancelsInlineSibling() {
+        CountDownLatch inlineCancelled = new CountDownLatch(1);
+        // 第一个分支在调用线程上一直等到自己被取消
+        CompiledGraph<TestState> graph = forkJoin(state -> {
+            awaitCancellation(state, inlineCancelled);
+            return state;
+        }, state -> {
+            throw new IllegalStateException("右侧分支失败");
+        });
+
+        long start = System.nanoTime();
+        CompletionException e = assertThrows(CompletionException.class, () -> graph.invoke(initialState()).join());
+
+        assertEquals("节点执行失败: right", e.getCause().getMessage());
+        assertEquals(0, inlineCancelled.getCount());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 3000, "失败后应立即取消兄弟分支");
+    }
+
+    @Test
+    void inlineBranchFailureCancelsAsyncSiblingWithoutWaitingForIt() throws Exception {
+        CountDownLatch asyncCancelled = new CountDownLatch(1);
+        CountDownLatch asyncStarted = new CountDownLatch(1);
+        CompiledGraph<TestState> graph = forkJoin(state -> {
+            assertTrue(asyncStarted.await(5, TimeUnit.SECONDS));
+            throw new IllegalStateException("左侧分支失败");
+        }, state -> {
+            asyncStarted.countDown();
+            awaitCancellation(state, asyncCancelled);
+            return state;
+        });
+
+        CompletionException e = assertThrows(CompletionException.class, () -> graph.invoke(initialState()).join());
+
+        assertEquals("节点执行失败: left", e.getCause().getMessage());
+        assertTrue(asyncCancelled.await(1, TimeUnit.SECONDS), "失败的分支应取消仍在执行的兄弟分支");
+    }
+
+    @Test
+    void timedOutInlineBranchIsDroppedAndOthersAreMerged() {
+        CountDownLatch inlineCancelled = new CountDownLatch(1);
+        CompiledGraph<TestState> graph = forkJoin(state -> {
+            awaitCancellation(state, inlineCancelled);
+            state.set(LEFT, "超时后不应保留");
+            return state;
+        }, state -> {
+            state.set(RIGHT, "右");
+            return state;
+        }, 200);
+
+        TestState result = graph.invoke(initialState()).join();
+
+        assertEquals(0, inlineCancelled.getCount());
+        assertEquals("右", result.get(RIGHT));
+        assertNull(result.get(LEFT));
+    }
+
+    private CompiledGraph<TestState> forkJoin(StateFunction<TestState> left, StateFunction<TestState> right) {
+        return forkJoin(left, right, -1);
+    }
+
+    /**
+     * fork并行分叉到left和right，两者在join汇合；branchTimeoutMs小于0表示分支不限时
+     */
+    private CompiledGraph<TestState> forkJoin(StateFunction<TestState> left, StateFunction<TestState> right,
+                                              long branchTimeoutMs) {
+        StateGraph<TestState> graph = new StateGraph<>(executor);
+        if (branchTimeoutMs >= 0) {
+            graph.addParallelNode("fork", state -> state, branchTimeoutMs);
+        } else {
+            graph.addParallelNode("fork", state -> state);
+        }
+        graph.setCancellationKey(TOKEN)
+             .addNode("left", left)
+             .addNode("right", right)
+             .addMergeNode("join", state -> state)
+             .addEdge("fork", "left")
+             .addEdge("fork", "right")
+             .addEdge("left", "join")
+             .addEdge("right", "join")
+             .setEntryPoint("fork")
+             .setFinishPoint("join");
+        return graph.compile();
+    }
+
+    private static TestState initialState() {
+        TestState state = new TestState();
+        state.set(TOKEN, new CancellationToken());
+        return state;
+    }
+
+    /**
+     * 等待分支令牌被取消，最多5秒，取消后按节点的惯例抛出取消异常
+     */
+    private static void awaitCancellation(TestState state, CountDownLatch cancelled) throws InterruptedException {
+        CancellationToken token = state.get(TOKEN);
+        CountDownLatch latch = new CountDownLatch(1);
+        token.onCancel(latch::countDown);
+        if (latch.await(5, TimeUnit.SECONDS)) {
+            cancelled.countDown();
+        }
+        token.throwIfCancelled();
+    }
+
+    static class TestState extends GraphState {
+        @Override
+        public GraphState copy() {
+            TestState copy = new TestState();
+            copyInto(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.can.happydog.service;
+
+import com.can.happydog.exception.RequestCancelledException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CancellationTokenTest {
+
+    @Test
+    void cancelRunsRegisteredListenersOnce() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger runs = new AtomicInteger();
+        token.onCancel(runs::incrementAndGet);
+        token.onCancel(runs::incrementAndGet);
+
+        assertTrue(token.cancel("客户端断开连接"));
+        assertFalse(token.cancel("再次取消"));
+
+        assertEquals(2, runs.get());
+        assertEquals("客户端断开连接", token.getReason());
+    }
+
+    @Test
+    void listenerRegisteredAfterCancelRunsImmediately() {
+        CancellationToken token = new CancellationToken();
+        token.cancel("请求超时");
+
+        AtomicInteger runs = new AtomicInteger();
+        token.onCancel(runs::incrementAndGet);
+
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void closedRegistrationDoesNotRun() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger runs = new AtomicInteger();
+        token.onCancel(runs::incrementAndGet).close();
+
+        token.cancel("请求超时");
+
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void throwIfCancelledAlwaysCarriesReason() {
+        CancellationToken token = new CancellationToken();
+        token.cancel(null);
+
+        RequestCancelledException e = assertThrows(RequestCancelledException.class, token::throwIfCancelled);
+        assertTrue(e.getMessage().contains(token.getReason()));
+    }
+
+    @Test
+    void childIsCancelledWithParentReason() {
+        CancellationToken parent = new CancellationToken();
+        CancellationToken child = parent.child();
+
+        parent.cancel("客户端断开连接");
+
+        assertTrue(child.isCancelled());
+        assertEquals("客户端断开连接", child.getReason());
+    }
+
+    @Test
+    void listenersRegisteredConcurrentlyWithCancelRunExactlyOnce() throws Exception {
+        int registrarCount = 4;
+        for (int round = 0; round < 500; round++) {
+            CancellationToken token = new CancellationToken();
+            AtomicInteger registrations = new AtomicInteger();
+            AtomicInteger runs = new AtomicInteger();
+            CyclicBarrier start = new CyclicBarrier(registrarCount + 1);
+            CountDownLatch done = new CountDownLatch(registrarCount);
+
+            for (int i = 0; i < registrarCount; i++) {
+                Thread registrar = new Thread(() -> {
+                    await(start);
+                    // 持续注册直到观察到取消，再多注册几个，覆盖取消前、取消中和取消后三种时机
+                    int extra = 0;
+                    while (extra < 8) {
+                        registrations.incrementAndGet();
+                        token.onCancel(runs::incrementAndGet);
+                        if (token.isCancelled()) {
+                            extra++;
+                        }
+                    }
+                    done.countDown();
+                });
+                registrar.start();
+            }
+
+            await(start);
+            token.cancel("客户端断开连接");
+            done.await();
+
+            assertEquals(registrations.get(), runs.get(), "第" + round + "轮监听者执行次数");
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
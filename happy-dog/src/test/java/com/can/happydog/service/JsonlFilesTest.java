@@ -0,0 +1,132 @@
+package com.can.happydog.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonlFilesTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void tailReturnsLastLinesAcrossWindowBoundaries() throws Exception {
+        Path file = directory.resolve("s1.jsonl");
+        // 总大小远超64KB的初始窗口，读取较多行时需要多次扩大窗口
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            lines.add("{\"content\":\"第" + i + "条消息，包含一些中文内容用于跨越窗口边界\"}");
+        }
+        append(file, lines, null);
+
+        assertEquals(lines.subList(2990, 3000), JsonlFiles.tail(file, 10));
+        assertEquals(lines.subList(500, 3000), JsonlFiles.tail(file, 2500));
+        assertEquals(lines, JsonlFiles.tail(file, 5000));
+        assertEquals(0, JsonlFiles.tail(file, 0).size());
+    }
+
+    @Test
+    void tailSkipsBlankLinesAndCarriageReturns() throws Exception {
+        Path file = directory.resolve("s1.jsonl");
+        Files.write(file, "{\"a\":1}\r\n\n{\"a\":2}\r\n   \n{\"a\":3}".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(List.of("{\"a\":2}", "{\"a\":3}"), JsonlFiles.tail(file, 2));
+        assertEquals(List.of("{\"a\":1}", "{\"a\":2}", "{\"a\":3}"), JsonlFiles.tail(file, 10));
+    }
+
+    @Test
+    void appendedIndexPagesLinesAndMatchesRebuild() throws Exception {
+        Path file = directory.resolve("s1.jsonl");
+        Path index = directory.resolve("s1.idx");
+        List<String> lines = new ArrayList<>();
+        for (int batch = 0; batch < 5; batch++) {
+            List<String> batchLines = new ArrayList<>();
+            for (int i = 0; i < 7; i++) {
+                batchLines.add("{\"batch\":" + batch + ",\"content\":\"消息" + i + "\"}");
+            }
+            append(file, batchLines, index);
+            lines.addAll(batchLines);
+        }
+
+        assertTrue(JsonlFiles.isIndexValid(file, index));
+        assertEquals(lines.size(), JsonlFiles.lineCount(index));
+        assertEquals(lines.subList(0, 5), JsonlFiles.readLines(file, index, 0, 5));
+        assertEquals(lines.subList(12, 20), JsonlFiles.readLines(file, index, 12, 8));
+        assertEquals(lines.subList(30, 35), JsonlFiles.readLines(file, index, 30, 100));
+        assertEquals(0, JsonlFiles.readLines(file, index, 35, 5).size());
+
+        // 扫描重建的索引与追加得到的索引逐字节一致
+        byte[] appended = Files.readAllBytes(index);
+        assertEquals(lines.size(), JsonlFiles.rebuildIndex(file, index));
+        assertTrue(Arrays.equals(appended, Files.readAllBytes(index)));
+    }
+
+    @Test
+    void detectsStaleIndexAndRebuildsIt() throws Exception {
+        Path file = directory.resolve("s1.jsonl");
+        Path index = directory.resolve("s1.idx");
+        append(file, List.of("{\"n\":1}", "{\"n\":2}"), index);
+        assertTrue(JsonlFiles.isIndexValid(file, index));
+
+        // 文件追加了行但索引没有跟上
+        append(file, List.of("{\"n\":3}", "{\"n\":4}"), null);
+        assertFalse(JsonlFiles.isIndexValid(file, index));
+        assertEquals(4, JsonlFiles.rebuildIndex(file, index));
+        assertTrue(JsonlFiles.isIndexValid(file, index));
+        assertEquals(List.of("{\"n\":3}", "{\"n\":4}"), JsonlFiles.readLines(file, index, 2, 2));
+
+        // 索引只写了半个条目
+        Files.write(index, new byte[]{0, 0, 0}, StandardOpenOption.APPEND);
+        assertFalse(JsonlFiles.isIndexValid(file, index));
+
+        // 文件被重新创建得更短，旧索引指向文件末尾之外
+        JsonlFiles.rebuildIndex(file, index);
+        Files.write(file, "{\"n\":1}\n".getBytes(StandardCharsets.UTF_8));
+        assertFalse(JsonlFiles.isIndexValid(file, index));
+
+        // 索引缺失
+        Files.delete(index);
+        assertFalse(JsonlFiles.isIndexValid(file, index));
+    }
+
+    @Test
+    void indexNotPointingAtLineStartIsStale() throws Exception {
+        Path file = directory.resolve("s1.jsonl");
+        Path index = directory.resolve("s1.idx");
+        append(file, List.of("{\"n\":1}", "{\"n\":2}"), null);
+        // 最后一个条目落在一行中间
+        JsonlFiles.appendIndex(index, 0, new int[]{3});
+
+        assertFalse(JsonlFiles.isIndexValid(file, index));
+    }
+
+    /**
+     * 按ConversationStore的方式追加一批行，index不为null时同时追加偏移索引
+     */
+    private static void append(Path file, List<String> lines, Path index) throws Exception {
+        long start = Files.exists(file) ? Files.size(file) : 0;
+        StringBuilder content = new StringBuilder();
+        int[] lineLengths = new int[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i) + "\n";
+            lineLengths[i] = line.getBytes(StandardCharsets.UTF_8).length;
+            content.append(line);
+        }
+        Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (index != null) {
+            JsonlFiles.appendIndex(index, start, lineLengths);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.ResponseCacheProperties;
+import com.can.happydog.config.SemanticCacheProperties;
+import com.can.happydog.service.RequestPreprocessor.ProcessingRoute;
+import com.can.happydog.service.ResponseCache.CacheKey;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ResponseCacheTest {
+
+    @Test
+    void secondHitPromotesFromProbationToProtected() {
+        ResponseCache cache = cache(4, 0.5);
+        cache.put(key("a"), "答案A");
+        assertEquals(0L, cache.getStats().get("protectedEntries"));
+
+        assertEquals("答案A", cache.get(key("a")));
+
+        assertEquals(1L, cache.getStats().get("protectedEntries"));
+        assertEquals(1L, cache.getStats().get("entries"));
+    }
+
+    @Test
+    void protectedOverflowDemotesLeastRecentlyUsedToProbation() {
+        // 受保护区最多2条
+        ResponseCache cache = cache(4, 0.5);
+        cache.put(key("a"), "A");
+        cache.put(key("b"), "B");
+        cache.put(key("c"), "C");
+        cache.get(key("a"));
+        cache.get(key("b"));
+        cache.get(key("c"));
+
+        // a是受保护区中最久未访问的，被降级回试用区，没有被淘汰
+        assertEquals(2L, cache.getStats().get("protectedEntries"));
+        assertEquals(3L, cache.getStats().get("entries"));
+        assertEquals(0L, cache.getStats().get("evictions"));
+
+        // 试用区先满：降级的a在试用区最旧，最先被淘汰
+        cache.put(key("d"), "D");
+        cache.put(key("e"), "E");
+        assertEquals(1L, cache.getStats().get("evictions"));
+        assertNull(cache.get(key("a")));
+        assertEquals("B", cache.get(key("b")));
+        assertEquals("C", cache.get(key("c")));
+    }
+
+    @Test
+    void oneShotEntriesEvictEachOtherBeforeHotEntries() {
+        ResponseCache cache = cache(4, 0.5);
+        cache.put(key("hot"), "热点回答");
+        cache.get(key("hot"));
+
+        for (int i = 0; i < 10; i++) {
+            cache.put(key("once" + i), "一次性回答" + i);
+        }
+
+        // 试用区按插入顺序淘汰，只剩最近的3条
+        assertEquals("热点回答", cache.get(key("hot")));
+        assertEquals(4L, cache.getStats().get("entries"));
+        assertEquals(7L, cache.getStats().get("evictions"));
+        assertNull(cache.get(key("once6")));
+        assertEquals("一次性回答7", cache.get(key("once7")));
+    }
+
+    @Test
+    void probationEvictsLeastRecentlyInsertedFirst() {
+        ResponseCache cache = cache(3, 0.5);
+        cache.put(key("p1"), "1");
+        cache.put(key("p2"), "2");
+        cache.put(key("p3"), "3");
+        cache.put(key("p4"), "4");
+
+        assertNull(cache.get(key("p1")));
+        assertEquals("2", cache.get(key("p2")));
+        assertEquals(1L, cache.getStats().get("evictions"));
+    }
+
+    @Test
+    void probationEntryEvictedBeforeProtectedEntries() {
+        // 受保护区可占满整个分片
+        ResponseCache cache = cache(2, 1.0);
+        cache.put(key("a"), "A");
+        cache.get(key("a"));
+        cache.put(key("b"), "B");
+        cache.get(key("b"));
+
+        cache.put(key("c"), "C");
+
+        // 试用区里只有新写入的c，淘汰它之后总数已在上限内，受保护区不受影响
+        assertEquals(2L, cache.getStats().get("protectedEntries"));
+        assertEquals("A", cache.get(key("a")));
+        assertEquals("B", cache.get(key("b")));
+        assertNull(cache.get(key("c")));
+    }
+
+    @Test
+    void byteLimitEvictsAndRejectsOversizedEntries() {
+        ResponseCacheProperties properties = properties(100, 0.5);
+        properties.setMaxBytes(1000);
+        ResponseCache cache = new ResponseCache(properties, semanticDisabled());
+
+        // 单条超过分片字节上限时不缓存
+        cache.put(key("big"), "x".repeat(1000));
+        assertNull(cache.get(key("big")));
+        assertEquals(0L, cache.getStats().get("puts"));
+
+        // 每条约 96 + 2 * (200 + 2) = 500 字节，第三条写入时淘汰最旧的一条
+        cache.put(key("k1"), "1".repeat(200));
+        cache.put(key("k2"), "2".repeat(200));
+        cache.put(key("k3"), "3".repeat(200));
+        assertNull(cache.get(key("k1")));
+        assertEquals(2L, cache.getStats().get("entries"));
+    }
+
+    @Test
+    void expiredEntriesAreDroppedOnRead() {
+        ResponseCacheProperties properties = properties(4, 0.5);
+        properties.setTtl(0);
+        ResponseCache cache = new ResponseCache(properties, semanticDisabled());
+        cache.put(key("a"), "A");
+
+        assertNull(cache.get(key("a")));
+        assertEquals(1L, cache.getStats().get("expirations"));
+        assertEquals(0L, cache.getStats().get("entries"));
+    }
+
+    private static ResponseCache cache(int maxEntries, double protectedRatio) {
+        return new ResponseCache(properties(maxEntries, protectedRatio), semanticDisabled());
+    }
+
+    private static ResponseCacheProperties properties(int maxEntries, double protectedRatio) {
+        ResponseCacheProperties properties = new ResponseCacheProperties();
+        // 单分片，便于观察淘汰顺序
+        properties.setShards(1);
+        properties.setMaxEntries(maxEntries);
+        properties.setProtectedRatio(protectedRatio);
+        return properties;
+    }
+
+    private static SemanticCacheProperties semanticDisabled() {
+        SemanticCacheProperties properties = new SemanticCacheProperties();
+        properties.setEnabled(false);
+        return properties;
+    }
+
+    private static CacheKey key(String prompt) {
+        return new CacheKey("qwen-turbo", ProcessingRoute.SIMPLE_CHAT, prompt);
+    }
+}
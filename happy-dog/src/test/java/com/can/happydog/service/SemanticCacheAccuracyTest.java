@@ -0,0 +1,135 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.SemanticCacheProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 近似命中的准确率与召回率
+ * 每组样本是一个已缓存的问题和一个新问题，标注新问题是否应当复用缓存的回答。
+ * 应命中：只差标点、空白、全半角、大小写或少量语气词的同义问法；
+ * 不应命中：不同话题、只差数字或否定词的问题。
+ */
+class SemanticCacheAccuracyTest {
+
+    private static final String PARTITION = "qwen-turbo/SIMPLE_CHAT";
+
+    private static final List<Sample> SAMPLES = List.of(
+        // 应命中
+        hit("请解释一下量子计算的基本原理", "请解释一下量子计算的基本原理？"),
+        hit("请解释一下量子计算的基本原理", "请 解释一下 量子计算的 基本原理!!"),
+        hit("Java中HashMap的扩容机制是什么", "java中hashmap的扩容机制是什么？"),
+        hit("Java中HashMap的扩容机制是什么", "Ｊａｖａ中ＨａｓｈＭａｐ的扩容机制是什么"),
+        hit("如何在Spring Boot中配置多数据源", "如何在Spring Boot中配置多数据源呢"),
+        hit("如何在Spring Boot中配置多数据源", "请问如何在Spring Boot中配置多数据源"),
+        hit("Redis缓存穿透和缓存击穿有什么区别", "Redis缓存穿透和缓存击穿有什么区别啊"),
+        hit("Redis缓存穿透和缓存击穿有什么区别", "redis 缓存穿透 和 缓存击穿 有什么区别？"),
+        hit("写一个快速排序的Python实现", "写一个快速排序的Python实现吧"),
+        hit("TCP三次握手的过程是怎样的", "TCP三次握手的过程是怎样的呀？"),
+        hit("TCP三次握手的过程是怎样的", "tcp 三次握手的过程，是怎样的"),
+        hit("MySQL索引为什么使用B+树", "MySQL索引为什么使用B+树呢？"),
+        hit("MySQL索引为什么使用B+树", "请问MySQL索引为什么使用B+树"),
+        hit("介绍一下Kubernetes中Pod的生命周期", "介绍一下Kubernetes中Pod的生命周期。"),
+        hit("介绍一下Kubernetes中Pod的生命周期", "简单介绍一下Kubernetes中Pod的生命周期"),
+        hit("What is the difference between a process and a thread",
+            "what's the difference between a process and a thread?"),
+        hit("How does garbage collection work in Java", "How does garbage collection work in Java??"),
+        hit("How does garbage collection work in Java", "how does the garbage collection work in java"),
+
+        // 不应命中：不同话题
+        miss("请解释一下量子计算的基本原理", "请解释一下区块链的基本原理"),
+        miss("Java中HashMap的扩容机制是什么", "Java中ArrayList的扩容机制是什么"),
+        miss("如何在Spring Boot中配置多数据源", "如何在Spring Boot中配置定时任务"),
+        miss("Redis缓存穿透和缓存击穿有什么区别", "Redis持久化RDB和AOF有什么区别"),
+        miss("写一个快速排序的Python实现", "写一个归并排序的Go实现"),
+        miss("TCP三次握手的过程是怎样的", "TCP四次挥手的过程是怎样的"),
+        miss("MySQL索引为什么使用B+树", "MongoDB为什么使用B树"),
+        miss("介绍一下Kubernetes中Pod的生命周期", "介绍一下Docker中容器的网络模式"),
+        miss("What is the difference between a process and a thread",
+            "What is the difference between TCP and UDP"),
+        miss("How does garbage collection work in Java", "How does memory allocation work in Go"),
+
+        // 不应命中：只差数字
+        miss("2023年的诺贝尔物理学奖颁给了谁", "2024年的诺贝尔物理学奖颁给了谁"),
+        miss("Java 17有哪些新特性", "Java 21有哪些新特性"),
+        miss("把100美元换算成人民币是多少", "把200美元换算成人民币是多少"),
+        miss("Python 3.11相比3.10快了多少", "Python 3.12相比3.10快了多少"),
+
+        // 不应命中：只差否定词
+        miss("孕妇能吃螃蟹吗", "孕妇不能吃螃蟹吗"),
+        miss("为什么这段代码会报错", "为什么这段代码没报错"),
+        miss("Should I use synchronized here", "Should I not use synchronized here"),
+        miss("Why does this query use the index", "Why doesn't this query use the index")
+    );
+
+    @Test
+    void approximateMatchingMeetsPrecisionAndRecallFloors() {
+        int truePositives = 0;
+        int falsePositives = 0;
+        int falseNegatives = 0;
+        StringBuilder mistakes = new StringBuilder();
+
+        for (Sample sample : SAMPLES) {
+            // 每组样本单独一个缓存，避免其他样本的条目被当作候选
+            SemanticCache<String> cache = new SemanticCache<>(new SemanticCacheProperties(), 100);
+            cache.put(PARTITION, sample.cached, sample.cached, Long.MAX_VALUE);
+            boolean matched = cache.lookup(PARTITION, sample.query) != null;
+            if (matched && sample.shouldHit) {
+                truePositives++;
+            } else if (matched) {
+                falsePositives++;
+                mistakes.append("\n误命中: ").append(sample.cached).append(" <- ").append(sample.query);
+            } else if (sample.shouldHit) {
+                falseNegatives++;
+                mistakes.append("\n漏命中: ").append(sample.cached).append(" <- ").append(sample.query);
+            }
+        }
+
+        double precision = truePositives + falsePositives == 0 ? 1.0
+            : (double) truePositives / (truePositives + falsePositives);
+        double recall = (double) truePositives / (truePositives + falseNegatives);
+
+        // 误命中会把别的问题的回答返回给用户，准确率必须为1
+        assertEquals(1.0, precision, "出现误命中:" + mistakes);
+        // 当前样本集全部召回，留一点余量给阈值和分词的调整
+        assertTrue(recall >= 0.9, "召回率 " + recall + " 低于0.9:" + mistakes);
+    }
+
+    @Test
+    void partitionsDoNotMatchEachOther() {
+        SemanticCache<String> cache = new SemanticCache<>(new SemanticCacheProperties(), 100);
+        cache.put("qwen-turbo/SIMPLE_CHAT", "请解释一下量子计算的基本原理", "turbo", Long.MAX_VALUE);
+
+        assertNull(cache.lookup("qwen-max/SIMPLE_CHAT", "请解释一下量子计算的基本原理"));
+        SemanticCache.Match<String> match = cache.lookup("qwen-turbo/SIMPLE_CHAT", "请解释一下量子计算的基本原理？");
+        assertNotNull(match);
+        assertEquals("turbo", match.getValue());
+        assertEquals(1.0, match.getSimilarity());
+    }
+
+    @Test
+    void expiredEntriesAreNotReturned() {
+        SemanticCache<String> cache = new SemanticCache<>(new SemanticCacheProperties(), 100);
+        cache.put(PARTITION, "请解释一下量子计算的基本原理", "旧回答", System.currentTimeMillis() - 1);
+
+        assertNull(cache.lookup(PARTITION, "请解释一下量子计算的基本原理"));
+        assertEquals(0, cache.size());
+    }
+
+    private static Sample hit(String cached, String query) {
+        return new Sample(cached, query, true);
+    }
+
+    private static Sample miss(String cached, String query) {
+        return new Sample(cached, query, false);
+    }
+
+    private record Sample(String cached, String query, boolean shouldHit) {
+    }
+}
@@ -0,0 +1,133 @@
+package com.can.happydog.service;
+
+import com.can.happydog.config.SessionHistoryProperties;
+import com.can.happydog.dto.ChatMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionHistoryStoreTest {
+
+    @Test
+    void ringBufferKeepsLatestMessagesInOrderAfterWraparound() {
+        SessionHistoryStore store = new SessionHistoryStore("test", 3, new SessionHistoryProperties());
+        List<ChatMessage> appended = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            ChatMessage message = message("消息" + i);
+            appended.add(message);
+            store.append("s1", message);
+        }
+
+        List<ChatMessage> history = store.get("s1");
+        assertEquals(3, history.size());
+        // 写满后覆盖最旧的消息，快照仍按时间顺序返回
+        for (int i = 0; i < 3; i++) {
+            assertSame(appended.get(5 + i), history.get(i));
+        }
+        assertEquals(3, store.size("s1"));
+        assertEquals(5L, store.getStats().get("overwrittenMessages"));
+    }
+
+    @Test
+    void byteAccountingTracksOverwriteAndRemoval() {
+        SessionHistoryStore store = new SessionHistoryStore("test", 2, new SessionHistoryProperties());
+        ChatMessage first = message("a");
+        ChatMessage second = message("bbbb");
+        ChatMessage third = message("cccccccc");
+
+        store.append("s1", first);
+        store.append("s1", second);
+        assertEquals(estimate(first) + estimate(second), approxBytes(store));
+
+        // 覆盖最旧的消息时扣除它的字节数
+        store.append("s1", third);
+        assertEquals(estimate(second) + estimate(third), approxBytes(store));
+        assertEquals(2L, store.getStats().get("messages"));
+
+        store.append("s2", first);
+        assertEquals(estimate(second) + estimate(third) + estimate(first), approxBytes(store));
+
+        store.remove("s1");
+        assertNull(store.get("s1"));
+        assertEquals(estimate(first), approxBytes(store));
+        assertEquals(1L, store.getStats().get("messages"));
+
+        store.remove("s2");
+        assertEquals(0L, approxBytes(store));
+        assertEquals(0L, store.getStats().get("messages"));
+    }
+
+    @Test
+    void loadIfAbsentDoesNotCountDiscardedCopy() {
+        SessionHistoryStore store = new SessionHistoryStore("test", 4, new SessionHistoryProperties());
+        ChatMessage existing = message("已有消息");
+        store.append("s1", existing);
+
+        store.loadIfAbsent("s1", List.of(message("文件中的消息一"), message("文件中的消息二")));
+
+        assertEquals(1, store.size("s1"));
+        assertSame(existing, store.get("s1").get(0));
+        assertEquals(estimate(existing), approxBytes(store));
+        assertEquals(1L, store.getStats().get("messages"));
+    }
+
+    @Test
+    void overflowEvictionReleasesBytesAndNotifiesListeners() {
+        SessionHistoryProperties properties = new SessionHistoryProperties();
+        properties.setMaxSessions(10);
+        SessionHistoryStore store = new SessionHistoryStore("test", 2, properties);
+        List<String> evicted = new ArrayList<>();
+        store.addEvictionListener(evicted::add);
+
+        ChatMessage message = message("hello");
+        for (int i = 0; i <= 10; i++) {
+            store.append("s" + i, message);
+        }
+
+        // 超出上限后一次淘汰到上限的90%
+        Map<String, Object> stats = store.getStats();
+        assertEquals(9, stats.get("sessions"));
+        assertEquals(2, evicted.size());
+        for (String sessionId : evicted) {
+            assertFalse(store.contains(sessionId));
+        }
+        assertEquals(9L, stats.get("messages"));
+        assertEquals(9 * estimate(message), approxBytes(store));
+    }
+
+    @Test
+    void appendAfterRemoveStartsFreshSession() {
+        SessionHistoryStore store = new SessionHistoryStore("test", 3, new SessionHistoryProperties());
+        store.append("s1", message("旧消息"));
+        store.remove("s1");
+
+        ChatMessage fresh = message("新消息");
+        store.append("s1", fresh);
+
+        assertTrue(store.contains("s1"));
+        assertEquals(1, store.size("s1"));
+        assertSame(fresh, store.get("s1").get(0));
+        assertEquals(estimate(fresh), approxBytes(store));
+    }
+
+    private static ChatMessage message(String content) {
+        return ChatMessage.userMessage(content, "session", "user");
+    }
+
+    // 与SessionHistoryStore的估算方式一致：固定开销 + 文本按UTF-16计
+    private static long estimate(ChatMessage message) {
+        return 200 + (message.getContent().length() + message.getSender().length()) * 2L;
+    }
+
+    private static long approxBytes(SessionHistoryStore store) {
+        return (Long) store.getStats().get("approxBytes");
+    }
+}
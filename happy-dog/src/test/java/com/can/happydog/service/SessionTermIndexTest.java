@@ -0,0 +1,112 @@
+package com.can.happydog.service;
+
+import com.can.happydog.dto.ChatMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SessionTermIndexTest {
+
+    private static final double EPSILON = 1e-12;
+
+    @Test
+    void scoresMatchBruteForceJaccard() {
+        SessionTermIndex index = new SessionTermIndex(SessionTermIndexTest::terms);
+        List<ChatMessage> history = List.of(
+            message("java stream executor"),
+            message("python asyncio"),
+            message("java executor executor pool"),
+            message(""));
+
+        assertScores(history, "java executor", index.score(history, "java executor"));
+        assertScores(history, "rust", index.score(history, "rust"));
+        assertScores(history, "", index.score(history, ""));
+    }
+
+    @Test
+    void staysAlignedWithRingBufferUnderRandomAppendsAndOverwrites() {
+        Random random = new Random(42);
+        SessionTermIndex index = new SessionTermIndex(SessionTermIndexTest::terms);
+        List<ChatMessage> ring = new ArrayList<>();
+        int capacity = 12;
+
+        for (int round = 0; round < 2000; round++) {
+            int action = random.nextInt(20);
+            if (action == 0) {
+                // 会话被清除后重新开始
+                ring.clear();
+            } else if (action == 1) {
+                // 历史被整体替换（如从文件重新加载），索引无法对齐时需要重建
+                ring = new ArrayList<>();
+                int loaded = random.nextInt(capacity);
+                for (int i = 0; i < loaded; i++) {
+                    ring.add(message(randomText(random)));
+                }
+            } else {
+                int appends = 1 + random.nextInt(4);
+                for (int i = 0; i < appends; i++) {
+                    ring.add(message(randomText(random)));
+                    if (ring.size() > capacity) {
+                        ring.remove(0);
+                    }
+                }
+            }
+
+            List<ChatMessage> snapshot = new ArrayList<>(ring);
+            String query = randomText(random);
+            assertScores(snapshot, query, index.score(snapshot, query));
+            assertEquals(snapshot.size(), index.size());
+        }
+    }
+
+    private static void assertScores(List<ChatMessage> history, String query, double[] actual) {
+        assertEquals(history.size(), actual.length);
+        Set<String> queryTerms = terms(query);
+        for (int i = 0; i < history.size(); i++) {
+            double expected = jaccard(queryTerms, terms(history.get(i).getContent()));
+            assertEquals(expected, actual[i], EPSILON, "第" + i + "条消息的相似度, 查询: " + query);
+        }
+    }
+
+    private static double jaccard(Set<String> a, Set<String> b) {
+        Set<String> intersection = new HashSet<>(a);
+        intersection.retainAll(b);
+        if (intersection.isEmpty()) {
+            return 0.0;
+        }
+        Set<String> union = new HashSet<>(a);
+        union.addAll(b);
+        return (double) intersection.size() / union.size();
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int words = random.nextInt(6);
+        for (int i = 0; i < words; i++) {
+            // 词表较小，保证历史消息之间经常共享词项
+            text.append('w').append(random.nextInt(15)).append(' ');
+        }
+        return text.toString();
+    }
+
+    private static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String term : text.trim().split("\\s+")) {
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    private static ChatMessage message(String content) {
+        return ChatMessage.userMessage(content, "session", "user");
+    }
+}
@@ -0,0 +1,137 @@
+package com.can.happydog.service;
+
+import com.can.happydog.dto.StreamResponse;
+import com.can.happydog.exception.RequestCancelledException;
+import com.can.happydog.service.RequestPreprocessor.ProcessingRoute;
+import com.can.happydog.service.ResponseCache.CacheKey;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightStreamsTest {
+
+    private static final CacheKey KEY = new CacheKey("qwen-turbo", ProcessingRoute.SIMPLE_CHAT, "什么是单飞合并");
+    private static final int FRAMES = 40;
+
+    private SingleFlightStreams streams;
+
+    @BeforeEach
+    void setUp() {
+        streams = new SingleFlightStreams();
+        ReflectionTestUtils.setField(streams, "enabled", true);
+        ReflectionTestUtils.setField(streams, "maxLag", 4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        streams.shutdown();
+    }
+
+    @Test
+    void soloSlowSubscriberIsNotEvicted() {
+        AtomicBoolean upstreamCancelled = new AtomicBoolean();
+        List<String> received = new ArrayList<>();
+
+        // 上游一次性推完全部帧，唯一的订阅者每帧都要等一会儿，落后远超maxLag
+        streams.execute(KEY, response -> {
+            received.add(response.getContent());
+            sleep(2);
+        }, new CancellationToken(), (sink, token) -> {
+            for (int i = 0; i < FRAMES; i++) {
+                sink.onResponse(StreamResponse.chunk("帧" + i));
+            }
+            upstreamCancelled.set(token.isCancelled());
+        });
+
+        assertEquals(FRAMES, received.size());
+        assertEquals("帧0", received.get(0));
+        assertEquals("帧" + (FRAMES - 1), received.get(FRAMES - 1));
+        assertFalse(upstreamCancelled.get());
+        assertEquals(0L, streams.getStats().get("laggingSubscribersDropped"));
+    }
+
+    @Test
+    void slowSubscriberIsEvictedWhileFastOneKeepsUpstream() throws Exception {
+        CountDownLatch followerAttached = new CountDownLatch(1);
+        CountDownLatch releaseLeader = new CountDownLatch(1);
+        AtomicBoolean upstreamCancelled = new AtomicBoolean();
+
+        // 发起者卡在第一帧上，直到跟随者收完全部内容
+        CompletableFuture<Void> leader = CompletableFuture.runAsync(() ->
+            streams.execute(KEY, response -> await(releaseLeader), new CancellationToken(), (sink, token) -> {
+                await(followerAttached);
+                for (int i = 0; i < FRAMES; i++) {
+                    sink.onResponse(StreamResponse.chunk("帧" + i));
+                    // 给跟随者的线程留出读取的时间，让它始终跟得上
+                    sleep(1);
+                }
+                upstreamCancelled.set(token.isCancelled());
+            }));
+
+        waitForInFlight();
+        List<String> received = new ArrayList<>();
+        CompletableFuture<Void> follower = CompletableFuture.runAsync(() ->
+            streams.execute(KEY, response -> received.add(response.getContent()), new CancellationToken(),
+                (sink, token) -> {
+                    throw new AssertionError("跟随者不应发起上游调用");
+                }));
+        waitForFollower();
+        followerAttached.countDown();
+
+        follower.get(5, TimeUnit.SECONDS);
+        releaseLeader.countDown();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+
+        assertInstanceOf(RequestCancelledException.class, e.getCause());
+        assertEquals(FRAMES, received.size());
+        assertFalse(upstreamCancelled.get());
+        assertEquals(1L, streams.getStats().get("laggingSubscribersDropped"));
+    }
+
+    private void waitForInFlight() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((Integer) streams.getStats().get("inFlight") == 0) {
+            assertTrue(System.nanoTime() < deadline, "上游调用未开始");
+            Thread.sleep(1);
+        }
+    }
+
+    private void waitForFollower() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((Long) streams.getStats().get("coalescedRequests") == 0) {
+            assertTrue(System.nanoTime() < deadline, "跟随者未合并到进行中的调用");
+            Thread.sleep(1);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
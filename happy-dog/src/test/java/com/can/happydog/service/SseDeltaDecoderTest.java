@@ -0,0 +1,174 @@
+package com.can.happydog.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SseDeltaDecoderTest {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    @Test
+    void decodesDeltasSplitAcrossReads() throws Exception {
+        String stream = chunk("你好") + chunk("，世界") + finish("stop") + "data: [DONE]\n\n";
+        // 每次只返回3个字节，事件和JSON都被切成多段
+        List<String> contents = new ArrayList<>();
+        SseDeltaDecoder decoder = new SseDeltaDecoder(JSON, 16);
+        decoder.decode(trickle(stream, 3), delta -> {
+            if (delta.getContent() != null) {
+                contents.add(delta.getContent());
+            }
+            return true;
+        });
+
+        assertEquals(List.of("你好", "，世界"), contents);
+        assertEquals(3, decoder.getEventCount());
+        assertTrue(decoder.isDoneReceived());
+        assertTrue(decoder.isCompleted());
+        assertEquals(0, decoder.getMalformedCount());
+    }
+
+    @Test
+    void multiByteCharacterSplitAtChunkBoundary() throws Exception {
+        byte[] bytes = chunk("深度思考").getBytes(StandardCharsets.UTF_8);
+        // 在"深"（3字节）的第一个字节之后切开，第一次读取以半个字符结尾
+        int split = "data: {\"choices\":[{\"delta\":{\"content\":\"".getBytes(StandardCharsets.UTF_8).length + 1;
+        InputStream in = new SplitInputStream(bytes, split);
+
+        List<String> contents = new ArrayList<>();
+        new SseDeltaDecoder(JSON, 64).decode(in, delta -> {
+            contents.add(delta.getContent());
+            return true;
+        });
+
+        assertEquals(List.of("深度思考"), contents);
+    }
+
+    @Test
+    void skipsBlankCommentAndMalformedLinesAndStopsAtDone() throws Exception {
+        String stream = ": keep-alive\n"
+            + "\n"
+            + "event: message\n"
+            + "data: {not json}\n"
+            + "\r\n"
+            + "data:{\"choices\":[{\"delta\":{\"content\":\"A\"}}]}\r\n"
+            + "data:   [DONE]  \r\n"
+            + chunk("不应读取");
+
+        List<String> contents = new ArrayList<>();
+        SseDeltaDecoder decoder = new SseDeltaDecoder(JSON);
+        decoder.decode(new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)), delta -> {
+            contents.add(delta.getContent());
+            return true;
+        });
+
+        assertEquals(List.of("A"), contents);
+        assertEquals(1, decoder.getMalformedCount());
+        assertTrue(decoder.isDoneReceived());
+    }
+
+    @Test
+    void truncatedStreamIsNotCompleted() throws Exception {
+        String stream = chunk("写到一半");
+        SseDeltaDecoder decoder = new SseDeltaDecoder(JSON);
+        decoder.decode(new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)), delta -> true);
+
+        assertEquals(1, decoder.getEventCount());
+        assertFalse(decoder.isDoneReceived());
+        assertFalse(decoder.isCompleted());
+    }
+
+    @Test
+    void lastLineWithoutNewlineIsDecoded() throws Exception {
+        String stream = "data: {\"choices\":[{\"delta\":{\"content\":\"末尾\"},\"finish_reason\":\"stop\"}]}";
+        List<String> contents = new ArrayList<>();
+        SseDeltaDecoder decoder = new SseDeltaDecoder(JSON);
+        decoder.decode(new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)), delta -> {
+            contents.add(delta.getContent());
+            return true;
+        });
+
+        assertEquals(List.of("末尾"), contents);
+        assertTrue(decoder.isCompleted());
+    }
+
+    @Test
+    void extractsUsageFinishReasonAndError() throws Exception {
+        SseDeltaDecoder decoder = new SseDeltaDecoder(JSON);
+        byte[] usage = ("{\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"length\"},{\"delta\":{\"content\":\"第二个\"}}],"
+            + "\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":34,\"total_tokens\":46}}").getBytes(StandardCharsets.UTF_8);
+
+        SseDeltaDecoder.Delta delta = decoder.decodeData(usage, 0, usage.length);
+
+        assertNull(delta.getContent());
+        assertEquals("length", delta.getFinishReason());
+        assertTrue(delta.hasUsage());
+        assertEquals(12, delta.getPromptTokens());
+        assertEquals(34, delta.getCompletionTokens());
+        assertEquals(46, delta.getTotalTokens());
+
+        byte[] error = "{\"error\":{\"code\":\"429\",\"message\":\"请求过于频繁\"}}".getBytes(StandardCharsets.UTF_8);
+        delta = decoder.decodeData(error, 0, error.length);
+        assertEquals("请求过于频繁", delta.getErrorMessage());
+        assertFalse(delta.hasUsage());
+        assertNull(delta.getFinishReason());
+    }
+
+    @Test
+    void handlerCanStopDecoding() throws Exception {
+        String stream = chunk("一") + chunk("二") + chunk("三");
+        List<String> contents = new ArrayList<>();
+        new SseDeltaDecoder(JSON).decode(new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)), delta -> {
+            contents.add(delta.getContent());
+            return contents.size() < 2;
+        });
+
+        assertEquals(List.of("一", "二"), contents);
+    }
+
+    private static String chunk(String content) {
+        return "data: {\"choices\":[{\"delta\":{\"content\":\"" + content + "\"},\"finish_reason\":null}]}\n\n";
+    }
+
+    private static String finish(String reason) {
+        return "data: {\"choices\":[{\"delta\":{},\"finish_reason\":\"" + reason + "\"}]}\n\n";
+    }
+
+    private static InputStream trickle(String text, int bytesPerRead) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, bytesPerRead));
+            }
+        };
+    }
+
+    /**
+     * 第一次读取只返回split之前的字节，之后返回剩余部分
+     */
+    private static final class SplitInputStream extends ByteArrayInputStream {
+        private final int split;
+
+        SplitInputStream(byte[] bytes, int split) {
+            super(bytes);
+            this.split = split;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            int limit = pos < split ? split - pos : len;
+            return super.read(b, off, Math.min(len, limit));
+        }
+    }
+}